@@ -0,0 +1,188 @@
+/*
+ *  $Id:$
+ *
+ *  This file is part of the OpenLink Software Virtuoso Open-Source (VOS)
+ *  project.
+ *
+ *  Copyright (C) 1998-2020 OpenLink Software
+ *
+ *  This project is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation; only version 2 of the License, dated June 1991.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+
+import junit.framework.TestCase;
+
+import virtuoso.jena.driver.VirtResultsWriter;
+import virtuoso.sql.ExtendedString;
+import virtuoso.sql.RdfBox;
+
+/**
+ * Checks the output of VirtResultsWriter on result sets made up in the
+ * client; needs no database.
+ */
+public class VirtResultsWriterTest extends TestCase {
+
+    static final String XSD = "http://www.w3.org/2001/XMLSchema#";
+
+    public VirtResultsWriterTest(String name) {
+        super(name);
+    }
+
+    public void testJsonEscapes() throws Exception {
+        String out = write(VirtResultsWriter.JSON, new String[] { "o" },
+                           new Object[][] { { "q\"b\\s\nn\r\t\b\f\u0001" } });
+        assertTrue(out, out.contains("\"o\": { \"type\": \"literal\", \"value\": "
+                   + "\"q\\\"b\\\\s\\nn\\r\\t\\b\\f\\u0001\" }"));
+    }
+
+    public void testJsonEmpty() throws Exception {
+        String out = write(VirtResultsWriter.JSON, new String[] { "s", "o" }, new Object[0][]);
+        assertEquals("{ \"head\": { \"vars\": [ \"s\", \"o\" ] },\n"
+                     + "  \"results\": { \"bindings\": [\n  ] }\n}\n", out);
+    }
+
+    public void testJsonTerms() throws Exception {
+        String out = write(VirtResultsWriter.JSON, new String[] { "s", "o", "x" },
+                           new Object[][] {
+                               { iri("http://ex/s"), box("chat", "fr", null), null },
+                               { iri("_:b1"), Long.valueOf(5), box("1", null, XSD + "boolean") } });
+        assertEquals("{ \"head\": { \"vars\": [ \"s\", \"o\", \"x\" ] },\n"
+                     + "  \"results\": { \"bindings\": [\n"
+                     + "    { \"s\": { \"type\": \"uri\", \"value\": \"http://ex/s\" },"
+                     + " \"o\": { \"type\": \"literal\", \"value\": \"chat\", \"xml:lang\": \"fr\" } },\n"
+                     + "    { \"s\": { \"type\": \"bnode\", \"value\": \"b1\" },"
+                     + " \"o\": { \"type\": \"literal\", \"value\": \"5\", \"datatype\": \"" + XSD + "long\" },"
+                     + " \"x\": { \"type\": \"literal\", \"value\": \"true\", \"datatype\": \"" + XSD + "boolean\" } }\n"
+                     + "  ] }\n}\n", out);
+    }
+
+    public void testJsonUnboundFirst() throws Exception {
+        String out = write(VirtResultsWriter.JSON, new String[] { "s", "o" },
+                           new Object[][] { { null, box("0", null, XSD + "boolean") } });
+        assertTrue(out, out.contains("    { \"o\": { \"type\": \"literal\", \"value\": \"false\""));
+    }
+
+    public void testXmlEscapes() throws Exception {
+        String out = write(VirtResultsWriter.XML, new String[] { "s", "o" },
+                           new Object[][] { { iri("http://ex/?a=1&b=<2>"), box("\"x\"\r\n", null, XSD + "string") },
+                                            { null, null } });
+        assertTrue(out, out.contains("<variable name=\"s\"/>"));
+        assertTrue(out, out.contains("<binding name=\"s\"><uri>http://ex/?a=1&amp;b=&lt;2&gt;</uri></binding>"));
+        assertTrue(out, out.contains("<binding name=\"o\"><literal>&quot;x&quot;&#xD;\n</literal></binding>"));
+        assertTrue(out, out.contains("    <result>\n    </result>\n"));
+    }
+
+    public void testCsvEscapes() throws Exception {
+        String out = write(VirtResultsWriter.CSV, new String[] { "a", "b", "c" },
+                           new Object[][] { { "plain", "x,y", "say \"hi\"" },
+                                            { null, iri("_:b2"), "l1\nl2" } });
+        assertEquals("a,b,c\r\n"
+                     + "plain,\"x,y\",\"say \"\"hi\"\"\"\r\n"
+                     + ",_:b2,\"l1\nl2\"\r\n", out);
+    }
+
+    public void testTsvEscapes() throws Exception {
+        String out = write(VirtResultsWriter.TSV, new String[] { "a", "b", "c" },
+                           new Object[][] { { "t\tq\"b\\n\n", box("1", null, XSD + "boolean"), null },
+                                            { iri("http://ex/s"), box("hallo", "de", null), Integer.valueOf(7) } });
+        assertEquals("?a\t?b\t?c\n"
+                     + "\"t\\tq\\\"b\\\\n\\n\"\t\"true\"^^<" + XSD + "boolean>\t\n"
+                     + "<http://ex/s>\t\"hallo\"@de\t\"7\"^^<" + XSD + "integer>\n", out);
+    }
+
+
+    static String write(int format, String[] vars, Object[][] rows) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long n = new VirtResultsWriter(format).write(resultSet(vars, rows), out);
+        assertEquals(rows.length, n);
+        return out.toString("UTF-8");
+    }
+
+    /**
+     * A forward only result set over rows, with the given column labels
+     */
+    static ResultSet resultSet(final String[] vars, final Object[][] rows) {
+        final ResultSetMetaData md = (ResultSetMetaData) Proxy.newProxyInstance(
+            ResultSetMetaData.class.getClassLoader(), new Class<?>[] { ResultSetMetaData.class },
+            new InvocationHandler() {
+                public Object invoke(Object p, Method m, Object[] a) {
+                    if (m.getName().equals("getColumnCount"))
+                        return vars.length;
+                    if (m.getName().equals("getColumnLabel") || m.getName().equals("getColumnName"))
+                        return vars[(Integer) a[0] - 1];
+                    throw new UnsupportedOperationException(m.getName());
+                }
+            });
+        return (ResultSet) Proxy.newProxyInstance(
+            ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+            new InvocationHandler() {
+                int row = -1;
+
+                public Object invoke(Object p, Method m, Object[] a) {
+                    if (m.getName().equals("getMetaData"))
+                        return md;
+                    if (m.getName().equals("next"))
+                        return ++row < rows.length;
+                    if (m.getName().equals("getObject"))
+                        return rows[row][(Integer) a[0] - 1];
+                    throw new UnsupportedOperationException(m.getName());
+                }
+            });
+    }
+
+    static ExtendedString iri(final String s) {
+        return new ExtendedString() {
+            public int getStrType() {
+                return 1;
+            }
+
+            public int getIriType() {
+                return ExtendedString.IRI;
+            }
+
+            public String toString() {
+                return s;
+            }
+        };
+    }
+
+    static RdfBox box(final String s, final String lang, final String type) {
+        return new RdfBox() {
+            public short getLangKey(String l) {
+                return 0;
+            }
+
+            public short getTypeKey(String t) {
+                return 0;
+            }
+
+            public String getType() {
+                return type;
+            }
+
+            public String getLang() {
+                return lang;
+            }
+
+            public String toString() {
+                return s;
+            }
+        };
+    }
+}
@@ -2,7 +2,10 @@ import java.net.*;
 import java.io.*;
 
 import virtuoso.jena.driver.VirtGraph;
+import virtuoso.jena.driver.VirtuosoUpdateFactory;
 import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.graph.test.AbstractTestGraph;
 
 import org.apache.jena.rdf.model.Model ;
@@ -110,6 +113,21 @@ public class VirtuosoTestGraph extends AbstractTestGraph {
     //skip
     }
 
+    public void testSizeCachedAfterUpdate() {
+        VirtGraph g = (VirtGraph) getGraph();
+        g.setSizeMode(VirtGraph.SIZE_CACHED);
+        try {
+            g.add(Triple.create(NodeFactory.createURI("urn:s"), NodeFactory.createURI("urn:p"),
+                    NodeFactory.createURI("urn:o1")));
+            assertEquals(1, g.size());
+            VirtuosoUpdateFactory.create("INSERT DATA { GRAPH <http://example.org/testing> "
+                    + "{ <urn:s> <urn:p> <urn:o2> } }", g).exec();
+            assertEquals("size() after a SPARQL update", 2, g.size());
+        } finally {
+            g.setSizeMode(VirtGraph.SIZE_EXACT);
+        }
+    }
+
     @Override
     public void testIsomorphismFile() {
 	//skip
@@ -30,6 +30,15 @@ export TSUITE_CLASSPATH=".:../lib/junit-4.5.jar:../lib/jena-arq-3.0.0.jar:../lib
 #  Database should be running at this point
 #
 STATUS=0
+$JAVA -classpath "$TSUITE_CLASSPATH" junit.textui.TestRunner VirtResultsWriterTest
+if test $? -ne 0
+then
+    echo "***FAILED: VirtResultsWriterTest with Jena provider failed some tests"
+    exit 1
+else
+    echo "PASSED: VirtResultsWriterTest with Jena provider"
+fi
+
 $JAVA -classpath "$TSUITE_CLASSPATH" -Durl="jdbc:virtuoso://localhost:$PORT" junit.textui.TestRunner VirtuosoTestGraph
 STATUS=$?
 
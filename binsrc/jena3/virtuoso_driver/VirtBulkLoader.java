@@ -0,0 +1,422 @@
+/*
+ *  $Id:$
+ *
+ *  This file is part of the OpenLink Software Virtuoso Open-Source (VOS)
+ *  project.
+ *
+ *  Copyright (C) 1998-2020 OpenLink Software
+ *
+ *  This project is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation; only version 2 of the License, dated June 1991.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package virtuoso.jena.driver;
+
+import java.io.InputStream;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jena.graph.*;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.shared.*;
+import org.apache.jena.sparql.core.Quad;
+
+
+/**
+ * Loads large amounts of triples into a VirtGraph over several
+ * connections at once.
+ * <p>
+ * The calling thread reads (or parses) the triples and cuts them into
+ * batches, which are handed through bounded queues to one worker per
+ * connection; the workers bind the parameters and run executeBatch in
+ * parallel.  At most threads * (queueSize + 1) + 1 batches are held in
+ * memory, so the caller is slowed down to the pace of the server rather
+ * than buffering the whole input.
+ * <p>
+ * The triples with blank nodes all go to the first connection, which
+ * keeps the labels to blank node mapping of the server consistent.
+ * The connections run in autocommit mode, so a failed load leaves the
+ * batches already inserted in the graph.
+ * <pre>
+ *   VirtBulkLoader loader = new VirtBulkLoader(graph, 8);
+ *   loader.setProgressListener(listener, 1000000);
+ *   loader.load(in, null, Lang.NTRIPLES);
+ * </pre>
+ */
+public class VirtBulkLoader {
+
+    /**
+     * Receives the progress of a load
+     */
+    public interface ProgressListener {
+        void progress(VirtBulkLoader loader, long triples, long elapsedMillis);
+    }
+
+    static final Batch END = new Batch(0);
+
+    private final VirtGraph graph;
+    private int threads;
+    private int batchSize;
+    private int queueSize = 2;
+    private ProgressListener listener = null;
+    private long progressStep = 100000;
+
+    private final AtomicLong loaded = new AtomicLong();
+    private long nextProgress;
+    private long startTime;
+    private long endTime;
+
+    private volatile Throwable failure;
+    private List<Worker> workers;
+    private Batch cur;
+    private int next = 0;
+
+
+    public VirtBulkLoader(VirtGraph graph) {
+        this(graph, Runtime.getRuntime().availableProcessors());
+    }
+
+    public VirtBulkLoader(VirtGraph graph, int threads) {
+        this.graph = graph;
+        this.threads = Math.max(1, threads);
+        this.batchSize = graph.getBatchSize();
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int sz) {
+        this.batchSize = Math.max(1, sz);
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Sets the number of batches waiting for each connection
+     */
+    public void setQueueSize(int sz) {
+        this.queueSize = Math.max(1, sz);
+    }
+
+    /**
+     * Sets the listener called each time about step more triples are
+     * inserted, and at the end of the load.
+     */
+    public void setProgressListener(ProgressListener listener, long step) {
+        this.listener = listener;
+        this.progressStep = Math.max(1, step);
+    }
+
+    /**
+     * Returns the number of triples inserted by the last (or current) load
+     */
+    public long getLoaded() {
+        return loaded.get();
+    }
+
+    public long getElapsedMillis() {
+        if (startTime == 0)
+            return 0;
+        return ((endTime != 0 ? endTime : System.nanoTime()) - startTime) / 1000000L;
+    }
+
+    /**
+     * Returns the triples inserted per second by the last (or current) load
+     */
+    public double getThroughput() {
+        long ms = getElapsedMillis();
+        return ms > 0 ? loaded.get() * 1000.0 / ms : 0.0;
+    }
+
+
+    public long load(Iterator<Triple> it) {
+        return load(null, it);
+    }
+
+    /**
+     * Loads the triples into the graph _gName, or into the graph of the
+     * VirtGraph if it is null, and returns the number of triples loaded.
+     */
+    public long load(String _gName, Iterator<Triple> it) {
+        String g = (_gName != null ? _gName : graph.getGraphName());
+        start();
+        try {
+            while (it.hasNext())
+                add(g, it.next());
+        } catch (RuntimeException e) {
+            abort(e);
+        }
+        return finish();
+    }
+
+    public long loadStatements(Iterator<Statement> it) {
+        String g = graph.getGraphName();
+        start();
+        try {
+            while (it.hasNext())
+                add(g, it.next().asTriple());
+        } catch (RuntimeException e) {
+            abort(e);
+        }
+        return finish();
+    }
+
+    /**
+     * Parses the stream on the calling thread and loads the triples, or
+     * the quads into their own graphs.
+     */
+    public long load(InputStream in, String base, Lang lang) {
+        final String g = graph.getGraphName();
+        start();
+        try {
+            RDFDataMgr.parse(new StreamRDFBase() {
+                @Override
+                public void triple(Triple t) {
+                    add(g, t);
+                }
+
+                @Override
+                public void quad(Quad q) {
+                    add(q.isDefaultGraph() ? g : q.getGraph().getURI(), q.asTriple());
+                }
+            }, in, base, lang);
+        } catch (RuntimeException e) {
+            abort(e);
+        }
+        return finish();
+    }
+
+
+    private synchronized void start() {
+        if (workers != null)
+            throw new JenaException("A load is already running");
+
+        loaded.set(0);
+        nextProgress = progressStep;
+        failure = null;
+        startTime = System.nanoTime();
+        endTime = 0;
+        next = 0;
+        cur = new Batch(batchSize);
+        workers = new ArrayList<Worker>(threads);
+        try {
+            for (int i = 0; i < threads; i++) {
+                Worker w = new Worker(i, graph.openConnection());
+                workers.add(w);
+                w.start();
+            }
+        } catch (Exception e) {
+            abort(e);
+            finish();
+        }
+    }
+
+    private void add(String g, Triple t) {
+        cur.add(g, t);
+        if (cur.size() >= batchSize) {
+            dispatch(cur);
+            cur = new Batch(batchSize);
+        }
+    }
+
+    /**
+     * Hands a batch to the worker with the most room left; the batches
+     * with blank nodes always go to the first worker.
+     */
+    private void dispatch(Batch b) {
+        if (failure != null)
+            throw new JenaException(failure);
+
+        Worker w = workers.get(0);
+        if (!b.blank) {
+            int best = -1;
+            for (int i = 0; i < workers.size(); i++) {
+                int j = (next + i) % workers.size();
+                int room = workers.get(j).queue.remainingCapacity();
+                if (best < 0 || room > workers.get(best).queue.remainingCapacity())
+                    best = j;
+            }
+            next = (best + 1) % workers.size();
+            w = workers.get(best);
+        }
+        try {
+            w.queue.put(b);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JenaException(e);
+        }
+    }
+
+    private synchronized void abort(Throwable e) {
+        if (failure == null)
+            failure = e;
+    }
+
+    private long finish() {
+        List<Worker> w = workers;
+        try {
+            if (failure == null && cur != null && cur.size() > 0)
+                dispatch(cur);
+        } catch (RuntimeException e) {
+            abort(e);
+        }
+        cur = null;
+
+        for (Worker i : w) {
+            try {
+                i.queue.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                abort(e);
+            }
+        }
+        for (Worker i : w) {
+            try {
+                i.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                abort(e);
+            }
+        }
+        endTime = System.nanoTime();
+        synchronized (this) {
+            workers = null;
+        }
+        graph.invalidateCaches();
+        if (listener != null)
+            listener.progress(this, loaded.get(), getElapsedMillis());
+
+        Throwable e = failure;
+        if (e instanceof JenaException)
+            throw (JenaException) e;
+        if (e != null)
+            throw new JenaException(e);
+        return loaded.get();
+    }
+
+    private void inserted(int n) {
+        long total = loaded.addAndGet(n);
+        if (listener == null)
+            return;
+        synchronized (this) {
+            if (total < nextProgress)
+                return;
+            nextProgress = (total / progressStep + 1) * progressStep;
+        }
+        listener.progress(this, total, getElapsedMillis());
+    }
+
+
+    static final class Batch {
+        final ArrayList<Triple> triples;
+        final ArrayList<String> graphs;
+        boolean blank = false;
+
+        Batch(int sz) {
+            triples = new ArrayList<Triple>(sz);
+            graphs = new ArrayList<String>(sz);
+        }
+
+        void add(String g, Triple t) {
+            triples.add(t);
+            graphs.add(g);
+            if (t.getSubject().isBlank() || t.getObject().isBlank())
+                blank = true;
+        }
+
+        int size() {
+            return triples.size();
+        }
+    }
+
+    final class Worker extends Thread {
+        final BlockingQueue<Batch> queue;
+        final Connection conn;
+
+        Worker(int id, Connection conn) {
+            super("VirtBulkLoader-" + id);
+            setDaemon(true);
+            this.queue = new ArrayBlockingQueue<Batch>(queueSize);
+            this.conn = conn;
+        }
+
+        public void run() {
+            PreparedStatement ps = null;
+            try {
+                if (!graph.getInsertBNodeAsVirtuosoIRI()) {
+                    java.sql.Statement st = conn.createStatement();
+                    st.executeUpdate("connection_set ('RDF_INSERT_TRIPLE_C_BNODES', dict_new(1000))");
+                    st.close();
+                }
+                ps = conn.prepareStatement(VirtGraph.S_BATCH_INSERT);
+            } catch (Exception e) {
+                abort(e);
+            }
+
+            for (;;) {
+                Batch b;
+                try {
+                    b = queue.take();
+                } catch (InterruptedException e) {
+                    abort(e);
+                    continue;
+                }
+                if (b == END)
+                    break;
+                // after a failure the queue is only drained, so the
+                // reading thread is never left blocked
+                if (failure != null)
+                    continue;
+                try {
+                    for (int i = 0; i < b.triples.size(); i++) {
+                        Triple t = b.triples.get(i);
+                        graph.bindBatchParams(ps, t.getSubject(), t.getPredicate(), t.getObject(), b.graphs.get(i));
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                    ps.clearBatch();
+                    inserted(b.size());
+                } catch (Exception e) {
+                    abort(e);
+                }
+            }
+
+            try {
+                if (ps != null)
+                    ps.close();
+            } catch (Exception e) {
+            }
+            try {
+                conn.close();
+            } catch (Exception e) {
+            }
+        }
+    }
+}
@@ -650,14 +650,11 @@ public class VirtDataset extends VirtGraph implements Dataset {
             p = (p!=null? p: Node.ANY);
             o = (o!=null? o: Node.ANY);
 
-            List<Node> graphs;
-            if (isWildcard(g)) {
-                graphs = getListGraphNodes();
-            } else {
-                graphs = new LinkedList<>();
-                graphs.add(g);
-            }
+            if (isWildcard(g))
+                return vd.graphBaseFindQuads(new Triple(s, p, o));
 
+            List<Node> graphs = new LinkedList<>();
+            graphs.add(g);
             return new VirtResSetQIter(vd, graphs.iterator(), new Triple(s, p, o));
         }
 
@@ -705,7 +702,7 @@ public class VirtDataset extends VirtGraph implements Dataset {
          * Test whether the dataset is empty
          */
         public boolean isEmpty() {
-            return contains(Node.ANY, Node.ANY, Node.ANY, Node.ANY);
+            return !contains(Node.ANY, Node.ANY, Node.ANY, Node.ANY);
         }
 
         boolean isWildcard(Node g) {
@@ -25,6 +25,7 @@ package virtuoso.jena.driver;
 
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import javax.sql.*;
@@ -40,8 +41,10 @@ import org.apache.jena.graph.impl.*;
 import org.apache.jena.shared.*;
 import org.apache.jena.util.iterator.*;
 import org.apache.jena.datatypes.*;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
 import org.apache.jena.rdf.model.*;
 import org.apache.jena.rdf.model.impl.*;
+import org.apache.jena.sparql.core.Quad;
 
 
 public class VirtGraph extends GraphBase {
@@ -53,6 +56,10 @@ public class VirtGraph extends GraphBase {
     public static final int CONCUR_PESSIMISTIC = 1;
     public static final int CONCUR_OPTIMISTIC = 2;
 
+    public static final int SIZE_EXACT = 0;
+    public static final int SIZE_CACHED = 1;
+    public static final int SIZE_APPROXIMATE = 2;
+
 
     static final String xsd_string = "http://www.w3.org/2001/XMLSchema#string";
     static final protected String S_BATCH_INSERT = "DB.DBA.rdf_insert_triple_c (?,?,?,?,?,?)";
@@ -64,6 +71,8 @@ public class VirtGraph extends GraphBase {
 //    static final String sinsert = "sparql insert into graph iri(??) { `iri(??)` `iri(??)` `bif:__rdf_long_from_batch_params(??,??,??)` }";
     static final String sdelete = "sparql delete from graph iri(??) {`iri(??)` `iri(??)` `bif:__rdf_long_from_batch_params(??,??,??)`}";
     static final protected int BATCH_SIZE = 5000;
+    static final protected int CONTAINS_BATCH_SIZE = 1000;
+    static final protected int DEFAULT_NODE_CACHE_SIZE = 4096;
     static final protected int MAX_CMD_SIZE = 36000;
     static final String utf8 = "charset=utf-8";
     static final String charset = "UTF-8";
@@ -78,6 +87,8 @@ public class VirtGraph extends GraphBase {
     protected boolean roundrobin = false;
     protected int prefetchSize = 100;
     protected int batchSize = BATCH_SIZE;
+    protected int readThreads = 0;
+    protected int statementCacheSize = 32;
     protected Connection connection = null;
     protected VirtDataset parent_dataset = null;
     protected String ruleSet = null;
@@ -94,10 +105,30 @@ public class VirtGraph extends GraphBase {
 
     private VirtuosoConnectionPoolDataSource pds = new VirtuosoConnectionPoolDataSource();
     private DataSource ds;
+    private ConnectionPoolDataSource cp_ds;
     private XADataSource xa_ds;
     private javax.transaction.xa.XAResource xa_resource = null;
     private XAConnection xa_connection = null;
     protected VirtTransactionHandler tranHandler = null;
+    protected VirtPatternCache patternCache = null;
+    protected VirtNodeCache nodeCache = new VirtNodeCache(DEFAULT_NODE_CACHE_SIZE);
+    protected int sizeMode = SIZE_EXACT;
+    private volatile long cachedSize = -1;
+    private final AtomicLong writeCount = new AtomicLong();
+
+    // idle prepared queries, by text
+    private final LinkedHashMap<String, PreparedStatement> idleStatements =
+        new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= statementCacheSize)
+                    return false;
+                try {
+                    eldest.getValue().close();
+                } catch (Exception e) {
+                }
+                return true;
+            }
+        };
     private final Object lck_add = new Object();
 
     private boolean isBNodesDictCreated = false;
@@ -120,6 +151,8 @@ public class VirtGraph extends GraphBase {
         setMacroLib(ds.getMacroLib());
         setRuleSet(ds.getRuleSet());
         setFetchSize(ds.getFetchSize());
+        this.patternCache = ds.patternCache;
+        this.nodeCache = ds.nodeCache;
 
         try {
             virtuoso.jdbc4.Driver drv = new virtuoso.jdbc4.Driver();
@@ -194,6 +227,7 @@ public class VirtGraph extends GraphBase {
 
         try {
             connection = _ds.getPooledConnection().getConnection();
+            cp_ds = _ds;
 
             ModelCom m = new ModelCom(this); //don't drop is it needed for initialize internal Jena classes
 
@@ -213,6 +247,36 @@ public class VirtGraph extends GraphBase {
     }
 
 
+    /**
+     * Creates a graph with the settings of g that works on its own
+     * connection, e.g. to run queries in parallel with g.
+     */
+    protected VirtGraph(VirtGraph g, Connection _connection) {
+        super();
+        this.graphName = g.graphName;
+        this.readFromAllGraphs = g.readFromAllGraphs;
+        this.url_hostlist = g.url_hostlist;
+        this.user = g.user;
+        this.password = g.password;
+        this.roundrobin = g.roundrobin;
+        this.prefetchSize = g.prefetchSize;
+        this.batchSize = g.batchSize;
+        this.statementCacheSize = g.statementCacheSize;
+        this.ruleSet = g.ruleSet;
+        this.macroLib = g.macroLib;
+        this.useSameAs = g.useSameAs;
+        this.queryTimeout = g.queryTimeout;
+        this.useReprepare = g.useReprepare;
+        this.sparqlPrefix = g.sparqlPrefix;
+        this.insertBNodeAsVirtuosoIRI = g.insertBNodeAsVirtuosoIRI;
+        this.insertStringLiteralAsSimple = g.insertStringLiteralAsSimple;
+        this.nodeCache = g.nodeCache;
+        this.ds = g.ds;
+        this.cp_ds = g.cp_ds;
+        this.connection = _connection;
+    }
+
+
     public VirtGraph(String _graphName, XADataSource _ds) {
         super();
 
@@ -260,28 +324,8 @@ public class VirtGraph extends GraphBase {
 
         try {
             if (url_hostlist.startsWith("jdbc:virtuoso://")) {
-
-                String url = url_hostlist;
-                if (url.toLowerCase().indexOf(utf8) == -1) {
-                    if (url.charAt(url.length() - 1) != '/')
-                        url = url + "/charset=UTF-8";
-                    else
-                        url = url + "charset=UTF-8";
-                }
-                if (roundrobin && url.toLowerCase().indexOf("roundrobin=") == -1) {
-                    if (url.charAt(url.length() - 1) != '/')
-                        url = url + "/roundrobin=1";
-                    else
-                        url = url + "roundrobin=1";
-                }
-                if (url.toLowerCase().indexOf("log_enable=") == -1) {
-                    if (url.charAt(url.length() - 1) != '/')
-                        url = url + "/log_enable=1";
-                    else
-                        url = url + "log_enable=1";
-                }
                 Class.forName("virtuoso.jdbc4.Driver");
-                connection = DriverManager.getConnection(url, user, password);
+                connection = DriverManager.getConnection(getJdbcUrl(), user, password);
             } else {
                 pds.setServerName(url_hostlist);
                 pds.setUser(user);
@@ -344,6 +388,80 @@ public class VirtGraph extends GraphBase {
         return this.connection;
     }
 
+    /**
+     * Opens a new connection to the server of the graph, from its
+     * DataSource or its URL.  Closing the connection gives it back to the
+     * pool of the graph, or closes its physical connection when the pool
+     * does not keep it.
+     */
+    protected Connection openConnection() throws SQLException {
+        if (ds != null)
+            return ds.getConnection();
+        if (cp_ds instanceof VirtuosoConnectionPoolDataSource)
+            // the pool listens to its connections and takes them back
+            return ((VirtuosoConnectionPoolDataSource) cp_ds).getConnection();
+        if (cp_ds != null) {
+            final PooledConnection pconn = cp_ds.getPooledConnection();
+            pconn.addConnectionEventListener(new ConnectionEventListener() {
+                public void connectionClosed(ConnectionEvent event) {
+                    closePooledConnection(pconn);
+                }
+
+                public void connectionErrorOccurred(ConnectionEvent event) {
+                    closePooledConnection(pconn);
+                }
+            });
+            return pconn.getConnection();
+        }
+        if (url_hostlist == null || isXA)
+            throw new JenaException("A new connection could not be opened for this graph");
+        if (url_hostlist.startsWith("jdbc:virtuoso://"))
+            return DriverManager.getConnection(getJdbcUrl(), user, password);
+
+        // the connections come from the pool of the graph
+        synchronized (pds) {
+            if (ds == null) {
+                pds.setServerName(url_hostlist);
+                pds.setUser(user);
+                pds.setPassword(password);
+                pds.setCharset(charset);
+                pds.setRoundrobin(roundrobin);
+                ds = (javax.sql.DataSource) pds;
+            }
+        }
+        return pds.getConnection();
+    }
+
+    private static void closePooledConnection(PooledConnection pconn) {
+        try {
+            pconn.close();
+        } catch (SQLException e) {
+        }
+    }
+
+    private String getJdbcUrl() {
+        String url = url_hostlist;
+        if (url.toLowerCase().indexOf(utf8) == -1) {
+            if (url.charAt(url.length() - 1) != '/')
+                url = url + "/charset=UTF-8";
+            else
+                url = url + "charset=UTF-8";
+        }
+        if (roundrobin && url.toLowerCase().indexOf("roundrobin=") == -1) {
+            if (url.charAt(url.length() - 1) != '/')
+                url = url + "/roundrobin=1";
+            else
+                url = url + "roundrobin=1";
+        }
+        if (url.toLowerCase().indexOf("log_enable=") == -1) {
+            if (url.charAt(url.length() - 1) != '/')
+                url = url + "/log_enable=1";
+            else
+                url = url + "log_enable=1";
+        }
+        return url;
+    }
+
 
     public int getFetchSize() {
         return this.prefetchSize;
@@ -365,6 +483,24 @@ public class VirtGraph extends GraphBase {
     }
 
 
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    /**
+     * Sets the number of prepared queries kept open on the connection
+     * for reuse by VirtuosoQueryExecution; 0 closes them after each
+     * execution.
+     */
+    public void setStatementCacheSize(int sz) {
+        synchronized (idleStatements) {
+            statementCacheSize = Math.max(0, sz);
+            if (idleStatements.size() > statementCacheSize)
+                closeIdleStatements();
+        }
+    }
+
+
     public int getBatchSize() {
         return this.batchSize;
     }
@@ -375,6 +511,21 @@ public class VirtGraph extends GraphBase {
     }
 
 
+    public int getReadThreads() {
+        return this.readThreads;
+    }
+
+    /**
+     * Sets the number of connections used by VirtModel.read to load
+     * N-Triples and Turtle text with DB.DBA.TTLP_MT on the server; with
+     * 0, the default, the text is parsed by Jena and inserted triple by
+     * triple.
+     */
+    public void setReadThreads(int n) {
+        this.readThreads = n;
+    }
+
+
     public String getSparqlPrefix() {
         return this.sparqlPrefix;
     }
@@ -512,6 +663,7 @@ public class VirtGraph extends GraphBase {
 
     public void setReadFromAllGraphs(boolean val) {
         readFromAllGraphs = val;
+        cachedSize = -1;
     }
 
 
@@ -521,6 +673,7 @@ public class VirtGraph extends GraphBase {
 
     public void setRuleSet(String _ruleSet) {
         ruleSet = _ruleSet;
+        invalidateCaches();
     }
 
     public String getMacroLib() {
@@ -529,6 +682,7 @@ public class VirtGraph extends GraphBase {
 
     public void setMacroLib(String _macroLib) {
         macroLib = _macroLib;
+        invalidateCaches();
     }
 
     public boolean getSameAs() {
@@ -537,6 +691,94 @@ public class VirtGraph extends GraphBase {
 
     public void setSameAs(boolean _sameAs) {
         useSameAs = _sameAs;
+        invalidateCaches();
+    }
+
+
+    /**
+     * Enables the cache of the triples matching the patterns of find and
+     * contains, bounded to about maxBytes of triples; 0 disables it.
+     * The graphs of a VirtDataset share the cache the dataset had when
+     * they were created.
+     */
+    public void setPatternCacheSize(long maxBytes) {
+        if (maxBytes > 0)
+            patternCache = new VirtPatternCache(maxBytes);
+        else
+            patternCache = null;
+    }
+
+    public long getPatternCacheSize() {
+        return patternCache != null ? patternCache.getMaxBytes() : 0;
+    }
+
+    /**
+     * Returns the pattern cache with its hit statistics, or null if it is
+     * not enabled.
+     */
+    public VirtPatternCache getPatternCache() {
+        return patternCache;
+    }
+
+    /**
+     * Sets the number of IRI slots of the cache that interns the nodes read
+     * from the results; 0 disables it.  The graphs of a VirtDataset share
+     * the cache the dataset had when they were created.
+     */
+    public void setNodeCacheSize(int size) {
+        if (size > 0)
+            nodeCache = new VirtNodeCache(size);
+        else
+            nodeCache = null;
+    }
+
+    public int getNodeCacheSize() {
+        return nodeCache != null ? nodeCache.getSize() : 0;
+    }
+
+    /**
+     * Returns the node cache with its hit statistics, or null if it is not
+     * enabled.
+     */
+    public VirtNodeCache getNodeCache() {
+        return nodeCache;
+    }
+
+    /**
+     * Converts a value of a result set to a node through the node cache.
+     */
+    protected Node toNode(Object o) {
+        return Object2Node(o, nodeCache);
+    }
+
+    /**
+     * Sets how size() counts the triples:
+     * <pre>
+     *   SIZE_EXACT       - counts them on each call (the default)
+     *   SIZE_CACHED      - counts them once, and again only after a change
+     *                      made through the graph or a transaction boundary
+     *   SIZE_APPROXIMATE - takes the estimate of the RDF_QUAD index from the
+     *                      server statistics when reading from all graphs;
+     *                      same as SIZE_CACHED for a single graph
+     * </pre>
+     */
+    public void setSizeMode(int mode) {
+        if (mode != SIZE_EXACT && mode != SIZE_CACHED && mode != SIZE_APPROXIMATE)
+            throw new JenaException("Unsupported size mode: " + mode);
+        sizeMode = mode;
+        cachedSize = -1;
+    }
+
+    public int getSizeMode() {
+        return sizeMode;
+    }
+
+    protected void invalidateCaches() {
+        VirtPatternCache cache = patternCache;
+        if (cache != null)
+            cache.clear();
+        writeCount.incrementAndGet();
+        cachedSize = -1;
     }
 
 
@@ -631,6 +873,53 @@ public class VirtGraph extends GraphBase {
         return st;
     }
 
+    /**
+     * Returns an idle prepared statement of the query sql, or prepares
+     * it.  It is given back with releaseStatement once its results are
+     * read, so that the next execution does not compile it again.
+     */
+    protected java.sql.PreparedStatement prepareCachedStatement(String sql) throws SQLException {
+        java.sql.PreparedStatement st;
+        synchronized (idleStatements) {
+            st = idleStatements.remove(sql);
+        }
+        if (st != null) {
+            st.setQueryTimeout(queryTimeout > 0 ? queryTimeout : 0);
+            st.setFetchSize(prefetchSize);
+            return st;
+        }
+        return prepareStatement(sql, false);
+    }
+
+    protected void releaseStatement(String sql, java.sql.PreparedStatement st) {
+        try {
+            st.clearParameters();
+            synchronized (idleStatements) {
+                if (statementCacheSize > 0 && connection != null && !idleStatements.containsKey(sql)) {
+                    idleStatements.put(sql, st);
+                    return;
+                }
+            }
+        } catch (Exception e) {
+        }
+        try {
+            st.close();
+        } catch (Exception e) {
+        }
+    }
+
+    private void closeIdleStatements() {
+        synchronized (idleStatements) {
+            for (java.sql.PreparedStatement st : idleStatements.values()) {
+                try {
+                    st.close();
+                } catch (Exception e) {
+                }
+            }
+            idleStatements.clear();
+        }
+    }
+
 
     protected void appendSparqlPrefixes(StringBuilder sb, boolean isSelect) {
         if (ruleSet != null)
@@ -878,6 +1167,8 @@ public class VirtGraph extends GraphBase {
             }
         } catch (Exception e) {
             throw new AddDeniedException(e.toString());
+        } finally {
+            invalidateCaches();
         }
     }
 
@@ -902,6 +1193,8 @@ public class VirtGraph extends GraphBase {
             ps.close();
         } catch (Exception e) {
             throw new DeleteDeniedException(e.toString());
+        } finally {
+            invalidateCaches();
         }
     }
 
@@ -911,6 +1204,40 @@ public class VirtGraph extends GraphBase {
      */
     @Override
     protected int graphBaseSize() {
+        long n;
+
+        checkOpen();
+
+        if (sizeMode == SIZE_APPROXIMATE && readFromAllGraphs) {
+            n = estimateSize();
+        } else if (sizeMode != SIZE_EXACT) {
+            n = cachedSize;
+            if (n < 0) {
+                long gen = writeCount.get();
+                n = countTriples();
+                if (gen == writeCount.get())
+                    cachedSize = n;
+            }
+        } else {
+            n = countTriples();
+        }
+        return n > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) n;
+    }
+
+
+    /**
+     * Probes for one triple rather than counting them all
+     */
+    @Override
+    public boolean isEmpty() {
+        long n = cachedSize;
+        if (sizeMode != SIZE_EXACT && n >= 0 && !(sizeMode == SIZE_APPROXIMATE && readFromAllGraphs))
+            return n == 0;
+        return !graphBaseContains(null, Triple.ANY);
+    }
+
+
+    protected long countTriples() {
         StringBuilder sb = new StringBuilder("select count(*) from (sparql define input:storage \"\" ");
 
         appendSparqlPrefixes(sb, true);
@@ -921,7 +1248,7 @@ public class VirtGraph extends GraphBase {
             sb.append(" select * where { graph `iri(??)` { ?s ?p ?o }})f");
 
         ResultSet rs = null;
-        int ret = 0;
+        long ret = 0;
 
         checkOpen();
 
@@ -933,7 +1260,28 @@ public class VirtGraph extends GraphBase {
 
             rs = ps.executeQuery();
             if (rs.next())
-                ret = rs.getInt(1);
+                ret = rs.getLong(1);
+            rs.close();
+            ps.close();
+        } catch (Exception e) {
+            throw new JenaException(e);
+        }
+        return ret;
+    }
+
+
+    /**
+     * Returns the number of quads of the store estimated by the server
+     * from a sample of the RDF_QUAD index
+     */
+    protected long estimateSize() {
+        long ret = 0;
+
+        try {
+            java.sql.PreparedStatement ps = prepareStatement("select key_estimate ('DB.DBA.RDF_QUAD', 'RDF_QUAD')", false);
+            ResultSet rs = ps.executeQuery();
+            if (rs.next())
+                ret = rs.getLong(1);
             rs.close();
             ps.close();
         } catch (Exception e) {
@@ -958,6 +1306,16 @@ public class VirtGraph extends GraphBase {
         Node nS, nP, nO;
 
         checkOpen();
+
+        VirtPatternCache cache = patternCache;
+        String cName = (readFromAllGraphs && _gName == null) ? null : (_gName != null ? _gName : graphName);
+        long gen = 0;
+        if (cache != null) {
+            Boolean ret = cache.contains(cName, t);
+            if (ret != null)
+                return ret.booleanValue();
+            gen = cache.generation();
+        }
         appendSparqlPrefixes(sb, true);
 
         if (readFromAllGraphs && _gName == null)
@@ -1007,6 +1365,8 @@ public class VirtGraph extends GraphBase {
             boolean ret = rs.next();
             rs.close();
             ps.close();
+            if (cache != null)
+                cache.putContains(cName, t, ret, gen);
             return ret;
 
         } catch (Exception e) {
@@ -1015,6 +1375,99 @@ public class VirtGraph extends GraphBase {
     }
 
 
+    /**
+     * Checks which of the triples the graph contains.  Up to
+     * CONTAINS_BATCH_SIZE triples are checked by one query, with the triples
+     * in a VALUES block where Node.ANY is UNDEF; a triple with a blank node
+     * is checked by graphBaseContains(Triple).
+     *
+     * @return a BitSet with the bits set at the positions of the triples
+     *         that are found
+     */
+    public BitSet contains(List<Triple> triples) {
+        return graphBaseContains(null, triples);
+    }
+
+
+    protected BitSet graphBaseContains(String _gName, List<Triple> triples) {
+        checkOpen();
+
+        VirtPatternCache cache = patternCache;
+        String cName = (readFromAllGraphs && _gName == null) ? null : (_gName != null ? _gName : graphName);
+        long gen = cache != null ? cache.generation() : 0;
+
+        BitSet ret = new BitSet(triples.size());
+        StringBuilder rows = new StringBuilder();
+        int[] batch = new int[CONTAINS_BATCH_SIZE];
+        int count = 0;
+
+        for (int i = 0; i < triples.size(); i++) {
+            Triple t = triples.get(i);
+            Node nS = t.getSubject();
+            Node nP = t.getPredicate();
+            Node nO = t.getObject();
+
+            Boolean cached = cache != null ? cache.contains(cName, t) : null;
+            if (cached != null) {
+                if (cached.booleanValue())
+                    ret.set(i);
+            } else if (nS.isBlank() || nP.isBlank() || nO.isBlank()
+                       || nS.isVariable() || nP.isVariable() || nO.isVariable()) {
+                if (graphBaseContains(_gName, t))
+                    ret.set(i);
+            } else {
+                rows.append(" (").append(i).append(' ');
+                rows.append(Node.ANY.equals(nS) ? "UNDEF" : Node2Str(nS)).append(' ');
+                rows.append(Node.ANY.equals(nP) ? "UNDEF" : Node2Str(nP)).append(' ');
+                rows.append(Node.ANY.equals(nO) ? "UNDEF" : Node2Str(nO)).append(")\n");
+                batch[count++] = i;
+                if (count == CONTAINS_BATCH_SIZE) {
+                    graphBaseContains(_gName, rows, ret);
+                    if (cache != null)
+                        for (int j = 0; j < count; j++)
+                            cache.putContains(cName, triples.get(batch[j]), ret.get(batch[j]), gen);
+                    rows.setLength(0);
+                    count = 0;
+                }
+            }
+        }
+        if (count > 0) {
+            graphBaseContains(_gName, rows, ret);
+            if (cache != null)
+                for (int j = 0; j < count; j++)
+                    cache.putContains(cName, triples.get(batch[j]), ret.get(batch[j]), gen);
+        }
+        return ret;
+    }
+
+
+    private void graphBaseContains(String _gName, StringBuilder rows, BitSet ret) {
+        StringBuilder sb = new StringBuilder(rows.length() + 256);
+        sb.append("sparql define input:storage \"\" ");
+        appendSparqlPrefixes(sb, true);
+
+        if (readFromAllGraphs && _gName == null)
+            sb.append(" select distinct ?i where { ");
+        else
+            sb.append(" select distinct ?i from <" + (_gName != null ? _gName : graphName) + "> where { ");
+
+        sb.append("VALUES (?i ?s ?p ?o) {\n");
+        sb.append(rows);
+        sb.append(" } ?s ?p ?o }");
+
+        try {
+            java.sql.Statement st = createStatement(false);
+            ResultSet rs = st.executeQuery(sb.toString());
+            while (rs.next())
+                ret.set(rs.getInt(1));
+            rs.close();
+            st.close();
+        } catch (Exception e) {
+            throw new JenaException(e);
+        }
+    }
+
+
     @Override
     public ExtendedIterator<Triple> graphBaseFind(Triple tm) {
         return graphBaseFind(null, tm);
@@ -1027,6 +1480,16 @@ public class VirtGraph extends GraphBase {
 
         checkOpen();
 
+        VirtPatternCache cache = patternCache;
+        String cName = (readFromAllGraphs && _gName == null) ? null : (_gName != null ? _gName : graphName);
+        long gen = 0;
+        if (cache != null) {
+            List<Triple> triples = cache.find(cName, tm);
+            if (triples != null)
+                return cache.iterator(this, triples);
+            gen = cache.generation();
+        }
+
         appendSparqlPrefixes(sb, true);
 
 
@@ -1073,6 +1536,8 @@ public class VirtGraph extends GraphBase {
             if (nO != null)
                 bindObject(ps, col, nO);
 
+            if (cache != null)
+                return cache.filler(this, ps, ps.executeQuery(), cName, tm, gen);
             return new VirtResSetIter(this, ps, ps.executeQuery(), tm);
         } catch (Exception e) {
             throw new JenaException(e);
@@ -1080,10 +1545,78 @@ public class VirtGraph extends GraphBase {
     }
 
 
+    /**
+     * Finds the quads matching a triple pattern in all the graphs with a
+     * single query, rather than one query per graph.
+     */
+    protected Iterator<Quad> graphBaseFindQuads(Triple tm) {
+        StringBuilder sb = new StringBuilder("sparql ");
+        Node nS, nP, nO;
+
+        checkOpen();
+
+        appendSparqlPrefixes(sb, true);
+
+        nS = tm.getMatchSubject();
+        nP = tm.getMatchPredicate();
+        nO = tm.getMatchObject();
+
+        if (nP != null && nP.isBlank())
+            throw new JenaException("BNode could not be used as Predicate");
+
+        sb.append(" select ?g");
+        if (nS == null)
+            sb.append(" ?s");
+        if (nP == null)
+            sb.append(" ?p");
+        if (nO == null)
+            sb.append(" ?o");
+        sb.append(" where { graph ?g { ");
+
+        if (nS != null)
+            sb.append("`iri(??)`");
+        else
+            sb.append("?s");
+
+        sb.append(' ');
+        if (nP != null)
+            sb.append("`iri(??)`");
+        else
+            sb.append("?p");
+
+        sb.append(' ');
+        if (nO != null)
+            sb.append("`bif:__rdf_long_from_batch_params(??,??,??)`");
+        else
+            sb.append("?o");
+
+        sb.append(" }}");
+
+        try {
+            java.sql.PreparedStatement ps = prepareStatement(sb.toString(), false);
+            int col = 1;
+
+            if (nS != null)
+                bindSubject(ps, col++, nS);
+            if (nP != null)
+                bindPredicate(ps, col++, nP);
+            if (nO != null)
+                bindObject(ps, col, nO);
+
+            return new VirtResSetIter3(this, ps, ps.executeQuery(),
+                    new Quad(Node.ANY, nS != null ? nS : Node.ANY, nP != null ? nP : Node.ANY,
+                            nO != null ? nO : Node.ANY));
+        } catch (Exception e) {
+            throw new JenaException(e);
+        }
+    }
+
+
     @Override
     public void close() {
         try {
             super.close(); // will set closed = true
+            closeIdleStatements();
             if (connection != null) {
                if (parent_dataset!=null)
                    parent_dataset.removeLink(this);
@@ -1123,6 +1656,8 @@ public class VirtGraph extends GraphBase {
                 gArray.free();
             } catch (Exception e) {
                 throw new JenaException(e);
+            } finally {
+                invalidateCaches();
             }
     }
 
@@ -1141,11 +1676,31 @@ public class VirtGraph extends GraphBase {
             stmt.close();
         } catch (Exception e) {
             throw new JenaException(e);
+        } finally {
+            invalidateCaches();
         }
     }
 
 
 
+    /**
+     * Returns a loader of large amounts of triples into this graph, which
+     * inserts them on {@code threads} new connections in parallel.
+     */
+    public VirtBulkLoader getBulkLoader(int threads) {
+        return new VirtBulkLoader(this, threads);
+    }
+
+
+    /**
+     * Returns a fan-out that runs lists of queries over this graph on up to
+     * the given number of connections of its data source at once.
+     */
+    public VirtQueryFanOut getQueryFanOut(int concurrency) {
+        return new VirtQueryFanOut(this, concurrency);
+    }
+
+
     protected void createBNodesDict() {
         synchronized(lck_add) {
             try {
@@ -1221,6 +1776,7 @@ public class VirtGraph extends GraphBase {
             }
             psInsert = null;
             batch_add_executed = false;
+            invalidateCaches();
         }
     }
 
@@ -1246,6 +1802,7 @@ public class VirtGraph extends GraphBase {
             if (psCount > 0 && ps != null) {
                 ps.executeBatch();
                 ps.clearBatch();
+                invalidateCaches();
                 if (useReprepare) {
                     try {
                         ps.close();
@@ -1479,6 +2036,7 @@ public class VirtGraph extends GraphBase {
                   stmt.close();
             } catch (Exception e) {
             }
+            invalidateCaches();
         }
     }
 
@@ -1540,6 +2098,7 @@ public class VirtGraph extends GraphBase {
                     stmt.close();
             } catch (Exception e) {
             }
+            invalidateCaches();
         }
     }
 
@@ -1705,6 +2264,7 @@ public class VirtGraph extends GraphBase {
                 if (stmt!=null)
                     stmt.close();
             } catch (Exception e) {  }
+            invalidateCaches();
         }
     }
 
@@ -1893,6 +2453,8 @@ literal.
             }
         } catch (Exception e) {
             throw new DeleteDeniedException(e.toString());
+        } finally {
+            invalidateCaches();
         }
     }
 
@@ -1924,122 +2486,133 @@ literal.
 
 
     public static Node Object2Node(Object o) {
+        return Object2Node(o, null);
+    }
+
+    /**
+     * Converts a value of a result set to a node, taking the IRIs and the
+     * datatypes from cache when it is not null.
+     */
+    public static Node Object2Node(Object o, VirtNodeCache cache) {
         if (o == null)
             return null;
 
         if (o instanceof ExtendedString) {
             ExtendedString vs = (ExtendedString) o;
+            String s = vs.toString();
 
             if (vs.getIriType() == ExtendedString.IRI && (vs.getStrType() & 0x01) == 0x01) {
-                if (vs.toString().indexOf("_:") == 0)
-                    return NodeFactory.createBlankNode(AnonId.create(vs.toString().substring(2)).getBlankNodeId()); // _:
+                if (s.startsWith("_:"))
+                    return NodeFactory.createBlankNode(AnonId.create(s.substring(2)).getBlankNodeId()); // _:
+                else if (cache != null)
+                    return cache.uri(s);
                 else
-                    return NodeFactory.createURI(vs.toString());
+                    return NodeFactory.createURI(s);
 
             } else if (vs.getIriType() == ExtendedString.BNODE) {
 //          return NodeFactory.createAnon(AnonId.create(vs.toString().substring(9))); // nodeID://b1234
-                return NodeFactory.createBlankNode(AnonId.create(vs.toString()).getBlankNodeId()); // nodeID://
+                return NodeFactory.createBlankNode(AnonId.create(s).getBlankNodeId()); // nodeID://
 
             } else {
-                return NodeFactory.createLiteral(vs.toString());
+                return NodeFactory.createLiteral(s);
             }
 
         } else if (o instanceof RdfBox) {
 
             RdfBox rb = (RdfBox) o;
-            String rb_type = rb.getType();
             RDFDatatype dt = null;
             String rb_val = rb.toString();
 
-
-            if (rb_type != null) {
-                dt = TypeMapper.getInstance().getSafeTypeByName(rb_type);
-
-                if (rb_val.length()==1 && (rb_val.charAt(0)=='1' || rb_val.charAt(0)=='0')) {
-                  if (rb_type.equals("http://www.w3.org/2001/XMLSchema#boolean"))
-                    return NodeFactory.createLiteral(rb_val.charAt(0)=='1'?"true":"false", rb.getLang(), dt);
-                }
+            if (cache != null) {
+                dt = cache.datatype(rb);
+            } else {
+                String rb_type = rb.getType();
+                if (rb_type != null)
+                    dt = TypeMapper.getInstance().getSafeTypeByName(rb_type);
             }
 
+            if (dt == XSDDatatype.XSDboolean && rb_val.length()==1 && (rb_val.charAt(0)=='1' || rb_val.charAt(0)=='0'))
+                return NodeFactory.createLiteral(rb_val.charAt(0)=='1'?"true":"false", rb.getLang(), dt);
+
             return NodeFactory.createLiteral(rb_val, rb.getLang(), dt);
 
         } else if (o instanceof java.lang.Long) {
 
             RDFDatatype dt = null;
-            dt = TypeMapper.getInstance().getSafeTypeByName("http://www.w3.org/2001/XMLSchema#long");
+            dt = XSDDatatype.XSDlong;
             return NodeFactory.createLiteral(o.toString(), null, dt);
 
         } else if (o instanceof java.lang.Integer) {
 
             RDFDatatype dt = null;
-            dt = TypeMapper.getInstance().getSafeTypeByName("http://www.w3.org/2001/XMLSchema#integer");
+            dt = XSDDatatype.XSDinteger;
             return NodeFactory.createLiteral(o.toString(), null, dt);
 
         } else if (o instanceof java.lang.Short) {
 
             RDFDatatype dt = null;
 //      dt = TypeMapper.getInstance().getSafeTypeByName("http://www.w3.org/2001/XMLSchema#short");
-            dt = TypeMapper.getInstance().getSafeTypeByName("http://www.w3.org/2001/XMLSchema#integer");
+            dt = XSDDatatype.XSDinteger;
             return NodeFactory.createLiteral(o.toString(), null, dt);
 
         } else if (o instanceof java.lang.Float) {
 
             RDFDatatype dt = null;
-            dt = TypeMapper.getInstance().getSafeTypeByName("http://www.w3.org/2001/XMLSchema#float");
+            dt = XSDDatatype.XSDfloat;
             return NodeFactory.createLiteral(o.toString(), null, dt);
 
         } else if (o instanceof java.lang.Double) {
 
             RDFDatatype dt = null;
-            dt = TypeMapper.getInstance().getSafeTypeByName("http://www.w3.org/2001/XMLSchema#double");
+            dt = XSDDatatype.XSDdouble;
             return NodeFactory.createLiteral(o.toString(), null, dt);
 
         } else if (o instanceof java.math.BigDecimal) {
 
             RDFDatatype dt = null;
-            dt = TypeMapper.getInstance().getSafeTypeByName("http://www.w3.org/2001/XMLSchema#decimal");
+            dt = XSDDatatype.XSDdecimal;
             return NodeFactory.createLiteral(o.toString(), null, dt);
 
         } else if (o instanceof java.sql.Blob) {
 
             RDFDatatype dt = null;
-            dt = TypeMapper.getInstance().getSafeTypeByName("http://www.w3.org/2001/XMLSchema#hexBinary");
+            dt = XSDDatatype.XSDhexBinary;
             return NodeFactory.createLiteral(o.toString(), null, dt);
 
         } else if (o instanceof VirtuosoDate) {
 
             RDFDatatype dt = null;
-            dt = TypeMapper.getInstance().getSafeTypeByName("http://www.w3.org/2001/XMLSchema#date");
+            dt = XSDDatatype.XSDdate;
             return NodeFactory.createLiteral(((VirtuosoDate) o).toXSD_String(), null, dt);
 
         } else if (o instanceof VirtuosoTimestamp) {
 
             RDFDatatype dt = null;
-            dt = TypeMapper.getInstance().getSafeTypeByName("http://www.w3.org/2001/XMLSchema#dateTime");
+            dt = XSDDatatype.XSDdateTime;
             return NodeFactory.createLiteral(((VirtuosoTimestamp) o).toXSD_String(), null, dt);
 
         } else if (o instanceof VirtuosoTime) {
 
             RDFDatatype dt = null;
-            dt = TypeMapper.getInstance().getSafeTypeByName("http://www.w3.org/2001/XMLSchema#time");
+            dt = XSDDatatype.XSDtime;
             return NodeFactory.createLiteral(((VirtuosoTime) o).toXSD_String(), null, dt);
 
         } else if (o instanceof java.sql.Date) {
 
             RDFDatatype dt = null;
-            dt = TypeMapper.getInstance().getSafeTypeByName("http://www.w3.org/2001/XMLSchema#date");
+            dt = XSDDatatype.XSDdate;
             return NodeFactory.createLiteral(o.toString(), null, dt);
 
         } else if (o instanceof java.sql.Timestamp) {
 
             RDFDatatype dt = null;
-            dt = TypeMapper.getInstance().getSafeTypeByName("http://www.w3.org/2001/XMLSchema#dateTime");
+            dt = XSDDatatype.XSDdateTime;
             return NodeFactory.createLiteral(Timestamp2String((java.sql.Timestamp) o), null, dt);
 
         } else if (o instanceof java.sql.Time) {
 
             RDFDatatype dt = null;
-            dt = TypeMapper.getInstance().getSafeTypeByName("http://www.w3.org/2001/XMLSchema#time");
+            dt = XSDDatatype.XSDtime;
             return NodeFactory.createLiteral(o.toString(), null, dt);
 
         } else {
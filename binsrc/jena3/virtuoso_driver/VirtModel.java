@@ -128,6 +128,28 @@ public class VirtModel extends ModelCom {
     }
 
 
+    public int getSizeMode() {
+        return ((VirtGraph) this.graph).getSizeMode();
+    }
+
+    public void setSizeMode(int mode) {
+        ((VirtGraph) this.graph).setSizeMode(mode);
+    }
+
+
+    public int getReadThreads() {
+        return ((VirtGraph) this.graph).getReadThreads();
+    }
+
+    /**
+     * Sets the number of connections used by read to load N-Triples and
+     * Turtle text with DB.DBA.TTLP_MT; 0 parses the text with Jena.
+     */
+    public void setReadThreads(int n) {
+        ((VirtGraph) this.graph).setReadThreads(n);
+    }
+
+
     public String getSparqlPrefix() {
         return ((VirtGraph) this.graph).getSparqlPrefix();
     }
@@ -314,6 +336,10 @@ public class VirtModel extends ModelCom {
     @Override
     public Model read(Reader reader, String base, String lang) {
         VirtGraph g = (VirtGraph)getGraph();
+        if (g.getReadThreads() > 0 && VirtTurtleLoader.supports(lang)) {
+            new VirtTurtleLoader(g, g.getReadThreads()).load(reader, base);
+            return this;
+        }
         synchronized (lck_add){
             startBatchAdd();
             try{
@@ -328,6 +354,10 @@ public class VirtModel extends ModelCom {
     @Override
     public Model read(InputStream reader, String base, String lang) {
         VirtGraph g = (VirtGraph)getGraph();
+        if (g.getReadThreads() > 0 && VirtTurtleLoader.supports(lang)) {
+            new VirtTurtleLoader(g, g.getReadThreads()).load(reader, base);
+            return this;
+        }
         synchronized (lck_add){
             startBatchAdd();
             try{
@@ -340,6 +370,15 @@ public class VirtModel extends ModelCom {
     }
 
 
+    /**
+     * Returns a loader of large amounts of statements into this model,
+     * which inserts them on {@code threads} new connections in parallel.
+     */
+    public VirtBulkLoader getBulkLoader(int threads) {
+        return ((VirtGraph) this.graph).getBulkLoader(threads);
+    }
+
+
     public Model add(Statement[] statements) {
         return add(Arrays.asList(statements).iterator());
     }
@@ -0,0 +1,152 @@
+/*
+ *  $Id:$
+ *
+ *  This file is part of the OpenLink Software Virtuoso Open-Source (VOS)
+ *  project.
+ *
+ *  Copyright (C) 1998-2020 OpenLink Software
+ *
+ *  This project is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation; only version 2 of the License, dated June 1991.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package virtuoso.jena.driver;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.jena.datatypes.*;
+import org.apache.jena.graph.*;
+
+import virtuoso.jdbc4.VirtuosoRdfBox;
+import virtuoso.sql.RdfBox;
+
+
+/**
+ * Interns the IRI nodes and the literal datatypes made from the values of
+ * the result sets, so that the predicates and classes repeated on each row
+ * are shared instead of allocated again.
+ * <p>
+ * The IRIs are kept in a direct mapped table of a fixed number of slots;
+ * an IRI replaces the one that hashes to the same slot, so the cache never
+ * grows beyond its size.  The datatypes are kept by the type key of the
+ * RDF box, as sent by the server, and by name for the other boxes.  The
+ * cache may be shared by the threads reading the results of one graph.
+ */
+public class VirtNodeCache {
+
+    static final int MAX_TYPE_KEY = 4096;
+
+    private final Node[] iris;
+    private final int mask;
+    private volatile RDFDatatype[] types = new RDFDatatype[0];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Creates a cache of at least the given number of IRI slots, rounded up
+     * to a power of two.
+     */
+    public VirtNodeCache(int size) {
+        int n = 16;
+        while (n < size && n < (1 << 30))
+            n <<= 1;
+        iris = new Node[n];
+        mask = n - 1;
+    }
+
+    public int getSize() {
+        return iris.length;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total > 0 ? (double) h / total : 0;
+    }
+
+    /**
+     * Returns the IRI node of uri, from the cache if it was seen before.
+     */
+    public Node uri(String uri) {
+        int h = uri.hashCode();
+        int i = (h ^ (h >>> 16)) & mask;
+        Node n = iris[i];
+        if (n != null && n.getURI().equals(uri)) {
+            hits.increment();
+            return n;
+        }
+        misses.increment();
+        n = NodeFactory.createURI(uri);
+        iris[i] = n;
+        return n;
+    }
+
+    /**
+     * Returns the datatype of an RDF box, or null if it has the default type.
+     */
+    public RDFDatatype datatype(RdfBox rb) {
+        if (!(rb instanceof VirtuosoRdfBox)) {
+            String type = rb.getType();
+            return type != null ? TypeMapper.getInstance().getSafeTypeByName(type) : null;
+        }
+
+        int key = ((VirtuosoRdfBox) rb).rb_type;
+        if (key == VirtuosoRdfBox.RDF_BOX_DEFAULT_TYPE)
+            return null;
+
+        RDFDatatype[] t = types;
+        if (key >= 0 && key < t.length && t[key] != null)
+            return t[key];
+
+        String type = rb.getType();
+        if (type == null)
+            return null;
+        RDFDatatype dt = TypeMapper.getInstance().getSafeTypeByName(type);
+        if (key >= 0 && key < MAX_TYPE_KEY) {
+            synchronized (this) {
+                t = types;
+                if (key >= t.length) {
+                    RDFDatatype[] nt = new RDFDatatype[Math.min(MAX_TYPE_KEY, Math.max(key + 1, t.length * 2))];
+                    System.arraycopy(t, 0, nt, 0, t.length);
+                    t = nt;
+                }
+                t[key] = dt;
+                types = t;
+            }
+        }
+        return dt;
+    }
+
+    /**
+     * Drops the cached IRIs and datatypes.
+     */
+    public synchronized void clear() {
+        java.util.Arrays.fill(iris, null);
+        types = new RDFDatatype[0];
+    }
+
+    public String toString() {
+        return "VirtNodeCache[size=" + iris.length + ", hits=" + hits.sum()
+            + ", misses=" + misses.sum() + "]";
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ *  $Id:$
+ *
+ *  This file is part of the OpenLink Software Virtuoso Open-Source (VOS)
+ *  project.
+ *
+ *  Copyright (C) 1998-2020 OpenLink Software
+ *
+ *  This project is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation; only version 2 of the License, dated June 1991.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package virtuoso.jena.driver;
+
+import java.sql.*;
+import java.util.*;
+
+import org.apache.jena.graph.*;
+import org.apache.jena.graph.impl.LiteralLabel;
+import org.apache.jena.util.iterator.*;
+
+
+/**
+ * Client side cache of the triples matching a pattern, used by
+ * VirtGraph.graphBaseFind and graphBaseContains when it is enabled with
+ * VirtGraph.setPatternCacheSize.
+ * <p>
+ * The cache is bounded by the estimated size of the cached triples, and
+ * the least recently used patterns are evicted first.  A find result is
+ * only cached once the caller has read it to the end, and a result larger
+ * than a quarter of the cache is never cached.  The cache is cleared on
+ * each change made through the graph and at each transaction boundary;
+ * changes made by other connections are seen only after that.
+ */
+public class VirtPatternCache {
+
+    static final int ENTRY_OVERHEAD = 96;
+    static final int NODE_OVERHEAD = 48;
+
+    private final LinkedHashMap<Key, Entry> map = new LinkedHashMap<Key, Entry>(64, 0.75f, true);
+    private final long maxBytes;
+    private long bytes = 0;
+    private long generation = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long invalidations = 0;
+
+    public VirtPatternCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int getSize() {
+        return map.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    public synchronized double getHitRate() {
+        long n = hits + misses;
+        return n > 0 ? (double) hits / n : 0.0;
+    }
+
+    public synchronized void resetStatistics() {
+        hits = misses = evictions = invalidations = 0;
+    }
+
+    /**
+     * Drops all the cached patterns.  A result being read at that time
+     * is not cached when its reading completes.
+     */
+    public synchronized void clear() {
+        if (map.size() > 0)
+            invalidations++;
+        map.clear();
+        bytes = 0;
+        generation++;
+    }
+
+    public synchronized String toString() {
+        return "VirtPatternCache[entries=" + map.size() + ", bytes=" + bytes + "/" + maxBytes
+            + ", hits=" + hits + ", misses=" + misses + ", hitRate=" + getHitRate()
+            + ", evictions=" + evictions + ", invalidations=" + invalidations + "]";
+    }
+
+
+    synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Returns the triples cached for a find, or null
+     */
+    @SuppressWarnings("unchecked")
+    synchronized List<Triple> find(String gName, Triple tm) {
+        Entry e = map.get(new Key(gName, tm, false));
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return (List<Triple>) e.value;
+    }
+
+    /**
+     * Returns the cached answer for a contains, or null.  A cached find
+     * of the same pattern answers it as well.
+     */
+    synchronized Boolean contains(String gName, Triple t) {
+        Entry e = map.get(new Key(gName, t, false));
+        if (e == null)
+            e = map.get(new Key(gName, t, true));
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        if (e.value instanceof Boolean)
+            return (Boolean) e.value;
+        return ((List) e.value).isEmpty() ? Boolean.FALSE : Boolean.TRUE;
+    }
+
+    void putContains(String gName, Triple t, boolean ret, long gen) {
+        put(new Key(gName, t, true), ret ? Boolean.TRUE : Boolean.FALSE, ENTRY_OVERHEAD + sizeOf(t), gen);
+    }
+
+    synchronized void put(Key key, Object value, long size, long gen) {
+        if (gen != generation || size > maxBytes / 4)
+            return;
+        Entry old = map.put(key, new Entry(value, size));
+        if (old != null)
+            bytes -= old.bytes;
+        bytes += size;
+
+        Iterator<Entry> it = map.values().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= it.next().bytes;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Wraps the iterator over the rows of a find so that its triples are
+     * cached when it is read to the end, unless the cache was cleared
+     * since gen was taken.
+     */
+    ExtendedIterator<Triple> filler(VirtGraph graph, java.sql.Statement stmt, ResultSet rs,
+                                    String gName, Triple tm, long gen) {
+        return new Filler(graph, stmt, rs, tm, new Key(gName, tm, false), gen);
+    }
+
+    /**
+     * Iterator over a cached find
+     */
+    ExtendedIterator<Triple> iterator(VirtGraph graph, List<Triple> triples) {
+        return new Hit(graph, triples);
+    }
+
+    long limit() {
+        return maxBytes / 4;
+    }
+
+
+    static long sizeOf(Triple t) {
+        return sizeOf(t.getSubject()) + sizeOf(t.getPredicate()) + sizeOf(t.getObject());
+    }
+
+    static long sizeOf(Node n) {
+        if (n == null || Node.ANY.equals(n))
+            return 0;
+        if (n.isURI())
+            return NODE_OVERHEAD + 2L * n.getURI().length();
+        if (n.isBlank())
+            return NODE_OVERHEAD + 2L * n.getBlankNodeLabel().length();
+        if (n.isLiteral()) {
+            LiteralLabel l = n.getLiteral();
+            // the datatypes are shared, only the lexical form and the language count
+            return 2 * NODE_OVERHEAD + 2L * (l.getLexicalForm().length() + l.language().length());
+        }
+        return NODE_OVERHEAD;
+    }
+
+
+    static final class Key {
+        final String gName;
+        final Triple pattern;
+        final boolean contains;
+        final int hash;
+
+        Key(String gName, Triple pattern, boolean contains) {
+            this.gName = gName;
+            this.pattern = pattern;
+            this.contains = contains;
+            this.hash = (gName != null ? gName.hashCode() * 31 : 0) + pattern.hashCode() + (contains ? 1 : 0);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return contains == k.contains
+                && (gName == null ? k.gName == null : gName.equals(k.gName))
+                && pattern.equals(k.pattern);
+        }
+    }
+
+    static final class Entry {
+        final Object value;
+        final long bytes;
+
+        Entry(Object value, long bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+
+
+    class Filler extends VirtResSetIter {
+        private final Key key;
+        private final long gen;
+        private ArrayList<Triple> rows = new ArrayList<Triple>();
+        private long size = ENTRY_OVERHEAD;
+        private boolean reading = false;
+
+        Filler(VirtGraph graph, java.sql.Statement stmt, ResultSet rs, Triple tm, Key key, long gen) {
+            super(graph, stmt, rs, tm);
+            this.key = key;
+            this.gen = gen;
+        }
+
+        protected void extractRow() throws Exception {
+            super.extractRow();
+            if (rows != null) {
+                size += sizeOf(v_row) + 16;
+                if (size > limit()) {
+                    rows = null;
+                } else {
+                    rows.add(v_row);
+                }
+            }
+        }
+
+        protected void moveForward() {
+            reading = true;
+            try {
+                super.moveForward();
+            } finally {
+                reading = false;
+            }
+            if (v_finished && rows != null) {
+                rows.trimToSize();
+                put(key, rows, size, gen);
+                rows = null;
+            }
+        }
+
+        public void close() {
+            super.close();
+            // closed before the end, the rows read so far are not the result
+            if (!reading)
+                rows = null;
+        }
+    }
+
+    static class Hit extends NiceIterator<Triple> {
+        private final VirtGraph graph;
+        private final Iterator<Triple> it;
+        private Triple last = null;
+
+        Hit(VirtGraph graph, List<Triple> triples) {
+            this.graph = graph;
+            this.it = triples.iterator();
+        }
+
+        public boolean hasNext() {
+            return it.hasNext();
+        }
+
+        public Triple next() {
+            last = it.next();
+            return last;
+        }
+
+        public void remove() {
+            if (last == null)
+                throw new IllegalStateException();
+            graph.delete(last);
+            last = null;
+        }
+    }
+}
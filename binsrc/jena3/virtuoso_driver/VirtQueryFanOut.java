@@ -0,0 +1,247 @@
+/*
+ *  $Id:$
+ *
+ *  This file is part of the OpenLink Software Virtuoso Open-Source (VOS)
+ *  project.
+ *
+ *  Copyright (C) 1998-2020 OpenLink Software
+ *
+ *  This project is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation; only version 2 of the License, dated June 1991.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package virtuoso.jena.driver;
+
+import java.sql.Connection;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.apache.jena.query.*;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.shared.*;
+
+
+/**
+ * Runs independent SPARQL queries over a VirtGraph in parallel, on up to
+ * a given number of connections at once.
+ * <p>
+ * Each query runs on a graph with the settings of the original one and a
+ * connection of its own, opened from the data source (or the URL) of the
+ * original graph when it is first needed and kept until close.  These
+ * connections are in autocommit mode: the queries do not see the changes
+ * not yet committed on the connection of the original graph.
+ * <p>
+ * The results are read to the end on the worker threads, so the futures
+ * give result sets and models that no longer hold a statement.
+ * <pre>
+ *   VirtQueryFanOut fan = graph.getQueryFanOut(8);
+ *   try {
+ *       List&lt;ResultSetRewindable&gt; res = fan.execSelect(queries);
+ *   } finally {
+ *       fan.close();
+ *   }
+ * </pre>
+ */
+public class VirtQueryFanOut {
+
+    private final VirtGraph graph;
+    private final int concurrency;
+    private final ExecutorService executor;
+    private final LinkedBlockingQueue<VirtGraph> idle = new LinkedBlockingQueue<VirtGraph>();
+    private final List<VirtGraph> opened = new ArrayList<VirtGraph>();
+    private final Set<CompletableFuture<?>> pending = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed = false;
+
+
+    public VirtQueryFanOut(VirtGraph graph, int concurrency) {
+        this.graph = graph;
+        this.concurrency = Math.max(1, concurrency);
+        final AtomicInteger n = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(this.concurrency, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "VirtQueryFanOut-" + n.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Runs the select queries and returns their results in the same order.
+     * If a query fails, the others are cancelled and its error is thrown.
+     */
+    public List<ResultSetRewindable> execSelect(List<String> queries) {
+        return collect(submitSelect(queries));
+    }
+
+    /**
+     * Runs the construct queries and returns their models in the same order.
+     * If a query fails, the others are cancelled and its error is thrown.
+     */
+    public List<Model> execConstruct(List<String> queries) {
+        return collect(submitConstruct(queries));
+    }
+
+    public List<CompletableFuture<ResultSetRewindable>> submitSelect(List<String> queries) {
+        List<CompletableFuture<ResultSetRewindable>> res = new ArrayList<CompletableFuture<ResultSetRewindable>>(queries.size());
+        for (String q : queries)
+            res.add(submit(q, new Function<VirtuosoQueryExecution, ResultSetRewindable>() {
+                public ResultSetRewindable apply(VirtuosoQueryExecution qe) {
+                    return ResultSetFactory.copyResults(qe.execSelect());
+                }
+            }));
+        return res;
+    }
+
+    public List<CompletableFuture<Model>> submitConstruct(List<String> queries) {
+        List<CompletableFuture<Model>> res = new ArrayList<CompletableFuture<Model>>(queries.size());
+        for (String q : queries)
+            res.add(submit(q, new Function<VirtuosoQueryExecution, Model>() {
+                public Model apply(VirtuosoQueryExecution qe) {
+                    return qe.execConstruct();
+                }
+            }));
+        return res;
+    }
+
+    /**
+     * Runs exec on the execution of query on one of the connections.
+     * Cancelling the future aborts the query if it is running.
+     */
+    public <T> CompletableFuture<T> submit(final String query, final Function<VirtuosoQueryExecution, T> exec) {
+        if (closed)
+            throw new JenaException("The fan-out is closed");
+
+        final AtomicReference<VirtuosoQueryExecution> running = new AtomicReference<VirtuosoQueryExecution>();
+        final CompletableFuture<T> f = new CompletableFuture<T>() {
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean ret = super.cancel(mayInterruptIfRunning);
+                VirtuosoQueryExecution qe = running.get();
+                if (qe != null)
+                    qe.abort();
+                return ret;
+            }
+        };
+
+        pending.add(f);
+        f.whenComplete(new BiConsumer<T, Throwable>() {
+            public void accept(T res, Throwable e) {
+                pending.remove(f);
+            }
+        });
+        if (closed) {
+            f.completeExceptionally(new JenaException("The fan-out is closed"));
+            return f;
+        }
+
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    if (f.isDone())
+                        return;
+                    VirtGraph g = null;
+                    VirtuosoQueryExecution qe = null;
+                    try {
+                        g = takeGraph();
+                        qe = new VirtuosoQueryExecution(query, g);
+                        running.set(qe);
+                        if (!f.isDone())
+                            f.complete(exec.apply(qe));
+                    } catch (Throwable e) {
+                        f.completeExceptionally(e);
+                    } finally {
+                        running.set(null);
+                        if (qe != null)
+                            qe.close();
+                        if (g != null)
+                            idle.add(g);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            f.completeExceptionally(new JenaException("The fan-out is closed"));
+        }
+        return f;
+    }
+
+    /**
+     * Closes the connections and stops the threads; the running queries
+     * are cancelled and the queued ones fail.
+     */
+    public void close() {
+        closed = true;
+        executor.shutdownNow();
+        // the queued tasks are dropped without running
+        JenaException err = new JenaException("The fan-out is closed");
+        for (CompletableFuture<?> f : pending.toArray(new CompletableFuture<?>[0]))
+            f.completeExceptionally(err);
+        synchronized (opened) {
+            for (VirtGraph g : opened)
+                try {
+                    g.close();
+                } catch (Exception e) {
+                }
+            opened.clear();
+        }
+        idle.clear();
+    }
+
+
+    private VirtGraph takeGraph() throws Exception {
+        VirtGraph g = idle.poll();
+        if (g != null)
+            return g;
+        Connection c = graph.openConnection();
+        g = new VirtGraph(graph, c);
+        synchronized (opened) {
+            if (closed) {
+                c.close();
+                throw new JenaException("The fan-out is closed");
+            }
+            opened.add(g);
+        }
+        return g;
+    }
+
+    private <T> List<T> collect(List<CompletableFuture<T>> futures) {
+        List<T> res = new ArrayList<T>(futures.size());
+        try {
+            for (CompletableFuture<T> f : futures)
+                res.add(f.get());
+        } catch (ExecutionException e) {
+            cancel(futures);
+            if (e.getCause() instanceof JenaException)
+                throw (JenaException) e.getCause();
+            throw new JenaException(e.getCause());
+        } catch (InterruptedException e) {
+            cancel(futures);
+            Thread.currentThread().interrupt();
+            throw new JenaException(e);
+        }
+        return res;
+    }
+
+    private static <T> void cancel(List<CompletableFuture<T>> futures) {
+        for (CompletableFuture<T> f : futures)
+            f.cancel(true);
+    }
+}
@@ -104,17 +104,17 @@ public class VirtResSetIter extends NiceIterator<Triple> {
         if (v_in.getMatchSubject() != null)
             NodeS = v_in.getMatchSubject();
         else
-            NodeS = VirtGraph.Object2Node(v_resultSet.getObject("s"));
+            NodeS = v_graph.toNode(v_resultSet.getObject("s"));
 
         if (v_in.getMatchPredicate() != null)
             NodeP = v_in.getMatchPredicate();
         else
-            NodeP = VirtGraph.Object2Node(v_resultSet.getObject("p"));
+            NodeP = v_graph.toNode(v_resultSet.getObject("p"));
 
         if (v_in.getMatchObject() != null)
             NodeO = v_in.getMatchObject();
         else
-            NodeO = VirtGraph.Object2Node(v_resultSet.getObject("o"));
+            NodeO = v_graph.toNode(v_resultSet.getObject("o"));
 
         v_row = new Triple(NodeS, NodeP, NodeO);
     }
@@ -101,9 +101,9 @@ public class VirtResSetIter2 implements Iterator<Triple> {
     protected void extractRow() throws Exception {
         Node NodeS, NodeP, NodeO;
 
-        NodeS = VirtGraph.Object2Node(v_resultSet.getObject(1));
-        NodeP = VirtGraph.Object2Node(v_resultSet.getObject(2));
-        NodeO = VirtGraph.Object2Node(v_resultSet.getObject(3));
+        NodeS = v_graph.toNode(v_resultSet.getObject(1));
+        NodeP = v_graph.toNode(v_resultSet.getObject(2));
+        NodeO = v_graph.toNode(v_resultSet.getObject(3));
 
         v_row = new Triple(NodeS, NodeP, NodeO);
     }
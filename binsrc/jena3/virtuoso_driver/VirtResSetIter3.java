@@ -35,10 +35,11 @@ import org.apache.jena.rdf.model.*;
 import org.apache.jena.sparql.core.Quad;
 
 
-public class VirtResSetIter3 implements Iterator<Quad> {
+public class VirtResSetIter3 implements ClosableIterator<Quad> {
     protected java.sql.Statement v_stmt;
     protected ResultSet v_resultSet;
     protected Quad v_row;
+    protected Quad v_in;
     protected boolean v_finished = false;
     protected boolean v_prefetched = false;
     protected VirtGraph v_graph = null;
@@ -53,6 +54,16 @@ public class VirtResSetIter3 implements Iterator<Quad> {
         v_graph = graph;
     }
 
+    /**
+     * Iterates over the rows of a quad pattern query: the bound nodes of
+     * the pattern are taken from it, the others from the columns g, s, p
+     * and o of the result set.
+     */
+    public VirtResSetIter3(VirtGraph graph, java.sql.Statement stmt, ResultSet resultSet, Quad in) {
+        this(graph, stmt, resultSet);
+        v_in = in;
+    }
+
     public boolean hasNext() {
         if (!v_finished && !v_prefetched) moveForward();
         return !v_finished;
@@ -95,10 +106,19 @@ public class VirtResSetIter3 implements Iterator<Quad> {
     protected void extractRow() throws Exception {
         Node NodeG, NodeS, NodeP, NodeO;
 
-        NodeS = VirtGraph.Object2Node(v_resultSet.getObject(1));
-        NodeP = VirtGraph.Object2Node(v_resultSet.getObject(2));
-        NodeO = VirtGraph.Object2Node(v_resultSet.getObject(3));
-        NodeG = VirtGraph.Object2Node(v_resultSet.getObject(4));
+        if (v_in != null) {
+            NodeG = !Node.ANY.equals(v_in.getGraph()) ? v_in.getGraph() : v_graph.toNode(v_resultSet.getObject("g"));
+            NodeS = !Node.ANY.equals(v_in.getSubject()) ? v_in.getSubject() : v_graph.toNode(v_resultSet.getObject("s"));
+            NodeP = !Node.ANY.equals(v_in.getPredicate()) ? v_in.getPredicate() : v_graph.toNode(v_resultSet.getObject("p"));
+            NodeO = !Node.ANY.equals(v_in.getObject()) ? v_in.getObject() : v_graph.toNode(v_resultSet.getObject("o"));
+            v_row = new Quad(NodeG, NodeS, NodeP, NodeO);
+            return;
+        }
+
+        NodeS = v_graph.toNode(v_resultSet.getObject(1));
+        NodeP = v_graph.toNode(v_resultSet.getObject(2));
+        NodeO = v_graph.toNode(v_resultSet.getObject(3));
+        NodeG = v_graph.toNode(v_resultSet.getObject(4));
 
         v_row = new Quad(NodeG, NodeS, NodeP, NodeO);
     }
@@ -0,0 +1,478 @@
+/*
+ *  $Id:$
+ *
+ *  This file is part of the OpenLink Software Virtuoso Open-Source (VOS)
+ *  project.
+ *
+ *  Copyright (C) 1998-2020 OpenLink Software
+ *
+ *  This project is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation; only version 2 of the License, dated June 1991.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package virtuoso.jena.driver;
+
+import java.io.*;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+import org.apache.jena.graph.Node;
+
+import virtuoso.sql.ExtendedString;
+import virtuoso.sql.RdfBox;
+
+
+/**
+ * Writes the rows of a SPARQL select result set as SPARQL Results JSON,
+ * XML, CSV or TSV straight from the values of the JDBC result set, without
+ * making Jena nodes and bindings for the usual IRIs and literals.
+ * <p>
+ * The output goes through a buffer of a fixed size, and the rows are read
+ * one by one, so the memory used does not grow with the size of the
+ * result.
+ * <pre>
+ *   VirtuosoQueryExecution qe = VirtuosoQueryExecutionFactory.create(query, graph);
+ *   qe.execSelect(out, VirtResultsWriter.JSON);
+ * </pre>
+ */
+public class VirtResultsWriter {
+
+    public static final int JSON = 0;
+    public static final int XML = 1;
+    public static final int CSV = 2;
+    public static final int TSV = 3;
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    static final String xsd = "http://www.w3.org/2001/XMLSchema#";
+
+    // kinds of terms
+    static final int UNBOUND = 0;
+    static final int IRI = 1;
+    static final int BNODE = 2;
+    static final int LITERAL = 3;
+
+    private final int format;
+    private VirtNodeCache nodeCache = null;
+
+    // the term decoded last
+    private int kind;
+    private String value;
+    private String lang;
+    private String datatype;
+
+
+    public VirtResultsWriter(int format) {
+        if (format < JSON || format > TSV)
+            throw new IllegalArgumentException("Unknown results format : " + format);
+        this.format = format;
+    }
+
+    public int getFormat() {
+        return format;
+    }
+
+    /**
+     * Sets the cache used for the values that are converted through
+     * VirtGraph.Object2Node.
+     */
+    public void setNodeCache(VirtNodeCache cache) {
+        this.nodeCache = cache;
+    }
+
+    /**
+     * Returns the media type of the format.
+     */
+    public String getContentType() {
+        switch (format) {
+            case JSON:
+                return "application/sparql-results+json";
+            case XML:
+                return "application/sparql-results+xml";
+            case CSV:
+                return "text/csv";
+            default:
+                return "text/tab-separated-values";
+        }
+    }
+
+    /**
+     * Writes the remaining rows of rs to out, which is flushed but not
+     * closed, and returns the number of rows written.
+     */
+    public long write(java.sql.ResultSet rs, OutputStream out) throws IOException, SQLException {
+        Writer w = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), BUFFER_SIZE);
+        ResultSetMetaData rsmd = rs.getMetaData();
+        int cols = rsmd.getColumnCount();
+        String[] vars = new String[cols];
+        for (int i = 0; i < cols; i++)
+            vars[i] = rsmd.getColumnLabel(i + 1);
+
+        long rows = 0;
+        startResults(w, vars);
+        while (rs.next()) {
+            startRow(w, rows);
+            boolean first = true;
+            for (int i = 0; i < cols; i++) {
+                decode(rs.getObject(i + 1));
+                first = writeBinding(w, vars[i], i, first);
+            }
+            endRow(w);
+            rows++;
+        }
+        endResults(w, rows);
+        w.flush();
+        return rows;
+    }
+
+
+    private void startResults(Writer w, String[] vars) throws IOException {
+        switch (format) {
+            case JSON:
+                w.write("{ \"head\": { \"vars\": [ ");
+                for (int i = 0; i < vars.length; i++) {
+                    if (i > 0)
+                        w.write(", ");
+                    writeJsonString(w, vars[i]);
+                }
+                w.write(" ] },\n  \"results\": { \"bindings\": [\n");
+                break;
+            case XML:
+                w.write("<?xml version=\"1.0\"?>\n<sparql xmlns=\"http://www.w3.org/2005/sparql-results#\">\n  <head>\n");
+                for (String v : vars) {
+                    w.write("    <variable name=\"");
+                    writeXmlString(w, v);
+                    w.write("\"/>\n");
+                }
+                w.write("  </head>\n  <results>\n");
+                break;
+            case CSV:
+                for (int i = 0; i < vars.length; i++) {
+                    if (i > 0)
+                        w.write(',');
+                    writeCsvString(w, vars[i]);
+                }
+                w.write("\r\n");
+                break;
+            default:
+                for (int i = 0; i < vars.length; i++) {
+                    if (i > 0)
+                        w.write('\t');
+                    w.write('?');
+                    w.write(vars[i]);
+                }
+                w.write('\n');
+                break;
+        }
+    }
+
+    private void endResults(Writer w, long rows) throws IOException {
+        switch (format) {
+            case JSON:
+                w.write(rows > 0 ? "\n  ] }\n}\n" : "  ] }\n}\n");
+                break;
+            case XML:
+                w.write("  </results>\n</sparql>\n");
+                break;
+        }
+    }
+
+    private void startRow(Writer w, long row) throws IOException {
+        switch (format) {
+            case JSON:
+                w.write(row > 0 ? ",\n    {" : "    {");
+                break;
+            case XML:
+                w.write("    <result>\n");
+                break;
+        }
+    }
+
+    private void endRow(Writer w) throws IOException {
+        switch (format) {
+            case JSON:
+                w.write(" }");
+                break;
+            case XML:
+                w.write("    </result>\n");
+                break;
+            case CSV:
+                w.write("\r\n");
+                break;
+            default:
+                w.write('\n');
+                break;
+        }
+    }
+
+    private boolean writeBinding(Writer w, String var, int col, boolean first) throws IOException {
+        switch (format) {
+            case JSON:
+                if (kind == UNBOUND)
+                    return first;
+                w.write(first ? " " : ", ");
+                writeJsonString(w, var);
+                w.write(": { \"type\": ");
+                w.write(kind == IRI ? "\"uri\"" : kind == BNODE ? "\"bnode\"" : "\"literal\"");
+                w.write(", \"value\": ");
+                writeJsonString(w, value);
+                if (lang != null) {
+                    w.write(", \"xml:lang\": ");
+                    writeJsonString(w, lang);
+                } else if (datatype != null) {
+                    w.write(", \"datatype\": ");
+                    writeJsonString(w, datatype);
+                }
+                w.write(" }");
+                return false;
+
+            case XML:
+                if (kind == UNBOUND)
+                    return first;
+                w.write("      <binding name=\"");
+                writeXmlString(w, var);
+                w.write("\">");
+                if (kind == IRI) {
+                    w.write("<uri>");
+                    writeXmlString(w, value);
+                    w.write("</uri>");
+                } else if (kind == BNODE) {
+                    w.write("<bnode>");
+                    writeXmlString(w, value);
+                    w.write("</bnode>");
+                } else {
+                    w.write("<literal");
+                    if (lang != null) {
+                        w.write(" xml:lang=\"");
+                        writeXmlString(w, lang);
+                        w.write('"');
+                    } else if (datatype != null) {
+                        w.write(" datatype=\"");
+                        writeXmlString(w, datatype);
+                        w.write('"');
+                    }
+                    w.write('>');
+                    writeXmlString(w, value);
+                    w.write("</literal>");
+                }
+                w.write("</binding>\n");
+                return false;
+
+            case CSV:
+                if (col > 0)
+                    w.write(',');
+                if (kind == BNODE)
+                    w.write("_:");
+                if (kind != UNBOUND)
+                    writeCsvString(w, value);
+                return false;
+
+            default:
+                if (col > 0)
+                    w.write('\t');
+                if (kind == IRI) {
+                    w.write('<');
+                    w.write(value);
+                    w.write('>');
+                } else if (kind == BNODE) {
+                    w.write("_:");
+                    w.write(value);
+                } else if (kind == LITERAL) {
+                    w.write('"');
+                    writeTsvString(w, value);
+                    w.write('"');
+                    if (lang != null) {
+                        w.write('@');
+                        w.write(lang);
+                    } else if (datatype != null) {
+                        w.write("^^<");
+                        w.write(datatype);
+                        w.write('>');
+                    }
+                }
+                return false;
+        }
+    }
+
+
+    /**
+     * Decodes a value of the result set into kind, value, lang and
+     * datatype, the way VirtGraph.Object2Node does.
+     */
+    private void decode(Object o) {
+        lang = null;
+        datatype = null;
+
+        if (o == null) {
+            kind = UNBOUND;
+            value = null;
+
+        } else if (o instanceof ExtendedString) {
+            ExtendedString vs = (ExtendedString) o;
+            String s = vs.toString();
+
+            if (vs.getIriType() == ExtendedString.IRI && (vs.getStrType() & 0x01) == 0x01) {
+                if (s.startsWith("_:")) {
+                    kind = BNODE;
+                    value = s.substring(2);
+                } else {
+                    kind = IRI;
+                    value = s;
+                }
+            } else if (vs.getIriType() == ExtendedString.BNODE) {
+                kind = BNODE;
+                value = s.startsWith("nodeID://") ? s.substring(9) : s;
+            } else {
+                kind = LITERAL;
+                value = s;
+            }
+
+        } else if (o instanceof RdfBox) {
+            RdfBox rb = (RdfBox) o;
+            kind = LITERAL;
+            value = rb.toString();
+            lang = rb.getLang();
+            if (lang == null) {
+                datatype = rb.getType();
+                if ((xsd + "boolean").equals(datatype) && value.length() == 1)
+                    if (value.charAt(0) == '1')
+                        value = "true";
+                    else if (value.charAt(0) == '0')
+                        value = "false";
+            }
+
+        } else if (o instanceof Long) {
+            literal(o.toString(), xsd + "long");
+        } else if (o instanceof Integer || o instanceof Short) {
+            literal(o.toString(), xsd + "integer");
+        } else if (o instanceof Double) {
+            literal(o.toString(), xsd + "double");
+        } else if (o instanceof Float) {
+            literal(o.toString(), xsd + "float");
+        } else if (o instanceof java.math.BigDecimal) {
+            literal(o.toString(), xsd + "decimal");
+
+        } else {
+            Node n = VirtGraph.Object2Node(o, nodeCache);
+            kind = LITERAL;
+            value = n.getLiteralLexicalForm();
+            String l = n.getLiteralLanguage();
+            if (l != null && l.length() > 0)
+                lang = l;
+            else if (n.getLiteralDatatypeURI() != null)
+                datatype = n.getLiteralDatatypeURI();
+        }
+
+        // simple literals are written without their datatype
+        if (datatype != null && datatype.equals(VirtGraph.xsd_string))
+            datatype = null;
+    }
+
+    private void literal(String v, String dt) {
+        kind = LITERAL;
+        value = v;
+        datatype = dt;
+    }
+
+
+    static void writeJsonString(Writer w, String s) throws IOException {
+        w.write('"');
+        int start = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\')
+                continue;
+            w.write(s, start, i - start);
+            start = i + 1;
+            switch (c) {
+                case '"':  w.write("\\\""); break;
+                case '\\': w.write("\\\\"); break;
+                case '\n': w.write("\\n"); break;
+                case '\r': w.write("\\r"); break;
+                case '\t': w.write("\\t"); break;
+                case '\b': w.write("\\b"); break;
+                case '\f': w.write("\\f"); break;
+                default:
+                    w.write("\\u00");
+                    w.write(Character.forDigit(c >> 4, 16));
+                    w.write(Character.forDigit(c & 0xF, 16));
+                    break;
+            }
+        }
+        w.write(s, start, s.length() - start);
+        w.write('"');
+    }
+
+    static void writeXmlString(Writer w, String s) throws IOException {
+        int start = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            String r;
+            switch (c) {
+                case '&': r = "&amp;"; break;
+                case '<': r = "&lt;"; break;
+                case '>': r = "&gt;"; break;
+                case '"': r = "&quot;"; break;
+                case '\r': r = "&#xD;"; break;
+                default: continue;
+            }
+            w.write(s, start, i - start);
+            w.write(r);
+            start = i + 1;
+        }
+        w.write(s, start, s.length() - start);
+    }
+
+    static void writeCsvString(Writer w, String s) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < s.length() && !quote; i++) {
+            char c = s.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            w.write(s);
+            return;
+        }
+        w.write('"');
+        int start = 0;
+        for (int i = 0; i < s.length(); i++)
+            if (s.charAt(i) == '"') {
+                w.write(s, start, i + 1 - start);
+                w.write('"');
+                start = i + 1;
+            }
+        w.write(s, start, s.length() - start);
+        w.write('"');
+    }
+
+    static void writeTsvString(Writer w, String s) throws IOException {
+        int start = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            String r;
+            switch (c) {
+                case '"':  r = "\\\""; break;
+                case '\\': r = "\\\\"; break;
+                case '\n': r = "\\n"; break;
+                case '\r': r = "\\r"; break;
+                case '\t': r = "\\t"; break;
+                default: continue;
+            }
+            w.write(s, start, i - start);
+            w.write(r);
+            start = i + 1;
+        }
+        w.write(s, start, s.length() - start);
+    }
+}
@@ -125,11 +125,13 @@ public class VirtTransactionHandler extends TransactionHandlerBase implements XA
     public void start(Xid xid, int i) throws XAException {
         XAResource xa = checkXA();
         xa.start(xid, i);
+        graph.invalidateCaches();
     }
 
     public void commit(Xid xid, boolean flag) throws XAException {
         XAResource xa = checkXA();
         xa.commit(xid, flag);
+        graph.invalidateCaches();
         if (graph.resetBNodesDictAfterCommit)
             graph.dropBNodesDict();
     }
@@ -161,6 +163,7 @@ public class VirtTransactionHandler extends TransactionHandlerBase implements XA
     public void rollback(Xid xid) throws XAException {
         XAResource xa = checkXA();
         xa.rollback(xid);
+        graph.invalidateCaches();
         if (graph.resetBNodesDictAfterCommit)
             graph.dropBNodesDict();
     }
@@ -193,6 +196,7 @@ public class VirtTransactionHandler extends TransactionHandlerBase implements XA
                 if (c.getAutoCommit()) {
                     c.setAutoCommit(false);
                 }
+                graph.invalidateCaches();
                 this.readWrite = ReadWrite.READ;
                 this.txnType = TxnType.WRITE;
             } catch (SQLException e) {
@@ -211,6 +215,7 @@ public class VirtTransactionHandler extends TransactionHandlerBase implements XA
                 if (c.getAutoCommit()) {
                     c.setAutoCommit(false);
                 }
+                graph.invalidateCaches();
                 this.readWrite = _readWrite;
             } catch (SQLException e) {
                 throw new JenaException("Transaction begin failed: ", e);
@@ -228,6 +233,7 @@ public class VirtTransactionHandler extends TransactionHandlerBase implements XA
                 if (c.getAutoCommit()) {
                     c.setAutoCommit(false);
                 }
+                graph.invalidateCaches();
                 this.txnType = _txnType;
                 switch (_txnType){
                     case READ:
@@ -255,6 +261,7 @@ public class VirtTransactionHandler extends TransactionHandlerBase implements XA
                 Connection c = graph.getConnection();
                 c.rollback();
                 c.setAutoCommit(true);
+                graph.invalidateCaches();
                 if (graph.resetBNodesDictAfterCommit)
                     graph.dropBNodesDict();
             } catch (SQLException e) {
@@ -272,6 +279,7 @@ public class VirtTransactionHandler extends TransactionHandlerBase implements XA
                 Connection c = graph.getConnection();
                 c.commit();
                 c.setAutoCommit(true);
+                graph.invalidateCaches();
                 if (graph.resetBNodesDictAfterCommit)
                     graph.dropBNodesDict();
             } catch (SQLException e) {
@@ -0,0 +1,545 @@
+/*
+ *  $Id:$
+ *
+ *  This file is part of the OpenLink Software Virtuoso Open-Source (VOS)
+ *  project.
+ *
+ *  Copyright (C) 1998-2020 OpenLink Software
+ *
+ *  This project is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation; only version 2 of the License, dated June 1991.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package virtuoso.jena.driver;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.lang.LabelToNode;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.shared.*;
+
+
+/**
+ * Loads N-Triples and Turtle text into a VirtGraph with DB.DBA.TTLP_MT,
+ * so that the text is parsed on the server rather than by Jena.
+ * <p>
+ * The text is read line by line and cut at the end of the statements
+ * into chunks of about chunkSize characters.  Each chunk is sent as a
+ * document of its own, headed by the prefix and base directives seen so
+ * far, and the chunks are loaded on {@code threads} connections in
+ * parallel.  Since the labels of blank nodes are scoped to one document,
+ * the statements with a blank node label are gathered apart, in chunks
+ * of the same size, which are parsed by Jena and inserted with
+ * DB.DBA.rdf_insert_triple_c on the connection of the graph, keeping the
+ * labels in the RDF_INSERT_TRIPLE_C_BNODES dictionary of the connection
+ * for the whole text.
+ * <p>
+ * With one thread, or when the connection of the graph is in a
+ * transaction, the chunks are loaded in order on the connection of the
+ * graph instead.
+ */
+public class VirtTurtleLoader {
+
+    static final String S_TTLP = "DB.DBA.TTLP_MT (?, ?, ?, 255, 2, 3, ?)";
+    static final String END = new String("");
+    static final String S_SAVE_BNODES = "connection_set ('VirtTurtleLoader_BNODES', connection_get ('RDF_INSERT_TRIPLE_C_BNODES'))";
+    static final String S_NEW_BNODES = "connection_set ('RDF_INSERT_TRIPLE_C_BNODES', dict_new (1000))";
+    static final String S_RESTORE_BNODES = "connection_set ('RDF_INSERT_TRIPLE_C_BNODES', connection_get ('VirtTurtleLoader_BNODES'))";
+
+    private final VirtGraph graph;
+    private int threads;
+    private int chunkSize = 1024 * 1024;
+
+    private final AtomicLong chunks = new AtomicLong();
+    private final AtomicLong chars = new AtomicLong();
+    private volatile Throwable failure;
+
+    // state of the splitter, kept between the lines
+    private static final int S_NONE = 0, S_IRI = 1, S_STR1 = 2, S_STR2 = 3,
+                             S_LSTR1 = 4, S_LSTR2 = 5;
+    private int state;
+    private int depth;
+    private boolean label;
+    private boolean pendingDot;
+    private StringBuilder stmt;
+    private StringBuilder header;
+    private StringBuilder chunk;
+    private StringBuilder labels;
+    private final List<String> pending = new ArrayList<String>();
+    private final List<String> pendingLabels = new ArrayList<String>();
+
+
+    public VirtTurtleLoader(VirtGraph graph, int threads) {
+        this.graph = graph;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Tells if the text of the language lang can be loaded with TTLP
+     */
+    public static boolean supports(String lang) {
+        if (lang == null)
+            return false;
+        Lang l = RDFLanguages.nameToLang(lang);
+        return l != null && (l.equals(Lang.NTRIPLES) || l.equals(Lang.TURTLE) || l.equals(Lang.N3));
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int sz) {
+        this.chunkSize = Math.max(1024, sz);
+    }
+
+    public long getChunks() {
+        return chunks.get();
+    }
+
+    public long getChars() {
+        return chars.get();
+    }
+
+    public void load(InputStream in, String base) {
+        try {
+            load(new InputStreamReader(in, "UTF-8"), base);
+        } catch (UnsupportedEncodingException e) {
+            throw new JenaException(e);
+        }
+    }
+
+    /**
+     * Loads the text read from in into the graph, resolving the
+     * relative IRIs against base.
+     */
+    public void load(Reader in, String base) {
+        final String _base = (base != null ? base : "");
+        Connection c = graph.getConnection();
+        boolean parallel;
+        try {
+            parallel = threads > 1 && c.getAutoCommit();
+        } catch (SQLException e) {
+            throw new JenaException(e);
+        }
+
+        chunks.set(0);
+        chars.set(0);
+        failure = null;
+        state = S_NONE;
+        depth = 0;
+        label = false;
+        pendingDot = false;
+        stmt = new StringBuilder(256);
+        header = new StringBuilder();
+        chunk = new StringBuilder(chunkSize + 1024);
+        labels = new StringBuilder();
+        pending.clear();
+        pendingLabels.clear();
+
+        final BlockingQueue<String> queue = new ArrayBlockingQueue<String>(threads);
+        List<Thread> workers = new ArrayList<Thread>();
+        Sender local = null;
+        LabelSender lbl = null;
+
+        try {
+            lbl = new LabelSender(c, _base);
+            if (parallel) {
+                for (int i = 0; i < threads; i++) {
+                    final Sender s = new Sender(graph.openConnection(), _base, true);
+                    Thread t = new Thread("VirtTurtleLoader-" + i) {
+                        public void run() {
+                            s.drain(queue);
+                        }
+                    };
+                    t.setDaemon(true);
+                    workers.add(t);
+                    t.start();
+                }
+            } else {
+                local = new Sender(c, _base, false);
+            }
+
+            BufferedReader rd = (in instanceof BufferedReader) ? (BufferedReader) in : new BufferedReader(in);
+            String line;
+            while ((line = rd.readLine()) != null && failure == null) {
+                scan(line);
+                for (String p : pending)
+                    send(p, queue, local);
+                pending.clear();
+                for (String p : pendingLabels)
+                    lbl.load(p);
+                pendingLabels.clear();
+                if (chunk.length() >= chunkSize)
+                    send(flushChunk(), queue, local);
+                if (labels.length() >= chunkSize)
+                    lbl.load(flushLabels());
+            }
+            if (failure == null) {
+                if (pendingDot || stmt.toString().trim().length() > 0)
+                    endStatement();
+                for (String p : pending)
+                    send(p, queue, local);
+                for (String p : pendingLabels)
+                    lbl.load(p);
+                send(flushChunk(), queue, local);
+                String p = flushLabels();
+                if (p != null)
+                    lbl.load(p);
+            }
+        } catch (Exception e) {
+            abort(e);
+        } finally {
+            for (int i = 0; i < workers.size(); i++) {
+                try {
+                    queue.put(END);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    abort(e);
+                }
+            }
+            for (Thread t : workers) {
+                try {
+                    t.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    abort(e);
+                }
+            }
+            if (local != null)
+                local.close();
+            if (lbl != null)
+                lbl.close();
+            stmt = chunk = labels = header = null;
+            graph.invalidateCaches();
+        }
+
+        Throwable e = failure;
+        if (e instanceof JenaException)
+            throw (JenaException) e;
+        if (e != null)
+            throw new JenaException(e);
+    }
+
+
+    private synchronized void abort(Throwable e) {
+        if (failure == null)
+            failure = e;
+    }
+
+    private String flushChunk() {
+        if (chunk.length() == 0)
+            return null;
+        String s = header.length() > 0 ? header.toString() + chunk.toString() : chunk.toString();
+        chunk.setLength(0);
+        return s;
+    }
+
+    private String flushLabels() {
+        if (labels.length() == 0)
+            return null;
+        String s = header.length() > 0 ? header.toString() + labels.toString() : labels.toString();
+        labels.setLength(0);
+        return s;
+    }
+
+    private void send(String text, BlockingQueue<String> queue, Sender local) throws Exception {
+        if (text == null)
+            return;
+        if (local != null) {
+            local.load(text);
+        } else {
+            queue.put(text);
+        }
+    }
+
+
+    /**
+     * Splits a line into statements, following the IRIs, the strings,
+     * the comments and the brackets.  A statement ends with a dot at the
+     * top level that is followed by a blank, or with the IRI of a SPARQL
+     * style PREFIX or BASE.
+     */
+    private void scan(String line) {
+        int n = line.length();
+        for (int i = 0; i < n; i++) {
+            char ch = line.charAt(i);
+
+            if (pendingDot) {
+                pendingDot = false;
+                if (ch <= ' ' || ch == '#') {
+                    endStatement();
+                    if (ch == '#')
+                        break;
+                    continue;
+                }
+            }
+
+            switch (state) {
+                case S_IRI:
+                    stmt.append(ch);
+                    if (ch == '>') {
+                        state = S_NONE;
+                        if (depth == 0 && isDirective(stmt.toString().trim()))
+                            endStatement();
+                    }
+                    continue;
+                case S_STR1:
+                case S_STR2:
+                case S_LSTR1:
+                case S_LSTR2:
+                    stmt.append(ch);
+                    if (ch == '\\' && i + 1 < n) {
+                        stmt.append(line.charAt(++i));
+                    } else if (ch == quote()) {
+                        if (state == S_STR1 || state == S_STR2) {
+                            state = S_NONE;
+                        } else if (line.startsWith(ch == '"' ? "\"\"\"" : "'''", i)) {
+                            stmt.append(ch).append(ch);
+                            i += 2;
+                            state = S_NONE;
+                        }
+                    }
+                    continue;
+                default:
+                    break;
+            }
+
+            if (ch == '#')
+                break;
+
+            stmt.append(ch);
+            switch (ch) {
+                case '<':
+                    state = S_IRI;
+                    break;
+                case '"':
+                case '\'':
+                    if (line.startsWith(ch == '"' ? "\"\"\"" : "'''", i)) {
+                        stmt.append(ch).append(ch);
+                        i += 2;
+                        state = (ch == '"' ? S_LSTR2 : S_LSTR1);
+                    } else {
+                        state = (ch == '"' ? S_STR2 : S_STR1);
+                    }
+                    break;
+                case '[':
+                case '(':
+                    depth++;
+                    break;
+                case ']':
+                case ')':
+                    depth--;
+                    break;
+                case '_':
+                    if (i + 1 < n && line.charAt(i + 1) == ':')
+                        label = true;
+                    break;
+                case '.':
+                    if (depth == 0)
+                        pendingDot = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (pendingDot) {
+            pendingDot = false;
+            endStatement();
+        } else {
+            stmt.append('\n');
+        }
+    }
+
+    private char quote() {
+        return (state == S_STR1 || state == S_LSTR1) ? '\'' : '"';
+    }
+
+    private void endStatement() {
+        String s = stmt.toString().trim();
+        stmt.setLength(0);
+        boolean lbl = label;
+        label = false;
+        if (s.length() == 0)
+            return;
+
+        if (s.charAt(0) == '@' || isDirective(s)) {
+            // the statements read so far must not see the new definition
+            String prev = flushChunk();
+            if (prev != null)
+                pending.add(prev);
+            prev = flushLabels();
+            if (prev != null)
+                pendingLabels.add(prev);
+            header.append(s).append('\n');
+        } else if (lbl) {
+            labels.append(s).append('\n');
+        } else {
+            chunk.append(s).append('\n');
+        }
+    }
+
+    /**
+     * Tells if s is a SPARQL style PREFIX or BASE directive
+     */
+    private static boolean isDirective(String s) {
+        int i = 0;
+        while (i < s.length() && s.charAt(i) > ' ')
+            i++;
+        String kw = s.substring(0, i);
+        return kw.equalsIgnoreCase("PREFIX") || kw.equalsIgnoreCase("BASE");
+    }
+
+
+    /**
+     * Sends the chunks to TTLP_MT on one connection
+     */
+    class Sender {
+        private final Connection conn;
+        private final String base;
+        private final boolean own;
+        private PreparedStatement ps;
+
+        Sender(Connection conn, String base, boolean own) throws SQLException {
+            this.conn = conn;
+            this.base = base;
+            this.own = own;
+            this.ps = conn.prepareStatement(S_TTLP);
+        }
+
+        void load(String text) throws SQLException {
+            ps.setString(1, text);
+            ps.setString(2, base);
+            ps.setString(3, graph.getGraphName());
+            ps.setInt(4, conn.getAutoCommit() ? 0 : 1);
+            ps.execute();
+            chunks.incrementAndGet();
+            chars.addAndGet(text.length());
+        }
+
+        void drain(BlockingQueue<String> queue) {
+            for (;;) {
+                String text;
+                try {
+                    text = queue.take();
+                } catch (InterruptedException e) {
+                    abort(e);
+                    continue;
+                }
+                if (text == END)
+                    break;
+                // after a failure the queue is only drained, so the
+                // reading thread is never left blocked
+                if (failure != null)
+                    continue;
+                try {
+                    load(text);
+                } catch (Exception e) {
+                    abort(e);
+                }
+            }
+            close();
+        }
+
+        void close() {
+            try {
+                ps.close();
+            } catch (Exception e) {
+            }
+            if (own) {
+                try {
+                    conn.close();
+                } catch (Exception e) {
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Inserts the statements with blank node labels on the connection of
+     * the graph, with a dictionary of the labels that lasts for the whole
+     * text.  The dictionary the connection had before is put back at the
+     * end.
+     */
+    class LabelSender {
+        private final Connection conn;
+        private final String base;
+        private java.sql.Statement st;
+        private PreparedStatement ps;
+
+        LabelSender(Connection conn, String base) {
+            this.conn = conn;
+            this.base = base;
+        }
+
+        void load(String text) throws SQLException {
+            if (ps == null) {
+                st = conn.createStatement();
+                st.executeUpdate(S_SAVE_BNODES);
+                st.executeUpdate(S_NEW_BNODES);
+                ps = conn.prepareStatement(VirtGraph.S_BATCH_INSERT);
+            }
+            final String gName = graph.getGraphName();
+            final SQLException[] err = new SQLException[1];
+            RDFParser.create()
+                .source(new StringReader(text))
+                .lang(Lang.TURTLE)
+                .base(base)
+                .labelToNode(LabelToNode.createUseLabelAsGiven())
+                .parse(new StreamRDFBase() {
+                    public void triple(Triple t) {
+                        if (err[0] != null)
+                            return;
+                        try {
+                            graph.bindBatchParams(ps, t.getSubject(), t.getPredicate(), t.getObject(), gName);
+                            ps.addBatch();
+                        } catch (SQLException e) {
+                            err[0] = e;
+                        }
+                    }
+                });
+            if (err[0] != null)
+                throw err[0];
+            ps.executeBatch();
+            ps.clearBatch();
+            chunks.incrementAndGet();
+            chars.addAndGet(text.length());
+        }
+
+        void close() {
+            if (st != null) {
+                try {
+                    st.executeUpdate(S_RESTORE_BNODES);
+                } catch (Exception e) {
+                    abort(e);
+                }
+            }
+            try {
+                if (ps != null)
+                    ps.close();
+                if (st != null)
+                    st.close();
+            } catch (Exception e) {
+            }
+        }
+    }
+}
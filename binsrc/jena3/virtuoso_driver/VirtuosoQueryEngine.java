@@ -75,70 +75,42 @@ public class VirtuosoQueryEngine extends QueryEngineMain {
         op = Transformer.transform(transform, op);
 
         VirtGraph vg = (VirtGraph) dsg.getDefaultGraph();
-        String query = fixQuery(eQuery.toString(), initial, vg);
+        List<Node> params = new ArrayList<Node>();
+        String query = fixQuery(eQuery.toString(), initial, vg, params);
 
         try {
-            java.sql.Statement stmt = vg.createStatement(false);
-            java.sql.ResultSet rs = stmt.executeQuery(query);
-            return (QueryIterator) new VQueryIterator(vg, stmt, rs);
+            java.sql.PreparedStatement stmt = vg.prepareCachedStatement(query);
+            int col = 1;
+            for (Node n : params) {
+                vg.bindObject(stmt, col, n);
+                col += 3;
+            }
+            java.sql.ResultSet rs = stmt.executeQuery();
+            VQueryIterator it = new VQueryIterator(vg, stmt, rs);
+            it.sql = query;
+            return (QueryIterator) it;
         } catch (Exception e) {
             throw new JenaException("Can not create QueryIterator.:" + e);
         }
     }
 
 
-    private String substBindings(String query, Binding args) {
+    private static Map<String, Node> bindingParams(Binding args) {
         if (args == null)
-            return query;
-
-        VirtGraph vg = (VirtGraph) this.dataset.getDefaultGraph();
-
-        StringBuilder buf = new StringBuilder();
-        String delim = " ,)(;.";
-        int i = 0;
-        char ch;
-        int qlen = query.length();
-        while (i < qlen) {
-            ch = query.charAt(i++);
-            if (ch == '\\') {
-                buf.append(ch);
-                if (i < qlen)
-                    buf.append(query.charAt(i++));
-
-            } else if (ch == '"' || ch == '\'') {
-                char end = ch;
-                buf.append(ch);
-                while (i < qlen) {
-                    ch = query.charAt(i++);
-                    buf.append(ch);
-                    if (ch == end)
-                        break;
-                }
-            } else if (ch == '?') {  //Parameter
-                String varData = null;
-                int j = i;
-                while (j < qlen && delim.indexOf(query.charAt(j)) < 0) j++;
-                if (j != i) {
-                    String varName = query.substring(i, j);
-                    Node val = args.get(Var.alloc(varName));
-                    if (val != null) {
-                        varData = vg.Node2Str(val);
-                        i = j;
-                    }
-                }
-                if (varData != null)
-                    buf.append(varData);
-                else
-                    buf.append(ch);
-            } else {
-                buf.append(ch);
-            }
+            return null;
+
+        Map<String, Node> ret = new HashMap<String, Node>();
+        for (Iterator<Var> it = args.vars(); it.hasNext(); ) {
+            Var v = it.next();
+            Node val = args.get(v);
+            if (val != null)
+                ret.put(v.getVarName(), val);
         }
-        return buf.toString();
+        return ret;
     }
 
 
-    private String fixQuery(String query, Binding args, VirtGraph vg) {
+    private String fixQuery(String query, Binding args, VirtGraph vg, List<Node> params) {
         StringBuilder sb = new StringBuilder("sparql\n ");
 
         vg.appendSparqlPrefixes(sb, true);
@@ -146,7 +118,7 @@ public class VirtuosoQueryEngine extends QueryEngineMain {
         if (!vg.getReadFromAllGraphs())
             sb.append(" define input:default-graph-uri <" + vg.getGraphName() + "> \n");
 
-        sb.append(substBindings(query, args));
+        sb.append(VirtuosoQueryExecution.substParams(query, bindingParams(args), params));
         return sb.toString();
     }
 
@@ -222,10 +194,13 @@ public class VirtuosoQueryEngine extends QueryEngineMain {
         java.sql.ResultSetMetaData rsmd;
         java.sql.ResultSet rs;
         java.sql.Statement stmt;
+        String sql;
         VirtGraph vg;
         boolean v_finished = false;
         boolean v_prefetched = false;
+        boolean cancelled = false;
         BindingMap v_row;
+        Var[] vars;
         String virt_graph = null;
 
 
@@ -237,6 +212,9 @@ public class VirtuosoQueryEngine extends QueryEngineMain {
 
             try {
                 rsmd = rs.getMetaData();
+                vars = new Var[rsmd.getColumnCount()];
+                for (int i = 1; i <= vars.length; i++)
+                    vars[i - 1] = Var.alloc(rsmd.getColumnLabel(i));
             } catch (Exception e) {
                 throw new JenaException("VQueryIterator is FAILED.:" + e);
             }
@@ -276,11 +254,22 @@ public class VirtuosoQueryEngine extends QueryEngineMain {
                     } catch (Exception e) {
                     }
                 }
-                if (stmt != null) {
-                    try {
-                        stmt.close();
-                        stmt = null;
-                    } catch (Exception e) {
+                java.sql.Statement st;
+                boolean c;
+                synchronized (this) {
+                    st = stmt;
+                    stmt = null;
+                    c = cancelled;
+                }
+                if (st != null) {
+                    // a cancelled statement is not given back to the cache
+                    if (c) {
+                        try {
+                            st.close();
+                        } catch (Exception e) {
+                        }
+                    } else {
+                        vg.releaseStatement(sql, (java.sql.PreparedStatement) st);
                     }
                 }
             }
@@ -304,10 +293,10 @@ public class VirtuosoQueryEngine extends QueryEngineMain {
             v_row = BindingFactory.create();
 
             try {
-                for (int i = 1; i <= rsmd.getColumnCount(); i++) {
-                    Node n = VirtGraph.Object2Node(rs.getObject(i));
+                for (int i = 0; i < vars.length; i++) {
+                    Node n = vg.toNode(rs.getObject(i + 1));
                     if (n != null)
-                        v_row.add(Var.alloc(rsmd.getColumnLabel(i)), n);
+                        v_row.add(vars[i], n);
                 }
 
                 if (virt_graph != null && !virt_graph.equals("virt:DEFAULT"))
@@ -330,9 +319,14 @@ public class VirtuosoQueryEngine extends QueryEngineMain {
          * Propagates the cancellation request - called asynchronously with the iterator itself
          */
         protected void requestCancel() {
-            if (stmt != null) {
+            java.sql.Statement st;
+            synchronized (this) {
+                cancelled = true;
+                st = stmt;
+            }
+            if (st != null) {
                 try {
-                    stmt.cancel();
+                    st.cancel();
                 } catch (Exception e) {
                     throw new JenaException("requestCancel is FAILED.:" + e);
                 }
@@ -53,6 +53,7 @@ import org.apache.jena.rdf.model.*;
 
 import org.apache.jena.sparql.core.DatasetGraph;
 import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.riot.system.StreamRDF;
 import org.apache.jena.sparql.engine.binding.BindingFactory;
 import org.apache.jena.sparql.engine.binding.Binding;
 import org.apache.jena.sparql.engine.binding.BindingMap;
@@ -69,7 +70,7 @@ import org.apache.jena.sparql.util.ModelUtils;
 import org.apache.jena.util.FileManager;
 import org.apache.jena.query.*;
 
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 
 import virtuoso.jdbc4.VirtuosoConnectionPoolDataSource;
 
@@ -82,8 +83,14 @@ public class VirtuosoQueryExecution implements QueryExecution {
     private Context m_context = new Context();
     private Query mj_query = null;
     protected long timeout = -1;
+    protected int fetchSize = 0;
 
-    private java.sql.Statement stmt = null;
+    private java.sql.PreparedStatement stmt = null;
+    private String stmt_sql = null;
+    private boolean cancelled = false;
+    private Map<String, Node> m_params = null;
+
+    private static ExecutorService asyncExecutor = null;
 
 
     public VirtuosoQueryExecution(Query query, VirtGraph _graph) {
@@ -97,15 +104,31 @@ public class VirtuosoQueryExecution implements QueryExecution {
         virt_query = query;
     }
 
+    /**
+     * Executes the command text of pss with its variable values sent as
+     * parameters of the prepared query, rather than spliced in its text.
+     */
+    public VirtuosoQueryExecution(ParameterizedSparqlString pss, VirtGraph _graph) {
+        graph = _graph;
+        virt_graph = graph.getGraphName();
+        if (pss.getPositionalParameters().isEmpty()) {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, String> e : pss.getNsPrefixMap().entrySet())
+                sb.append("PREFIX ").append(e.getKey()).append(": <").append(e.getValue()).append(">\n");
+            sb.append(pss.getCommandText());
+            virt_query = sb.toString();
+            m_params = new HashMap<String, Node>(pss.getVariableParameters());
+        } else {
+            virt_query = pss.toString();
+        }
+    }
+
 
     public ResultSet execSelect() {
         ResultSet ret = null;
 
         try {
-            stmt = graph.createStatement(false);
-            if (timeout > 0)
-                stmt.setQueryTimeout((int) (timeout / 1000));
-            java.sql.ResultSet rs = stmt.executeQuery(getVosQuery());
+            java.sql.ResultSet rs = execute();
 
             return new VResultSet(graph, stmt, rs);
         } catch (Exception e) {
@@ -114,6 +137,97 @@ public class VirtuosoQueryExecution implements QueryExecution {
     }
 
 
+    /**
+     * Writes the result of a select query to out in one of the formats of
+     * VirtResultsWriter, straight from the rows of the JDBC result set, and
+     * returns the number of rows written.
+     */
+    public long execSelect(OutputStream out, int format) {
+        VirtResultsWriter w = new VirtResultsWriter(format);
+        w.setNodeCache(graph.getNodeCache());
+        try {
+            java.sql.ResultSet rs = execute();
+            long n = w.write(rs, out);
+            rs.close();
+            release(stmt);
+            return n;
+        } catch (Exception e) {
+            close();
+            throw new JenaException("Can not write ResultSet.:" + e);
+        }
+    }
+
+
+    /**
+     * Runs execSelect on a shared pool of threads.  The result is read to
+     * the end before the future completes, so it does not hold the
+     * statement.  Cancelling the future aborts the query.
+     */
+    public CompletableFuture<ResultSetRewindable> execSelectAsync() {
+        return execSelectAsync(getAsyncExecutor());
+    }
+
+    public CompletableFuture<ResultSetRewindable> execSelectAsync(Executor executor) {
+        return async(executor, new Callable<ResultSetRewindable>() {
+            public ResultSetRewindable call() {
+                return ResultSetFactory.copyResults(execSelect());
+            }
+        });
+    }
+
+    /**
+     * Runs execConstruct on a shared pool of threads.  Cancelling the
+     * future aborts the query.
+     */
+    public CompletableFuture<Model> execConstructAsync() {
+        return execConstructAsync(getAsyncExecutor());
+    }
+
+    public CompletableFuture<Model> execConstructAsync(Executor executor) {
+        return async(executor, new Callable<Model>() {
+            public Model call() {
+                return execConstruct();
+            }
+        });
+    }
+
+    private <T> CompletableFuture<T> async(Executor executor, final Callable<T> task) {
+        final CompletableFuture<T> f = new CompletableFuture<T>() {
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean ret = super.cancel(mayInterruptIfRunning);
+                abort();
+                return ret;
+            }
+        };
+        executor.execute(new Runnable() {
+            public void run() {
+                if (f.isDone())
+                    return;
+                try {
+                    f.complete(task.call());
+                } catch (Throwable e) {
+                    f.completeExceptionally(e);
+                } finally {
+                    close();
+                }
+            }
+        });
+        return f;
+    }
+
+    private static synchronized ExecutorService getAsyncExecutor() {
+        if (asyncExecutor == null)
+            asyncExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "VirtuosoQueryExecution-async");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        return asyncExecutor;
+    }
+
+
     public void setFileManager(FileManager arg) {
         throw new JenaException("UnsupportedMethodException");
     }
@@ -156,20 +270,16 @@ public class VirtuosoQueryExecution implements QueryExecution {
      * See {@link #execConstructTriples} for usage and features.
      */
     public Iterator<Quad> execConstructQuads() {
-        throw new JenaException("execConstructQuads isn't supported.");
-//??todo
-/*** we don't support return Quad else
-        try {
-            stmt = graph.createStatement();
-            if (timeout > 0)
-                stmt.setQueryTimeout((int) (timeout / 1000));
-            java.sql.ResultSet rs = stmt.executeQuery(getVosQuery());
-            return new VirtResSetIter3(graph, stmt, rs);
+        final Iterator<Triple> it = execConstructTriples();
+        return new Iterator<Quad>() {
+            public boolean hasNext() {
+                return it.hasNext();
+            }
 
-        } catch (Exception e) {
-            throw new JenaException("execConstructQuads has FAILED.:" + e);
-        }
-***/
+            public Quad next() {
+                return new Quad(Quad.defaultGraphIRI, it.next());
+            }
+        };
     }
 
 
@@ -184,22 +294,10 @@ public class VirtuosoQueryExecution implements QueryExecution {
      *  This maybe an exetended synatx query (if supported).
      */
     public Dataset execConstructDataset(Dataset dataset) {
-//??todo
-/***** we don't support return Quad else
-        DatasetGraph dsg = dataset.asDatasetGraph() ;
-        try {
-            execConstructQuads().forEachRemaining(dsg::add);
-//??todo            insertPrefixesInto(dataset);
-        } finally {
-            this.close();
-        }
-        return dataset ;
-*****/
         DatasetGraph dsg = dataset.asDatasetGraph() ;
-        Graph g = dsg.getDefaultGraph();
         try {
-            for(Iterator<Triple> it = execConstructTriples(); it.hasNext(); )
-              g.add(it.next());
+            for(Iterator<Quad> it = execConstructQuads(); it.hasNext(); )
+              dsg.add(it.next());
         } finally {
             this.close();
         }
@@ -215,23 +313,19 @@ public class VirtuosoQueryExecution implements QueryExecution {
 
     public Model execConstruct(Model model) {
         try {
-            stmt = graph.createStatement(false);
-            if (timeout > 0)
-                stmt.setQueryTimeout((int) (timeout / 1000));
-            java.sql.ResultSet rs = stmt.executeQuery(getVosQuery());
+            java.sql.ResultSet rs = execute();
             ResultSetMetaData rsmd = rs.getMetaData();
 
             while (rs.next()) {
-                Node s = VirtGraph.Object2Node(rs.getObject(1));
-                Node p = VirtGraph.Object2Node(rs.getObject(2));
-                Node o = VirtGraph.Object2Node(rs.getObject(3));
+                Node s = graph.toNode(rs.getObject(1));
+                Node p = graph.toNode(rs.getObject(2));
+                Node o = graph.toNode(rs.getObject(3));
                 org.apache.jena.rdf.model.Statement st = ModelUtils.tripleToStatement(model, new Triple(s, p, o));
                 if (st != null)
                     model.add(st);
             }
             rs.close();
-            stmt.close();
-            stmt = null;
+            release(stmt);
 
         } catch (Exception e) {
             throw new JenaException("Convert results has FAILED.:" + e);
@@ -249,11 +343,8 @@ public class VirtuosoQueryExecution implements QueryExecution {
      */
     public Iterator<Triple> execConstructTriples() {
         try {
-            stmt = graph.createStatement(false);
-            if (timeout > 0)
-                stmt.setQueryTimeout((int) (timeout / 1000));
-            java.sql.ResultSet rs = stmt.executeQuery(getVosQuery());
-            return new VirtResSetIter2(graph, stmt, rs);
+            java.sql.ResultSet rs = execute();
+            return new ResSetIter(rs);
 
         } catch (Exception e) {
             throw new JenaException("execConstructTriples has FAILED.:" + e);
@@ -267,23 +358,19 @@ public class VirtuosoQueryExecution implements QueryExecution {
 
     public Model execDescribe(Model model) {
         try {
-            stmt = graph.createStatement(false);
-            if (timeout > 0)
-                stmt.setQueryTimeout((int) (timeout / 1000));
-            java.sql.ResultSet rs = stmt.executeQuery(getVosQuery());
+            java.sql.ResultSet rs = execute();
             ResultSetMetaData rsmd = rs.getMetaData();
             while (rs.next()) {
-                Node s = VirtGraph.Object2Node(rs.getObject(1));
-                Node p = VirtGraph.Object2Node(rs.getObject(2));
-                Node o = VirtGraph.Object2Node(rs.getObject(3));
+                Node s = graph.toNode(rs.getObject(1));
+                Node p = graph.toNode(rs.getObject(2));
+                Node o = graph.toNode(rs.getObject(3));
 
                 org.apache.jena.rdf.model.Statement st = ModelUtils.tripleToStatement(model, new Triple(s, p, o));
                 if (st != null)
                     model.add(st);
             }
             rs.close();
-            stmt.close();
-            stmt = null;
+            release(stmt);
 
         } catch (Exception e) {
             throw new JenaException("Convert results are FAILED.:" + e);
@@ -301,11 +388,8 @@ public class VirtuosoQueryExecution implements QueryExecution {
      */
     public Iterator<Triple> execDescribeTriples() {
         try {
-            stmt = graph.createStatement(false);
-            if (timeout > 0)
-                stmt.setQueryTimeout((int) (timeout / 1000));
-            java.sql.ResultSet rs = stmt.executeQuery(getVosQuery());
-            return new VirtResSetIter2(graph, stmt, rs);
+            java.sql.ResultSet rs = execute();
+            return new ResSetIter(rs);
 
         } catch (Exception e) {
             throw new JenaException("execDescribeTriples has FAILED.:" + e);
@@ -313,14 +397,46 @@ public class VirtuosoQueryExecution implements QueryExecution {
     }
 
 
+    /**
+     * Execute a CONSTRUCT query, sending the triples to stream as they
+     * are read from the server, rather than collecting them in a Model.
+     * The rows are fetched in windows of getFetchSize() rows.
+     */
+    public void execConstruct(StreamRDF stream) {
+        send(execConstructTriples(), stream);
+    }
+
+    /**
+     * Execute a DESCRIBE query, sending the triples to stream as they
+     * are read from the server.
+     */
+    public void execDescribe(StreamRDF stream) {
+        send(execDescribeTriples(), stream);
+    }
+
+    private void send(Iterator<Triple> it, StreamRDF stream) {
+        stream.start();
+        try {
+            Query q = getQuery();
+            if (q != null) {
+                for (Map.Entry<String, String> e : q.getPrefixMapping().getNsPrefixMap().entrySet())
+                    stream.prefix(e.getKey(), e.getValue());
+            }
+            while (it.hasNext())
+                stream.triple(it.next());
+        } finally {
+            if (it instanceof ResSetIter)
+                ((ResSetIter) it).close();
+            stream.finish();
+        }
+    }
+
+
     public boolean execAsk() {
         boolean ret = false;
 
         try {
-            stmt = graph.createStatement(false);
-            if (timeout > 0)
-                stmt.setQueryTimeout((int) (timeout / 1000));
-            java.sql.ResultSet rs = stmt.executeQuery(getVosQuery());
+            java.sql.ResultSet rs = execute();
             ResultSetMetaData rsmd = rs.getMetaData();
 
             while (rs.next()) {
@@ -328,8 +444,7 @@ public class VirtuosoQueryExecution implements QueryExecution {
                     ret = true;
             }
             rs.close();
-            stmt.close();
-            stmt = null;
+            release(stmt);
 
         } catch (Exception e) {
             throw new JenaException("Convert results has FAILED.:" + e);
@@ -343,10 +458,7 @@ public class VirtuosoQueryExecution implements QueryExecution {
 /*** checkme
         JsonArray jsonArray = new JsonArray() ;
         try {
-            stmt = graph.createStatement(false);
-            if (timeout > 0)
-                stmt.setQueryTimeout((int) (timeout / 1000));
-            java.sql.ResultSet rs = stmt.executeQuery(getVosQuery());
+            java.sql.ResultSet rs = execute();
 
             VResultSet vrs = new VResultSet(graph, stmt, rs);
 
@@ -377,19 +489,30 @@ public class VirtuosoQueryExecution implements QueryExecution {
 
 
     public void abort() {
-        if (stmt != null)
+        java.sql.Statement st;
+        synchronized (this) {
+            cancelled = true;
+            st = stmt;
+        }
+        if (st != null)
             try {
-                stmt.cancel();
+                st.cancel();
             } catch (Exception e) {
             }
     }
 
 
     public void close() {
-        if (stmt != null)
+        java.sql.Statement st;
+        synchronized (this) {
+            st = stmt;
+            stmt = null;
+        }
+        // a cancelled statement is not given back to the cache
+        if (st != null)
             try {
-                stmt.cancel();
-                stmt.close();
+                st.cancel();
+                st.close();
             } catch (Exception e) {
             }
     }
@@ -442,6 +565,19 @@ public class VirtuosoQueryExecution implements QueryExecution {
     }
 
 
+    public int getFetchSize() {
+        return fetchSize > 0 ? fetchSize : graph.getFetchSize();
+    }
+
+    /**
+     * Set the number of rows read from the server at a time by the
+     * results of this execution; 0 uses the fetch size of the graph.
+     */
+    public void setFetchSize(int sz) {
+        this.fetchSize = sz;
+    }
+
+
     /**
      * Return the first timeout (time to first result), in millseconds: negative if unset
      */
@@ -456,12 +592,16 @@ public class VirtuosoQueryExecution implements QueryExecution {
         return -1L;
     }
 
-    private String substBindings(String query) {
-        if (m_arg == null)
+    /**
+     * Replaces the variables of query that have a value in args with
+     * parameter markers, and adds their values to params in order.
+     * The text of the IRIs, the strings and the comments is kept as is.
+     */
+    static String substParams(String query, Map<String, Node> args, List<Node> params) {
+        if (args == null || args.isEmpty())
             return query;
 
-        StringBuffer buf = new StringBuffer();
-        String delim = " ,)(;.}{";
+        StringBuilder buf = new StringBuilder(query.length() + 64);
         int i = 0;
         char ch;
         int qlen = query.length();
@@ -478,25 +618,36 @@ public class VirtuosoQueryExecution implements QueryExecution {
                 while (i < qlen) {
                     ch = query.charAt(i++);
                     buf.append(ch);
-                    if (ch == end)
+                    if (ch == '\\' && i < qlen)
+                        buf.append(query.charAt(i++));
+                    else if (ch == end)
                         break;
                 }
-            } else if (ch == '?') {  //Parameter
-                String varData = null;
+            } else if (ch == '<') {  // IRI, if there is no blank up to the '>'
                 int j = i;
-                while (j < qlen && delim.indexOf(query.charAt(j)) < 0) j++;
-                if (j != i) {
-                    String varName = query.substring(i, j);
-                    RDFNode val = m_arg.get(varName);
-                    if (val != null) {
-                        varData = graph.Node2Str(val.asNode());
-                        i = j;
-                    }
+                while (j < qlen && query.charAt(j) > ' ' && query.charAt(j) != '>' && query.charAt(j) != '<')
+                    j++;
+                buf.append(ch);
+                if (j < qlen && query.charAt(j) == '>') {
+                    buf.append(query, i, j + 1);
+                    i = j + 1;
                 }
-                if (varData != null)
-                    buf.append(varData);
-                else
+            } else if (ch == '#') {
+                buf.append(ch);
+                while (i < qlen && query.charAt(i) != '\n')
+                    buf.append(query.charAt(i++));
+            } else if (ch == '?' || ch == '$') {  //Parameter
+                int j = i;
+                while (j < qlen && (Character.isLetterOrDigit(query.charAt(j)) || query.charAt(j) == '_'))
+                    j++;
+                Node val = (j != i) ? args.get(query.substring(i, j)) : null;
+                if (val != null) {
+                    buf.append("`bif:__rdf_long_from_batch_params(??,??,??)`");
+                    params.add(val);
+                    i = j;
+                } else {
                     buf.append(ch);
+                }
             } else {
                 buf.append(ch);
             }
@@ -505,7 +656,24 @@ public class VirtuosoQueryExecution implements QueryExecution {
     }
 
 
-    private String getVosQuery() {
+    private Map<String, Node> getParams() {
+        if (m_arg == null)
+            return m_params;
+
+        Map<String, Node> args = new HashMap<String, Node>();
+        if (m_params != null)
+            args.putAll(m_params);
+        for (Iterator<String> it = m_arg.varNames(); it.hasNext(); ) {
+            String name = it.next();
+            RDFNode val = m_arg.get(name);
+            if (val != null)
+                args.put(name, val.asNode());
+        }
+        return args;
+    }
+
+
+    private String getVosQuery(List<Node> params) {
         StringBuilder sb = new StringBuilder("sparql\n ");
 
         graph.appendSparqlPrefixes(sb, true);
@@ -513,12 +681,82 @@ public class VirtuosoQueryExecution implements QueryExecution {
         if (!graph.getReadFromAllGraphs())
             sb.append(" define input:default-graph-uri <" + graph.getGraphName() + "> \n");
 
-        sb.append(substBindings(virt_query));
+        sb.append(substParams(virt_query, getParams(), params));
 
         return sb.toString();
     }
 
 
+    /**
+     * Executes the query with a prepared statement of the graph cache,
+     * binding the values of the initial bindings as parameters.
+     */
+    private java.sql.ResultSet execute() throws java.sql.SQLException {
+        List<Node> params = new ArrayList<Node>();
+        String sql = getVosQuery(params);
+        java.sql.PreparedStatement ps = graph.prepareCachedStatement(sql);
+        try {
+            int col = 1;
+            for (Node n : params) {
+                graph.bindObject(ps, col, n);
+                col += 3;
+            }
+            if (timeout > 0)
+                ps.setQueryTimeout((int) (timeout / 1000));
+            if (fetchSize > 0)
+                ps.setFetchSize(fetchSize);
+            synchronized (this) {
+                stmt = ps;
+                stmt_sql = sql;
+            }
+            return ps.executeQuery();
+        } catch (java.sql.SQLException e) {
+            release(ps);
+            throw e;
+        }
+    }
+
+    /**
+     * Gives the statement back to the cache of the graph, once, or closes
+     * it when the query was aborted
+     */
+    void release(java.sql.Statement ps) {
+        String sql;
+        boolean close;
+        synchronized (this) {
+            if (ps == null || ps != stmt)
+                return;
+            stmt = null;
+            sql = stmt_sql;
+            close = cancelled;
+        }
+        if (close)
+            try {
+                ps.close();
+            } catch (Exception e) {
+            }
+        else
+            graph.releaseStatement(sql, (java.sql.PreparedStatement) ps);
+    }
+
+
+    private class ResSetIter extends VirtResSetIter2 {
+        private final java.sql.Statement ps;
+
+        ResSetIter(java.sql.ResultSet rs) {
+            super(graph, null, rs);
+            ps = stmt;
+        }
+
+        public void close() {
+            boolean finished = v_finished;
+            super.close();
+            if (!finished)
+                release(ps);
+        }
+    }
+
+
     ///=== Inner class ===========================================
     public class VResultSet implements org.apache.jena.query.ResultSet {
         java.sql.Statement stmt;
@@ -529,6 +767,7 @@ public class VirtuosoQueryExecution implements QueryExecution {
         VirtModel m;
         BindingMap v_row;
         List<String> resVars = new LinkedList();
+        Var[] vars;
         int row_id = 0;
 
 
@@ -539,8 +778,11 @@ public class VirtuosoQueryExecution implements QueryExecution {
 
             try {
                 rsmd = rs.getMetaData();
-                for (int i = 1; i <= rsmd.getColumnCount(); i++)
+                vars = new Var[rsmd.getColumnCount()];
+                for (int i = 1; i <= rsmd.getColumnCount(); i++) {
                     resVars.add(rsmd.getColumnLabel(i));
+                    vars[i - 1] = Var.alloc(rsmd.getColumnLabel(i));
+                }
 
                 if (virt_graph != null && !virt_graph.equals("virt:DEFAULT"))
                     resVars.add("graph");
@@ -617,10 +859,10 @@ public class VirtuosoQueryExecution implements QueryExecution {
             row_id++;
 
             try {
-                for (int i = 1; i <= rsmd.getColumnCount(); i++) {
-                    Node n = VirtGraph.Object2Node(rs.getObject(i));
+                for (int i = 0; i < vars.length; i++) {
+                    Node n = graph.toNode(rs.getObject(i + 1));
                     if (n != null)
-                        v_row.add(Var.alloc(rsmd.getColumnLabel(i)), n);
+                        v_row.add(vars[i], n);
                 }
 
                 if (virt_graph != null && !virt_graph.equals("virt:DEFAULT"))
@@ -644,11 +886,8 @@ public class VirtuosoQueryExecution implements QueryExecution {
                     }
                 }
                 if (stmt != null) {
-                    try {
-                        stmt.close();
-                        stmt = null;
-                    } catch (Exception e) {
-                    }
+                    release(stmt);
+                    stmt = null;
                 }
             }
             v_finished = true;
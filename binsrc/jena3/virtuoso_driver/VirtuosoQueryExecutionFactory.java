@@ -25,6 +25,7 @@ package virtuoso.jena.driver;
 
 import java.util.List;
 
+import org.apache.jena.query.ParameterizedSparqlString;
 import org.apache.jena.query.Query;
 import org.apache.jena.query.QueryExecution;
 import org.apache.jena.query.QueryFactory;
@@ -56,6 +57,11 @@ public class VirtuosoQueryExecutionFactory {
         return ret;
     }
 
+    static public VirtuosoQueryExecution create(ParameterizedSparqlString pss, VirtGraph graph) {
+        VirtuosoQueryExecution ret = new VirtuosoQueryExecution(pss, graph);
+        return ret;
+    }
+
 /* TODO */
 
     static public QueryExecution create(Query query, Dataset dataset) {
@@ -66,11 +66,14 @@ public class VirtuosoUpdateRequest {
             }
             stmt.executeBatch();
             stmt.clearBatch();
+            graph.invalidateCaches();
 
             requests.clear();
             stmt.close();
             stmt = null;
         } catch (Exception e) {
+            // a part of the batch may have been applied
+            graph.invalidateCaches();
             throw new UpdateException("Convert results are FAILED.:", e);
         }
 
@@ -0,0 +1,209 @@
+/*
+ *  $Id$
+ *
+ *  This file is part of the OpenLink Software Virtuoso Open-Source (VOS)
+ *  project.
+ *
+ *  Copyright (C) 1998-2020 OpenLink Software
+ *
+ *  This project is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation; only version 2 of the License, dated June 1991.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package virtuoso.rdf4j.driver;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.*;
+
+import org.eclipse.rdf4j.repository.RepositoryException;
+import org.eclipse.rdf4j.rio.RDFFormat;
+
+/**
+ * Checks how VirtuosoChunkLoader cuts its input into chunks, without a
+ * server: the workers are not started and the chunks stay in their queues.
+ */
+public class VirtuosoChunkLoaderTest {
+
+    static int PASSED = 0;
+    static int FAILED = 0;
+
+    static void check(String id, boolean OK, String mess) {
+        System.out.println((OK ? "PASSED:" : "***FAILED:") + " TEST " + id + (OK ? "" : " : " + mess));
+        if (OK) PASSED++;
+        else FAILED++;
+    }
+
+    static VirtuosoChunkLoader newLoader() {
+        VirtuosoChunkLoader loader = new VirtuosoChunkLoader(null, 2, 1024);
+        loader.setQueueSize(10000);
+        loader.setStopOnError(false);
+        return loader;
+    }
+
+    static List<VirtuosoChunkLoader.Worker> newWorkers(VirtuosoChunkLoader loader, int n) {
+        VirtuosoChunkLoader.Target target = new VirtuosoChunkLoader.Target("", new String[] {"urn:g"},
+                0, 0, RDFFormat.NTRIPLES, new org.eclipse.rdf4j.model.Resource[0]);
+        List<VirtuosoChunkLoader.Worker> workers = new ArrayList<VirtuosoChunkLoader.Worker>();
+        for (int i = 0; i < n; i++)
+            workers.add(loader.new Worker(i, null, null, target));
+        return workers;
+    }
+
+    /**
+     * Reads the text and returns the chunks in the order they were cut
+     */
+    static List<VirtuosoChunkLoader.Chunk> read(String text, int n) throws Exception {
+        return read(new StringReader(text), n);
+    }
+
+    static List<VirtuosoChunkLoader.Chunk> read(Reader reader, int n) throws Exception {
+        VirtuosoChunkLoader loader = newLoader();
+        List<VirtuosoChunkLoader.Worker> workers = newWorkers(loader, n);
+        loader.read(reader, workers);
+        List<VirtuosoChunkLoader.Chunk> chunks = new ArrayList<VirtuosoChunkLoader.Chunk>();
+        for (VirtuosoChunkLoader.Worker w : workers)
+            chunks.addAll(w.in);
+        Collections.sort(chunks, new Comparator<VirtuosoChunkLoader.Chunk>() {
+            public int compare(VirtuosoChunkLoader.Chunk a, VirtuosoChunkLoader.Chunk b) {
+                return a.seq - b.seq;
+            }
+        });
+        return chunks;
+    }
+
+    static String triple(int i) {
+        return "<http://example.org/s" + i + "> <http://example.org/p> \"v" + i + "\" .\n";
+    }
+
+    static String join(List<VirtuosoChunkLoader.Chunk> chunks, boolean bnodes) {
+        StringBuilder sb = new StringBuilder();
+        for (VirtuosoChunkLoader.Chunk c : chunks)
+            if (c.bnodes == bnodes)
+                sb.append(c.text);
+        return sb.toString();
+    }
+
+    static void testLastLineWithoutNewline() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+            sb.append(triple(i));
+        String last = "<http://example.org/last> <http://example.org/p> \"end\" .";
+        sb.append(last);
+
+        List<VirtuosoChunkLoader.Chunk> chunks = read(sb.toString(), 2);
+        check("LastLineWithoutNewline text", join(chunks, false).equals(sb.toString()), "input not kept");
+        VirtuosoChunkLoader.Chunk c = chunks.get(chunks.size() - 1);
+        check("LastLineWithoutNewline tail", c.text.endsWith(last), c.text);
+        check("LastLineWithoutNewline line", c.line + c.lines - 1 == 101,
+                "last chunk ends at line " + (c.line + c.lines - 1));
+    }
+
+    static void testLongLine() throws Exception {
+        StringBuilder big = new StringBuilder("<http://example.org/big> <http://example.org/p> \"");
+        while (big.length() < 5000)
+            big.append("0123456789");
+        big.append("\" .\n");
+        String text = triple(1) + big + triple(2);
+
+        // hand the input in small pieces, as a stream does
+        Reader reader = new StringReader(text) {
+            public int read(char[] cbuf, int off, int len) throws java.io.IOException {
+                return super.read(cbuf, off, Math.min(len, 100));
+            }
+        };
+        List<VirtuosoChunkLoader.Chunk> chunks = read(reader, 1);
+        check("LongLine text", join(chunks, false).equals(text), "input not kept");
+        boolean whole = false;
+        for (VirtuosoChunkLoader.Chunk c : chunks) {
+            if (c.text.contains(big))
+                whole = true;
+            check("LongLine chunk " + c.seq + " ends at a line end", c.text.endsWith("\n"), c.text);
+        }
+        check("LongLine in one chunk", whole, "the long line was cut");
+    }
+
+    static void testBNodes() throws Exception {
+        StringBuilder plain = new StringBuilder();
+        StringBuilder bnodes = new StringBuilder();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            String s;
+            if (i % 3 == 0) {
+                s = "_:b" + i + " <http://example.org/p> <http://example.org/o" + i + "> .\n";
+                bnodes.append(s);
+            } else if (i % 3 == 1) {
+                s = "<http://example.org/s" + i + "> <http://example.org/p> _:b" + i + " .\n";
+                bnodes.append(s);
+            } else {
+                s = triple(i);
+                plain.append(s);
+            }
+            text.append(s);
+        }
+
+        VirtuosoChunkLoader loader = newLoader();
+        List<VirtuosoChunkLoader.Worker> workers = newWorkers(loader, 3);
+        loader.read(new StringReader(text.toString()), workers);
+
+        boolean routed = true;
+        for (int i = 1; i < workers.size(); i++)
+            for (VirtuosoChunkLoader.Chunk c : workers.get(i).in)
+                routed &= !c.bnodes;
+        check("BNodes only on the first worker", routed, "a blank node chunk went to another worker");
+
+        List<VirtuosoChunkLoader.Chunk> chunks = read(text.toString(), 3);
+        check("BNodes apart", join(chunks, true).equals(bnodes.toString()), join(chunks, true));
+        check("BNodes plain lines", join(chunks, false).equals(plain.toString()), join(chunks, false));
+    }
+
+    static void testErrorLines() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+            sb.append(triple(i));
+
+        VirtuosoChunkLoader loader = newLoader();
+        List<VirtuosoChunkLoader.Chunk> chunks = read(sb.toString(), 2);
+        long line = 1;
+        boolean contiguous = true;
+        for (VirtuosoChunkLoader.Chunk c : chunks) {
+            contiguous &= c.line == line;
+            line += c.lines;
+            loader.error(c, new Exception("bad"));
+        }
+        check("ErrorLines contiguous", contiguous && line == 101, "chunks end at line " + (line - 1));
+
+        List<RepositoryException> errors = loader.getErrors();
+        VirtuosoChunkLoader.Chunk c = chunks.get(1);
+        String expected = "Chunk " + c.seq + " (lines " + c.line + "-" + (c.line + c.lines - 1) + ") failed: bad";
+        check("ErrorLines count", errors.size() == chunks.size(), "" + errors.size());
+        check("ErrorLines message", errors.get(1).getMessage().equals(expected), errors.get(1).getMessage());
+
+        // a single line without a line end still covers one line
+        loader.error(new VirtuosoChunkLoader.Chunk(7, 42, 0, "", false), new Exception("bad"));
+        errors = loader.getErrors();
+        String msg = errors.get(errors.size() - 1).getMessage();
+        check("ErrorLines empty chunk", msg.equals("Chunk 7 (lines 42-42) failed: bad"), msg);
+    }
+
+    public static void main(String[] args) throws Exception {
+        testLastLineWithoutNewline();
+        testLongLine();
+        testBNodes();
+        testErrorLines();
+
+        System.out.println("============================");
+        System.out.println("PASSED:" + PASSED + " FAILED:" + FAILED);
+        System.exit(FAILED == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ *  $Id$
+ *
+ *  This file is part of the OpenLink Software Virtuoso Open-Source (VOS)
+ *  project.
+ *
+ *  Copyright (C) 1998-2020 OpenLink Software
+ *
+ *  This project is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation; only version 2 of the License, dated June 1991.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package virtuoso.rdf4j.driver;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.rdf4j.model.*;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.RepositoryException;
+import org.eclipse.rdf4j.rio.*;
+import org.eclipse.rdf4j.rio.helpers.AbstractRDFHandler;
+import org.eclipse.rdf4j.rio.helpers.ParseErrorLogger;
+
+/**
+ * Loads RDF data into a Virtuoso repository through a pipeline, so that
+ * parsing, binding and the execution of the batches overlap.
+ * <p>
+ * The calling thread runs the Rio parser and cuts the statements into
+ * batches, which go through bounded queues to one worker per connection.
+ * Each worker has a binder thread, which binds a batch into one of two
+ * prepared inserts, and an executor thread, which runs executeBatch on the
+ * other one meanwhile.  The first worker uses the connection of the caller;
+ * the others use new connections of the repository, in autocommit mode.
+ * When the caller is in a transaction, only its connection is used.
+ * <p>
+ * The statements with blank nodes all go to the first worker, which keeps
+ * the labels to blank node mapping of the server consistent.
+ * <pre>
+ *   VirtuosoBulkLoader loader = new VirtuosoBulkLoader(con, 4);
+ *   loader.load(in, baseURI, RDFFormat.NQUADS);
+ * </pre>
+ */
+public class VirtuosoBulkLoader {
+
+    static final List<Statement> END = new ArrayList<Statement>(0);
+
+    private final VirtuosoRepositoryConnection con;
+    private int threads;
+    private int batchSize;
+    private int queueSize = 2;
+
+    private final AtomicLong loaded = new AtomicLong();
+    private volatile Throwable failure;
+
+    public VirtuosoBulkLoader(VirtuosoRepositoryConnection con, int threads) {
+        this.con = con;
+        this.threads = Math.max(1, threads);
+        this.batchSize = ((VirtuosoRepository) con.getRepository()).getBatchSize();
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int sz) {
+        this.batchSize = Math.max(1, sz);
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Set the number of batches queued for each worker(default 2)
+     */
+    public void setQueueSize(int sz) {
+        this.queueSize = Math.max(1, sz);
+    }
+
+    /**
+     * Get the number of statements inserted so far
+     */
+    public long getLoaded() {
+        return loaded.get();
+    }
+
+    public void load(InputStream in, String baseURI, RDFFormat dataFormat, Resource... contexts) throws IOException, RDFParseException, RepositoryException {
+        load(in, null, baseURI, dataFormat, contexts);
+    }
+
+    public void load(Reader reader, String baseURI, RDFFormat dataFormat, Resource... contexts) throws IOException, RDFParseException, RepositoryException {
+        load(null, reader, baseURI, dataFormat, contexts);
+    }
+
+
+    private void load(InputStream in, Reader reader, String baseURI, RDFFormat dataFormat, Resource... contexts) throws IOException, RDFParseException, RepositoryException {
+        final boolean useStatementContext = (contexts != null && contexts.length == 0);
+        final Resource[] _contexts = con.checkDMLContext(contexts);
+        final ValueFactory vf = con.getValueFactory();
+        final List<Worker> workers = new ArrayList<Worker>();
+        failure = null;
+
+        int n = threads;
+        try {
+            if (!con.getQuadStoreConnection().getAutoCommit())
+                n = 1;
+        } catch (SQLException e) {
+            throw new RepositoryException(e);
+        }
+
+        try {
+            for (int i = 0; i < n; i++)
+                workers.add(i == 0 ? new Worker(0, con.getQuadStoreConnection(), null)
+                                   : new Worker(i, null, con.getRepository().getConnection()));
+            for (Worker w : workers)
+                w.start();
+
+            RDFParser parser = Rio.createParser(dataFormat, vf);
+            parser.setParserConfig(con.getParserConfig());
+            parser.setParseErrorListener(new ParseErrorLogger());
+            parser.setRDFHandler(new AbstractRDFHandler() {
+                List<Statement> batch = new ArrayList<Statement>();
+                List<Statement> bnodes = new ArrayList<Statement>();
+                int next = 0;
+
+                public void endRDF() throws RDFHandlerException {
+                    if (!batch.isEmpty())
+                        send(batch, true);
+                    if (!bnodes.isEmpty())
+                        send(bnodes, false);
+                    batch = bnodes = null;
+                }
+
+                public void handleNamespace(String prefix, String name) throws RDFHandlerException {
+                    try {
+                        con.setNamespaceDecl(prefix, name);
+                    }
+                    catch (RepositoryException e) {
+                        throw new RDFHandlerException(e);
+                    }
+                }
+
+                public void handleStatement(Statement st) throws RDFHandlerException {
+                    Resource[] hcontexts;
+                    if (st.getContext() != null && useStatementContext)
+                        hcontexts = new Resource[] {st.getContext()};
+                    else
+                        hcontexts = _contexts;
+
+                    boolean bnode = con.hasLocalBNode(st);
+                    List<Statement> b = bnode ? bnodes : batch;
+                    for (Resource ctx : hcontexts)
+                        b.add(ctx.equals(st.getContext()) ? st : vf.createStatement(st.getSubject(), st.getPredicate(), st.getObject(), ctx));
+
+                    if (b.size() >= batchSize) {
+                        send(b, !bnode);
+                        if (bnode)
+                            bnodes = new ArrayList<Statement>(batchSize);
+                        else
+                            batch = new ArrayList<Statement>(batchSize);
+                    }
+                }
+
+                private void send(List<Statement> b, boolean any) throws RDFHandlerException {
+                    if (failure != null)
+                        throw new RDFHandlerException(failure);
+                    Worker w = any ? workers.get(next++ % workers.size()) : workers.get(0);
+                    try {
+                        w.in.put(b);
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RDFHandlerException(e);
+                    }
+                }
+            });
+
+            if (in != null)
+                parser.parse(in, baseURI);
+            else
+                parser.parse(reader, baseURI);
+        }
+        catch (RDFHandlerException e) {
+            if (failure == null)
+                failure = e.getCause() != null ? e.getCause() : e;
+        }
+        catch (IOException e) {
+            failure = e;
+        }
+        catch (RDFParseException e) {
+            failure = e;
+        }
+        finally {
+            for (Worker w : workers)
+                w.finish();
+        }
+
+        if (failure instanceof IOException)
+            throw (IOException) failure;
+        if (failure instanceof RDFParseException)
+            throw (RDFParseException) failure;
+        if (failure instanceof RepositoryException)
+            throw (RepositoryException) failure;
+        if (failure != null)
+            throw new RepositoryException("Problem loading triples", failure);
+    }
+
+
+    private void fail(Throwable e) {
+        if (failure == null)
+            failure = e;
+    }
+
+
+    /**
+     * A connection with its binder and executor threads.
+     */
+    final class Worker {
+        final BlockingQueue<List<Statement>> in = new ArrayBlockingQueue<List<Statement>>(queueSize);
+        final BlockingQueue<PreparedStatement> free = new ArrayBlockingQueue<PreparedStatement>(2);
+        final BlockingQueue<Object> ready = new ArrayBlockingQueue<Object>(2);
+        final Connection connection;
+        final RepositoryConnection owned;
+        final boolean bnodes;
+        Thread binder;
+        Thread executor;
+        java.sql.Statement st_cmd = null;
+
+        Worker(int id, Connection connection, RepositoryConnection owned) {
+            this.owned = owned;
+            this.connection = owned != null ? ((VirtuosoRepositoryConnection) owned).getQuadStoreConnection() : connection;
+            this.bnodes = id == 0;
+
+            binder = new Thread("VirtuosoBulkLoader-bind-" + id) {
+                public void run() {
+                    bind();
+                }
+            };
+            executor = new Thread("VirtuosoBulkLoader-exec-" + id) {
+                public void run() {
+                    execute();
+                }
+            };
+            binder.setDaemon(true);
+            executor.setDaemon(true);
+        }
+
+        void start() throws RepositoryException {
+            try {
+                if (bnodes && !con.getInsertBNodeAsVirtuosoIRI()) {
+                    st_cmd = connection.createStatement();
+                    st_cmd.executeUpdate("connection_set ('RDF_INSERT_TRIPLE_C_BNODES', dict_new(1000))");
+                }
+                free.add(connection.prepareStatement(VirtuosoRepositoryConnection.S_BATCH_INSERT));
+                free.add(connection.prepareStatement(VirtuosoRepositoryConnection.S_BATCH_INSERT));
+            }
+            catch (SQLException e) {
+                throw new RepositoryException(e);
+            }
+            binder.start();
+            executor.start();
+        }
+
+        private void bind() {
+            try {
+                while (true) {
+                    List<Statement> b = in.take();
+                    if (b == END) {
+                        ready.put(END);
+                        return;
+                    }
+                    if (failure != null)
+                        continue;
+                    PreparedStatement ps = free.take();
+                    try {
+                        for (Statement st : b) {
+                            con.bindParams(ps, st.getSubject(), st.getPredicate(), st.getObject(), st.getContext());
+                            ps.addBatch();
+                        }
+                    }
+                    catch (Exception e) {
+                        fail(e);
+                    }
+                    ready.put(new Object[] {ps, b.size()});
+                }
+            }
+            catch (InterruptedException e) {
+                fail(e);
+            }
+        }
+
+        private void execute() {
+            try {
+                while (true) {
+                    Object o = ready.take();
+                    if (o == END)
+                        return;
+                    PreparedStatement ps = (PreparedStatement) ((Object[]) o)[0];
+                    try {
+                        if (failure == null) {
+                            ps.executeBatch();
+                            loaded.addAndGet((Integer) ((Object[]) o)[1]);
+                        }
+                        ps.clearBatch();
+                    }
+                    catch (Exception e) {
+                        fail(e);
+                    }
+                    free.put(ps);
+                }
+            }
+            catch (InterruptedException e) {
+                fail(e);
+            }
+        }
+
+        void finish() {
+            try {
+                if (binder.isAlive()) {
+                    in.put(END);
+                    binder.join();
+                    executor.join();
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(e);
+            }
+            try {
+                if (st_cmd != null)
+                    st_cmd.executeUpdate("connection_set ('RDF_INSERT_TRIPLE_C_BNODES', NULL)");
+            }
+            catch (SQLException e) {
+                fail(e);
+            }
+            for (PreparedStatement ps : free)
+                try {
+                    ps.close();
+                } catch (Exception e) {}
+            try {
+                if (st_cmd != null)
+                    st_cmd.close();
+            } catch (Exception e) {}
+            try {
+                if (owned != null)
+                    owned.close();
+            } catch (Exception e) {}
+        }
+    }
+}
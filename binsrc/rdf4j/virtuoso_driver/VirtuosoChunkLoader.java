@@ -0,0 +1,547 @@
+/*
+ *  $Id$
+ *
+ *  This file is part of the OpenLink Software Virtuoso Open-Source (VOS)
+ *  project.
+ *
+ *  Copyright (C) 1998-2020 OpenLink Software
+ *
+ *  This project is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation; only version 2 of the License, dated June 1991.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package virtuoso.rdf4j.driver;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.rdf4j.model.*;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.RepositoryException;
+import org.eclipse.rdf4j.rio.*;
+import org.eclipse.rdf4j.rio.helpers.AbstractRDFHandler;
+import org.eclipse.rdf4j.rio.helpers.BasicParserSettings;
+import org.eclipse.rdf4j.rio.helpers.ParseErrorLogger;
+
+/**
+ * Loads N-Triples and N-Quads data into a Virtuoso repository without
+ * parsing it on the client.
+ * <p>
+ * The input is cut at line ends into chunks of about chunkSize characters,
+ * which are sent as they are to DB.DBA.TTLP_MT, so that the server parses
+ * them.  The chunks go through bounded queues to one thread per connection;
+ * the first one uses the connection of the caller, the others use new
+ * connections of the repository, in autocommit mode.  When the caller is in
+ * a transaction, only its connection is used.
+ * <p>
+ * Each call of TTLP_MT has its own blank node labels, so the lines with
+ * blank nodes are kept apart, parsed by Rio and inserted on the caller's
+ * connection, which maps the labels of the whole load to the same nodes.
+ * <p>
+ * A failed chunk is reported with the range of input lines it covers.  By
+ * default the load stops at the first failure and throws it; with
+ * setStopOnError(false) the failures are collected in getErrors() and the
+ * other chunks are still loaded.
+ * <pre>
+ *   VirtuosoChunkLoader loader = new VirtuosoChunkLoader(con, 4, 4 * 1024 * 1024);
+ *   loader.load(new FileInputStream("data.nq"), "", RDFFormat.NQUADS);
+ * </pre>
+ */
+public class VirtuosoChunkLoader {
+
+    static final String S_TTLP = "DB.DBA.TTLP_MT (?, ?, ?, ?, 2, 3, ?)";
+
+    static final int TTLP_ALLOW_NQUAD = 0x200;
+
+    static final Chunk END = new Chunk(0, 0, 0, null, false);
+
+    private final VirtuosoRepositoryConnection con;
+    private int threads;
+    private int chunkSize;
+    private int queueSize = 2;
+    private boolean stopOnError = true;
+
+    private final AtomicLong chunks = new AtomicLong();
+    private final List<RepositoryException> errors = Collections.synchronizedList(new ArrayList<RepositoryException>());
+    private volatile Throwable failure;
+
+    public VirtuosoChunkLoader(VirtuosoRepositoryConnection con, int threads, int chunkSize) {
+        this.con = con;
+        this.threads = Math.max(1, threads);
+        this.chunkSize = Math.max(1024, chunkSize);
+    }
+
+    /**
+     * Tells if data of the format can be loaded into the contexts by the
+     * server: N-Triples always, N-Quads only when the contexts of the data
+     * are kept, that is when no contexts are given.
+     */
+    public static boolean accepts(RDFFormat dataFormat, Resource... contexts) {
+        if (RDFFormat.NTRIPLES.equals(dataFormat))
+            return true;
+        return RDFFormat.NQUADS.equals(dataFormat) && contexts != null && contexts.length == 0;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Set the size of the chunks in characters; a line longer than that
+     * makes a chunk of its own
+     */
+    public void setChunkSize(int sz) {
+        this.chunkSize = Math.max(1024, sz);
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Set the number of chunks queued for each connection(default 2)
+     */
+    public void setQueueSize(int sz) {
+        this.queueSize = Math.max(1, sz);
+    }
+
+    public boolean getStopOnError() {
+        return stopOnError;
+    }
+
+    /**
+     * Set whether the load stops at the first failed chunk(default true)
+     */
+    public void setStopOnError(boolean v) {
+        this.stopOnError = v;
+    }
+
+    /**
+     * Get the number of chunks loaded so far
+     */
+    public long getLoadedChunks() {
+        return chunks.get();
+    }
+
+    /**
+     * Get the failures of the chunks, each with the lines of the input it
+     * covers in its message
+     */
+    public List<RepositoryException> getErrors() {
+        synchronized (errors) {
+            return new ArrayList<RepositoryException>(errors);
+        }
+    }
+
+    public void load(InputStream in, String baseURI, RDFFormat dataFormat, Resource... contexts) throws IOException, RDFParseException, RepositoryException {
+        load(new InputStreamReader(in, StandardCharsets.UTF_8), baseURI, dataFormat, contexts);
+    }
+
+    public void load(Reader reader, String baseURI, RDFFormat dataFormat, Resource... contexts) throws IOException, RDFParseException, RepositoryException {
+        if (!accepts(dataFormat, contexts))
+            throw new RepositoryException("Format " + dataFormat + " can not be loaded by the server into the given contexts");
+
+        final boolean nquads = RDFFormat.NQUADS.equals(dataFormat);
+        final Resource[] _contexts = con.checkDMLContext(contexts);
+        final List<Worker> workers = new ArrayList<Worker>();
+        failure = null;
+        errors.clear();
+
+        int n = threads;
+        int transactional = 0;
+        try {
+            if (!con.getQuadStoreConnection().getAutoCommit()) {
+                n = 1;
+                transactional = 1;
+            }
+        } catch (SQLException e) {
+            throw new RepositoryException(e);
+        }
+
+        String[] graphs = new String[_contexts.length];
+        for (int i = 0; i < graphs.length; i++)
+            graphs[i] = _contexts[i].stringValue();
+        Target target = new Target(baseURI != null ? baseURI : "", graphs,
+                nquads ? TTLP_ALLOW_NQUAD : 0, transactional, dataFormat,
+                nquads ? contexts : _contexts);
+
+        try {
+            for (int i = 0; i < n; i++)
+                workers.add(i == 0 ? new Worker(0, con.getQuadStoreConnection(), null, target)
+                                   : new Worker(i, null, con.getRepository().getConnection(), target));
+            for (Worker w : workers)
+                w.start();
+
+            read(reader, workers);
+        }
+        catch (IOException e) {
+            failure = e;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(e);
+        }
+        finally {
+            for (Worker w : workers)
+                w.finish();
+        }
+
+        // the server does not tell how many triples it loaded
+        VirtuosoContextCatalog catalog = con.getContextCatalog();
+        if (catalog != null) {
+            if (nquads)
+                catalog.invalidate();
+            else
+                for (Resource ctx : _contexts)
+                    catalog.changed(ctx);
+        }
+
+        if (failure instanceof IOException)
+            throw (IOException) failure;
+        if (failure instanceof RepositoryException)
+            throw (RepositoryException) failure;
+        if (failure != null)
+            throw new RepositoryException("Problem loading triples", failure);
+    }
+
+
+    /**
+     * Cuts the input at the line ends and hands the chunks to the workers
+     */
+    void read(Reader reader, List<Worker> workers) throws IOException, InterruptedException {
+        char[] buf = new char[chunkSize];
+        int len = 0;
+        long line = 1;
+        int seq = 0;
+        int next = 0;
+
+        while (failure == null) {
+            int r = reader.read(buf, len, buf.length - len);
+            if (r > 0) {
+                len += r;
+                if (len < buf.length)
+                    continue;
+            }
+            if (len == 0)
+                break;
+
+            int end = len;
+            if (r >= 0) {
+                while (end > 0 && buf[end - 1] != '\n')
+                    end--;
+                if (end == 0) {
+                    // a line longer than the chunk size
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                    continue;
+                }
+            }
+
+            int lines = 0;
+            int bnode = -1;
+            for (int i = 0; i < end; i++) {
+                char c = buf[i];
+                if (c == '\n')
+                    lines++;
+                else if (c == ':' && i > 0 && buf[i - 1] == '_' && bnode < 0)
+                    bnode = i;
+            }
+            if (end == len && buf[end - 1] != '\n')
+                lines++;
+
+            if (bnode < 0) {
+                send(workers.get(next++ % workers.size()), new Chunk(++seq, line, lines, new String(buf, 0, end), false));
+            } else {
+                // the lines with blank nodes go apart, to the caller's connection
+                StringBuilder text = new StringBuilder(end);
+                StringBuilder bnodes = new StringBuilder();
+                int start = 0;
+                for (int i = 0; i < end; i++) {
+                    if (buf[i] == '\n' || i == end - 1) {
+                        boolean b = false;
+                        for (int j = start + 1; j <= i && !b; j++)
+                            b = buf[j] == ':' && buf[j - 1] == '_';
+                        (b ? bnodes : text).append(buf, start, i + 1 - start);
+                        start = i + 1;
+                    }
+                }
+                if (text.length() > 0)
+                    send(workers.get(next++ % workers.size()), new Chunk(++seq, line, lines, text.toString(), false));
+                send(workers.get(0), new Chunk(++seq, line, lines, bnodes.toString(), true));
+            }
+
+            line += lines;
+            System.arraycopy(buf, end, buf, 0, len - end);
+            len -= end;
+            if (r < 0)
+                break;
+        }
+    }
+
+    private void send(Worker w, Chunk c) throws InterruptedException {
+        while (!w.in.offer(c, 100, TimeUnit.MILLISECONDS)) {
+            if (failure != null || !w.thread.isAlive())
+                return;
+        }
+    }
+
+    private void fail(Throwable e) {
+        if (failure == null)
+            failure = e;
+    }
+
+    void error(Chunk c, Exception e) {
+        RepositoryException ex = new RepositoryException("Chunk " + c.seq + " (lines " + c.line + "-"
+                + (c.line + Math.max(c.lines, 1) - 1) + ") failed: " + e.getMessage(), e);
+        errors.add(ex);
+        if (stopOnError)
+            fail(ex);
+    }
+
+
+    /**
+     * A cut of the input, starting at input line 'line'
+     */
+    static final class Chunk {
+        final int seq;
+        final long line;
+        final int lines;
+        final String text;
+        final boolean bnodes;
+
+        Chunk(int seq, long line, int lines, String text, boolean bnodes) {
+            this.seq = seq;
+            this.line = line;
+            this.lines = lines;
+            this.text = text;
+            this.bnodes = bnodes;
+        }
+    }
+
+    /**
+     * Where and how the chunks are loaded
+     */
+    static final class Target {
+        final String base;
+        final String[] graphs;
+        final int flags;
+        final int transactional;
+        final RDFFormat format;
+        final Resource[] contexts;
+
+        Target(String base, String[] graphs, int flags, int transactional, RDFFormat format, Resource[] contexts) {
+            this.base = base;
+            this.graphs = graphs;
+            this.flags = flags;
+            this.transactional = transactional;
+            this.format = format;
+            this.contexts = contexts;
+        }
+    }
+
+
+    /**
+     * A connection with its loading thread.
+     */
+    final class Worker {
+        final BlockingQueue<Chunk> in = new ArrayBlockingQueue<Chunk>(queueSize);
+        final Connection connection;
+        final RepositoryConnection owned;
+        final boolean bnodes;
+        final Target target;
+        final Thread thread;
+        PreparedStatement ps = null;
+        PreparedStatement psInsert = null;
+        java.sql.Statement st_cmd = null;
+
+        Worker(int id, Connection connection, RepositoryConnection owned, Target target) {
+            this.owned = owned;
+            this.connection = owned != null ? ((VirtuosoRepositoryConnection) owned).getQuadStoreConnection() : connection;
+            this.bnodes = id == 0;
+            this.target = target;
+
+            thread = new Thread("VirtuosoChunkLoader-" + id) {
+                public void run() {
+                    work();
+                }
+            };
+            thread.setDaemon(true);
+        }
+
+        void start() throws RepositoryException {
+            try {
+                ps = connection.prepareStatement(S_TTLP);
+            }
+            catch (SQLException e) {
+                throw new RepositoryException(e);
+            }
+            thread.start();
+        }
+
+        private void work() {
+            try {
+                while (true) {
+                    Chunk c = in.take();
+                    if (c == END)
+                        return;
+                    if (failure != null)
+                        continue;
+                    try {
+                        if (c.bnodes)
+                            insert(c);
+                        else
+                            load(c);
+                        chunks.incrementAndGet();
+                    }
+                    catch (Exception e) {
+                        error(c, e);
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                fail(e);
+            }
+        }
+
+        private void load(Chunk c) throws SQLException {
+            for (String g : target.graphs) {
+                ps.setString(1, c.text);
+                ps.setString(2, target.base);
+                ps.setString(3, g);
+                ps.setInt(4, target.flags);
+                ps.setInt(5, target.transactional);
+                ps.execute();
+            }
+        }
+
+        /**
+         * Parses the lines with blank nodes and inserts them with the labels
+         * to blank node mapping of the connection
+         */
+        private void insert(Chunk c) throws Exception {
+            if (st_cmd == null) {
+                st_cmd = connection.createStatement();
+                if (!con.getInsertBNodeAsVirtuosoIRI())
+                    st_cmd.executeUpdate("connection_set ('RDF_INSERT_TRIPLE_C_BNODES', dict_new(1000))");
+                psInsert = connection.prepareStatement(VirtuosoRepositoryConnection.S_BATCH_INSERT);
+            }
+            final boolean useStatementContext = target.contexts.length == 0;
+            final Resource[] _contexts = con.checkDMLContext(target.contexts);
+            final int batchSize = ((VirtuosoRepository) con.getRepository()).getBatchSize();
+
+            ParserConfig config = new ParserConfig();
+            config.set(BasicParserSettings.PRESERVE_BNODE_IDS, true);
+            RDFParser parser = Rio.createParser(target.format, con.getValueFactory());
+            parser.setParserConfig(config);
+            parser.setParseErrorListener(new ParseErrorLogger());
+            parser.setRDFHandler(new AbstractRDFHandler() {
+                int count = 0;
+
+                public void endRDF() throws RDFHandlerException {
+                    flush();
+                }
+
+                public void handleStatement(Statement st) throws RDFHandlerException {
+                    Resource[] hcontexts;
+                    if (st.getContext() != null && useStatementContext)
+                        hcontexts = new Resource[] {st.getContext()};
+                    else
+                        hcontexts = _contexts;
+                    try {
+                        for (Resource ctx : hcontexts) {
+                            con.bindParams(psInsert, st.getSubject(), st.getPredicate(), st.getObject(), ctx);
+                            psInsert.addBatch();
+                            count++;
+                        }
+                    }
+                    catch (SQLException e) {
+                        throw new RDFHandlerException(e);
+                    }
+                    if (count >= batchSize)
+                        flush();
+                }
+
+                private void flush() throws RDFHandlerException {
+                    if (count == 0)
+                        return;
+                    try {
+                        psInsert.executeBatch();
+                        psInsert.clearBatch();
+                        count = 0;
+                    }
+                    catch (SQLException e) {
+                        throw new RDFHandlerException(e);
+                    }
+                }
+            });
+            try {
+                parser.parse(new StringReader(c.text), target.base);
+            }
+            catch (RDFHandlerException e) {
+                try {
+                    psInsert.clearBatch();
+                } catch (SQLException e1) {}
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+
+        void finish() {
+            try {
+                if (thread.isAlive()) {
+                    while (!in.offer(END, 100, TimeUnit.MILLISECONDS) && thread.isAlive())
+                        ;
+                    thread.join();
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(e);
+            }
+            try {
+                if (st_cmd != null && !con.getInsertBNodeAsVirtuosoIRI())
+                    st_cmd.executeUpdate("connection_set ('RDF_INSERT_TRIPLE_C_BNODES', NULL)");
+            }
+            catch (SQLException e) {
+                fail(e);
+            }
+            try {
+                if (ps != null)
+                    ps.close();
+            } catch (Exception e) {}
+            try {
+                if (psInsert != null)
+                    psInsert.close();
+            } catch (Exception e) {}
+            try {
+                if (st_cmd != null)
+                    st_cmd.close();
+            } catch (Exception e) {}
+            try {
+                if (owned != null)
+                    owned.close();
+            } catch (Exception e) {}
+        }
+    }
+}
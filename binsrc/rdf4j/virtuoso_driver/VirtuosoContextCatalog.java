@@ -0,0 +1,319 @@
+/*
+ *  $Id$
+ *
+ *  This file is part of the OpenLink Software Virtuoso Open-Source (VOS)
+ *  project.
+ *
+ *  Copyright (C) 1998-2020 OpenLink Software
+ *
+ *  This project is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation; only version 2 of the License, dated June 1991.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package virtuoso.rdf4j.driver;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.repository.RepositoryException;
+
+/**
+ * Client side catalogue of the contexts of a Virtuoso repository with the
+ * number of triples in each, used by getContextIDs(), size() and isEmpty()
+ * of the connections when it is enabled with
+ * VirtuosoRepository.setUseContextCatalog.
+ * <p>
+ * The catalogue is read with one grouped count of the quad store, and is
+ * read again when it is older than the TTL, or on refresh().  Between two
+ * readings it follows the changes made through the connections of the
+ * repository: the inserted and deleted statements are added to and
+ * subtracted from the counts, which are then approximate, because a
+ * statement inserted twice or deleted without being there is counted as
+ * well; a cleared context is set to 0; the contexts changed by a pattern
+ * delete or a bulk load are counted again when they are asked for; and a
+ * SPARQL update or a rollback makes the whole catalogue read again.
+ * Changes made by other clients are seen after the next reading.  The
+ * catalogue is safe to share by the connections of the repository: a new
+ * reading replaces the whole table at once, only one thread reads it while
+ * the others wait for it, and the contexts changed during the reading are
+ * counted again when they are asked for.
+ */
+public class VirtuosoContextCatalog {
+
+    static final String S_COUNTS = "sparql define input:storage \"\" select ?g count(*) where { graph ?g { ?s ?p ?o } } group by ?g";
+
+    private volatile ConcurrentHashMap<String, Entry> map = new ConcurrentHashMap<String, Entry>();
+    private final long ttl;
+    private volatile long loadedAt = 0;
+    private volatile boolean loaded = false;
+    private final AtomicLong invalidations = new AtomicLong();
+
+    // the contexts changed while the catalogue is read, null otherwise
+    private volatile ConcurrentHashMap<String, Resource> touched = null;
+
+    private long reads = 0;
+    private long counts = 0;
+
+    /**
+     * Creates a catalogue that is read again after ttl milliseconds, or
+     * only on refresh() when ttl is 0.
+     */
+    public VirtuosoContextCatalog(long ttl) {
+        this.ttl = ttl;
+    }
+
+    public long getTTL() {
+        return ttl;
+    }
+
+    /**
+     * Get the number of times the whole catalogue was read
+     */
+    public long getReads() {
+        return reads;
+    }
+
+    /**
+     * Get the number of times a single context was counted
+     */
+    public long getCounts() {
+        return counts;
+    }
+
+    /**
+     * Tells whether the count of the context is exact as of the last
+     * reading, that is it did not change through the connections since.
+     */
+    public boolean isExact(Resource context) {
+        Entry e = map.get(context.stringValue());
+        return e != null ? e.exact : loaded;
+    }
+
+    /**
+     * Makes the whole catalogue read again on the next use
+     */
+    public void invalidate() {
+        invalidations.incrementAndGet();
+        loaded = false;
+    }
+
+    public String toString() {
+        return "VirtuosoContextCatalog[contexts=" + map.size() + ", loaded=" + loaded
+            + ", reads=" + reads + ", counts=" + counts + "]";
+    }
+
+
+    /**
+     * Reads the whole catalogue
+     */
+    synchronized void refresh(VirtuosoRepositoryConnection con) throws RepositoryException {
+        ConcurrentHashMap<String, Entry> m = new ConcurrentHashMap<String, Entry>();
+        ConcurrentHashMap<String, Resource> changes = new ConcurrentHashMap<String, Resource>();
+        long inv = invalidations.get();
+        touched = changes;
+        try {
+            java.sql.Statement st = con.getQuadStoreConnection().createStatement();
+            try {
+                ResultSet rs = st.executeQuery(S_COUNTS);
+                while (rs.next()) {
+                    Resource g = (Resource) con.castValue(rs.getObject(1));
+                    m.put(g.stringValue(), new Entry(g, rs.getLong(2)));
+                }
+                rs.close();
+            } finally {
+                st.close();
+            }
+        }
+        catch (Exception e) {
+            touched = null;
+            throw new RepositoryException(": SPARQL execute failed:[" + S_COUNTS + "] \n Exception:" + e, e);
+        }
+        map = m;
+        // the changes made during the reading may be missing from it
+        for (Resource ctx : changes.values())
+            stale(m, ctx);
+        touched = null;
+        reads++;
+        loadedAt = System.currentTimeMillis();
+        loaded = invalidations.get() == inv;
+    }
+
+    /**
+     * Counts the given contexts again
+     */
+    void refresh(VirtuosoRepositoryConnection con, Resource... contexts) throws RepositoryException {
+        for (Resource ctx : contexts)
+            count(con, ctx);
+    }
+
+    long size(VirtuosoRepositoryConnection con, Resource... contexts) throws RepositoryException {
+        ConcurrentHashMap<String, Entry> map = check(con);
+        long ret = 0;
+        if (contexts.length == 0) {
+            for (Entry e : map.values())
+                ret += e.stale ? count(con, e.context) : Math.max(0, e.count.get());
+        } else {
+            for (Resource ctx : contexts) {
+                Entry e = map.get(ctx.stringValue());
+                if (e != null)
+                    ret += e.stale ? count(con, ctx) : Math.max(0, e.count.get());
+            }
+        }
+        return ret;
+    }
+
+    boolean isEmpty(VirtuosoRepositoryConnection con) throws RepositoryException {
+        ConcurrentHashMap<String, Entry> map = check(con);
+        for (Entry e : map.values())
+            if ((e.stale ? count(con, e.context) : e.count.get()) > 0)
+                return false;
+        return true;
+    }
+
+    List<Resource> getContexts(VirtuosoRepositoryConnection con) throws RepositoryException {
+        ConcurrentHashMap<String, Entry> map = check(con);
+        ArrayList<Resource> ret = new ArrayList<Resource>(map.size());
+        for (Entry e : map.values())
+            if ((e.stale ? count(con, e.context) : e.count.get()) > 0)
+                ret.add(e.context);
+        return ret;
+    }
+
+    void added(Resource context, long n) {
+        touch(context);
+        if (!loaded)
+            return;
+        Entry e = map.get(context.stringValue());
+        if (e == null) {
+            Entry ne = new Entry(context, 0);
+            e = map.putIfAbsent(context.stringValue(), ne);
+            if (e == null)
+                e = ne;
+        }
+        e.count.addAndGet(n);
+        e.exact = false;
+    }
+
+    void removed(Resource context, long n) {
+        touch(context);
+        Entry e = map.get(context.stringValue());
+        if (e != null) {
+            e.count.addAndGet(-n);
+            e.exact = false;
+        }
+    }
+
+    void cleared(Resource context) {
+        touch(context);
+        Entry e = map.get(context.stringValue());
+        if (e != null) {
+            e.count.set(0);
+            e.exact = true;
+            e.stale = false;
+        }
+    }
+
+    /**
+     * Marks the context to be counted again on its next use
+     */
+    void changed(Resource context) {
+        touch(context);
+        if (!loaded)
+            return;
+        stale(map, context);
+    }
+
+
+    /**
+     * Notes a change made while the catalogue is read; it is noted before it
+     * is applied, so that a change applied to the table being replaced is
+     * always seen by refresh()
+     */
+    private void touch(Resource context) {
+        ConcurrentHashMap<String, Resource> t = touched;
+        if (t != null)
+            t.put(context.stringValue(), context);
+    }
+
+    private static void stale(ConcurrentHashMap<String, Entry> m, Resource context) {
+        Entry e = m.get(context.stringValue());
+        if (e == null) {
+            Entry ne = new Entry(context, 0);
+            e = m.putIfAbsent(context.stringValue(), ne);
+            if (e == null)
+                e = ne;
+        }
+        e.stale = true;
+    }
+
+    private boolean expired() {
+        return !loaded || (ttl > 0 && System.currentTimeMillis() - loadedAt > ttl);
+    }
+
+    /**
+     * Reads the catalogue when it is needed, in one thread at a time, and
+     * returns the table to use
+     */
+    private ConcurrentHashMap<String, Entry> check(VirtuosoRepositoryConnection con) throws RepositoryException {
+        if (expired()) {
+            synchronized (this) {
+                if (expired())
+                    refresh(con);
+            }
+        }
+        return map;
+    }
+
+    private long count(VirtuosoRepositoryConnection con, Resource ctx) throws RepositoryException {
+        String query = "select count(*) from (sparql define input:storage \"\" select * from named <"
+            + ctx.toString() + "> where { graph ?g {?s ?p ?o }})f";
+        long n = 0;
+        try {
+            java.sql.Statement st = con.getQuadStoreConnection().createStatement();
+            try {
+                ResultSet rs = st.executeQuery(query);
+                if (rs.next())
+                    n = rs.getLong(1);
+                rs.close();
+            } finally {
+                st.close();
+            }
+        }
+        catch (Exception e) {
+            throw new RepositoryException(": SPARQL execute failed:[" + query + "] \n Exception:" + e, e);
+        }
+        synchronized (this) {
+            counts++;
+        }
+        Entry e = new Entry(ctx, n);
+        if (n > 0 || loaded)
+            map.put(ctx.stringValue(), e);
+        return n;
+    }
+
+
+    static final class Entry {
+        final Resource context;
+        final AtomicLong count;
+        volatile boolean exact = true;
+        volatile boolean stale = false;
+
+        Entry(Resource context, long count) {
+            this.context = context;
+            this.count = new AtomicLong(count);
+        }
+    }
+}
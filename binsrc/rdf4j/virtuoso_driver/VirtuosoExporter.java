@@ -0,0 +1,452 @@
+/*
+ *  $Id$
+ *
+ *  This file is part of the OpenLink Software Virtuoso Open-Source (VOS)
+ *  project.
+ *
+ *  Copyright (C) 1998-2020 OpenLink Software
+ *
+ *  This project is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation; only version 2 of the License, dated June 1991.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package virtuoso.rdf4j.driver;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.rdf4j.model.*;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.RepositoryException;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFHandler;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
+import org.eclipse.rdf4j.rio.UnsupportedRDFormatException;
+import org.eclipse.rdf4j.rio.ntriples.NTriplesUtil;
+
+import virtuoso.sql.ExtendedString;
+import virtuoso.sql.RdfBox;
+
+/**
+ * Exports the statements of a Virtuoso repository with a large fetch
+ * window, optionally split across several connections.
+ * <p>
+ * The statements can go to an RDFHandler, or be written as N-Triples or
+ * N-Quads straight from the values of the rows, without making RDF4J
+ * values for the IRIs and the common literals.  With more than one thread,
+ * the statements are split by the IRI_ID of their subject, modulo the
+ * number of threads, and each part is read on its own connection; the
+ * first part uses the connection of the caller, the others new connections
+ * of the repository.  When the caller is in a transaction, only its
+ * connection is used, so that the export sees its changes.  The parts are
+ * handed to the handler or the writer in blocks, one block at a time, so
+ * the statements of different parts are interleaved.
+ * <pre>
+ *   VirtuosoExporter exporter = new VirtuosoExporter(con);
+ *   exporter.setThreads(4);
+ *   exporter.export(new FileOutputStream("dump.nq"), RDFFormat.NQUADS);
+ * </pre>
+ */
+public class VirtuosoExporter {
+
+    static final int BLOCK_SIZE = 64 * 1024;
+    static final int MIN_FETCH_SIZE = 100;
+
+    private final VirtuosoRepositoryConnection con;
+    private int threads = 1;
+    private int fetchSize = 10000;
+
+    private final AtomicLong exported = new AtomicLong();
+    private volatile Throwable failure;
+
+    public VirtuosoExporter(VirtuosoRepositoryConnection con) {
+        this.con = con;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Set the number of connections the export is split across(default 1)
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Set the largest number of rows fetched at a time(default 10000).  When
+     * the context catalogue of the repository knows the number of
+     * statements in the contexts, the window is not made larger than that.
+     */
+    public void setFetchSize(int sz) {
+        this.fetchSize = Math.max(MIN_FETCH_SIZE, sz);
+    }
+
+    /**
+     * Get the number of statements exported so far
+     */
+    public long getExported() {
+        return exported.get();
+    }
+
+    /**
+     * Exports the statements of the contexts to a handler.  The handler is
+     * neither started nor ended.
+     */
+    public long export(final RDFHandler handler, Resource subj, IRI pred, Value obj, boolean includeInferred, Resource... contexts) throws RepositoryException, RDFHandlerException {
+        run(new HandlerSink(handler), subj, pred, obj, includeInferred, contexts);
+
+        if (failure instanceof RDFHandlerException)
+            throw (RDFHandlerException) failure;
+        rethrow();
+        return exported.get();
+    }
+
+    /**
+     * Writes the statements of the contexts as N-Triples or N-Quads, in
+     * UTF-8
+     *
+     * @throws UnsupportedRDFormatException
+     *         if the format is neither N-Triples nor N-Quads
+     */
+    public long export(OutputStream out, RDFFormat format, Resource... contexts) throws RepositoryException, IOException {
+        if (!RDFFormat.NTRIPLES.equals(format) && !RDFFormat.NQUADS.equals(format))
+            throw new UnsupportedRDFormatException("Only N-Triples and N-Quads can be written, not " + format);
+        Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BLOCK_SIZE);
+        long n = export(w, RDFFormat.NQUADS.equals(format), null, null, null, false, contexts);
+        w.flush();
+        return n;
+    }
+
+    /**
+     * Writes the statements of the contexts as N-Triples, or as N-Quads when
+     * quads is true
+     */
+    public long export(final Writer out, final boolean quads, Resource subj, IRI pred, Value obj, boolean includeInferred, Resource... contexts) throws RepositoryException, IOException {
+        run(new TextSink(out, quads), subj, pred, obj, includeInferred, contexts);
+
+        if (failure instanceof IOException)
+            throw (IOException) failure;
+        rethrow();
+        return exported.get();
+    }
+
+
+    private void rethrow() throws RepositoryException {
+        if (failure instanceof RepositoryException)
+            throw (RepositoryException) failure;
+        if (failure != null)
+            throw new RepositoryException("Problem exporting statements", failure);
+    }
+
+    private void fail(Throwable e) {
+        if (failure == null)
+            failure = e;
+    }
+
+    private void run(Sink sink, Resource subj, IRI pred, Value obj, boolean includeInferred, Resource... contexts) throws RepositoryException {
+        con.verifyIsOpen();
+        con.flushDelayAdd();
+        contexts = con.checkContext(contexts);
+        exported.set(0);
+        failure = null;
+
+        int n = subj != null ? 1 : threads;
+        try {
+            if (!con.getQuadStoreConnection().getAutoCommit())
+                n = 1;
+        } catch (SQLException e) {
+            throw new RepositoryException(e);
+        }
+
+        int window = fetchSize;
+        VirtuosoContextCatalog catalog = con.getContextCatalog();
+        if (catalog != null && subj == null && pred == null && obj == null)
+            window = (int) Math.max(MIN_FETCH_SIZE, Math.min(fetchSize, catalog.size(con, contexts) / n + 1));
+
+        List<Part> parts = new ArrayList<Part>();
+        try {
+            for (int i = 0; i < n; i++)
+                parts.add(new Part(i, n, i == 0 ? null : con.getRepository().getConnection(),
+                                   subj, pred, obj, includeInferred, window, i == 0 ? sink : sink.copy(), contexts));
+        }
+        catch (RepositoryException e) {
+            for (Part p : parts)
+                p.close();
+            throw e;
+        }
+
+        for (int i = 1; i < n; i++)
+            parts.get(i).start();
+        parts.get(0).run();
+        for (Part p : parts) {
+            try {
+                p.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(e);
+            }
+            p.close();
+        }
+    }
+
+
+    /**
+     * Writes a value of a row as an N-Triples term
+     */
+    void appendTerm(Object val, StringBuilder sb) throws RepositoryException, IOException {
+        if (val instanceof ExtendedString) {
+            ExtendedString ves = (ExtendedString) val;
+            String s = ves.toString();
+            if (ves.getIriType() == ExtendedString.IRI && (ves.getStrType() & 0x01) == 0x01
+                    && !s.startsWith("_:") && s.indexOf(':') >= 0) {
+                sb.append('<');
+                NTriplesUtil.escapeString(s, sb);
+                sb.append('>');
+                return;
+            }
+            if (ves.getIriType() != ExtendedString.IRI && ves.getIriType() != ExtendedString.BNODE) {
+                sb.append('"');
+                NTriplesUtil.escapeString(s, sb);
+                sb.append('"');
+                return;
+            }
+        }
+        else if (val instanceof RdfBox) {
+            RdfBox rb = (RdfBox) val;
+            String lang = rb.getLang();
+            String type = rb.getType();
+            // booleans are stored as 1 and 0
+            if (lang != null || type == null || !type.equals(XMLSchema.BOOLEAN.stringValue())) {
+                sb.append('"');
+                NTriplesUtil.escapeString(rb.toString(), sb);
+                sb.append('"');
+                if (lang != null) {
+                    sb.append('@').append(lang);
+                } else if (type != null && !type.equals(XMLSchema.STRING.stringValue())) {
+                    sb.append("^^<");
+                    NTriplesUtil.escapeString(type, sb);
+                    sb.append('>');
+                }
+                return;
+            }
+        }
+        else if (val instanceof Long || val instanceof Integer || val instanceof Short) {
+            sb.append('"').append(val).append("\"^^<")
+              .append(val instanceof Long ? XMLSchema.LONG.stringValue() : XMLSchema.INT.stringValue())
+              .append('>');
+            return;
+        }
+        else if (val instanceof String) {
+            sb.append('"');
+            NTriplesUtil.escapeString((String) val, sb);
+            sb.append('"');
+            return;
+        }
+        // blank nodes, booleans, dates and the other numbers
+        NTriplesUtil.append(con.castValue(val), sb);
+    }
+
+
+    /**
+     * Receives the rows of one part, in blocks of its own
+     */
+    abstract static class Sink {
+        abstract Sink copy();
+        abstract void row(Part p, Object g, Object s, Object o, Object v) throws Exception;
+        abstract void flush() throws Exception;
+    }
+
+    final class HandlerSink extends Sink {
+        final RDFHandler handler;
+        final List<Statement> block = new ArrayList<Statement>();
+
+        HandlerSink(RDFHandler handler) {
+            this.handler = handler;
+        }
+
+        Sink copy() {
+            return new HandlerSink(handler);
+        }
+
+        void row(Part p, Object g, Object s, Object o, Object v) throws Exception {
+            block.add(con.getValueFactory().createStatement(
+                p.subj != null ? p.subj : (Resource) con.castValue(s),
+                p.pred != null ? p.pred : (IRI) con.castValue(o),
+                p.obj != null ? p.obj : con.castValue(v),
+                g != null ? (Resource) con.castValue(g) : null));
+            if (block.size() >= 1024)
+                flush();
+        }
+
+        void flush() throws Exception {
+            synchronized (handler) {
+                for (Statement st : block)
+                    handler.handleStatement(st);
+            }
+            block.clear();
+        }
+    }
+
+    final class TextSink extends Sink {
+        final Writer out;
+        final boolean quads;
+        final StringBuilder block = new StringBuilder(BLOCK_SIZE + 1024);
+
+        TextSink(Writer out, boolean quads) {
+            this.out = out;
+            this.quads = quads;
+        }
+
+        Sink copy() {
+            return new TextSink(out, quads);
+        }
+
+        void row(Part p, Object g, Object s, Object o, Object v) throws Exception {
+            if (p.subjText != null)
+                block.append(p.subjText);
+            else
+                appendTerm(s, block);
+            block.append(' ');
+            if (p.predText != null)
+                block.append(p.predText);
+            else
+                appendTerm(o, block);
+            block.append(' ');
+            if (p.objText != null)
+                block.append(p.objText);
+            else
+                appendTerm(v, block);
+            if (quads && g != null) {
+                block.append(' ');
+                appendTerm(g, block);
+            }
+            block.append(" .\n");
+            if (block.length() >= BLOCK_SIZE)
+                flush();
+        }
+
+        void flush() throws Exception {
+            synchronized (out) {
+                out.append(block);
+            }
+            block.setLength(0);
+        }
+    }
+
+
+    /**
+     * The statements of one subject partition, read on one connection
+     */
+    final class Part extends Thread {
+        final int part;
+        final int parts;
+        final RepositoryConnection owned;
+        final Resource subj;
+        final IRI pred;
+        final Value obj;
+        final boolean includeInferred;
+        final int window;
+        final Sink sink;
+        final Resource[] contexts;
+        final String subjText;
+        final String predText;
+        final String objText;
+
+        Part(int part, int parts, RepositoryConnection owned, Resource subj, IRI pred, Value obj,
+             boolean includeInferred, int window, Sink sink, Resource[] contexts) throws RepositoryException {
+            super("VirtuosoExporter-" + part);
+            setDaemon(true);
+            this.part = part;
+            this.parts = parts;
+            this.owned = owned;
+            this.subj = subj;
+            this.pred = pred;
+            this.obj = obj;
+            this.includeInferred = includeInferred;
+            this.window = window;
+            this.sink = sink;
+            this.contexts = contexts;
+            this.subjText = subj != null ? NTriplesUtil.toNTriplesString(subj) : null;
+            this.predText = pred != null ? NTriplesUtil.toNTriplesString(pred) : null;
+            this.objText = obj != null ? NTriplesUtil.toNTriplesString(obj) : null;
+        }
+
+        public void run() {
+            VirtuosoRepositoryConnection c = owned != null ? (VirtuosoRepositoryConnection) owned : con;
+            String filter = parts > 1 ? "bif:mod (bif:iri_id_num (?s), " + parts + ") = " + part : null;
+            String query = c.selectQuery(subj, pred, obj, includeInferred, filter, contexts).toString();
+            PreparedStatement ps = null;
+            try {
+                ps = c.getQuadStoreConnection().prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                ps.setFetchSize(window);
+                c.bindPattern(ps, subj, pred, obj);
+                ResultSet rs = ps.executeQuery();
+
+                int col_g = -1, col_s = -1, col_p = -1, col_o = -1;
+                ResultSetMetaData rsmd = rs.getMetaData();
+                for (int i = 1; i <= rsmd.getColumnCount(); i++) {
+                    String label = rsmd.getColumnName(i);
+                    if (label.equalsIgnoreCase("g"))
+                        col_g = i;
+                    else if (label.equalsIgnoreCase("s"))
+                        col_s = i;
+                    else if (label.equalsIgnoreCase("p"))
+                        col_p = i;
+                    else if (label.equalsIgnoreCase("o"))
+                        col_o = i;
+                }
+
+                long n = 0;
+                while (failure == null && rs.next()) {
+                    sink.row(this,
+                             col_g != -1 ? rs.getObject(col_g) : null,
+                             col_s != -1 ? rs.getObject(col_s) : null,
+                             col_p != -1 ? rs.getObject(col_p) : null,
+                             col_o != -1 ? rs.getObject(col_o) : null);
+                    if (++n % 1024 == 0)
+                        exported.addAndGet(1024);
+                }
+                rs.close();
+                sink.flush();
+                exported.addAndGet(n % 1024);
+            }
+            catch (Throwable e) {
+                fail(e);
+            }
+            finally {
+                try {
+                    if (ps != null)
+                        ps.close();
+                } catch (Exception e) {}
+            }
+        }
+
+        void close() {
+            try {
+                if (owned != null)
+                    owned.close();
+            } catch (Exception e) {}
+        }
+    }
+}
@@ -22,7 +22,13 @@
  */
 package virtuoso.rdf4j.driver;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.rdf4j.model.Resource;
 import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.Binding;
 import org.eclipse.rdf4j.query.BindingSet;
 import org.eclipse.rdf4j.query.Dataset;
 import org.eclipse.rdf4j.query.Operation;
@@ -34,6 +40,7 @@ public class VirtuosoOperation implements Operation {
     boolean includeInferred = false;
     Dataset dataset = null;
     int maxExecutionTime = 0;
+    Template template = null;
 
     /**
      * Binds the specified variable to the supplied value. Any value that was
@@ -83,6 +90,7 @@ public class VirtuosoOperation implements Operation {
      */
     public void setDataset(Dataset dataset) {
         this.dataset = dataset;
+        this.template = null;
     }
 
     /**
@@ -104,6 +112,7 @@ public class VirtuosoOperation implements Operation {
      */
     public void setIncludeInferred(boolean includeInferred) {
         this.includeInferred = includeInferred;
+        this.template = null;
     }
 
     /**
@@ -147,4 +156,40 @@ public class VirtuosoOperation implements Operation {
         return maxExecutionTime;
     }
 
+
+    /**
+     * The query text sent to the server, with ?? markers for the bound
+     * values in the triple patterns, and the names of the variables they
+     * are bound from.  It is reused while the same variables are bound to
+     * values of the same kind; the values written in the text itself must
+     * stay the same as well.
+     */
+    static final class Template {
+        final String sql;
+        final String[] params;
+        final HashMap<String, Boolean> kinds = new HashMap<String, Boolean>();
+        final Map<String, Value> inlined;
+
+        Template(String sql, List<String> params, BindingSet bindings, Map<String, Value> inlined) {
+            this.sql = sql;
+            this.params = params.toArray(new String[params.size()]);
+            this.inlined = inlined;
+            for (Binding b : bindings)
+                kinds.put(b.getName(), b.getValue() instanceof Resource);
+        }
+
+        boolean matches(BindingSet bindings) {
+            if (bindings.size() != kinds.size())
+                return false;
+            for (Binding b : bindings) {
+                Boolean k = kinds.get(b.getName());
+                if (k == null || k.booleanValue() != (b.getValue() instanceof Resource))
+                    return false;
+                Value v = inlined.get(b.getName());
+                if (v != null && !v.equals(b.getValue()))
+                    return false;
+            }
+            return true;
+        }
+    }
 }
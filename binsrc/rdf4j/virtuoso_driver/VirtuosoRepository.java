@@ -77,6 +77,19 @@ public class VirtuosoRepository implements Repository {
     String defGraph;
     int prefetchSize = 100;
     int batchSize = 5000;
+    int loadThreads = 0;
+    int loadChunkSize = 0;
+    int exportThreads = 1;
+    int exportFetchSize = 10000;
+    int writeBehindSize = 0;
+    long writeBehindBytes = 1024 * 1024;
+    long writeBehindDelay = 1000;
+    int valueCacheSize = 4096;
+    private VirtuosoValueCache valueCache = null;
+    boolean useContextCatalog = false;
+    long contextCatalogTTL = 60000;
+    private VirtuosoContextCatalog contextCatalog = null;
+    int stmtCacheSize = 32;
     int queryTimeout = 0;
     String ruleSet;
     String macroLib;
@@ -361,6 +374,266 @@ public class VirtuosoRepository implements Repository {
         return this.batchSize;
     }
 
+    /**
+     * Set the number of IRI slots of the cache that shares the IRIs,
+     * datatypes and language tags read by the connections(default 4096),
+     * 0 disables the cache. It applies to the connections opened after.
+     *
+     * @param sz
+     *        number of IRI slots.
+     */
+    public synchronized void setValueCacheSize(int sz) {
+        this.valueCacheSize = sz;
+        this.valueCache = null;
+    }
+
+    /**
+     * Get the number of IRI slots of the value cache
+     *
+     * @return number of IRI slots
+     */
+    public int getValueCacheSize() {
+        return this.valueCacheSize;
+    }
+
+    /**
+     * Get the value cache shared by the connections, with its hit
+     * statistics, or null if it is disabled
+     *
+     * @return the value cache
+     */
+    public synchronized VirtuosoValueCache getValueCache() {
+        if (valueCache == null && valueCacheSize > 0)
+            valueCache = new VirtuosoValueCache(valueFactory, valueCacheSize);
+        return valueCache;
+    }
+
+    /**
+     * Set the number of prepared query statements each connection keeps
+     * for the queries it evaluates again(default 32)
+     *
+     * @param sz
+     *        number of statements, 0 - a query is prepared on each
+     *        evaluation.
+     */
+    public void setStatementCacheSize(int sz) {
+        this.stmtCacheSize = sz;
+    }
+
+    /**
+     * Get the number of prepared query statements kept by each connection
+     *
+     * @return number of statements
+     */
+    public int getStatementCacheSize() {
+        return this.stmtCacheSize;
+    }
+
+    /**
+     * Use a VirtuosoContextCatalog for getContextIDs(), size() and
+     * isEmpty() of the connections, instead of querying the quad store on
+     * each call(default false)
+     *
+     * @param v
+     *        true - use the catalogue.
+     */
+    public synchronized void setUseContextCatalog(boolean v) {
+        this.useContextCatalog = v;
+        this.contextCatalog = null;
+    }
+
+    /**
+     * Get whether the connections use a context catalogue
+     *
+     * @return true if the catalogue is used
+     */
+    public boolean getUseContextCatalog() {
+        return this.useContextCatalog;
+    }
+
+    /**
+     * Set the time after which the context catalogue is read again from
+     * the quad store(default 60000)
+     *
+     * @param ms
+     *        milliseconds, 0 - only on refreshContextCatalog().
+     */
+    public synchronized void setContextCatalogTTL(long ms) {
+        this.contextCatalogTTL = ms;
+        this.contextCatalog = null;
+    }
+
+    /**
+     * Get the time after which the context catalogue is read again
+     *
+     * @return milliseconds
+     */
+    public long getContextCatalogTTL() {
+        return this.contextCatalogTTL;
+    }
+
+    /**
+     * Get the context catalogue shared by the connections
+     *
+     * @return the catalogue, or null if it is not used
+     */
+    public synchronized VirtuosoContextCatalog getContextCatalog() {
+        if (contextCatalog == null && useContextCatalog)
+            contextCatalog = new VirtuosoContextCatalog(contextCatalogTTL);
+        return contextCatalog;
+    }
+
+    /**
+     * Set the number of connections that add(InputStream) and add(Reader)
+     * insert the parsed data with, through a VirtuosoBulkLoader(default 0,
+     * parse and insert on the calling thread)
+     *
+     * @param threads
+     *        number of connections, 0 - no pipeline.
+     */
+    public void setLoadThreads(int threads) {
+        this.loadThreads = threads;
+    }
+
+    /**
+     * Get the number of connections used to load data
+     *
+     * @return number of connections
+     */
+    public int getLoadThreads() {
+        return this.loadThreads;
+    }
+
+    /**
+     * Set the size of the chunks, in characters, in which N-Triples and
+     * N-Quads data is sent to DB.DBA.TTLP_MT by add(InputStream) and
+     * add(Reader)(default 0).  The data is then parsed by the server, with
+     * getLoadThreads() connections loading chunks in parallel.
+     *
+     * @param sz
+     *        chunk size, 0 - the data is parsed by the client.
+     */
+    public void setLoadChunkSize(int sz) {
+        this.loadChunkSize = sz;
+    }
+
+    /**
+     * Get the size of the chunks sent to the server by add()
+     *
+     * @return chunk size in characters
+     */
+    public int getLoadChunkSize() {
+        return this.loadChunkSize;
+    }
+
+    /**
+     * Set the number of connections used by export() and exportStatements()
+     * (default 1).  The statements are split by subject between the
+     * connections, which are read in parallel.
+     *
+     * @param threads
+     *        number of connections
+     */
+    public void setExportThreads(int threads) {
+        this.exportThreads = threads;
+    }
+
+    /**
+     * Get the number of connections used by export() and exportStatements()
+     *
+     * @return number of connections
+     */
+    public int getExportThreads() {
+        return this.exportThreads;
+    }
+
+    /**
+     * Set the largest number of rows fetched at a time by export() and
+     * exportStatements()(default 10000)
+     *
+     * @param sz
+     *        fetch window in rows
+     */
+    public void setExportFetchSize(int sz) {
+        this.exportFetchSize = sz;
+    }
+
+    /**
+     * Get the largest number of rows fetched at a time by export() and
+     * exportStatements()
+     *
+     * @return fetch window in rows
+     */
+    public int getExportFetchSize() {
+        return this.exportFetchSize;
+    }
+
+    /**
+     * Set the number of statements buffered by add(Resource, IRI, Value,
+     * Resource...) and add(Statement, Resource...) in autoCommit mode
+     * before they are sent to the server as one batch(default 0).  The
+     * batches are sent by a thread of the connection, and the buffer is
+     * also sent when it holds getWriteBehindBytes() bytes of values or
+     * when its oldest statement is getWriteBehindDelay() milliseconds old.
+     * The connection sends the buffer before any other operation.
+     *
+     * @param sz
+     *        buffer size in statements, 0 - each statement is sent by add().
+     */
+    public void setWriteBehindSize(int sz) {
+        this.writeBehindSize = sz;
+    }
+
+    /**
+     * Get the number of statements buffered by add() in autoCommit mode
+     *
+     * @return buffer size in statements
+     */
+    public int getWriteBehindSize() {
+        return this.writeBehindSize;
+    }
+
+    /**
+     * Set the size of the values buffered by add() in autoCommit mode
+     * before they are sent(default 1M)
+     *
+     * @param sz
+     *        buffer size in bytes, 0 - no limit.
+     */
+    public void setWriteBehindBytes(long sz) {
+        this.writeBehindBytes = sz;
+    }
+
+    /**
+     * Get the size of the values buffered by add() in autoCommit mode
+     *
+     * @return buffer size in bytes
+     */
+    public long getWriteBehindBytes() {
+        return this.writeBehindBytes;
+    }
+
+    /**
+     * Set the longest time a statement stays in the buffer of add() in
+     * autoCommit mode(default 1000)
+     *
+     * @param millis
+     *        delay in milliseconds, 0 - no limit.
+     */
+    public void setWriteBehindDelay(long millis) {
+        this.writeBehindDelay = millis;
+    }
+
+    /**
+     * Get the longest time a statement stays in the buffer of add() in
+     * autoCommit mode
+     *
+     * @return delay in milliseconds
+     */
+    public long getWriteBehindDelay() {
+        return this.writeBehindDelay;
+    }
+
     /**
      * Set the query timeout(default 0)
      *
@@ -34,9 +34,10 @@ import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.model.impl.SimpleNamespace;
 import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
 import org.eclipse.rdf4j.query.*;
-import org.eclipse.rdf4j.query.algebra.evaluation.QueryBindingSet;
 import org.eclipse.rdf4j.query.impl.IteratingGraphQueryResult;
 import org.eclipse.rdf4j.query.impl.IteratingTupleQueryResult;
+import org.eclipse.rdf4j.query.impl.MapBindingSet;
+import org.eclipse.rdf4j.query.impl.SimpleBinding;
 import org.eclipse.rdf4j.repository.*;
 import org.eclipse.rdf4j.rio.*;
 
@@ -110,6 +111,7 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
     static final String S_TTLP_INSERT = "DB.DBA.TTLP_MT (?, '', ?, 255, 2, 3, ?)";
 
     static final int MAX_CMD_SIZE = 36000;
+    static final int HAS_BATCH_SIZE = 1000;
 
     private int BATCH_SIZE = 5000;
     private PreparedStatement psInsert;
@@ -118,10 +120,27 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
     private int psInsertBNodeCount = 0;
 
     private boolean useLazyAdd = false;
+    private int loadThreads = 0;
+    private int loadChunkSize = 0;
     private int prefetchSize = 100;
     private boolean useReprepare = true;
     private boolean insertBNodeAsVirtuosoIRI = false;
     private ValueFactory valueFactory = null;
+    private VirtuosoValueCache valueCache = null;
+    private VirtuosoContextCatalog contextCatalog = null;
+    private VirtuosoWriteBehind writeBehind = null;
+    private int stmtCacheSize = 32;
+    private final IdentityHashMap<java.sql.Statement, String> stmtInUse = new IdentityHashMap<java.sql.Statement, String>();
+    private final LinkedHashMap<String, PreparedStatement> stmtCache = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= stmtCacheSize)
+                return false;
+            try {
+                eldest.getValue().close();
+            } catch (Exception e) {}
+            return true;
+        }
+    };
     private boolean insertStringLiteralAsSimple = false;
     private int queryTimeout = 0;
     private String ruleSet;    
@@ -138,11 +157,19 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
         this.quadStoreConnection = connection;
         this.repository = repository;
         this.useLazyAdd = repository.useLazyAdd;
+        this.loadThreads = repository.loadThreads;
+        this.loadChunkSize = repository.loadChunkSize;
+        if (repository.writeBehindSize > 0)
+            this.writeBehind = new VirtuosoWriteBehind(this, repository.writeBehindSize,
+                                                       repository.writeBehindBytes, repository.writeBehindDelay);
         this.prefetchSize = repository.prefetchSize;
         this.BATCH_SIZE = repository.batchSize;
         this.insertBNodeAsVirtuosoIRI = repository.insertBNodeAsVirtuosoIRI;
         this.insertStringLiteralAsSimple = repository.insertStringLiteralAsSimple;
         this.valueFactory = repository.getValueFactory();
+        this.valueCache = repository.getValueCache();
+        this.contextCatalog = repository.getContextCatalog();
+        this.stmtCacheSize = repository.stmtCacheSize;
         this.queryTimeout = repository.getQueryTimeout();
         this.ruleSet = repository.getRuleSet();
         this.macroLib = repository.getMacroLib();
@@ -222,12 +249,19 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
      */
     public void close() throws RepositoryException {
         try {
-            if (!getQuadStoreConnection().isClosed()) {
-                getQuadStoreConnection().close();
-            }
+            if (writeBehind != null)
+                writeBehind.close();
         }
-        catch (SQLException e) {
-            throw new RepositoryException(e);
+        finally {
+            closeStatementCache();
+            try {
+                if (!getQuadStoreConnection().isClosed()) {
+                    getQuadStoreConnection().close();
+                }
+            }
+            catch (SQLException e) {
+                throw new RepositoryException(e);
+            }
         }
     }
 
@@ -348,11 +382,11 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
 
         return new VirtuosoTupleQuery() {
             public TupleQueryResult evaluate() throws QueryEvaluationException {
-                return executeSPARQLForTupleResult(baseURI, query, getDataset(), getIncludeInferred(), getBindings(), getMaxExecutionTime());
+                return executeSPARQLForTupleResult(this, baseURI, query, getDataset(), getIncludeInferred(), getBindings(), getMaxExecutionTime());
             }
 
             public void evaluate(TupleQueryResultHandler handler) throws QueryEvaluationException, TupleQueryResultHandlerException {
-                executeSPARQLForHandler(baseURI, handler, query, getDataset(), getIncludeInferred(), getBindings(), getMaxExecutionTime());
+                executeSPARQLForHandler(this, baseURI, handler, query, getDataset(), getIncludeInferred(), getBindings(), getMaxExecutionTime());
             }
         };
     }
@@ -402,11 +436,11 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
 
         return new VirtuosoGraphQuery() {
             public GraphQueryResult evaluate() throws QueryEvaluationException {
-                return executeSPARQLForGraphResult(baseURI, query, getDataset(), getIncludeInferred(), getBindings(), getMaxExecutionTime());
+                return executeSPARQLForGraphResult(this, baseURI, query, getDataset(), getIncludeInferred(), getBindings(), getMaxExecutionTime());
             }
 
             public void evaluate(RDFHandler handler) throws QueryEvaluationException, RDFHandlerException {
-                executeSPARQLForHandler(baseURI, handler, query, getDataset(), getIncludeInferred(), getBindings(), getMaxExecutionTime());
+                executeSPARQLForHandler(this, baseURI, handler, query, getDataset(), getIncludeInferred(), getBindings(), getMaxExecutionTime());
             }
         };
     }
@@ -456,7 +490,7 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
 
         return new VirtuosoBooleanQuery() {
             public boolean evaluate() throws QueryEvaluationException {
-                return executeSPARQLForBooleanResult(baseURI, query, getDataset(), getIncludeInferred(), getBindings(), getMaxExecutionTime());
+                return executeSPARQLForBooleanResult(this, baseURI, query, getDataset(), getIncludeInferred(), getBindings(), getMaxExecutionTime());
             }
         };
     }
@@ -487,6 +521,9 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
     public RepositoryResult<Resource> getContextIDs() throws RepositoryException {
         verifyIsOpen();
         flushDelayAdd();
+        if (contextCatalog != null)
+            return createRepositoryResult(contextCatalog.getContexts(this));
+
         Vector<Resource> v = new Vector<Resource>();
         String query = "DB.DBA.SPARQL_SELECT_KNOWN_GRAPHS()";
         try {
@@ -598,6 +635,59 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
         return hasStatement(st.getSubject(), st.getPredicate(), st.getObject(), includeInferred, contexts);
     }
 
+    /**
+     * Checks which of the specified statements the repository contains,
+     * optionally in the specified contexts.  Up to HAS_BATCH_SIZE statements
+     * are checked by one query, with the statements in a VALUES block; a
+     * statement with a blank node is checked by hasStatement().
+     *
+     * @param statements
+     *        The statements to look for. Context information in the
+     *        statements is ignored.
+     * @param includeInferred
+     *        if false, no inferred statements are considered; if true, inferred
+     *        statements are considered if available
+     * @param contexts
+     *        The context(s) to get the data from. Note that this parameter is a
+     *        vararg and as such is optional. If no contexts are supplied the
+     *        method operates on the entire repository.
+     * @return A BitSet with the bits set at the positions, in the iteration
+     *         order of statements, of the statements that are found.
+     */
+    public BitSet hasStatements(Collection<? extends Statement> statements, boolean includeInferred, Resource... contexts) throws RepositoryException {
+        verifyIsOpen();
+        flushDelayAdd();
+        contexts = checkContext(contexts);
+
+        BitSet ret = new BitSet(statements.size());
+        StringBuilder rows = new StringBuilder();
+        int count = 0;
+        int i = 0;
+        for (Statement st : statements) {
+            if (st.getSubject() instanceof BNode || st.getObject() instanceof BNode) {
+                if (hasStatement(st.getSubject(), st.getPredicate(), st.getObject(), includeInferred, contexts))
+                    ret.set(i);
+            } else {
+                rows.append(" (").append(i).append(' ');
+                append(st.getSubject(), rows, false);
+                rows.append(' ');
+                append(st.getPredicate(), rows, false);
+                rows.append(' ');
+                append(st.getObject(), rows, false);
+                rows.append(")\n");
+                if (++count >= HAS_BATCH_SIZE) {
+                    hasStatements(rows, includeInferred, contexts, ret);
+                    rows.setLength(0);
+                    count = 0;
+                }
+            }
+            i++;
+        }
+        if (count > 0)
+            hasStatements(rows, includeInferred, contexts, ret);
+        return ret;
+    }
+
     /**
      * Exports all statements with a specific subject, predicate and/or object
      * from the repository, optionally from the specified contexts.
@@ -621,8 +711,8 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
      *         If the handler encounters an unrecoverable error.
      */
     public void exportStatements(Resource subj, IRI pred, Value obj, boolean includeInferred, RDFHandler handler, Resource... contexts) throws RepositoryException, RDFHandlerException {
-        contexts = checkContext(contexts);
-        CloseableIteration<Statement, RepositoryException> it;
+        verifyIsOpen();
+        flushDelayAdd();
         handler.startRDF();
 
         // Export namespace information
@@ -637,18 +727,14 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
             nsIt.close();
         }
 
-        it = selectFromQuadStore(subj, pred, obj, includeInferred, false, contexts);
-        try {
-            while (it.hasNext())
-                handler.handleStatement(it.next());
-        }
-        finally {
-            it.close();
-        }
+        VirtuosoExporter exporter = new VirtuosoExporter(this);
+        exporter.setThreads(repository.exportThreads);
+        exporter.setFetchSize(repository.exportFetchSize);
+        exporter.export(handler, subj, pred, obj, includeInferred, contexts);
         handler.endRDF();
     }
 
-    private Resource[] checkDMLContext(Resource... contexts) throws RepositoryException {
+    Resource[] checkDMLContext(Resource... contexts) throws RepositoryException {
         OpenRDFUtil.verifyContextNotNull(contexts);
         if(contexts.length == 1 && contexts[0] == null) {
             contexts = new Resource[] {nilContext};
@@ -659,7 +745,7 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
         return contexts;
     }
 
-    private Resource[] checkContext(Resource... contexts) throws RepositoryException {
+    Resource[] checkContext(Resource... contexts) throws RepositoryException {
         OpenRDFUtil.verifyContextNotNull(contexts);
         if(contexts.length == 1 && contexts[0] == null) {
             contexts = new Resource[] {nilContext};
@@ -705,6 +791,9 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
         flushDelayAdd();
 
         contexts = checkContext(contexts);
+        if (contextCatalog != null)
+            return contextCatalog.size(this, contexts);
+
         StringBuilder query = new StringBuilder("select count(*) from (sparql define input:storage \"\" select * ");
 
         for (Resource context : contexts) {
@@ -740,6 +829,9 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
     public boolean isEmpty() throws RepositoryException {
         verifyIsOpen();
         flushDelayAdd();
+        if (contextCatalog != null)
+            return contextCatalog.isEmpty(this);
+
         boolean result;
         String query = "sparql define input:storage \"\" select * where {?s ?o ?p} limit 1";
         try {
@@ -966,6 +1058,8 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
     public void rollback() throws RepositoryException {
         verifyIsOpen();
         dropDelayAdd();
+        if (contextCatalog != null)
+            contextCatalog.invalidate();
         try {
             getQuadStoreConnection().rollback();
             getQuadStoreConnection().setAutoCommit(true);
@@ -1006,6 +1100,15 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
         verifyIsOpen();
         flushDelayAdd();
 
+        if (loadChunkSize > 0 && VirtuosoChunkLoader.accepts(dataFormat, contexts)) {
+            new VirtuosoChunkLoader(this, loadThreads, loadChunkSize).load(in, baseURI, dataFormat, contexts);
+            return;
+        }
+        if (loadThreads > 0) {
+            new VirtuosoBulkLoader(this, loadThreads).load(in, baseURI, dataFormat, contexts);
+            return;
+        }
+
         final boolean useStatementContext = (contexts != null && contexts.length == 0); // If no context are specified, each statement is added to statement context
 
         try {
@@ -1140,6 +1243,15 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
         verifyIsOpen();
         flushDelayAdd();
 
+        if (loadChunkSize > 0 && VirtuosoChunkLoader.accepts(dataFormat, contexts)) {
+            new VirtuosoChunkLoader(this, loadThreads, loadChunkSize).load(reader, baseURI, dataFormat, contexts);
+            return;
+        }
+        if (loadThreads > 0) {
+            new VirtuosoBulkLoader(this, loadThreads).load(reader, baseURI, dataFormat, contexts);
+            return;
+        }
+
         final boolean useStatementContext = (contexts != null && contexts.length == 0); // If no context are specified, each statement is added to statement context
 
         try {
@@ -1606,49 +1718,16 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
         verifyIsOpen();
         flushDelayAdd();
 
-        Resource[] _contexts;
         Iterator<? extends Statement> it = statements.iterator();
-        int count = 0;
-        HashMap<String, StringBuilder> map = new HashMap<String,StringBuilder>();
-
-        while (it.hasNext()) {
-            Statement st = it.next();
-
-            if (contexts.length == 0 &&  st.getContext() != null)
-                _contexts = new Resource[] { st.getContext() }; // try the context given by the statement
-            else
-                _contexts = contexts;
-            _contexts = checkDMLContext(_contexts);
-
-            for (Resource _context : _contexts) {
-                String ctx = _context.toString();
-                StringBuilder row = new StringBuilder(256);
-
-                append(st.getSubject(), row, true);
-                row.append(' ');
-                append(st.getPredicate(), row, true);
-                row.append(' ');
-                append(st.getObject(), row, true);
-                row.append(" .\n");
-
-                StringBuilder data = map.get(ctx);
-                if (count > 0 && data != null && data.length() + row.length() > MAX_CMD_SIZE) {
-                    removeData(map);
-                    map.clear();
-                    count = 0;
-                    data = null;
-                }
-
-                if (data == null)
-                    data = new StringBuilder(256);
-                data.append(row);
-                map.put(ctx, data);
-                count++;
-            }
+        StatementRemover remover = new StatementRemover();
+        try {
+            while (it.hasNext())
+                remover.remove(it.next(), contexts);
+            remover.flush();
+        }
+        finally {
+            remover.close();
         }
-        if (count > 0)
-            removeData(map);
-        map.clear();
     }
 
     /**
@@ -1675,51 +1754,14 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
         verifyIsOpen();
         flushDelayAdd();
 
-        Resource[] _contexts;
-        int count = 0;
-        HashMap<String, StringBuilder> map = new HashMap<String,StringBuilder>();
-
+        StatementRemover remover = new StatementRemover();
         try {
-            while (statements.hasNext()) {
-                Statement st = statements.next();
-
-                if (contexts.length == 0 &&  st.getContext() != null)
-                    _contexts = new Resource[] { st.getContext() }; // try the context given by the statement
-                else
-                    _contexts = contexts;
-                _contexts = checkDMLContext(_contexts);
-
-                for (Resource _context : _contexts) {
-                    String ctx = _context.toString();
-                    StringBuilder row = new StringBuilder(256);
-
-                    append(st.getSubject(), row, true);
-                    row.append(' ');
-                    append(st.getPredicate(), row, true);
-                    row.append(' ');
-                    append(st.getObject(), row, true);
-                    row.append(" .\n");
-
-                    StringBuilder data = map.get(ctx);
-                    if (count > 0 && data != null && data.length() + row.length() > MAX_CMD_SIZE) {
-                        removeData(map);
-                        map.clear();
-                        count = 0;
-                        data = null;
-                    }
-
-                    if (data == null)
-                        data = new StringBuilder(256);
-                    data.append(row);
-                    map.put(ctx, data);
-                    count++;
-                }
-            }
-            if (count > 0)
-                removeData(map);
-            map.clear();
+            while (statements.hasNext())
+                remover.remove(statements.next(), contexts);
+            remover.flush();
         }
         finally {
+            remover.close();
             Iterations.closeCloseable(statements);
         }
     }
@@ -1891,23 +1933,24 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
                                                            Dataset dataset, boolean includeInferred, BindingSet bindings,
                                                            int maxQueryTime) throws QueryEvaluationException
     {
+        return executeSPARQLForTupleResult(null, baseURI, query, dataset, includeInferred, bindings, maxQueryTime);
+    }
+
+    protected TupleQueryResult executeSPARQLForTupleResult(VirtuosoOperation op, String baseURI, String query,
+                                                           Dataset dataset, boolean includeInferred, BindingSet bindings,
+                                                           int maxQueryTime) throws QueryEvaluationException
+    {
 
-        List<String> names = new ArrayList<String>();
+        PreparedStatement stmt = null;
         try {
-            PreparedStatement stmt = executeSPARQL(baseURI, query, dataset, includeInferred, bindings, maxQueryTime, false);
+            stmt = executeSPARQL(op, baseURI, query, dataset, includeInferred, bindings, maxQueryTime, false);
             ResultSet rs = stmt.executeQuery();
-            ResultSetMetaData rsmd = rs.getMetaData();
+            CloseableIterationBindingSet it = new CloseableIterationBindingSet(stmt, rs);
 
-            // begin at onset one
-            for (int i = 1; i <= rsmd.getColumnCount(); i++) {
-                String col = rsmd.getColumnName(i);
-                if (names.indexOf(col) < 0)
-                    names.add(col); // no duplicates
-            }
-
-            return new IteratingTupleQueryResult(names, new CloseableIterationBindingSet(stmt, rs));
+            return new IteratingTupleQueryResult(it.names.names, it);
         }
         catch (Exception e) {
+            discardStatement(stmt);
             throw new QueryEvaluationException(": SPARQL execute failed:["+query+"] \n Exception:"+e);
         }
     }
@@ -1916,9 +1959,17 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
                                                            Dataset dataset, boolean includeInferred, BindingSet bindings,
                                                            int maxQueryTime) throws QueryEvaluationException
     {
+        return executeSPARQLForGraphResult(null, baseURI, query, dataset, includeInferred, bindings, maxQueryTime);
+    }
+
+    protected GraphQueryResult executeSPARQLForGraphResult(VirtuosoOperation op, String baseURI, String query,
+                                                           Dataset dataset, boolean includeInferred, BindingSet bindings,
+                                                           int maxQueryTime) throws QueryEvaluationException
+    {
 //        HashMap<String,Integer> names = new HashMap<String,Integer>();
+        PreparedStatement stmt = null;
         try {
-            PreparedStatement stmt = executeSPARQL(baseURI, query, dataset, includeInferred, bindings, maxQueryTime, false);
+            stmt = executeSPARQL(op, baseURI, query, dataset, includeInferred, bindings, maxQueryTime, false);
             ResultSet rs = stmt.executeQuery();
 //            ResultSetMetaData rsmd = rs.getMetaData();
 
@@ -1930,6 +1981,7 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
             return new IteratingGraphQueryResult(new HashMap<String,String>(), new CloseableIterationGraphResult(stmt, rs));
         }
         catch (Exception e) {
+            discardStatement(stmt);
             throw new QueryEvaluationException(": SPARQL execute failed:["+query+"] \n Exception:"+e);
         }
 
@@ -1938,10 +1990,18 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
     protected boolean executeSPARQLForBooleanResult(String baseURI, String query,
                                                     Dataset dataset, boolean includeInferred, BindingSet bindings,
                                                     int maxQueryTime) throws QueryEvaluationException
+    {
+        return executeSPARQLForBooleanResult(null, baseURI, query, dataset, includeInferred, bindings, maxQueryTime);
+    }
+
+    protected boolean executeSPARQLForBooleanResult(VirtuosoOperation op, String baseURI, String query,
+                                                    Dataset dataset, boolean includeInferred, BindingSet bindings,
+                                                    int maxQueryTime) throws QueryEvaluationException
     {
         boolean result = false;
+        PreparedStatement stmt = null;
         try {
-            PreparedStatement stmt = executeSPARQL(baseURI, query, dataset, includeInferred, bindings, maxQueryTime, false);
+            stmt = executeSPARQL(op, baseURI, query, dataset, includeInferred, bindings, maxQueryTime, false);
             ResultSet rs = stmt.executeQuery();
 
             while(rs.next())
@@ -1949,11 +2009,13 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
                 if (rs.getInt(1) == 1)
                     result = true;
             }
-            stmt.close();
+            rs.close();
+            releaseStatement(stmt);
 
             return result;
         }
         catch (Exception e) {
+            discardStatement(stmt);
             throw new QueryEvaluationException(": SPARQL execute failed:["+query+"] \n Exception:"+e);
         }
     }
@@ -1963,34 +2025,28 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
                                            String query, Dataset dataset, boolean includeInferred,
                                            BindingSet bindings, int maxQueryTime) throws QueryEvaluationException, TupleQueryResultHandlerException
     {
-        LinkedList<String> names = new LinkedList<String>();
+        executeSPARQLForHandler(null, baseURI, tqrh, query, dataset, includeInferred, bindings, maxQueryTime);
+    }
+
+    protected void executeSPARQLForHandler(VirtuosoOperation op, String baseURI,  TupleQueryResultHandler tqrh,
+                                           String query, Dataset dataset, boolean includeInferred,
+                                           BindingSet bindings, int maxQueryTime) throws QueryEvaluationException, TupleQueryResultHandlerException
+    {
+        PreparedStatement stmt = null;
         try {
-            PreparedStatement stmt = executeSPARQL(baseURI, query, dataset, includeInferred, bindings, maxQueryTime, false);
+            stmt = executeSPARQL(op, baseURI, query, dataset, includeInferred, bindings, maxQueryTime, false);
             ResultSet rs = stmt.executeQuery();
-            ResultSetMetaData rsmd = rs.getMetaData();
-            // begin at onset one
-            for (int i = 1; i <= rsmd.getColumnCount(); i++)
-                names.add(rsmd.getColumnName(i));
+            BindingNames names = new BindingNames(rs.getMetaData());
 
-            tqrh.startQueryResult(names);
-            // begin at onset one
-            while (rs.next()) {
-                QueryBindingSet qbs = new QueryBindingSet();
-                for (int i = 1; i <= rsmd.getColumnCount(); i++) {
-                    // TODO need to parse these into appropriate resource values
-                    String col = rsmd.getColumnName(i);
-                    Object val = rs.getObject(i);
-                    if (val!=null){
-                        Value v = castValue(val);
-                        qbs.addBinding(col, v);
-                    }
-                }
-                tqrh.handleSolution(qbs);
-            }
+            tqrh.startQueryResult(names.names);
+            while (rs.next())
+                tqrh.handleSolution(new RowBindingSet(this, names, rs));
             tqrh.endQueryResult();
-            stmt.close();
+            rs.close();
+            releaseStatement(stmt);
         }
         catch (Exception e) {
+            discardStatement(stmt);
             throw new QueryEvaluationException(": SPARQL execute failed:["+query+"] \n Exception:"+e);
         }
     }
@@ -2000,8 +2056,16 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
                                            Dataset dataset, boolean includeInferred, BindingSet bindings,
                                            int maxQueryTime) throws QueryEvaluationException, RDFHandlerException
     {
+        executeSPARQLForHandler(null, baseURI, tqrh, query, dataset, includeInferred, bindings, maxQueryTime);
+    }
+
+    protected void executeSPARQLForHandler(VirtuosoOperation op, String baseURI, RDFHandler tqrh, String query,
+                                           Dataset dataset, boolean includeInferred, BindingSet bindings,
+                                           int maxQueryTime) throws QueryEvaluationException, RDFHandlerException
+    {
+        PreparedStatement stmt = null;
         try {
-            PreparedStatement stmt = executeSPARQL(baseURI, query, dataset, includeInferred, bindings, maxQueryTime, false);
+            stmt = executeSPARQL(op, baseURI, query, dataset, includeInferred, bindings, maxQueryTime, false);
             ResultSet rs = stmt.executeQuery();
             ResultSetMetaData rsmd = rs.getMetaData();
             int col_g = -1;
@@ -2045,9 +2109,11 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
                 tqrh.handleStatement(st);
             }
             tqrh.endRDF();
-            stmt.close();
+            rs.close();
+            releaseStatement(stmt);
         }
         catch (Exception e) {
+            discardStatement(stmt);
             throw new QueryEvaluationException(": SPARQL execute failed:["+query+"] \n Exception:"+e);
         }
     }
@@ -2056,16 +2122,102 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
     private PreparedStatement executeSPARQL(String baseURI, String query,
                                             Dataset dataset, boolean includeInferred, BindingSet bindings,
                                             int maxQueryTime, boolean isIUD) throws RepositoryException, SQLException
+    {
+        return executeSPARQL(null, baseURI, query, dataset, includeInferred, bindings, maxQueryTime, isIUD);
+    }
+
+    /**
+     * Prepares and binds a query.  For a query of a VirtuosoOperation the
+     * text is compiled once into a template of the operation, which is
+     * reused while the kinds of its bindings stay the same, and the
+     * statement is taken from the cache of the connection, so that the next
+     * evaluations only bind the new values.  Such a statement is given back
+     * with releaseStatement().
+     */
+    private PreparedStatement executeSPARQL(VirtuosoOperation op, String baseURI, String query,
+                                            Dataset dataset, boolean includeInferred, BindingSet bindings,
+                                            int maxQueryTime, boolean isIUD) throws RepositoryException, SQLException
     {
         verifyIsOpen();
         flushDelayAdd();
-        List<Value> pstmtParams = new ArrayList<Value>();
-        String fixedQuery = fixQuery(false, query, dataset, includeInferred, bindings, pstmtParams, baseURI);
-        PreparedStatement stmt = prepareStatement(fixedQuery, maxQueryTime, isIUD);
-        setQueryParams(stmt, pstmtParams);
+        if (op == null || isIUD || stmtCacheSize <= 0) {
+            List<Value> pstmtParams = new ArrayList<Value>();
+            String fixedQuery = fixQuery(false, query, dataset, includeInferred, bindings, pstmtParams, null, null, baseURI);
+            PreparedStatement stmt = prepareStatement(fixedQuery, maxQueryTime, isIUD);
+            setQueryParams(stmt, pstmtParams);
+            return stmt;
+        }
+
+        VirtuosoOperation.Template t = op.template;
+        if (t == null || !t.matches(bindings)) {
+            List<Value> pstmtParams = new ArrayList<Value>();
+            List<String> names = new ArrayList<String>();
+            Map<String, Value> inlined = new HashMap<String, Value>();
+            String fixedQuery = fixQuery(false, query, dataset, includeInferred, bindings, pstmtParams, names, inlined, baseURI);
+            t = new VirtuosoOperation.Template(fixedQuery, names, bindings, inlined);
+            op.template = t;
+        }
+
+        List<Value> pstmtParams = new ArrayList<Value>(t.params.length);
+        for (String name : t.params)
+            pstmtParams.add(bindings.getValue(name));
+        PreparedStatement stmt = takeStatement(t.sql, maxQueryTime);
+        try {
+            setQueryParams(stmt, pstmtParams);
+        }
+        catch (RepositoryException e) {
+            discardStatement(stmt);
+            throw e;
+        }
         return stmt;
     }
 
+    /**
+     * Takes the prepared statement of the query text from the cache, or
+     * prepares it if it is not there or is in use
+     */
+    private synchronized PreparedStatement takeStatement(String sql, int maxQueryTime) throws SQLException
+    {
+        PreparedStatement stmt = stmtCache.remove(sql);
+        if (stmt == null)
+            stmt = prepareStatement(sql, maxQueryTime, false);
+        stmtInUse.put(stmt, sql);
+        return stmt;
+    }
+
+    /**
+     * Gives back a statement taken with takeStatement() to the cache, or
+     * closes any other statement
+     */
+    synchronized void releaseStatement(java.sql.Statement stmt) throws SQLException
+    {
+        String sql = stmtInUse.remove(stmt);
+        if (sql == null || stmtCache.containsKey(sql) || quadStoreConnection.isClosed())
+            stmt.close();
+        else
+            stmtCache.put(sql, (PreparedStatement) stmt);
+    }
+
+    private synchronized void discardStatement(java.sql.Statement stmt)
+    {
+        if (stmt == null)
+            return;
+        stmtInUse.remove(stmt);
+        try {
+            stmt.close();
+        } catch (Exception e) {}
+    }
+
+    private synchronized void closeStatementCache()
+    {
+        for (PreparedStatement stmt : stmtCache.values())
+            try {
+                stmt.close();
+            } catch (Exception e) {}
+        stmtCache.clear();
+        stmtInUse.clear();
+    }
+
     protected void executeSPARUL(String baseURI, String query, Dataset dataset,
                                  boolean includeInferred, BindingSet bindings, int maxQueryTime) throws UpdateExecutionException
     {
@@ -2073,6 +2225,8 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
             PreparedStatement stmt = executeSPARQL(baseURI, query, dataset, includeInferred, bindings, maxQueryTime, true);
             stmt.execute();
             stmt.close();
+            if (contextCatalog != null)
+                contextCatalog.invalidate();
         }
         catch (Exception e) {
             throw new UpdateExecutionException(": SPARQL execute failed:["+query+"] \n Exception:"+e);
@@ -2098,6 +2252,8 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
             flushDelayAdd();
             stmt = createStatement(-1, true);
             stmt.execute("sparql\n " + query);
+            if (contextCatalog != null)
+                contextCatalog.invalidate();
             return stmt.getUpdateCount();
         }
         catch (SQLException e) {
@@ -2130,6 +2286,47 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
         this.quadStoreConnection = quadStoreConnection;
     }
 
+    /**
+     * Get the context catalogue used by getContextIDs(), size() and
+     * isEmpty()
+     *
+     * @return the catalogue, or null if the repository does not use one
+     */
+    public VirtuosoContextCatalog getContextCatalog() {
+        return contextCatalog;
+    }
+
+    /**
+     * Get the write-behind buffer of add() in autoCommit mode
+     *
+     * @return the buffer, or null if the repository does not use one
+     */
+    public VirtuosoWriteBehind getWriteBehind() {
+        return writeBehind;
+    }
+
+    /**
+     * Read the context catalogue again from the quad store, entirely or
+     * only for the given contexts.
+     *
+     * @param contexts
+     *        The context(s) to count again. If no contexts are supplied the
+     *        whole catalogue is read.
+     * @throws RepositoryException
+     *         If the quad store could not be queried.
+     */
+    public void refreshContextCatalog(Resource... contexts) throws RepositoryException {
+        verifyIsOpen();
+        flushDelayAdd();
+        if (contextCatalog == null)
+            return;
+        contexts = checkContext(contexts);
+        if (contexts.length == 0)
+            contextCatalog.refresh(this);
+        else
+            contextCatalog.refresh(this, contexts);
+    }
+
     private int getJdbcConcurrency(boolean isIUD) {
         if (isIUD)
             switch(this.concurencyMode) {
@@ -2194,7 +2391,8 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
     }
 
 
-    private String substBindings(String query, BindingSet bindings, List<Value> pstmtParams, boolean isSPARUL)  throws RepositoryException
+    private String substBindings(String query, BindingSet bindings, List<Value> pstmtParams,
+                                 List<String> pstmtNames, Map<String, Value> inlined, boolean isSPARUL)  throws RepositoryException
     {
         boolean use_setParams = insertBNodeAsVirtuosoIRI ? false : true;
         StringBuilder tok = new StringBuilder();
@@ -2238,6 +2436,7 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
             } else  if ( ch == '?' ) {  //Parameter
                 tok.setLength(0);
                 String varData = null;
+                boolean isParam = false;
                 int j = i;
                 while(j < qlen && delim.indexOf(query.charAt(j)) < 0) j++;
                 if (j != i) {
@@ -2249,6 +2448,9 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
                             if (inCurly>0) { 
                                 // in triple pattern
                             pstmtParams.add(val);
+                            if (pstmtNames != null)
+                                pstmtNames.add(varName);
+                            isParam = true;
                             if (val instanceof Resource)
                                 varData = "`iri(??)`";
                             else
@@ -2266,6 +2468,8 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
                                 varData = stringForValue(val, useBackSlash);
                         }
 
+                        if (inlined != null && !isParam)
+                            inlined.put(varName, val);
                         i=j;
                     }
                 }
@@ -2291,7 +2495,8 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
     }
 
 
-    private String fixQuery(boolean isSPARUL, String query, Dataset dataset, boolean includeInferred, BindingSet bindings, List<Value> pstmtParams, String baseURI)  throws RepositoryException
+    private String fixQuery(boolean isSPARUL, String query, Dataset dataset, boolean includeInferred, BindingSet bindings,
+                            List<Value> pstmtParams, List<String> pstmtNames, Map<String, Value> inlined, String baseURI)  throws RepositoryException
     {
         boolean added_def_graph = false;
         Set <IRI> list;
@@ -2362,7 +2567,7 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
         if (baseURI!=null && baseURI.length()>0)
             ret.append(" BASE <" + baseURI + "> \n");
 
-        ret.append(substBindings(query, bindings, pstmtParams, isSPARUL));
+        ret.append(substBindings(query, bindings, pstmtParams, pstmtNames, inlined, isSPARUL));
         return ret.toString();
     }
 
@@ -2483,6 +2688,13 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
         try {
             boolean isAutoCommit = getQuadStoreConnection().getAutoCommit();
 
+            if (writeBehind != null && isAutoCommit
+                    && (insertBNodeAsVirtuosoIRI || !(subject instanceof BNode || object instanceof BNode))) {
+                for (Resource context : contexts)
+                    writeBehind.add(subject, predicate, object, context);
+                return;
+            }
+
             if (psInsert == null)
                 psInsert = prepareStatement(S_BATCH_INSERT, true);
 
@@ -2553,6 +2765,8 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
                 psInsert_BNode.setString(2, ctx);
                 psInsert_BNode.setInt(3, transactional);
                 psInsert_BNode.addBatch();
+                if (contextCatalog != null)
+                    contextCatalog.added(context, 1);
             }
         }
         catch (Exception e) {
@@ -2578,11 +2792,14 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
     }
 
 
-    private void bindParams(PreparedStatement ps,
-                            Resource subject, IRI predicate, Value object, Resource context) throws SQLException, RepositoryException
+    void bindParams(PreparedStatement ps,
+                    Resource subject, IRI predicate, Value object, Resource context) throws SQLException, RepositoryException
     {
         int flags = 0;
 
+        if (contextCatalog != null)
+            contextCatalog.added(context, 1);
+
         if (!insertBNodeAsVirtuosoIRI && (object instanceof BNode))
             flags = 15;
 
@@ -2648,6 +2865,37 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
     }
 
 
+    /**
+     * Returns true if the statement has a blank node that must be inserted
+     * on the connection that keeps the mapping of the blank node labels.
+     */
+    boolean hasLocalBNode(Statement st) {
+        return !insertBNodeAsVirtuosoIRI
+            && (st.getSubject() instanceof BNode || st.getObject() instanceof BNode);
+    }
+
+    boolean getInsertBNodeAsVirtuosoIRI() {
+        return insertBNodeAsVirtuosoIRI;
+    }
+
+    /**
+     * Declares a namespace found in loaded data.
+     */
+    void setNamespaceDecl(String prefix, String name) throws RepositoryException {
+        String query = "DB.DBA.XML_SET_NS_DECL(?, ?, 1)";
+        try {
+            PreparedStatement psn = prepareStatement(query, false);
+            psn.setString(1, prefix);
+            psn.setString(2, name);
+            psn.execute();
+            psn.close();
+        }
+        catch (SQLException e) {
+            throw new RepositoryException("Problem executing query: " + query, e);
+        }
+    }
+
+
     private synchronized PreparedStatement addToQuadStore_batch(PreparedStatement ps,
                                                                 Resource subject,
                                                                 IRI predicate,
@@ -2715,8 +2963,10 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
     }
 
 
-    private synchronized void flushDelayAdd() throws RepositoryException
+    synchronized void flushDelayAdd() throws RepositoryException
     {
+        if (writeBehind != null)
+            writeBehind.flush();
         psInsert = flushDelayAdd_batch(psInsert, psInsertCount);
         psInsertCount = 0;
         if (psInsert_BNode!=null && psInsertBNodeCount > 0)
@@ -2817,7 +3067,14 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
         escapeString(lit.getLabel(), sb);
         sb.append("\"");
 
-        if (lit.getDatatype() != null) {
+        // a literal with a language has the datatype rdf:langString
+        Optional<String> lang = lit.getLanguage();
+        if (lang.isPresent()) {
+            // Append the literal's language
+            sb.append("@");
+            sb.append(lang.get());
+        }
+        else if (lit.getDatatype() != null) {
             // Append the literal's datatype
             IRI ltype = lit.getDatatype();
             if (!(insertStringLiteralAsSimple && ltype.equals(XMLSchema.STRING))) {
@@ -2825,11 +3082,6 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
                 append(ltype, sb, inTriplePattern);
             }
         }
-        else if (lit.getLanguage() != null) {
-            // Append the literal's language
-            sb.append("@");
-            sb.append(lit.getLanguage());
-        }
     }
 
     private String BNode2String(BNode bNode)
@@ -2912,6 +3164,9 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
                 ps.executeUpdate ();
                 ps.close();
                 gArray.free();
+                if (contextCatalog != null)
+                    for (Resource context : contexts)
+                        contextCatalog.cleared(context);
             }
             catch (Exception e) {
                 throw new RepositoryException(e);
@@ -2919,11 +3174,52 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
     }
 
 
-    private CloseableIteration<Statement, RepositoryException> selectFromQuadStore(Resource subject, IRI predicate, Value object, boolean includeInferred, boolean hasOnly, Resource... contexts) throws RepositoryException {
-        verifyIsOpen();
-        flushDelayAdd();
+    private void hasStatements(StringBuilder rows, boolean includeInferred, Resource[] contexts, BitSet ret) throws RepositoryException {
+        StringBuilder query = new StringBuilder(rows.length() + 256);
+        query.append("sparql ");
 
-        ResultSet rs = null;
+        if (includeInferred && ruleSet != null && ruleSet.length() > 0)
+            query.append("define input:inference '"+ruleSet+"' ");
+
+        if (includeInferred && macroLib!=null && macroLib.length() > 0)
+            query.append("define input:macro-lib <"+macroLib+">\n ");
+
+        query.append("select distinct ?i ");
+
+        for (Resource context : contexts) {
+            query.append("from named <");
+            query.append(context.toString());
+            query.append("> ");
+        }
+
+        query.append("where { VALUES (?i ?s ?p ?o) {\n");
+        query.append(rows);
+        query.append(" } graph ?g { ?s ?p ?o }}");
+
+        java.sql.Statement stmt = null;
+        try {
+            stmt = createStatement(-1, false);
+            ResultSet rs = stmt.executeQuery(query.toString());
+            while (rs.next())
+                ret.set(rs.getInt(1));
+            rs.close();
+        }
+        catch (Exception e) {
+            throw new RepositoryException(getClass().getCanonicalName() + ": SPARQL execute failed." + "\n" + query.toString() + "[" + e + "]", e);
+        }
+        finally {
+            try {
+                if (stmt != null)
+                    stmt.close();
+            } catch (Exception e) {}
+        }
+    }
+
+    /**
+     * Builds the select of the quads matching a pattern, with ?? markers for
+     * the bound parts, optionally restricted by a filter
+     */
+    StringBuilder selectQuery(Resource subject, IRI predicate, Value object, boolean includeInferred, String filter, Resource... contexts) {
         StringBuilder query = new StringBuilder("sparql ");
 
         if (includeInferred && ruleSet != null && ruleSet.length() > 0)
@@ -2961,21 +3257,36 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
         else
             query.append("?o");
 
+        if (filter != null)
+            query.append(" FILTER (").append(filter).append(")");
         query.append(" }}");
+        return query;
+    }
+
+    void bindPattern(PreparedStatement ps, Resource subject, IRI predicate, Value object) throws SQLException {
+        int col = 1;
+
+        if (subject != null)
+            bindResource(ps, col++, subject);
+        if (predicate != null)
+            bindURI(ps, col++, predicate);
+        if (object != null)
+            bindValue(ps, col, object);
+    }
+
+    private CloseableIteration<Statement, RepositoryException> selectFromQuadStore(Resource subject, IRI predicate, Value object, boolean includeInferred, boolean hasOnly, Resource... contexts) throws RepositoryException {
+        verifyIsOpen();
+        flushDelayAdd();
+
+        ResultSet rs = null;
+        StringBuilder query = selectQuery(subject, predicate, object, includeInferred, null, contexts);
         if (hasOnly)
             query.append(" LIMIT 1");
 
         PreparedStatement ps;
         try {
             ps = prepareStatement(query.toString(), false);
-            int col = 1;
-
-            if (subject != null)
-                bindResource(ps, col++, subject);
-            if (predicate != null)
-                bindURI(ps, col++, predicate);
-            if (object != null)
-                bindValue(ps, col, object);
+            bindPattern(ps, subject, predicate, object);
 
             rs = ps.executeQuery();
         }
@@ -3017,6 +3328,113 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
     }
 
 
+    /**
+     * Removes statements with batches of the prepared S_DELETE, one row of
+     * parameters per statement and context, so that the statements of all
+     * the contexts go in the same batches.  The statements with blank nodes
+     * that are not Virtuoso IRIs are still removed with the text of a
+     * DELETE.
+     */
+    private class StatementRemover {
+        private PreparedStatement ps = null;
+        private int batchCount = 0;
+        private int count = 0;
+        private HashMap<String, StringBuilder> map = new HashMap<String,StringBuilder>();
+
+        void remove(Statement st, Resource[] contexts) throws RepositoryException {
+            Resource[] _contexts;
+            if (contexts.length == 0 &&  st.getContext() != null)
+                _contexts = new Resource[] { st.getContext() }; // try the context given by the statement
+            else
+                _contexts = contexts;
+            _contexts = checkDMLContext(_contexts);
+
+            boolean asText = isLocalBNode(st.getSubject()) || isLocalBNode(st.getObject());
+
+            for (Resource _context : _contexts) {
+                if (contextCatalog != null)
+                    contextCatalog.removed(_context, 1);
+                if (asText)
+                    removeAsText(st, _context.toString());
+                else
+                    try {
+                        if (ps == null)
+                            ps = prepareStatement(VirtuosoRepositoryConnection.S_DELETE, true);
+                        ps.setString(1, _context.toString());
+                        bindResource(ps, 2, st.getSubject());
+                        bindURI(ps, 3, st.getPredicate());
+                        bindValue(ps, 4, st.getObject());
+                        ps.addBatch();
+                        batchCount++;
+                        if (batchCount >= BATCH_SIZE) {
+                            ps.executeBatch();
+                            ps.clearBatch();
+                            batchCount = 0;
+                        }
+                    }
+                    catch (SQLException e) {
+                        throw new RepositoryException(e);
+                    }
+            }
+        }
+
+        void flush() throws RepositoryException {
+            try {
+                if (batchCount > 0) {
+                    ps.executeBatch();
+                    ps.clearBatch();
+                    batchCount = 0;
+                }
+            }
+            catch (SQLException e) {
+                throw new RepositoryException(e);
+            }
+            if (count > 0)
+                removeData(map);
+            map.clear();
+            count = 0;
+        }
+
+        void close() {
+            try {
+                if (ps != null)
+                    ps.close();
+            } catch (Exception e) {}
+            ps = null;
+        }
+
+        private void removeAsText(Statement st, String ctx) throws RepositoryException {
+            StringBuilder row = new StringBuilder(256);
+
+            append(st.getSubject(), row, true);
+            row.append(' ');
+            append(st.getPredicate(), row, true);
+            row.append(' ');
+            append(st.getObject(), row, true);
+            row.append(" .\n");
+
+            StringBuilder data = map.get(ctx);
+            if (count > 0 && data != null && data.length() + row.length() > MAX_CMD_SIZE) {
+                removeData(map);
+                map.clear();
+                count = 0;
+                data = null;
+            }
+
+            if (data == null)
+                data = new StringBuilder(256);
+            data.append(row);
+            map.put(ctx, data);
+            count++;
+        }
+
+        private boolean isLocalBNode(Value v) {
+            return v instanceof BNode && !insertBNodeAsVirtuosoIRI
+                && !((BNode) v).getID().startsWith("nodeID://");
+        }
+    }
+
+
     private void removeContext(Resource subject, IRI predicate, Value object, Resource context) throws RepositoryException
     {
         try {
@@ -3028,6 +3446,8 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
                 ps.setString(1, context.toString());
                 ps.execute();
                 ps.close();
+                if (contextCatalog != null)
+                    contextCatalog.cleared(context);
 
             } else if (subject != null && predicate != null && object != null && context != null) {
 
@@ -3039,6 +3459,8 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
                 bindValue(ps, 4, object);
                 ps.execute();
                 ps.close();
+                if (contextCatalog != null)
+                    contextCatalog.removed(context, 1);
 
             } else {
 
@@ -3089,6 +3511,8 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
 
                 ps.execute();
                 ps.close();
+                if (contextCatalog != null)
+                    contextCatalog.changed(context);
             }
         }
         catch (Exception e) {
@@ -3170,7 +3594,7 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
     }
 
 
-    private Value castValue(Object val) throws RepositoryException {
+    Value castValue(Object val) throws RepositoryException {
         if (val == null)
             return null;
         if (val instanceof ExtendedString) {
@@ -3183,7 +3607,9 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
                 }
                 try {
                     if (valueString.indexOf(':') < 0)
-                        return valueFactory.createIRI(":" + valueString);
+                        valueString = ":" + valueString;
+                    if (valueCache != null)
+                        return valueCache.createIRI(valueString);
                     else
                         return valueFactory.createIRI(valueString);
                 }
@@ -3212,16 +3638,18 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
             RdfBox rb = (RdfBox) val;
             String rb_val = rb.toString();
 
-            if (rb.getLang() != null) {
-                return valueFactory.createLiteral(rb_val, rb.getLang());
+            String rb_lang = valueCache != null ? valueCache.getLang(rb) : rb.getLang();
+
+            if (rb_lang != null) {
+                return valueFactory.createLiteral(rb_val, rb_lang);
             }
-            else if (rb.getType() != null) {
-                String rb_type = rb.getType();
+            IRI rb_type = valueCache != null ? valueCache.getType(rb) : (rb.getType() != null ? valueFactory.createIRI(rb.getType()) : null);
+            if (rb_type != null) {
                 if (rb_val.length()==1 && (rb_val.charAt(0)=='1' || rb_val.charAt(0)=='0')) {
-                    if (rb_type.equals("http://www.w3.org/2001/XMLSchema#boolean"))
+                    if (rb_type.equals(XMLSchema.BOOLEAN))
                         return valueFactory.createLiteral(rb_val.charAt(0)=='1'?true:false); //  return getRepository().getValueFactory().createLiteral(rb_val.charAt(0)=='1'?"true":"false", this.getRepository().getValueFactory().createURI(rb_type));
                 }
-                return valueFactory.createLiteral(rb_val, valueFactory.createIRI(rb_type));
+                return valueFactory.createLiteral(rb_val, rb_type);
             }
             else {
                 return getRepository().getValueFactory().createLiteral(rb_val);
@@ -3243,35 +3671,35 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
             return valueFactory.createLiteral(((Double) val).doubleValue());
         }
         else if (val instanceof java.math.BigDecimal) {
-            IRI type = valueFactory.createIRI("http://www.w3.org/2001/XMLSchema#decimal");
+            IRI type = XMLSchema.DECIMAL;
             return valueFactory.createLiteral(val.toString(), type);
         }
         else if (val instanceof java.sql.Blob) {
-            IRI type = valueFactory.createIRI("http://www.w3.org/2001/XMLSchema#hexBinary");
+            IRI type = XMLSchema.HEXBINARY;
             return valueFactory.createLiteral(val.toString(), type);
         }
         else if (val instanceof VirtuosoDate) {
-            IRI type = valueFactory.createIRI("http://www.w3.org/2001/XMLSchema#date");
+            IRI type = XMLSchema.DATE;
             return valueFactory.createLiteral(((VirtuosoDate)val).toXSD_String(), type);
         }
         else if (val instanceof VirtuosoTimestamp) {
-            IRI type = valueFactory.createIRI("http://www.w3.org/2001/XMLSchema#dateTime");
+            IRI type = XMLSchema.DATETIME;
             return valueFactory.createLiteral(((VirtuosoTimestamp)val).toXSD_String(), type);
         }
         else if (val instanceof VirtuosoTime) {
-            IRI type = valueFactory.createIRI("http://www.w3.org/2001/XMLSchema#time");
+            IRI type = XMLSchema.TIME;
             return valueFactory.createLiteral(((VirtuosoTime)val).toXSD_String(), type);
         }
         else if (val instanceof java.sql.Date) {
-            IRI type = valueFactory.createIRI("http://www.w3.org/2001/XMLSchema#date");
+            IRI type = XMLSchema.DATE;
             return valueFactory.createLiteral(val.toString(), type);
         }
         else if (val instanceof java.sql.Timestamp) {
-            IRI type = valueFactory.createIRI("http://www.w3.org/2001/XMLSchema#dateTime");
+            IRI type = XMLSchema.DATETIME;
             return valueFactory.createLiteral(Timestamp2String((java.sql.Timestamp)val), type);
         }
         else if (val instanceof java.sql.Time) {
-            IRI type = valueFactory.createIRI("http://www.w3.org/2001/XMLSchema#time");
+            IRI type = XMLSchema.TIME;
             return valueFactory.createLiteral(val.toString(), type);
         }
         else { // if(val instanceof String) {
@@ -3293,7 +3721,7 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
     }
 
 
-    private void verifyIsOpen() throws RepositoryException {
+    void verifyIsOpen() throws RepositoryException {
         try {
             if (this.getQuadStoreConnection().isClosed())
                 throw new IllegalStateException("Connection has been closed");
@@ -3377,7 +3805,7 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
                 try
                 {
                     v_rs.close();
-                    v_stmt.close();
+                    releaseStatement(v_stmt);
                 }
                 catch (SQLException e)
                 {
@@ -3497,13 +3925,13 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
 
     public class CloseableIterationBindingSet extends CloseableIterationBase<BindingSet, QueryEvaluationException> {
 
-        ResultSetMetaData rsmd;
+        BindingNames names;
 
         public CloseableIterationBindingSet(java.sql.Statement stmt, ResultSet rs) throws QueryEvaluationException
         {
             super(stmt, rs, null, null, null);
             try {
-                rsmd = rs.getMetaData();
+                names = new BindingNames(rs.getMetaData());
             } catch (Exception e) {
                 throw createException(e);
             }
@@ -3515,15 +3943,141 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
 
         protected void extractRow() throws Exception
         {
-            v_row = new QueryBindingSet();
-            for (int i = 1; i <= rsmd.getColumnCount(); i++) {
+            v_row = new RowBindingSet(VirtuosoRepositoryConnection.this, names, v_rs);
+        }
+    }
+
+
+    /**
+     * The names of the columns of a tuple result, shared by its rows.  A
+     * name given to several columns is bound to the first one.
+     */
+    static class BindingNames {
+        final List<String> names = new ArrayList<String>();
+        final Set<String> all;
+        final int[] cols;
+        final HashMap<String, Integer> index = new HashMap<String, Integer>();
+
+        BindingNames(ResultSetMetaData rsmd) throws SQLException {
+            int[] c = new int[rsmd.getColumnCount()];
+            // begin at onset one
+            for (int i = 1; i <= c.length; i++) {
                 String col = rsmd.getColumnName(i);
-                Object val = v_rs.getObject(i);
-                if (val!=null) {
-                    Value v = castValue(val);
-                    ((QueryBindingSet)v_row).setBinding(col, v);
+                if (!index.containsKey(col)) {
+                    index.put(col, names.size());
+                    c[names.size()] = i;
+                    names.add(col);
                 }
             }
+            cols = Arrays.copyOf(c, names.size());
+            all = Collections.unmodifiableSet(new LinkedHashSet<String>(names));
+        }
+    }
+
+
+    /**
+     * A BindingSet over the values of one row of a tuple result, by column.
+     * The names are shared by all the rows of the result, and the values
+     * are converted with castValue only when they are read.  It is
+     * serialized as a MapBindingSet of the converted values.
+     */
+    static class RowBindingSet extends AbstractBindingSet {
+        private static final long serialVersionUID = 5312875413297532371L;
+
+        private final transient VirtuosoRepositoryConnection con;
+        private final transient BindingNames names;
+        private final transient Object[] raw;
+        private final transient Value[] values;
+        private int size = 0;
+
+        RowBindingSet(VirtuosoRepositoryConnection con, BindingNames names, ResultSet rs) throws SQLException {
+            this.con = con;
+            this.names = names;
+            this.raw = new Object[names.cols.length];
+            this.values = new Value[raw.length];
+            for (int i = 0; i < raw.length; i++) {
+                raw[i] = rs.getObject(names.cols[i]);
+                if (raw[i] != null)
+                    size++;
+            }
+        }
+
+        private Value value(int i) {
+            Value v = values[i];
+            if (v == null && raw[i] != null) {
+                v = con.castValue(raw[i]);
+                values[i] = v;
+            }
+            return v;
+        }
+
+        private int indexOf(String name) {
+            Integer i = names.index.get(name);
+            return i != null && raw[i] != null ? i : -1;
+        }
+
+        public Iterator<Binding> iterator() {
+            return new Iterator<Binding>() {
+                int next = advance(0);
+
+                private int advance(int i) {
+                    while (i < raw.length && raw[i] == null)
+                        i++;
+                    return i;
+                }
+
+                public boolean hasNext() {
+                    return next < raw.length;
+                }
+
+                public Binding next() {
+                    if (next >= raw.length)
+                        throw new NoSuchElementException();
+                    Binding b = new SimpleBinding(names.names.get(next), value(next));
+                    next = advance(next + 1);
+                    return b;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        public Set<String> getBindingNames() {
+            if (size == raw.length)
+                return names.all;
+            Set<String> set = new LinkedHashSet<String>();
+            for (int i = 0; i < raw.length; i++)
+                if (raw[i] != null)
+                    set.add(names.names.get(i));
+            return set;
+        }
+
+        public Binding getBinding(String name) {
+            int i = indexOf(name);
+            return i >= 0 ? new SimpleBinding(name, value(i)) : null;
+        }
+
+        public boolean hasBinding(String name) {
+            return indexOf(name) >= 0;
+        }
+
+        public Value getValue(String name) {
+            int i = indexOf(name);
+            return i >= 0 ? value(i) : null;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        private Object writeReplace() throws ObjectStreamException {
+            MapBindingSet set = new MapBindingSet(size);
+            for (int i = 0; i < raw.length; i++)
+                if (raw[i] != null)
+                    set.addBinding(names.names.get(i), value(i));
+            return set;
         }
     }
 
@@ -361,6 +361,28 @@ public class VirtuosoTest {
 			}
 			endTest((ok && exists)); // should return true
 
+			startTest();
+			java.util.BitSet found = null;
+			try {
+				ok = true;
+				log("Statements exist (by hasStatements() on a batch)");
+				Literal enValue = repository.getValueFactory().createLiteral("Kingsley Idehen", "en");
+				con.add(kingsleyidehen, name, enValue, context);
+				List<Statement> batch = new java.util.ArrayList<Statement>();
+				batch.add(repository.getValueFactory().createStatement(kingsleyidehen, name, nameValue));
+				batch.add(repository.getValueFactory().createStatement(kingsleyidehen, name, enValue));
+				batch.add(repository.getValueFactory().createStatement(kingsleyidehen, name,
+					repository.getValueFactory().createLiteral("Kingsley Idehen", "fr")));
+				found = ((VirtuosoRepositoryConnection) con).hasStatements(batch, false, context);
+				con.remove(kingsleyidehen, name, enValue, context);
+			}
+			catch (Exception e) {
+				log("Error[" + e + "]");
+				e.printStackTrace();
+				ok = false;
+			}
+			endTest((ok && found.get(0) && found.get(1) && !found.get(2))); // should return true
+
 			// test getNamespace
 			Namespace testns = null;
 			RepositoryResult<Namespace> namespaces = null;
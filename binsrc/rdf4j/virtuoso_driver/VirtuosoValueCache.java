@@ -0,0 +1,161 @@
+/*
+ *  $Id$
+ *
+ *  This file is part of the OpenLink Software Virtuoso Open-Source (VOS)
+ *  project.
+ *
+ *  Copyright (C) 1998-2020 OpenLink Software
+ *
+ *  This project is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation; only version 2 of the License, dated June 1991.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package virtuoso.rdf4j.driver;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.ValueFactory;
+
+import virtuoso.jdbc4.VirtuosoRdfBox;
+import virtuoso.sql.RdfBox;
+
+/**
+ * Shares the IRIs, datatypes and language tags of the values read from a
+ * Virtuoso repository, so that the predicates, classes and datatypes
+ * repeated on each row are one instance instead of a new one per row.
+ * <p>
+ * The IRIs are kept in a direct mapped table of a fixed number of slots,
+ * where an IRI replaces the one that hashes to the same slot; the
+ * datatypes and language tags are kept by the key the server sends in the
+ * RDF box.  The cache is safe to share by the connections of the
+ * repository.
+ */
+public class VirtuosoValueCache {
+
+    static final int MAX_KEY = 4096;
+
+    private final ValueFactory valueFactory;
+    private final AtomicReferenceArray<IRI> iris;
+    private final int mask;
+    private final AtomicReferenceArray<IRI> types = new AtomicReferenceArray<IRI>(MAX_KEY);
+    private final AtomicReferenceArray<String> langs = new AtomicReferenceArray<String>(MAX_KEY);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Creates a cache of at least the given number of IRI slots, rounded up
+     * to a power of two, that makes its values with valueFactory.
+     */
+    public VirtuosoValueCache(ValueFactory valueFactory, int size) {
+        int n = 16;
+        while (n < size && n < (1 << 30))
+            n <<= 1;
+        this.valueFactory = valueFactory;
+        this.iris = new AtomicReferenceArray<IRI>(n);
+        this.mask = n - 1;
+    }
+
+    public int getSize() {
+        return iris.length();
+    }
+
+    /**
+     * Get the number of IRIs found in the cache; it is approximate when
+     * the cache is used by several threads.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the IRI of iri, from the cache if it was seen before.
+     */
+    public IRI createIRI(String iri) {
+        int h = iri.hashCode();
+        int i = (h ^ (h >>> 16)) & mask;
+        IRI v = iris.get(i);
+        if (v != null && v.stringValue().equals(iri)) {
+            hits.increment();
+            return v;
+        }
+        misses.increment();
+        v = valueFactory.createIRI(iri);
+        iris.set(i, v);
+        return v;
+    }
+
+    /**
+     * Returns the datatype of an RDF box, or null if it has the default type.
+     */
+    public IRI getType(RdfBox rb) {
+        int key = rb instanceof VirtuosoRdfBox ? ((VirtuosoRdfBox) rb).rb_type : -1;
+        if (key == VirtuosoRdfBox.RDF_BOX_DEFAULT_TYPE)
+            return null;
+        if (key >= 0 && key < MAX_KEY) {
+            IRI v = types.get(key);
+            if (v != null)
+                return v;
+        }
+
+        String type = rb.getType();
+        if (type == null)
+            return null;
+        IRI v = createIRI(type);
+        if (key >= 0 && key < MAX_KEY)
+            types.set(key, v);
+        return v;
+    }
+
+    /**
+     * Returns the language tag of an RDF box, or null if it has none.
+     */
+    public String getLang(RdfBox rb) {
+        int key = rb instanceof VirtuosoRdfBox ? ((VirtuosoRdfBox) rb).rb_lang : -1;
+        if (key == VirtuosoRdfBox.RDF_BOX_DEFAULT_LANG)
+            return null;
+        if (key >= 0 && key < MAX_KEY) {
+            String v = langs.get(key);
+            if (v != null)
+                return v;
+        }
+
+        String lang = rb.getLang();
+        if (lang != null && key >= 0 && key < MAX_KEY)
+            langs.set(key, lang);
+        return lang;
+    }
+
+    /**
+     * Drops the cached values.
+     */
+    public void clear() {
+        for (int i = 0; i < iris.length(); i++)
+            iris.set(i, null);
+        for (int i = 0; i < MAX_KEY; i++) {
+            types.set(i, null);
+            langs.set(i, null);
+        }
+    }
+
+    public String toString() {
+        return "VirtuosoValueCache[size=" + iris.length() + ", hits=" + hits.sum()
+            + ", misses=" + misses.sum() + "]";
+    }
+}
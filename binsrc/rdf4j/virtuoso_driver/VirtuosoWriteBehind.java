@@ -0,0 +1,300 @@
+/*
+ *  $Id$
+ *
+ *  This file is part of the OpenLink Software Virtuoso Open-Source (VOS)
+ *  project.
+ *
+ *  Copyright (C) 1998-2020 OpenLink Software
+ *
+ *  This project is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation; only version 2 of the License, dated June 1991.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package virtuoso.rdf4j.driver;
+
+import java.sql.*;
+import java.util.*;
+
+import org.eclipse.rdf4j.model.*;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.repository.RepositoryException;
+
+/**
+ * Write-behind buffer of the statements added one at a time by a
+ * connection in autoCommit mode, enabled with
+ * VirtuosoRepository.setWriteBehindSize.
+ * <p>
+ * The statements are collected in a buffer, which is handed to a flusher
+ * thread when it holds getMaxStatements() statements or about
+ * getMaxBytes() bytes of values, or when its first statement is older
+ * than getMaxDelay() milliseconds.  The flusher sends the buffer as one
+ * batch of S_BATCH_INSERT on the connection while the next buffer is
+ * being filled.  When that one is full as well before the flusher is
+ * done, add() waits for it.
+ * <p>
+ * The connection flushes the buffer before each read, each other change
+ * and each transaction, so that it sees its own statements; the flush
+ * waits for the batch in progress and sends the rest of the buffer from
+ * the calling thread.  A failed batch is reported by the next add() or
+ * flush(), and its statements are lost.
+ */
+public class VirtuosoWriteBehind implements Runnable {
+
+    static final int STATEMENT_OVERHEAD = 64;
+
+    private final VirtuosoRepositoryConnection con;
+    private final int maxStatements;
+    private final long maxBytes;
+    private final long maxDelay;
+
+    private ArrayList<Statement> buffer = new ArrayList<Statement>();
+    private long bytes = 0;
+    private long firstAt = 0;
+    private ArrayList<Statement> writing = null;
+    private boolean forFlusher = false;
+    private RepositoryException failure = null;
+    private Thread flusher = null;
+    private boolean closed = false;
+    private PreparedStatement ps = null;
+
+    private long flushes = 0;
+    private long flushed = 0;
+    private long waits = 0;
+
+    VirtuosoWriteBehind(VirtuosoRepositoryConnection con, int maxStatements, long maxBytes, long maxDelay) {
+        this.con = con;
+        this.maxStatements = Math.max(1, maxStatements);
+        this.maxBytes = maxBytes;
+        this.maxDelay = maxDelay;
+    }
+
+    public int getMaxStatements() {
+        return maxStatements;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * Get the number of statements waiting to be sent, including the batch
+     * being sent
+     */
+    public synchronized int getPending() {
+        return buffer.size() + (writing != null ? writing.size() : 0);
+    }
+
+    /**
+     * Get the number of batches sent
+     */
+    public synchronized long getFlushes() {
+        return flushes;
+    }
+
+    /**
+     * Get the number of statements sent
+     */
+    public synchronized long getFlushed() {
+        return flushed;
+    }
+
+    /**
+     * Get the number of times add() waited for the flusher
+     */
+    public synchronized long getWaits() {
+        return waits;
+    }
+
+    public synchronized String toString() {
+        return "VirtuosoWriteBehind[pending=" + getPending() + ", flushes=" + flushes
+            + ", flushed=" + flushed + ", waits=" + waits + "]";
+    }
+
+
+    /**
+     * Buffers a statement, handing the buffer to the flusher when it is
+     * full.  Waits while the flusher is still sending the previous buffer.
+     */
+    synchronized void add(Resource subject, IRI predicate, Value object, Resource context) throws RepositoryException {
+        check();
+        if (closed)
+            throw new RepositoryException("Connection has been closed");
+        if (buffer.isEmpty())
+            firstAt = System.currentTimeMillis();
+        buffer.add(con.getValueFactory().createStatement(subject, predicate, object, context));
+        bytes += sizeOf(subject) + sizeOf(predicate) + sizeOf(object) + sizeOf(context) + STATEMENT_OVERHEAD;
+
+        if (buffer.size() >= maxStatements || (maxBytes > 0 && bytes >= maxBytes)) {
+            if (writing != null)
+                waits++;
+            while (writing != null && failure == null)
+                waitFlusher(0);
+            check();
+            handOff(true);
+        }
+        if (flusher == null) {
+            flusher = new Thread(this, "VirtuosoWriteBehind");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Sends all the buffered statements and waits until they are written
+     */
+    void flush() throws RepositoryException {
+        ArrayList<Statement> batch;
+        synchronized (this) {
+            while (writing != null && failure == null)
+                waitFlusher(0);
+            check();
+            if (buffer.isEmpty())
+                return;
+            batch = handOff(false);
+        }
+        write(batch);
+        check();
+    }
+
+    /**
+     * Sends the buffered statements and stops the flusher
+     */
+    void close() throws RepositoryException {
+        try {
+            flush();
+        }
+        finally {
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+            try {
+                if (ps != null)
+                    ps.close();
+            } catch (Exception e) {}
+            ps = null;
+        }
+    }
+
+    public void run() {
+        while (true) {
+            ArrayList<Statement> batch;
+            synchronized (this) {
+                while (!closed) {
+                    if (writing != null) {
+                        if (forFlusher)
+                            break;
+                        // written by flush()
+                        idle(0);
+                        continue;
+                    }
+                    long age = System.currentTimeMillis() - firstAt;
+                    if (!buffer.isEmpty() && maxDelay > 0 && age >= maxDelay) {
+                        handOff(true);
+                        break;
+                    }
+                    idle(buffer.isEmpty() || maxDelay <= 0 ? 0 : maxDelay - age);
+                }
+                if (closed)
+                    return;
+                batch = writing;
+            }
+            write(batch);
+        }
+    }
+
+
+    /**
+     * Makes the buffer the batch being written, by the flusher or by the
+     * caller, and starts a new one
+     */
+    private ArrayList<Statement> handOff(boolean flusher) {
+        writing = buffer;
+        forFlusher = flusher;
+        buffer = new ArrayList<Statement>();
+        bytes = 0;
+        return writing;
+    }
+
+    private void write(ArrayList<Statement> batch) {
+        RepositoryException err = null;
+        try {
+            if (ps == null)
+                ps = con.getQuadStoreConnection().prepareStatement(VirtuosoRepositoryConnection.S_BATCH_INSERT);
+            for (Statement st : batch) {
+                con.bindParams(ps, st.getSubject(), st.getPredicate(), st.getObject(), st.getContext());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            ps.clearBatch();
+        }
+        catch (Exception e) {
+            err = e instanceof RepositoryException ? (RepositoryException) e : new RepositoryException(e);
+            try {
+                ps.clearBatch();
+            } catch (Exception e2) {}
+        }
+        synchronized (this) {
+            if (err != null && failure == null)
+                failure = err;
+            if (err == null) {
+                flushes++;
+                flushed += batch.size();
+            }
+            writing = null;
+            notifyAll();
+        }
+    }
+
+    private void check() throws RepositoryException {
+        RepositoryException e;
+        synchronized (this) {
+            e = failure;
+            failure = null;
+        }
+        if (e != null)
+            throw new RepositoryException("Problem writing the buffered statements", e);
+    }
+
+    /**
+     * Waits for the flusher in add() or flush(); an interrupt of the caller
+     * fails the call, keeping the buffered statements and the buffer open
+     */
+    private void waitFlusher(long millis) throws RepositoryException {
+        try {
+            wait(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException("Interrupted while waiting for the buffered statements to be written", e);
+        }
+    }
+
+    /**
+     * Waits in the flusher, which only close() stops
+     */
+    private void idle(long millis) {
+        try {
+            wait(millis);
+        } catch (InterruptedException e) {
+        }
+    }
+
+    static long sizeOf(Value v) {
+        return v != null ? 2L * v.stringValue().length() : 0;
+    }
+}
@@ -77,6 +77,8 @@ public class VirtuosoRepository implements Repository {
     String defGraph;
     int prefetchSize = 100;
     int batchSize = 5000;
+    int valueCacheSize = 4096;
+    private VirtuosoValueCache valueCache = null;
     int queryTimeout = 0;
     String ruleSet;
     String macroLib;
@@ -361,6 +363,40 @@ public class VirtuosoRepository implements Repository {
         return this.batchSize;
     }
 
+    /**
+     * Set the number of IRI slots of the cache that shares the IRIs,
+     * datatypes and language tags read by the connections(default 4096),
+     * 0 disables the cache. It applies to the connections opened after.
+     *
+     * @param sz
+     *        number of IRI slots.
+     */
+    public synchronized void setValueCacheSize(int sz) {
+        this.valueCacheSize = sz;
+        this.valueCache = null;
+    }
+
+    /**
+     * Get the number of IRI slots of the value cache
+     *
+     * @return number of IRI slots
+     */
+    public int getValueCacheSize() {
+        return this.valueCacheSize;
+    }
+
+    /**
+     * Get the value cache shared by the connections, with its hit
+     * statistics, or null if it is disabled
+     *
+     * @return the value cache
+     */
+    public synchronized VirtuosoValueCache getValueCache() {
+        if (valueCache == null && valueCacheSize > 0)
+            valueCache = new VirtuosoValueCache(valueFactory, valueCacheSize);
+        return valueCache;
+    }
+
     /**
      * Set the query timeout(default 0)
      *
@@ -122,6 +122,7 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
     private boolean useReprepare = true;
     private boolean insertBNodeAsVirtuosoIRI = false;
     private ValueFactory valueFactory = null;
+    private VirtuosoValueCache valueCache = null;
     private boolean insertStringLiteralAsSimple = false;
     private int queryTimeout = 0;
     private String ruleSet;
@@ -144,6 +145,7 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
         this.insertBNodeAsVirtuosoIRI = repository.insertBNodeAsVirtuosoIRI;
         this.insertStringLiteralAsSimple = repository.insertStringLiteralAsSimple;
         this.valueFactory = repository.getValueFactory();
+        this.valueCache = repository.getValueCache();
         this.queryTimeout = repository.getQueryTimeout();
         this.ruleSet = repository.getRuleSet();
         this.macroLib = repository.getMacroLib();
@@ -3063,7 +3065,9 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
                 }
                 try {
                     if (valueString.indexOf(':') < 0)
-                        return valueFactory.createIRI(":" + valueString);
+                        valueString = ":" + valueString;
+                    if (valueCache != null)
+                        return valueCache.createIRI(valueString);
                     else
                         return valueFactory.createIRI(valueString);
                 }
@@ -3092,16 +3096,18 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
             RdfBox rb = (RdfBox) val;
             String rb_val = rb.toString();
 
-            if (rb.getLang() != null) {
-                return valueFactory.createLiteral(rb_val, rb.getLang());
+            String rb_lang = valueCache != null ? valueCache.getLang(rb) : rb.getLang();
+
+            if (rb_lang != null) {
+                return valueFactory.createLiteral(rb_val, rb_lang);
             }
-            else if (rb.getType() != null) {
-                String rb_type = rb.getType();
+            IRI rb_type = valueCache != null ? valueCache.getType(rb) : (rb.getType() != null ? valueFactory.createIRI(rb.getType()) : null);
+            if (rb_type != null) {
                 if (rb_val.length()==1 && (rb_val.charAt(0)=='1' || rb_val.charAt(0)=='0')) {
-                    if (rb_type.equals("http://www.w3.org/2001/XMLSchema#boolean"))
+                    if (rb_type.equals(XMLSchema.BOOLEAN))
                         return valueFactory.createLiteral(rb_val.charAt(0)=='1'?"true":"false"); //  return getRepository().getValueFactory().createLiteral(rb_val.charAt(0)=='1'?"true":"false", this.getRepository().getValueFactory().createURI(rb_type));
                 }
-                return valueFactory.createLiteral(rb_val, valueFactory.createIRI(rb_type));
+                return valueFactory.createLiteral(rb_val, rb_type);
             }
             else {
                 return getRepository().getValueFactory().createLiteral(rb_val);
@@ -3123,35 +3129,35 @@ public class VirtuosoRepositoryConnection implements RepositoryConnection {
             return valueFactory.createLiteral(((Double) val).doubleValue());
         }
         else if (val instanceof java.math.BigDecimal) {
-            IRI type = valueFactory.createIRI("http://www.w3.org/2001/XMLSchema#decimal");
+            IRI type = XMLSchema.DECIMAL;
             return valueFactory.createLiteral(val.toString(), type);
         }
         else if (val instanceof java.sql.Blob) {
-            IRI type = valueFactory.createIRI("http://www.w3.org/2001/XMLSchema#hexBinary");
+            IRI type = XMLSchema.HEXBINARY;
             return valueFactory.createLiteral(val.toString(), type);
         }
         else if (val instanceof VirtuosoDate) {
-            IRI type = valueFactory.createIRI("http://www.w3.org/2001/XMLSchema#date");
+            IRI type = XMLSchema.DATE;
             return valueFactory.createLiteral(((VirtuosoDate)val).toXSD_String(), type);
         }
         else if (val instanceof VirtuosoTimestamp) {
-            IRI type = valueFactory.createIRI("http://www.w3.org/2001/XMLSchema#dateTime");
+            IRI type = XMLSchema.DATETIME;
             return valueFactory.createLiteral(((VirtuosoTimestamp)val).toXSD_String(), type);
         }
         else if (val instanceof VirtuosoTime) {
-            IRI type = valueFactory.createIRI("http://www.w3.org/2001/XMLSchema#time");
+            IRI type = XMLSchema.TIME;
             return valueFactory.createLiteral(((VirtuosoTime)val).toXSD_String(), type);
         }
         else if (val instanceof java.sql.Date) {
-            IRI type = valueFactory.createIRI("http://www.w3.org/2001/XMLSchema#date");
+            IRI type = XMLSchema.DATE;
             return valueFactory.createLiteral(val.toString(), type);
         }
         else if (val instanceof java.sql.Timestamp) {
-            IRI type = valueFactory.createIRI("http://www.w3.org/2001/XMLSchema#dateTime");
+            IRI type = XMLSchema.DATETIME;
             return valueFactory.createLiteral(Timestamp2String((java.sql.Timestamp)val), type);
         }
         else if (val instanceof java.sql.Time) {
-            IRI type = valueFactory.createIRI("http://www.w3.org/2001/XMLSchema#time");
+            IRI type = XMLSchema.TIME;
             return valueFactory.createLiteral(val.toString(), type);
         }
         else { // if(val instanceof String) {
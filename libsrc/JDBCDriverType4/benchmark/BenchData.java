@@ -0,0 +1,136 @@
+/*
+ *  $Id$
+ *
+ *  This file is part of the OpenLink Software Virtuoso Open-Source (VOS)
+ *  project.
+ *
+ *  Copyright (C) 1998-2020 OpenLink Software
+ *
+ *  This project is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation; only version 2 of the License, dated June 1991.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package virtuoso.jdbc4;
+
+import java.io.IOException;
+
+/**
+ * The BenchData class holds the data sets shared by the benchmarks and
+ * records them into a {@link ReplayServer}.
+ *
+ * @version 1.0
+ */
+final class BenchData
+{
+   static final String NARROW = "select ID, NAME, PRICE from BENCH.DBA.NARROW";
+   static final String WIDE = "select * from BENCH.DBA.WIDE";
+   static final String QUADS = "sparql select ?s ?p ?o from <http://example.org/bench> where { ?s ?p ?o }";
+
+   static final int WIDE_COLUMNS = 20;
+
+   private BenchData()
+   {
+   }
+
+   /**
+    * Starts a ReplayServer serving all the data sets with the given number
+    * of rows each.
+    */
+   static ReplayServer server(int rows) throws IOException, VirtuosoException
+   {
+      ReplayServer srv = new ReplayServer();
+      record(srv, rows);
+      srv.start();
+      return srv;
+   }
+
+   static void record(StubServer srv, int rows) throws IOException, VirtuosoException
+   {
+      srv.record(NARROW, new String[] { "ID", "NAME", "PRICE" },
+	  new int[] { VirtuosoTypes.DV_LONG_INT, VirtuosoTypes.DV_STRING, VirtuosoTypes.DV_DOUBLE_FLOAT },
+	  narrowRows(rows));
+
+      String[] names = new String[WIDE_COLUMNS];
+      int[] dtps = new int[WIDE_COLUMNS];
+      for (int i = 0; i < WIDE_COLUMNS; i++)
+	{
+	  names[i] = "COL" + i;
+	  dtps[i] = VirtuosoTypes.DV_STRING;
+	}
+      srv.record(WIDE, names, dtps, wideRows(rows));
+
+      srv.record(QUADS, new String[] { "s", "p", "o" },
+	  new int[] { VirtuosoTypes.DV_ANY, VirtuosoTypes.DV_ANY, VirtuosoTypes.DV_ANY },
+	  quadRows(rows));
+   }
+
+   static Object[][] narrowRows(int n)
+   {
+      Object[][] rows = new Object[n][];
+      for (int i = 0; i < n; i++)
+	rows[i] = new Object[] { new Integer(i), "name-" + i, new Double(i * 0.25) };
+      return rows;
+   }
+
+   static Object[][] wideRows(int n)
+   {
+      Object[][] rows = new Object[n][];
+      for (int i = 0; i < n; i++)
+	{
+	  rows[i] = new Object[WIDE_COLUMNS];
+	  for (int j = 0; j < WIDE_COLUMNS; j++)
+	    rows[i][j] = "value " + i + "/" + j;
+	}
+      return rows;
+   }
+
+   /**
+    * Rows of a SPARQL select: IRI subjects and predicates, and objects
+    * alternating between IRIs, typed literals and language literals.
+    */
+   static Object[][] quadRows(int n)
+   {
+      Object[][] rows = new Object[n][];
+      for (int i = 0; i < n; i++)
+	{
+	  Object o;
+	  switch (i % 3)
+	    {
+	      case 0:
+		  o = iri("http://example.org/o/" + i);
+		  break;
+	      case 1:
+		  o = new VirtuosoRdfBox(null, String.valueOf(i), true, false,
+		      (short) (StubServer.FIRST_KEY + i % StubServer.TYPES.length),
+		      (short) VirtuosoRdfBox.RDF_BOX_DEFAULT_LANG, 0L);
+		  break;
+	      default:
+		  o = new VirtuosoRdfBox(null, "literal " + i, true, false,
+		      (short) VirtuosoRdfBox.RDF_BOX_DEFAULT_TYPE,
+		      (short) (StubServer.FIRST_KEY + i % StubServer.LANGS.length), 0L);
+		  break;
+	    }
+	  rows[i] = new Object[] {
+	    iri("http://example.org/s/" + (i / 10)),
+	    iri("http://example.org/p/" + (i % 10)),
+	    o };
+	}
+      return rows;
+   }
+
+   static VirtuosoExtendedString iri(String s)
+   {
+      return new VirtuosoExtendedString(s, VirtuosoExtendedString.IRI);
+   }
+}
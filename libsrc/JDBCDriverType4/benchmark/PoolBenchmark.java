@@ -0,0 +1,90 @@
+/*
+ *  $Id$
+ *
+ *  This file is part of the OpenLink Software Virtuoso Open-Source (VOS)
+ *  project.
+ *
+ *  Copyright (C) 1998-2020 OpenLink Software
+ *
+ *  This project is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation; only version 2 of the License, dated June 1991.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package virtuoso.jdbc4;
+
+import java.sql.Connection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks of the connection pool: borrowing a connection from the
+ * ConnCache of a VirtuosoConnectionPoolDataSource and returning it,
+ * single threaded and under contention. Each borrow runs the "select 1"
+ * validity check against the replay server.
+ *
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PoolBenchmark
+{
+   @Param({ "8" })
+   public int maxPoolSize;
+
+   private ReplayServer server;
+   private VirtuosoConnectionPoolDataSource ds;
+
+   @Setup
+   public void setup() throws Exception
+   {
+      server = BenchData.server(1);
+      ds = new VirtuosoConnectionPoolDataSource();
+      ds.setServerName("localhost");
+      ds.setPortNumber(server.getPort());
+      ds.setUser("dba");
+      ds.setPassword("dba");
+      ds.setMaxPoolSize(maxPoolSize);
+      ds.setInitialPoolSize(maxPoolSize);
+      ds.fill();
+   }
+
+   @TearDown
+   public void tearDown() throws Exception
+   {
+      ds.close();
+      server.close();
+   }
+
+   @Benchmark
+   public Connection borrowReturn() throws Exception
+   {
+      Connection c = ds.getConnection();
+      c.close();
+      return c;
+   }
+
+   @Benchmark
+   @Threads(4)
+   public Connection borrowReturnContended() throws Exception
+   {
+      Connection c = ds.getConnection();
+      c.close();
+      return c;
+   }
+}
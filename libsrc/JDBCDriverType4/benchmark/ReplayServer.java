@@ -0,0 +1,50 @@
+/*
+ *  $Id$
+ *
+ *  This file is part of the OpenLink Software Virtuoso Open-Source (VOS)
+ *  project.
+ *
+ *  Copyright (C) 1998-2020 OpenLink Software
+ *
+ *  This project is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation; only version 2 of the License, dated June 1991.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package virtuoso.jdbc4;
+
+import java.io.IOException;
+
+/**
+ * The ReplayServer class is the {@link StubServer} used by the driver
+ * benchmarks: it only replays the DV-encoded answer frames recorded with
+ * {@link #record} for each statement text, and fails any other statement,
+ * so the measured time is spent in the driver and not in the server.
+ *
+ * @version 1.0
+ */
+class ReplayServer extends StubServer
+{
+   /**
+    * Constructs a ReplayServer listening on a free port of the loopback
+    * interface.
+    *
+    * @exception java.io.IOException  The socket could not be opened.
+    * @exception virtuoso.jdbc4.VirtuosoException  A value could not be encoded.
+    */
+   ReplayServer() throws IOException, VirtuosoException
+   {
+      super();
+      setSynthesize(false);
+   }
+}
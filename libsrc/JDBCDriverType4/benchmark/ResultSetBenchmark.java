@@ -0,0 +1,145 @@
+/*
+ *  $Id$
+ *
+ *  This file is part of the OpenLink Software Virtuoso Open-Source (VOS)
+ *  project.
+ *
+ *  Copyright (C) 1998-2020 OpenLink Software
+ *
+ *  This project is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation; only version 2 of the License, dated June 1991.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package virtuoso.jdbc4;
+
+import java.sql.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of VirtuosoResultSet: forward-only iteration with the
+ * typed getters over narrow, wide and SPARQL result sets, and column
+ * lookup by name.
+ *
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultSetBenchmark
+{
+   @Param({ "100", "10000" })
+   public int rows;
+
+   @Param({ "100" })
+   public int fetchSize;
+
+   private ReplayServer server;
+   private Connection connection;
+   private Statement stmt;
+
+   // A result set positioned on its first row, for findColumn
+   private Statement lookupStmt;
+   private ResultSet lookupRs;
+
+   @Setup
+   public void setup() throws Exception
+   {
+      Class.forName("virtuoso.jdbc4.Driver");
+      server = BenchData.server(rows);
+      connection = DriverManager.getConnection(server.getURL());
+      stmt = connection.createStatement();
+      stmt.setFetchSize(fetchSize);
+
+      lookupStmt = connection.createStatement();
+      lookupRs = lookupStmt.executeQuery(BenchData.WIDE);
+      lookupRs.next();
+   }
+
+   @TearDown
+   public void tearDown() throws Exception
+   {
+      lookupRs.close();
+      lookupStmt.close();
+      stmt.close();
+      connection.close();
+      server.close();
+   }
+
+   @Benchmark
+   public void iterateNarrow(Blackhole bh) throws SQLException
+   {
+      ResultSet rs = stmt.executeQuery(BenchData.NARROW);
+      while (rs.next())
+	{
+	  bh.consume(rs.getInt(1));
+	  bh.consume(rs.getString(2));
+	  bh.consume(rs.getDouble(3));
+	}
+      rs.close();
+   }
+
+   @Benchmark
+   public void iterateWide(Blackhole bh) throws SQLException
+   {
+      ResultSet rs = stmt.executeQuery(BenchData.WIDE);
+      while (rs.next())
+	{
+	  for (int i = 1; i <= BenchData.WIDE_COLUMNS; i++)
+	    bh.consume(rs.getString(i));
+	}
+      rs.close();
+   }
+
+   @Benchmark
+   public void iterateQuads(Blackhole bh) throws SQLException
+   {
+      ResultSet rs = stmt.executeQuery(BenchData.QUADS);
+      while (rs.next())
+	{
+	  bh.consume(rs.getObject(1));
+	  bh.consume(rs.getObject(2));
+	  bh.consume(rs.getObject(3));
+	}
+      rs.close();
+   }
+
+   /**
+    * Reads the narrow result set by column name, as most applications and
+    * the RDF providers do.
+    */
+   @Benchmark
+   public void iterateNarrowByName(Blackhole bh) throws SQLException
+   {
+      ResultSet rs = stmt.executeQuery(BenchData.NARROW);
+      while (rs.next())
+	{
+	  bh.consume(rs.getInt("ID"));
+	  bh.consume(rs.getString("NAME"));
+	  bh.consume(rs.getDouble("PRICE"));
+	}
+      rs.close();
+   }
+
+   @Benchmark
+   public int findColumn() throws SQLException
+   {
+      return lookupRs.findColumn("COL" + (BenchData.WIDE_COLUMNS - 1));
+   }
+}
@@ -0,0 +1,897 @@
+/*
+ *  $Id$
+ *
+ *  This file is part of the OpenLink Software Virtuoso Open-Source (VOS)
+ *  project.
+ *
+ *  Copyright (C) 1998-2020 OpenLink Software
+ *
+ *  This project is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation; only version 2 of the License, dated June 1991.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package virtuoso.jdbc4;
+
+import java.io.*;
+import java.net.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * The StubServer class is a lightweight in-process Virtuoso server speaking
+ * the future protocol of the driver (caller_identification, SCON, PREP,
+ * EXEC, FTCH, GETDA, TRXC, FRST), so the driver, the connection pool and
+ * the RDF providers can be exercised without a database.
+ *
+ * Statements are answered either from recordings made with
+ * {@link #record} and {@link #recordUpdate}, or from synthetic result sets:
+ * a select without a recording gets the shape of the first matching
+ * {@link #synthesize} rule, or the default shape. SQL selects get an
+ * integer key column followed by string columns; SPARQL selects get one
+ * column per projected variable, holding IRIs, typed and language-tagged
+ * literals. Any other statement reports one row affected. Latency can be
+ * added to each RPC and to each fetch window with {@link #setLatency}
+ * and {@link #setWindowLatency}.
+ *
+ * Frames are encoded once per statement; serving a request only patches
+ * in the future number and the row tag. Result sets are sent in windows of
+ * the prefetch size asked by the client and the next window is sent on
+ * each FTCH, as with a forward-only cursor of the real server.
+ *
+ * The server can be run standalone:
+ * <pre>
+ *   java virtuoso.jdbc4.StubServer [-port 1111] [-rows 100] [-cols 4]
+ *	[-blob 0] [-latency RPC=micros] [-window micros]
+ * </pre>
+ *
+ * @version 1.0
+ */
+public class StubServer implements Runnable
+{
+   // Version string sent in the login answer
+   static final String SERVER_VERSION = "07.20.3240";
+
+   // Number of distinct rows encoded for a synthetic result set; longer
+   // result sets repeat them
+   static final int DISTINCT_ROWS = 1024;
+
+   // Datatypes and languages known to the RDF box lookups
+   static final String[] TYPES = {
+      "http://www.w3.org/2001/XMLSchema#integer",
+      "http://www.w3.org/2001/XMLSchema#decimal",
+      "http://www.w3.org/2001/XMLSchema#double",
+      "http://www.w3.org/2001/XMLSchema#dateTime",
+      "http://www.w3.org/2001/XMLSchema#boolean"
+   };
+   static final String[] LANGS = { "en", "de", "fr" };
+
+   // First two-byte key handed out for datatypes and languages
+   static final int FIRST_KEY = 258;
+
+   // A recorded statement
+   static class Recording
+   {
+      // Encoded value of the QA_COMPILED answer
+      byte[] compiled;
+      // Encoded cells of the distinct rows, without the row tag
+      byte[][] rows;
+      // Number of rows sent, cycling through the distinct ones
+      int count;
+      // Number of columns
+      int columns;
+      // Number of ? parameters of the statement
+      int params;
+      // Update count, or -1 for a select
+      int updateCount = -1;
+   }
+
+   // A synthetic result set shape, applied to statements matching a pattern
+   private static class Rule
+   {
+      Pattern pattern;
+      int rows;
+      int cols;
+      int blobLength;
+   }
+
+   // A blob cell of a synthetic row, fetched with GETDA
+   private static class BlobCell
+   {
+      long page;
+      int length;
+   }
+
+   // An open forward-only cursor
+   private static class Cursor
+   {
+      Recording rec;
+      int req_no;
+      int prefetch;
+      int pos;
+   }
+
+   private final ServerSocket server;
+   private final Map<String,Recording> recordings = new HashMap<String,Recording>();
+   private final Map<String,Recording> synthetic = new ConcurrentHashMap<String,Recording>();
+   private final List<Rule> rules = new ArrayList<Rule>();
+   private final Map<String,Long> latency = new ConcurrentHashMap<String,Long>();
+   private final ConcurrentHashMap<String,AtomicLong> calls = new ConcurrentHashMap<String,AtomicLong>();
+   private final Map<Long,Integer> blobs = new ConcurrentHashMap<Long,Integer>();
+   private final AtomicLong blobPages = new AtomicLong();
+   private volatile long windowLatency;
+   private volatile boolean synthesize = true;
+   private volatile boolean closed;
+
+   private int defaultRows = 100;
+   private int defaultCols = 4;
+   private int defaultBlobLength = 0;
+
+   /**
+    * Constructs a StubServer listening on a free port of the loopback
+    * interface.
+    *
+    * @exception java.io.IOException  The socket could not be opened.
+    * @exception virtuoso.jdbc4.VirtuosoException  A value could not be encoded.
+    */
+   public StubServer() throws IOException, VirtuosoException
+   {
+      this(0);
+   }
+
+   /**
+    * Constructs a StubServer listening on a given port of the loopback
+    * interface. The statements the driver runs by itself ("select 1" for
+    * the pool validity check, the RDF datatype and language tables) are
+    * recorded already.
+    *
+    * @param port  The port, or 0 for a free one.
+    * @exception java.io.IOException  The socket could not be opened.
+    * @exception virtuoso.jdbc4.VirtuosoException  A value could not be encoded.
+    */
+   public StubServer(int port) throws IOException, VirtuosoException
+   {
+      server = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+      record("select 1", new String[] { "_" }, new int[] { VirtuosoTypes.DV_LONG_INT },
+	  new Object[][] { { new Integer(1) } });
+
+      Object[][] types = new Object[TYPES.length][];
+      for (int i = 0; i < TYPES.length; i++)
+	types[i] = new Object[] { new Integer(FIRST_KEY + i), TYPES[i] };
+      record("select RDT_TWOBYTE, RDT_QNAME from DB.DBA.RDF_DATATYPE",
+	  new String[] { "RDT_TWOBYTE", "RDT_QNAME" },
+	  new int[] { VirtuosoTypes.DV_LONG_INT, VirtuosoTypes.DV_STRING }, types);
+
+      Object[][] langs = new Object[LANGS.length][];
+      for (int i = 0; i < LANGS.length; i++)
+	langs[i] = new Object[] { new Integer(FIRST_KEY + i), LANGS[i] };
+      record("select RL_TWOBYTE, RL_ID from DB.DBA.RDF_LANGUAGE",
+	  new String[] { "RL_TWOBYTE", "RL_ID" },
+	  new int[] { VirtuosoTypes.DV_LONG_INT, VirtuosoTypes.DV_STRING }, langs);
+   }
+
+   /**
+    * Starts accepting connections on a daemon thread.
+    *
+    * @return StubServer  This server.
+    */
+   public StubServer start()
+   {
+      Thread t = new Thread(this, getClass().getName() + ":" + getPort());
+      t.setDaemon(true);
+      t.start();
+      return this;
+   }
+
+   /**
+    * Returns the port the server listens on.
+    */
+   public int getPort()
+   {
+      return server.getLocalPort();
+   }
+
+   /**
+    * Returns a JDBC URL pointing to this server.
+    */
+   public String getURL()
+   {
+      return "jdbc:virtuoso://localhost:" + getPort() + "/UID=dba/PWD=dba";
+   }
+
+   /**
+    * Stops accepting connections.
+    */
+   public void close()
+   {
+      closed = true;
+      try
+	{
+	  server.close();
+	}
+      catch (IOException e)
+	{
+	}
+   }
+
+   /**
+    * Sets the shape of the synthetic result sets of statements matching no
+    * rule.
+    *
+    * @param rows	The number of rows.
+    * @param cols	The number of columns of SQL selects.
+    * @param blobLength	If positive, the last SQL column is a long varchar
+    *			of this length, read with GETDA.
+    */
+   public synchronized void setDefaultShape(int rows, int cols, int blobLength)
+   {
+      defaultRows = rows;
+      defaultCols = cols;
+      defaultBlobLength = blobLength;
+      synthetic.clear();
+   }
+
+   /**
+    * Adds a synthetic result set shape for the statements matching a
+    * regular expression. Rules are tried in the order they were added.
+    *
+    * @param regex	The regular expression, searched in the statement text.
+    * @param rows	The number of rows.
+    * @param cols	The number of columns of SQL selects.
+    * @param blobLength	If positive, the last SQL column is a long varchar
+    *			of this length.
+    */
+   public synchronized void synthesize(String regex, int rows, int cols, int blobLength)
+   {
+      Rule r = new Rule();
+      r.pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+      r.rows = rows;
+      r.cols = cols;
+      r.blobLength = blobLength;
+      rules.add(r);
+      synthetic.clear();
+   }
+
+   /**
+    * Enables or disables synthetic answers. When disabled, statements
+    * without a recording fail with SQL state 42000.
+    */
+   public void setSynthesize(boolean on)
+   {
+      synthesize = on;
+   }
+
+   /**
+    * Adds latency before answering an RPC.
+    *
+    * @param rpc	The RPC name (SCON, PREP, EXEC, FTCH, GETDA, TRXC, FRST).
+    * @param micros	The delay in microseconds, 0 to remove it.
+    */
+   public void setLatency(String rpc, long micros)
+   {
+      if (micros > 0)
+	latency.put(rpc, new Long(micros));
+      else
+	latency.remove(rpc);
+   }
+
+   /**
+    * Adds latency before sending each window of rows, including the first.
+    *
+    * @param micros	The delay in microseconds.
+    */
+   public void setWindowLatency(long micros)
+   {
+      windowLatency = micros;
+   }
+
+   /**
+    * Returns how many times an RPC has been received.
+    */
+   public long getCalls(String rpc)
+   {
+      AtomicLong n = calls.get(rpc);
+      return n == null ? 0 : n.get();
+   }
+
+   /**
+    * Records a result set for a statement.
+    *
+    * @param sql	The statement text.
+    * @param names	The column names.
+    * @param dtps	The DV types of the columns.
+    * @param rows	The rows, each one holding one value per column.
+    * @exception java.io.IOException  A value could not be encoded.
+    * @exception virtuoso.jdbc4.VirtuosoException  A value could not be encoded.
+    */
+   public synchronized void record(String sql, String[] names, int[] dtps, Object[][] rows)
+       throws IOException, VirtuosoException
+   {
+      recordings.put(sql.trim(), select(sql, names, dtps, rows, rows.length));
+   }
+
+   /**
+    * Records an insert/update/delete statement.
+    *
+    * @param sql		The statement text.
+    * @param updateCount	The number of rows affected.
+    * @exception java.io.IOException  A value could not be encoded.
+    * @exception virtuoso.jdbc4.VirtuosoException  A value could not be encoded.
+    */
+   public synchronized void recordUpdate(String sql, int updateCount)
+       throws IOException, VirtuosoException
+   {
+      recordings.put(sql.trim(), update(sql, updateCount));
+   }
+
+   /**
+    * Finds the answer for a statement: its recording or, if enabled, a
+    * synthetic one.
+    *
+    * @return Recording	The answer, or null if there is none.
+    */
+   Recording resolve(String sql) throws IOException, VirtuosoException
+   {
+      sql = sql.trim();
+      Recording rec;
+      synchronized (this)
+	{
+	  rec = recordings.get(sql);
+	}
+      if (rec != null || !synthesize)
+	return rec;
+      rec = synthetic.get(sql);
+      if (rec == null)
+	{
+	  rec = synthesize(sql);
+	  synthetic.put(sql, rec);
+	}
+      return rec;
+   }
+
+   private Recording synthesize(String sql) throws IOException, VirtuosoException
+   {
+      int rows, cols, blobLength;
+      synchronized (this)
+	{
+	  rows = defaultRows;
+	  cols = defaultCols;
+	  blobLength = defaultBlobLength;
+	  for (Rule r : rules)
+	    if (r.pattern.matcher(sql).find())
+	      {
+		rows = r.rows;
+		cols = r.cols;
+		blobLength = r.blobLength;
+		break;
+	      }
+	}
+
+      String lower = sql.toLowerCase();
+      boolean sparql = lower.startsWith("sparql");
+      int sel = lower.indexOf("select");
+      if (sel < 0 || (!sparql && sel > 0) || (sparql && isSparqlUpdate(lower)))
+	return update(sql, 1);
+
+      String[] names;
+      int[] dtps;
+      if (sparql)
+	{
+	  names = sparqlVariables(sql.substring(sel + 6));
+	  cols = names.length;
+	  blobLength = 0;
+	  dtps = new int[cols];
+	  for (int j = 0; j < cols; j++)
+	    dtps[j] = VirtuosoTypes.DV_ANY;
+	}
+      else
+	{
+	  names = new String[cols];
+	  dtps = new int[cols];
+	  for (int j = 0; j < cols; j++)
+	    {
+	      names[j] = j == 0 ? "ID" : "C" + j;
+	      dtps[j] = j == 0 ? VirtuosoTypes.DV_LONG_INT : VirtuosoTypes.DV_STRING;
+	    }
+	  if (blobLength > 0 && cols > 1)
+	    dtps[cols - 1] = VirtuosoTypes.DV_BLOB;
+	}
+
+      Object[][] data = new Object[Math.min(rows, DISTINCT_ROWS)][];
+      for (int i = 0; i < data.length; i++)
+	{
+	  data[i] = new Object[cols];
+	  for (int j = 0; j < cols; j++)
+	    data[i][j] = sparql ? sparqlValue(i, j, cols) : sqlValue(i, j, dtps[j], blobLength);
+	}
+      return select(sql, names, dtps, data, rows);
+   }
+
+   private static boolean isSparqlUpdate(String lower)
+   {
+      return lower.indexOf("insert") >= 0 && lower.indexOf("insert") < lower.indexOf("select")
+	  || lower.indexOf("delete") >= 0 && lower.indexOf("delete") < lower.indexOf("select");
+   }
+
+   /**
+    * Returns the projected variables of a SPARQL select, or s, p and o for
+    * select *.
+    */
+   private static String[] sparqlVariables(String projection)
+   {
+      List<String> vars = new ArrayList<String>();
+      int n = projection.length();
+      for (int i = 0; i < n; i++)
+	{
+	  char c = projection.charAt(i);
+	  if (c == '{' || projection.regionMatches(true, i, "where", 0, 5)
+	      || projection.regionMatches(true, i, "from", 0, 4))
+	    break;
+	  if (c == '?' || c == '$')
+	    {
+	      int j = i + 1;
+	      while (j < n && Character.isJavaIdentifierPart(projection.charAt(j)))
+		j++;
+	      String v = projection.substring(i + 1, j);
+	      if (v.length() > 0 && !vars.contains(v))
+		vars.add(v);
+	      i = j - 1;
+	    }
+	}
+      if (vars.isEmpty())
+	return new String[] { "s", "p", "o" };
+      return vars.toArray(new String[vars.size()]);
+   }
+
+   private static Object sparqlValue(int i, int j, int cols)
+   {
+      if (j < cols - 1 || i % 3 == 0)
+	return new VirtuosoExtendedString("http://example.org/" + j + "/" + i, VirtuosoExtendedString.IRI);
+      if (i % 3 == 1)
+	return new VirtuosoRdfBox(null, String.valueOf(i), true, false,
+	    (short) (FIRST_KEY + i % TYPES.length), (short) VirtuosoRdfBox.RDF_BOX_DEFAULT_LANG, 0L);
+      return new VirtuosoRdfBox(null, "literal " + i, true, false,
+	  (short) VirtuosoRdfBox.RDF_BOX_DEFAULT_TYPE, (short) (FIRST_KEY + i % LANGS.length), 0L);
+   }
+
+   private Object sqlValue(int i, int j, int dtp, int blobLength)
+   {
+      if (j == 0)
+	return new Integer(i);
+      if (dtp == VirtuosoTypes.DV_BLOB)
+	{
+	  BlobCell b = new BlobCell();
+	  b.page = blobPages.incrementAndGet();
+	  b.length = blobLength;
+	  blobs.put(new Long(b.page), new Integer(blobLength));
+	  return b;
+	}
+      return "r" + i + "c" + j;
+   }
+
+   private Recording select(String sql, String[] names, int[] dtps, Object[][] rows, int count)
+       throws IOException, VirtuosoException
+   {
+      Recording rec = new Recording();
+      openlink.util.Vector cols = new openlink.util.Vector(names.length);
+      for (int i = 0; i < names.length; i++)
+	cols.addElement(vector(names[i], new Integer(dtps[i]), new Integer(0), new Integer(0),
+	      new Integer(1), new Integer(0), new Integer(1)));
+      rec.params = countParams(sql);
+      rec.compiled = encode(compiled(cols, new Short((short) VirtuosoTypes.QT_SELECT), rec.params));
+      rec.columns = names.length;
+      rec.count = rows.length == 0 ? 0 : count;
+      rec.rows = new byte[rows.length][];
+      for (int i = 0; i < rows.length; i++)
+	rec.rows[i] = encodeRow(rows[i]);
+      return rec;
+   }
+
+   private Recording update(String sql, int updateCount) throws IOException, VirtuosoException
+   {
+      Recording rec = new Recording();
+      rec.params = countParams(sql);
+      rec.compiled = encode(compiled(new openlink.util.Vector(0), null, rec.params));
+      rec.rows = new byte[0][];
+      rec.updateCount = updateCount;
+      return rec;
+   }
+
+   private static byte[] encodeRow(Object[] cells) throws IOException, VirtuosoException
+   {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      VirtuosoOutputStream out = new VirtuosoOutputStream(null, bos, 512);
+      for (int j = 0; j < cells.length; j++)
+	{
+	  if (cells[j] instanceof BlobCell)
+	    {
+	      // a blob handle: ask, page, length, key id, fragment, dir page,
+	      // timestamp and pages
+	      BlobCell b = (BlobCell) cells[j];
+	      out.flush();
+	      DataOutputStream dos = new DataOutputStream(bos);
+	      dos.write(VirtuosoTypes.DV_BLOB_HANDLE);
+	      dos.writeInt(0);
+	      dos.writeInt((int) b.page);
+	      dos.writeInt(b.length);
+	      dos.writeInt(0);
+	      dos.writeInt(0);
+	      dos.writeInt(0);
+	      dos.writeInt(0);
+	      dos.write(VirtuosoTypes.DV_DB_NULL);
+	      dos.flush();
+	    }
+	  else
+	    out.write_object(cells[j]);
+	}
+      out.flush();
+      return bos.toByteArray();
+   }
+
+   /**
+    * Encodes an object the way the driver sends it on the wire.
+    */
+   static byte[] encode(Object obj) throws IOException, VirtuosoException
+   {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      VirtuosoOutputStream out = new VirtuosoOutputStream(null, bos, 512);
+      out.write_object(obj);
+      out.flush();
+      return bos.toByteArray();
+   }
+
+   static openlink.util.Vector vector(Object... elts)
+   {
+      return new openlink.util.Vector(elts);
+   }
+
+   private static openlink.util.Vector compiled(openlink.util.Vector cols, Object kind, int params)
+   {
+      openlink.util.Vector pds = new openlink.util.Vector(params);
+      for (int i = 0; i < params; i++)
+	pds.addElement(vector(new Integer(VirtuosoTypes.DV_STRING), new Integer(0),
+	      new Integer(0), new Integer(1), new Integer(0)));
+      return vector(vector(new Short((short) VirtuosoTypes.QA_COMPILED),
+	    vector(cols, kind, null, pds)));
+   }
+
+   /**
+    * Counts the ? parameter markers of a statement. A ? followed by a
+    * name is a SPARQL variable, not a parameter.
+    */
+   private static int countParams(String sql)
+   {
+      int n = 0;
+      for (int i = 0; i < sql.length(); i++)
+	if (sql.charAt(i) == '?' &&
+	    (i + 1 == sql.length() || !Character.isJavaIdentifierPart(sql.charAt(i + 1))))
+	  n++;
+      return n;
+   }
+
+   /**
+    * Returns the content of a synthetic blob between two offsets.
+    */
+   static String blobData(long page, long from, long to)
+   {
+      StringBuilder sb = new StringBuilder((int) (to - from));
+      for (long i = from; i < to; i++)
+	sb.append((char) ('a' + (page + i) % 26));
+      return sb.toString();
+   }
+
+   private static void pause(long micros)
+   {
+      if (micros <= 0)
+	return;
+      try
+	{
+	  TimeUnit.MICROSECONDS.sleep(micros);
+	}
+      catch (InterruptedException e)
+	{
+	  Thread.currentThread().interrupt();
+	}
+   }
+
+   public void run()
+   {
+      while (!closed)
+	{
+	  try
+	    {
+	      Socket s = server.accept();
+	      s.setTcpNoDelay(true);
+	      Thread t = new Thread(new Session(s), "StubSession:" + s.getPort());
+	      t.setDaemon(true);
+	      t.start();
+	    }
+	  catch (IOException e)
+	    {
+	      if (!closed)
+		e.printStackTrace();
+	    }
+	}
+   }
+
+   /**
+    * One client connection.
+    */
+   private class Session implements Runnable
+   {
+      private final Socket socket;
+      private final VirtuosoInputStream in;
+      private final VirtuosoOutputStream out;
+      private final Map<String,Cursor> cursors = new HashMap<String,Cursor>();
+      private final Map<String,Recording> prepared = new HashMap<String,Recording>();
+
+      Session(Socket socket) throws IOException
+      {
+	 this.socket = socket;
+	 in = new VirtuosoInputStream(null, socket, 32768);
+	 out = new VirtuosoOutputStream(null, socket, 32768);
+      }
+
+      public void run()
+      {
+	 try
+	   {
+	     while (!closed)
+	       {
+		 openlink.util.Vector req = (openlink.util.Vector) in.read_object();
+		 String rpc = (String) req.elementAt(3);
+		 AtomicLong n = calls.get(rpc);
+		 if (n == null)
+		   {
+		     calls.putIfAbsent(rpc, new AtomicLong());
+		     n = calls.get(rpc);
+		   }
+		 n.incrementAndGet();
+		 Long delay = latency.get(rpc);
+		 if (delay != null)
+		   pause(delay.longValue());
+		 dispatch(((Number) req.elementAt(1)).intValue(), rpc,
+		     (openlink.util.Vector) req.elementAt(4));
+		 out.flush();
+	       }
+	   }
+	 catch (Exception e)
+	   {
+	     // the client went away
+	   }
+	 finally
+	   {
+	     try
+	       {
+		 socket.close();
+	       }
+	     catch (IOException e)
+	       {
+	       }
+	   }
+      }
+
+      private void dispatch(int req_no, String rpc, openlink.util.Vector args)
+	  throws IOException, VirtuosoException
+      {
+	 if (VirtuosoFuture.callerid.equals(rpc))
+	   answer(req_no, vector(vector(new Integer(0), "StubServer")));
+	 else if (VirtuosoFuture.scon.equals(rpc))
+	   answer(req_no, vector(vector(new Short((short) VirtuosoTypes.QA_LOGIN), "DB",
+		   SERVER_VERSION, new Integer(1), new openlink.util.Vector(0), null)));
+	 else if (VirtuosoFuture.prepare.equals(rpc))
+	   prepare(req_no, (String) args.elementAt(0), (String) args.elementAt(1));
+	 else if (VirtuosoFuture.exec.equals(rpc))
+	   exec(req_no, args);
+	 else if (VirtuosoFuture.fetch.equals(rpc))
+	   {
+	     Cursor c = cursors.get((String) args.elementAt(0));
+	     if (c != null)
+	       sendWindow((String) args.elementAt(0), c);
+	   }
+	 else if (VirtuosoFuture.getdata.equals(rpc))
+	   getData(req_no, args);
+	 else if (VirtuosoFuture.close.equals(rpc))
+	   {
+	     cursors.remove((String) args.elementAt(0));
+	     if (((Number) args.elementAt(1)).intValue() == VirtuosoTypes.STAT_DROP)
+	       prepared.remove((String) args.elementAt(0));
+	     answer(req_no, vector(new Integer(1)));
+	   }
+	 else if (VirtuosoFuture.transaction.equals(rpc))
+	   answer(req_no, vector((Object) null));
+	 else if (!VirtuosoFuture.cancel.equals(rpc))
+	   answer(req_no, vector((Object) null));
+      }
+
+      private void prepare(int req_no, String statid, String sql) throws IOException, VirtuosoException
+      {
+	 Recording rec = resolve(sql);
+	 if (rec == null)
+	   {
+	     error(req_no, sql);
+	     return;
+	   }
+	 prepared.put(statid, rec);
+	 frame(VirtuosoTypes.DA_FUTURE_ANSWER, req_no, rec.compiled);
+      }
+
+      private void exec(int req_no, openlink.util.Vector args) throws IOException, VirtuosoException
+      {
+	 String statid = (String) args.elementAt(0);
+	 Object text = args.elementAt(1);
+	 Recording rec;
+	 cursors.remove(statid);
+	 if (text instanceof String)
+	   {
+	     rec = resolve((String) text);
+	     if (rec == null)
+	       {
+		 error(req_no, (String) text);
+		 return;
+	       }
+	     frame(VirtuosoTypes.DA_FUTURE_PARTIAL_ANSWER, req_no, rec.compiled);
+	   }
+	 else
+	   {
+	     rec = prepared.get(statid);
+	     if (rec == null)
+	       {
+		 error(req_no, statid);
+		 return;
+	       }
+	   }
+
+	 if (rec.updateCount >= 0)
+	   {
+	     int batch = ((openlink.util.Vector) args.elementAt(3)).size();
+	     for (int i = 0; i < batch; i++)
+	       answer(req_no, vector(vector(new Short((short) VirtuosoTypes.QA_ROWS_AFFECTED),
+		       new Integer(rec.updateCount))));
+	     return;
+	   }
+
+	 Cursor c = new Cursor();
+	 c.rec = rec;
+	 c.req_no = req_no;
+	 c.prefetch = ((Number) ((openlink.util.Vector) args.elementAt(5)).elementAt(4)).intValue();
+	 if (c.prefetch <= 0)
+	   c.prefetch = VirtuosoTypes.DEFAULTPREFETCH;
+	 cursors.put(statid, c);
+	 sendWindow(statid, c);
+      }
+
+      private void sendWindow(String statid, Cursor c) throws IOException, VirtuosoException
+      {
+	 byte[][] rows = c.rec.rows;
+	 int count = c.rec.count;
+	 pause(windowLatency);
+	 for (int n = 0; n < c.prefetch && c.pos < count; n++, c.pos++)
+	   {
+	     boolean last = n == c.prefetch - 1 && c.pos < count - 1;
+	     byte[] row = rows[c.pos % rows.length];
+	     out.write(VirtuosoTypes.DV_ARRAY_OF_POINTER);
+	     out.write_object(new Integer(4));
+	     out.write_object(new Short((short) VirtuosoTypes.DA_FUTURE_PARTIAL_ANSWER));
+	     out.write_object(new Integer(c.req_no));
+	     out.write(VirtuosoTypes.DV_ARRAY_OF_POINTER);
+	     out.write_object(new Integer(1));
+	     out.write(VirtuosoTypes.DV_ARRAY_OF_POINTER);
+	     out.write_object(new Integer(c.rec.columns + 1));
+	     out.write_object(new Short((short) (last ?
+		     VirtuosoTypes.QA_ROW_LAST_IN_BATCH : VirtuosoTypes.QA_ROW)));
+	     out.write(row, 0, row.length);
+	     out.write(VirtuosoTypes.DV_NULL);
+	   }
+	 if (c.pos >= count)
+	   {
+	     cursors.remove(statid);
+	     answer(c.req_no, vector(new Short((short) 100)));
+	   }
+      }
+
+      /**
+       * Answers a blob read: the data from the given position and the new
+       * page and position.
+       */
+      private void getData(int req_no, openlink.util.Vector args) throws IOException, VirtuosoException
+      {
+	 long page = ((Number) args.elementAt(0)).longValue();
+	 long len = ((Number) args.elementAt(1)).longValue();
+	 long pos = ((Number) args.elementAt(2)).longValue();
+	 Integer length = blobs.get(new Long(page));
+	 if (length == null)
+	   {
+	     answer(req_no, vector(vector(new Long(VirtuosoTypes.QA_ERROR), "22023",
+		     "StubServer: no blob on page " + page)));
+	     return;
+	   }
+	 long end = Math.min(pos + Math.abs(len), length.longValue());
+	 openlink.util.Vector v = new openlink.util.Vector(2);
+	 if (end > pos)
+	   v.addElement(blobData(page, pos, end));
+	 v.addElement(vector(new Integer(0), new Long(page), new Long(Math.max(end, pos))));
+	 answer(req_no, vector(v));
+      }
+
+      private void error(int req_no, String what) throws IOException, VirtuosoException
+      {
+	 answer(req_no, vector(vector(new Short((short) VirtuosoTypes.QA_ERROR), "42000",
+		 "StubServer: no recording for " + what)));
+      }
+
+      private void answer(int req_no, openlink.util.Vector value) throws IOException, VirtuosoException
+      {
+	 frame(VirtuosoTypes.DA_FUTURE_ANSWER, req_no, encode(value));
+      }
+
+      private void frame(int tag, int req_no, byte[] value) throws IOException, VirtuosoException
+      {
+	 out.write(VirtuosoTypes.DV_ARRAY_OF_POINTER);
+	 out.write_object(new Integer(4));
+	 out.write_object(new Short((short) tag));
+	 out.write_object(new Integer(req_no));
+	 out.write(value, 0, value.length);
+	 out.write(VirtuosoTypes.DV_NULL);
+      }
+   }
+
+   /**
+    * Runs a standalone server until killed.
+    */
+   public static void main(String[] args) throws Exception
+   {
+      int port = 1111, rows = 100, cols = 4, blob = 0;
+      Map<String,Long> delays = new HashMap<String,Long>();
+      long window = 0;
+
+      for (int i = 0; i + 1 < args.length; i += 2)
+	{
+	  if ("-port".equals(args[i]))
+	    port = Integer.parseInt(args[i + 1]);
+	  else if ("-rows".equals(args[i]))
+	    rows = Integer.parseInt(args[i + 1]);
+	  else if ("-cols".equals(args[i]))
+	    cols = Integer.parseInt(args[i + 1]);
+	  else if ("-blob".equals(args[i]))
+	    blob = Integer.parseInt(args[i + 1]);
+	  else if ("-window".equals(args[i]))
+	    window = Long.parseLong(args[i + 1]);
+	  else if ("-latency".equals(args[i]))
+	    {
+	      String[] kv = args[i + 1].split("=");
+	      delays.put(kv[0], Long.valueOf(kv[1]));
+	    }
+	  else
+	    {
+	      System.err.println("Usage: StubServer [-port 1111] [-rows 100] [-cols 4] [-blob 0]"
+		  + " [-latency RPC=micros] [-window micros]");
+	      System.exit(1);
+	    }
+	}
+
+      StubServer srv = new StubServer(port);
+      srv.setDefaultShape(rows, cols, blob);
+      srv.setWindowLatency(window);
+      for (Map.Entry<String,Long> e : delays.entrySet())
+	srv.setLatency(e.getKey(), e.getValue().longValue());
+      System.out.println("StubServer listening on " + srv.getPort());
+      srv.run();
+   }
+}
@@ -0,0 +1,220 @@
+/*
+ *  $Id$
+ *
+ *  This file is part of the OpenLink Software Virtuoso Open-Source (VOS)
+ *  project.
+ *
+ *  Copyright (C) 1998-2020 OpenLink Software
+ *
+ *  This project is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation; only version 2 of the License, dated June 1991.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package virtuoso.jdbc4;
+
+import java.sql.*;
+
+/**
+ * Checks the driver against the StubServer; needs no database.
+ */
+public class StubServerTest
+{
+   private static void check(String what, boolean ok)
+   {
+      System.out.print(what);
+      if (ok)
+	System.out.println("    PASSED");
+      else
+	{
+	  System.out.println("    FAILED");
+	  System.exit(-1);
+	}
+   }
+
+   public static void main(String args[])
+   {
+      try
+      {
+	 Class.forName("virtuoso.jdbc4.Driver");
+	 System.out.println("----------------------- Test of the stub server ---------------------");
+	 StubServer srv = new StubServer();
+	 srv.synthesize("BIG", 1000, 6, 0);
+	 srv.synthesize("LOBS", 3, 3, 5000);
+	 srv.start();
+
+	 Connection connection = DriverManager.getConnection(srv.getURL());
+	 check("Establish connection at " + srv.getURL(), connection instanceof VirtuosoConnection);
+
+	 Statement stmt = connection.createStatement();
+	 stmt.setFetchSize(100);
+	 ResultSet rs = stmt.executeQuery("select * from BIG");
+	 int n = 0;
+	 boolean ok = rs.getMetaData().getColumnCount() == 6;
+	 while (rs.next())
+	 {
+	    ok = ok && rs.getInt(1) == n % StubServer.DISTINCT_ROWS
+		&& ("r" + n + "c5").equals(rs.getString(6));
+	    n++;
+	 }
+	 rs.close();
+	 check("Fetch 1000 synthetic rows in windows of 100", ok && n == 1000);
+	 check("Next windows asked with FTCH", srv.getCalls("FTCH") >= 9);
+
+	 rs = stmt.executeQuery("sparql select ?s ?o from <urn:g> where { ?s ?p ?o }");
+	 n = 0;
+	 ok = rs.getMetaData().getColumnCount() == 2;
+	 while (rs.next())
+	 {
+	    ok = ok && rs.getObject(1) instanceof VirtuosoExtendedString;
+	    if (n % 3 == 2)
+	      ok = ok && rs.getObject(2) instanceof VirtuosoRdfBox
+		  && ((VirtuosoRdfBox) rs.getObject(2)).getLang() != null;
+	    n++;
+	 }
+	 rs.close();
+	 check("SPARQL select with IRIs and literals", ok && n == 100);
+
+	 rs = stmt.executeQuery("select * from LOBS");
+	 n = 0;
+	 ok = true;
+	 while (rs.next())
+	 {
+	    Clob c = rs.getClob(3);
+	    String s = c.getSubString(1, (int) c.length());
+	    ok = ok && s.length() == 5000 && s.charAt(0) != s.charAt(1);
+	    n++;
+	 }
+	 rs.close();
+	 check("Read long varchar columns with GETDA", ok && n == 3 && srv.getCalls("GETDA") >= 3);
+
+	 PreparedStatement ps = connection.prepareStatement("insert into T (A, B) values (?, ?)");
+	 ps.setInt(1, 1);
+	 ps.setString(2, "x");
+	 check("Execute a prepared insert", ps.executeUpdate() == 1);
+	 for (int i = 0; i < 5; i++)
+	 {
+	    ps.setInt(1, i);
+	    ps.setString(2, "x" + i);
+	    ps.addBatch();
+	 }
+	 check("Execute a batch", ps.executeBatch().length == 5);
+	 ps.close();
+
+	 connection.setAutoCommit(false);
+	 connection.commit();
+	 connection.rollback();
+	 connection.setAutoCommit(true);
+	 check("Commit and rollback", srv.getCalls("TRXC") >= 2);
+
+	 srv.setLatency("EXEC", 20000);
+	 long t0 = System.nanoTime();
+	 rs = stmt.executeQuery("select 1");
+	 rs.next();
+	 rs.close();
+	 check("Inject 20ms EXEC latency", System.nanoTime() - t0 >= 20000000L);
+	 srv.setLatency("EXEC", 0);
+
+	 VirtuosoRpcStats stats = new VirtuosoRpcStats();
+	 java.io.StringWriter spans = new java.io.StringWriter();
+	 stats.setSpanLog(new java.io.PrintWriter(spans));
+	 ((VirtuosoConnection) connection).setRpcListener(stats);
+	 // the wait is timed from the end of the send on the client, so a
+	 // client thread descheduled there shortens it: keep a wide margin
+	 srv.setLatency("EXEC", 100000);
+	 rs = stmt.executeQuery("select * from BIG where ID > 10");
+	 while (rs.next())
+	   ;
+	 rs.close();
+	 srv.setLatency("EXEC", 0);
+	 ((VirtuosoConnection) connection).setRpcListener(null);
+	 check("Count the RPC calls, rows and bytes", stats.getCalls("EXEC") == 1
+	     && stats.getRows("EXEC") == 1000 && stats.getCalls("FTCH") >= 9
+	     && stats.getBytesReceived("EXEC") > 1000 * 6 && stats.getBytesSent("EXEC") > 0);
+	 check("Tell the wait from the transfer time",
+	     stats.getWaitNanos("EXEC") >= 50000000L && stats.getWaitPercentile("EXEC", 50) >= 32768);
+	 check("Log the calls as spans with fingerprints",
+	     spans.toString().indexOf("\"db.statement\":\"select * from BIG where ID > ?\"") > 0);
+
+	 // the server delay bounds the elapsed time but not the wait, and a
+	 // high threshold keeps a loaded JVM from sampling the quick executions
+	 VirtuosoStatementSampler sampler = new VirtuosoStatementSampler(200, 500, 0, 4);
+	 Driver.setStatementSampler(sampler);
+	 for (int i = 0; i < 3; i++)
+	 {
+	    rs = stmt.executeQuery("select 1");
+	    rs.next();
+	    rs.close();
+	 }
+	 rs = stmt.executeQuery("select * from BIG where ID < 20");
+	 while (rs.next())
+	   ;
+	 rs.close();
+	 srv.setLatency("EXEC", 200000);
+	 rs = stmt.executeQuery("select 1");
+	 rs.next();
+	 rs.close();
+	 srv.setLatency("EXEC", 0);
+	 stmt.close();
+	 Driver.setStatementSampler(null);
+	 VirtuosoStatementSampler.Sample[] slow = sampler.getEvents();
+	 check("Sample the slow and large executions", slow.length == 2
+	     && slow[0].getRows() == 1000 && slow[0].getWindows() >= 10
+	     && slow[1].getElapsedNanos() >= 200000000L && sampler.getExecuted() == 5
+	     && sampler.dump().indexOf("[select * from BIG where ID < ?]") > 0);
+	 sampler.register();
+	 check("Dump the samples through JMX", java.lang.management.ManagementFactory.getPlatformMBeanServer()
+	     .invoke(new javax.management.ObjectName(VirtuosoStatementSampler.OBJECT_NAME), "dump", null, null)
+	     .equals(sampler.dump()));
+	 connection.close();
+
+	 VirtuosoConnectionPoolDataSource ds = new VirtuosoConnectionPoolDataSource();
+	 ds.setServerName("localhost");
+	 ds.setPortNumber(srv.getPort());
+	 ds.setUser("dba");
+	 ds.setPassword("dba");
+	 ds.setMaxPoolSize(2);
+	 long scon = srv.getCalls("SCON");
+	 for (int i = 0; i < 50; i++)
+	    ds.getConnection().close();
+	 check("Reuse pooled connections", srv.getCalls("SCON") - scon <= 2);
+	 ds.close();
+
+	 ReplayServer replay = new ReplayServer();
+	 replay.start();
+	 connection = DriverManager.getConnection(replay.getURL());
+	 try
+	 {
+	    connection.createStatement().executeQuery("select * from BIG");
+	    ok = false;
+	 }
+	 catch (SQLException e)
+	 {
+	    ok = "42000".equals(e.getSQLState());
+	 }
+	 connection.close();
+	 check("Unrecorded statement fails on a replay server", ok);
+
+	 replay.close();
+	 srv.close();
+	 System.out.println("PASSED: StubServer");
+	 System.exit(0);
+      }
+      catch(Exception e)
+      {
+	 System.out.println("    FAILED");
+	 e.printStackTrace();
+	 System.exit(-1);
+      }
+   }
+}
@@ -0,0 +1,204 @@
+/*
+ *  $Id$
+ *
+ *  This file is part of the OpenLink Software Virtuoso Open-Source (VOS)
+ *  project.
+ *
+ *  Copyright (C) 1998-2020 OpenLink Software
+ *
+ *  This project is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation; only version 2 of the License, dated June 1991.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package virtuoso.jdbc4;
+
+import java.io.*;
+import java.sql.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs thousands of concurrent callers against the StubServer, half of
+ * them sharing a few connections and half of them borrowing pooled ones.
+ * On a JDK with virtual threads each caller is a virtual thread, and when
+ * run with -Djdk.tracePinnedThreads the test fails if a virtual thread is
+ * pinned in the driver; on older JDKs platform threads are used.
+ * <p>
+ * Usage: VirtualThreadStressTest [callers [connections]]
+ */
+public class VirtualThreadStressTest
+{
+   private static final int ROWS = 20;
+
+   private static void check(String what, boolean ok)
+   {
+      System.out.print(what);
+      if (ok)
+	System.out.println("    PASSED");
+      else
+	{
+	  System.out.println("    FAILED");
+	  System.exit(-1);
+	}
+   }
+
+   /**
+    * Returns an executor starting a virtual thread per task, or null if
+    * the JDK has none.
+    */
+   private static ExecutorService virtualThreads()
+   {
+      try
+	{
+	  return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+	}
+      catch (Exception e)
+	{
+	  return null;
+	}
+   }
+
+   private static void query(Connection conn, int n) throws SQLException
+   {
+      Statement stmt = conn.createStatement();
+      ResultSet rs = stmt.executeQuery("select * from STRESS where ID = " + n);
+      int rows = 0;
+      while (rs.next())
+	{
+	  if (rs.getInt(1) != rows || !("r" + rows + "c2").equals(rs.getString(3)))
+	    throw new SQLException("bad row " + rows + " for caller " + n);
+	  rows++;
+	}
+      rs.close();
+      stmt.close();
+      if (rows != ROWS)
+	throw new SQLException("got " + rows + " rows for caller " + n);
+   }
+
+   public static void main(String args[])
+   {
+      try
+      {
+	 final int callers = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+	 int nconn = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+	 boolean trace = System.getProperty("jdk.tracePinnedThreads") != null;
+
+	 Class.forName("virtuoso.jdbc4.Driver");
+	 System.out.println("----------------------- Concurrent callers stress test ---------------------");
+	 StubServer srv = new StubServer();
+	 srv.synthesize("STRESS", ROWS, 3, 0);
+	 srv.setLatency("EXEC", 1000);
+	 srv.start();
+
+	 final Connection[] shared = new Connection[nconn];
+	 for (int i = 0; i < nconn; i++)
+	   shared[i] = DriverManager.getConnection(srv.getURL());
+
+	 final VirtuosoConnectionPoolDataSource ds = new VirtuosoConnectionPoolDataSource();
+	 ds.setServerName("localhost");
+	 ds.setPortNumber(srv.getPort());
+	 ds.setUser("dba");
+	 ds.setPassword("dba");
+	 ds.setMaxPoolSize(nconn);
+
+	 ExecutorService exec = virtualThreads();
+	 boolean is_virtual = exec != null;
+	 if (exec == null)
+	   exec = Executors.newFixedThreadPool(256);
+	 System.out.println(callers + " callers on " + (is_virtual ? "virtual" : "256 platform")
+	     + " threads, " + nconn + " shared and " + nconn + " pooled connections");
+
+	 // Keep what the JDK prints about pinned threads
+	 PrintStream stdout = System.out;
+	 ByteArrayOutputStream pinned = new ByteArrayOutputStream();
+	 if (trace)
+	   System.setOut(new PrintStream(pinned, true));
+
+	 final AtomicInteger done = new AtomicInteger();
+	 final AtomicInteger failed = new AtomicInteger();
+	 final CountDownLatch start = new CountDownLatch(1);
+	 long t0 = System.nanoTime();
+	 for (int i = 0; i < callers; i++)
+	   {
+	     final int n = i;
+	     exec.execute(new Runnable() {
+		 public void run()
+		 {
+		   try
+		     {
+		       start.await();
+		       if (n % 2 == 0)
+			 {
+			   Connection conn = shared[n % shared.length];
+			   query(conn, n);
+			   if (n % 10 == 0)
+			     conn.commit();
+			 }
+		       else
+			 {
+			   Connection conn = ds.getConnection();
+			   try
+			     {
+			       query(conn, n);
+			     }
+			   finally
+			     {
+			       conn.close();
+			     }
+			 }
+		       done.incrementAndGet();
+		     }
+		   catch (Exception e)
+		     {
+		       if (failed.incrementAndGet() < 5)
+			 e.printStackTrace();
+		     }
+		 }
+	       });
+	   }
+	 start.countDown();
+	 exec.shutdown();
+	 boolean finished = exec.awaitTermination(300, TimeUnit.SECONDS);
+	 long ms = (System.nanoTime() - t0) / 1000000L;
+	 System.setOut(stdout);
+
+	 check("All callers finished without deadlock in " + ms + "ms", finished);
+	 check("All callers got their rows", done.get() == callers && failed.get() == 0);
+	 check("Each caller ran its query", srv.getCalls("EXEC") >= callers);
+	 if (trace)
+	   {
+	     // the callers hold no monitor of their own, so any pinned stack
+	     // comes from the driver or what it calls
+	     String out = pinned.toString();
+	     boolean is_pinned = out.indexOf("<== monitors") >= 0;
+	     if (out.length() > 0)
+	       System.out.println(out);
+	     check("No virtual thread pinned by a driver monitor", !is_pinned);
+	   }
+
+	 for (int i = 0; i < nconn; i++)
+	   shared[i].close();
+	 ds.close();
+	 srv.close();
+	 System.out.println("PASSED: VirtualThreadStressTest");
+	 System.exit(0);
+      }
+      catch(Exception e)
+      {
+	 System.out.println("    FAILED");
+	 e.printStackTrace();
+	 System.exit(-1);
+      }
+   }
+}
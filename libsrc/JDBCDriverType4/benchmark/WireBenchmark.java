@@ -0,0 +1,127 @@
+/*
+ *  $Id$
+ *
+ *  This file is part of the OpenLink Software Virtuoso Open-Source (VOS)
+ *  project.
+ *
+ *  Copyright (C) 1998-2020 OpenLink Software
+ *
+ *  This project is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation; only version 2 of the License, dated June 1991.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package virtuoso.jdbc4;
+
+import java.io.*;
+import java.sql.DriverManager;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks of the DV serialization layer: decoding and encoding of
+ * recorded answer frames, and decoding of RDF boxes including the
+ * datatype and language lookups.
+ *
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireBenchmark
+{
+   private ReplayServer server;
+   private VirtuosoConnection connection;
+
+   // A frame holding one wide row, and one holding one RDF row
+   private ByteArrayInputStream wideFrame;
+   private ByteArrayInputStream quadFrame;
+   private VirtuosoInputStream wideIn;
+   private VirtuosoInputStream quadIn;
+
+   private openlink.util.Vector wideRow;
+   private VirtuosoOutputStream sink;
+
+   @Setup
+   public void setup() throws Exception
+   {
+      Class.forName("virtuoso.jdbc4.Driver");
+      server = BenchData.server(1);
+      connection = (VirtuosoConnection) DriverManager.getConnection(server.getURL());
+
+      wideRow = answer(BenchData.wideRows(1)[0]);
+      wideFrame = new ByteArrayInputStream(ReplayServer.encode(wideRow));
+      wideIn = new VirtuosoInputStream(connection, wideFrame, 8192);
+
+      quadFrame = new ByteArrayInputStream(ReplayServer.encode(answer(BenchData.quadRows(3)[2])));
+      quadIn = new VirtuosoInputStream(connection, quadFrame, 8192);
+
+      sink = new VirtuosoOutputStream(null, new OutputStream() {
+	    public void write(int b) { }
+	    public void write(byte[] b, int off, int len) { }
+	  }, 8192);
+   }
+
+   @TearDown
+   public void tearDown() throws Exception
+   {
+      connection.close();
+      server.close();
+   }
+
+   /**
+    * Wraps a row the way the server sends it: a future answer holding a
+    * QA_ROW vector.
+    */
+   private static openlink.util.Vector answer(Object[] cells)
+   {
+      Object[] row = new Object[cells.length + 1];
+      row[0] = new Short((short) VirtuosoTypes.QA_ROW);
+      System.arraycopy(cells, 0, row, 1, cells.length);
+      return ReplayServer.vector(new Short((short) VirtuosoTypes.DA_FUTURE_PARTIAL_ANSWER),
+	  new Integer(42), ReplayServer.vector(new openlink.util.Vector(row)), null);
+   }
+
+   @Benchmark
+   public Object readWideRow() throws Exception
+   {
+      wideFrame.reset();
+      return wideIn.read_object();
+   }
+
+   @Benchmark
+   public Object writeWideRow() throws Exception
+   {
+      sink.write_object(wideRow);
+      sink.flush();
+      return sink;
+   }
+
+   /**
+    * Decodes a row with a language-tagged RDF box and resolves its
+    * language, which hits the per-connection cache after the first call.
+    */
+   @Benchmark
+   public Object readRdfBox() throws Exception
+   {
+      quadFrame.reset();
+      openlink.util.Vector v = (openlink.util.Vector) quadIn.read_object();
+      openlink.util.Vector row = (openlink.util.Vector) ((openlink.util.Vector) v.elementAt(2)).elementAt(0);
+      VirtuosoRdfBox rb = (VirtuosoRdfBox) row.elementAt(3);
+      return rb.getLang() != null ? rb.getLang() : rb.getType();
+   }
+}
@@ -36,6 +36,7 @@ import java.util.Iterator;
 import java.util.ListIterator;
 import java.util.LinkedList;
 import java.util.Properties;
+import java.util.concurrent.locks.ReentrantLock;
 import java.sql.Savepoint;
 /*DROP_FOR_JDBC3*/
 import java.sql.RowId;
@@ -67,6 +68,9 @@ public class ConnectionWrapper implements java.sql.Connection {
   private boolean isClosed = false;
   private volatile Connection rconn;       // physical connection
   private VirtuosoPooledConnection pconn; // pooled connection
+  // a lock rather than a monitor: closing and resetting do round trips
+  // to the server, and closing hands the connection back to the pool
+  private final ReentrantLock close_lock = new ReentrantLock();
 
   public ConnectionWrapper(Connection rConn,
                            VirtuosoPooledConnection pConn)
@@ -87,22 +91,30 @@ public class ConnectionWrapper implements java.sql.Connection {
   public void close() throws java.sql.SQLException {
     if (rconn == null || isClosed)
       return;
-    synchronized(this) {
+    close_lock.lock();
+    try {
       if (pconn != null)
         pconn.sendCloseEvent();
       isClosed = true;
       pconn = null;
+    } finally {
+      close_lock.unlock();
     }
   }
 
   // close the physical connection & clear the statement cache
-  protected synchronized void closeAll() throws SQLException{
-    close_objs();
-    pconn = null;
-    reset_XA();
-    if (rconn != null && !rconn.isClosed())
-      rconn.close();
-    rconn = null;
+  protected void closeAll() throws SQLException{
+    close_lock.lock();
+    try {
+      close_objs();
+      pconn = null;
+      reset_XA();
+      if (rconn != null && !rconn.isClosed())
+        rconn.close();
+      rconn = null;
+    } finally {
+      close_lock.unlock();
+    }
   }
 
 
@@ -751,48 +763,58 @@ public class ConnectionWrapper implements java.sql.Connection {
   }
 
 
-  protected synchronized void reset_XA()
+  protected void reset_XA()
   {
-    if (rconn == null)
-      return;
+    close_lock.lock();
+    try {
+      if (rconn == null)
+        return;
 
-    if (r_XAResource != null)
-      r_XAResource.reset_XA();
-    r_XAResource = null;
+      if (r_XAResource != null)
+        r_XAResource.reset_XA();
+      r_XAResource = null;
+    } finally {
+      close_lock.unlock();
+    }
   }
 
 
-  protected synchronized void reset()
+  protected void reset()
   {
-    if (rconn == null)
-      return;
+    close_lock.lock();
+    try {
+      if (rconn == null)
+        return;
 
-    reset_XA();
+      reset_XA();
 
-    try {
-      rconn.rollback();
-    } catch (SQLException e) {}
-    close_objs();
-    if (r_AutoCommit != null)
       try {
-        rconn.setAutoCommit(r_AutoCommit.booleanValue());
+        rconn.rollback();
       } catch (SQLException e) {}
-    if (r_ReadOnly != null)
-      try {
-        rconn.setReadOnly(r_ReadOnly.booleanValue());
-      } catch (SQLException e) {}
-    if (r_Catalog != null)
-      try {
-        rconn.setCatalog(r_Catalog);
-      } catch (SQLException e) {}
-    if (r_TxnIsolation != null)
+      close_objs();
+      if (r_AutoCommit != null)
+        try {
+          rconn.setAutoCommit(r_AutoCommit.booleanValue());
+        } catch (SQLException e) {}
+      if (r_ReadOnly != null)
+        try {
+          rconn.setReadOnly(r_ReadOnly.booleanValue());
+        } catch (SQLException e) {}
+      if (r_Catalog != null)
+        try {
+          rconn.setCatalog(r_Catalog);
+        } catch (SQLException e) {}
+      if (r_TxnIsolation != null)
+        try {
+          rconn.setTransactionIsolation(r_TxnIsolation.intValue());
+        } catch (SQLException e) {}
       try {
-        rconn.setTransactionIsolation(r_TxnIsolation.intValue());
+        rconn.setTypeMap(null);
       } catch (SQLException e) {}
-    try {
-      rconn.setTypeMap(null);
-    } catch (SQLException e) {}
-    rconn = null;
+      rconn = null;
+    } finally {
+      close_lock.unlock();
+    }
   }
 
 
@@ -805,15 +827,17 @@ public class ConnectionWrapper implements java.sql.Connection {
 
 
   private void close_objs() {
-    HashMap<Object,Object> copy = (HashMap<Object,Object>) objsToClose.clone();
+    Object[] objs;
+    // the statements are closed outside of the monitor, as each close is a
+    // round trip to the server
     synchronized(objsToClose) {
-      for (Iterator i = copy.keySet().iterator(); i.hasNext(); )
-        try {
-          ((Closeable)(i.next())).close();
-        } catch(Exception e) { }
+      objs = objsToClose.keySet().toArray();
       objsToClose.clear();
     }
-    copy.clear();
+    for (int i = 0; i < objs.length; i++)
+      try {
+        ((Closeable)objs[i]).close();
+      } catch(Exception e) { }
   }
 
 
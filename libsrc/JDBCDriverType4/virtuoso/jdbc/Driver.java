@@ -111,6 +111,42 @@ public class Driver implements java.sql.Driver
 	       }
 	     //System.err.println ("rpc_log=" + VirtuosoFuture.rpc_log);
 	   }
+	 String spans_file = System.getProperty("JDBC4_RPC_SPANS");
+	 if ((System.getProperty("JDBC4_RPC_STATS") != null || spans_file != null)
+	     && VirtuosoFuture.rpc_listener == null)
+	   {
+	     VirtuosoRpcStats stats = new VirtuosoRpcStats();
+	     if (spans_file != null)
+	       {
+		 try
+		   {
+		     stats.setSpanLog(new java.io.PrintWriter(
+			   new java.io.FileOutputStream(spans_file, true), true));
+		   }
+		 catch (Exception e)
+		   {
+		     stats.setSpanLog(new java.io.PrintWriter(System.out, true));
+		   }
+	       }
+	     VirtuosoFuture.rpc_listener = stats;
+	   }
+	 String slow_ms = System.getProperty("JDBC4_SLOW_MS");
+	 String slow_rows = System.getProperty("JDBC4_SLOW_ROWS");
+	 String slow_bytes = System.getProperty("JDBC4_SLOW_BYTES");
+	 if ((slow_ms != null || slow_rows != null || slow_bytes != null)
+	     && VirtuosoFuture.statement_sampler == null)
+	   {
+	     VirtuosoStatementSampler sampler = new VirtuosoStatementSampler(
+		 threshold(slow_ms), threshold(slow_rows), threshold(slow_bytes));
+	     try
+	       {
+		 sampler.register();
+	       }
+	     catch (Exception e)
+	       {
+	       }
+	     VirtuosoFuture.statement_sampler = sampler;
+	   }
        }
      catch (Exception e)
        {
@@ -118,6 +154,65 @@ public class Driver implements java.sql.Driver
        }
    }
 
+   /**
+    * Sets the listener observing the RPC calls of all the connections of
+    * the driver which have none of their own. The system properties
+    * JDBC4_RPC_STATS and JDBC4_RPC_SPANS set a {@link VirtuosoRpcStats}
+    * when the driver is loaded.
+    *
+    * @param listener	The listener, or null to observe no call.
+    * @see virtuoso.jdbc4.VirtuosoConnection#setRpcListener
+    */
+   public static void setRpcListener(VirtuosoRpcListener listener)
+   {
+     VirtuosoFuture.rpc_listener = listener;
+   }
+
+   /**
+    * Returns the listener observing the RPC calls of all the connections.
+    *
+    * @return VirtuosoRpcListener	The listener, or null if none.
+    */
+   public static VirtuosoRpcListener getRpcListener()
+   {
+     return VirtuosoFuture.rpc_listener;
+   }
+
+   private static long threshold(String value)
+   {
+     try
+       {
+	 return value != null ? Long.parseLong(value.trim()) : 0;
+       }
+     catch (NumberFormatException e)
+       {
+	 return 0;
+       }
+   }
+
+   /**
+    * Sets the sampler recording the slow statement executions of all
+    * the connections of the driver. The system properties JDBC4_SLOW_MS,
+    * JDBC4_SLOW_ROWS and JDBC4_SLOW_BYTES set and register one when the
+    * driver is loaded.
+    *
+    * @param sampler	The sampler, or null to record nothing.
+    */
+   public static void setStatementSampler(VirtuosoStatementSampler sampler)
+   {
+     VirtuosoFuture.statement_sampler = sampler;
+   }
+
+   /**
+    * Returns the sampler recording the slow statement executions.
+    *
+    * @return VirtuosoStatementSampler	The sampler, or null if none.
+    */
+   public static VirtuosoStatementSampler getStatementSampler()
+   {
+     return VirtuosoFuture.statement_sampler;
+   }
+
    // --------------------------- JDBC 1.0 ------------------------------
    /**
     * Attempts to make a database connection to the given URL.
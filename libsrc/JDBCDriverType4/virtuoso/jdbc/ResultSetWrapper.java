@@ -41,6 +41,7 @@ import java.sql.Array;
 import java.util.Map;
 import java.util.Calendar;
 import java.net.URL;
+import java.util.concurrent.locks.ReentrantLock;
 
 import java.sql.RowId;
 import java.sql.SQLXML;
@@ -50,6 +51,7 @@ public class ResultSetWrapper implements ResultSet, Closeable {
   private ConnectionWrapper wconn;
   private StatementWrapper wstmt;
   private volatile ResultSet rs;
+  private final ReentrantLock close_lock = new ReentrantLock();
 
   protected ResultSetWrapper(ConnectionWrapper _wconn, StatementWrapper _wstmt, ResultSet _rs) {
     wconn = _wconn;
@@ -78,21 +80,24 @@ public class ResultSetWrapper implements ResultSet, Closeable {
     if (rs == null)
       return;
     check_close();
-    synchronized(this) {
-      try {
-        rs.close();
-        if (wstmt == null) //DBMetaDataResultSet
-          wconn.removeObjFromClose(this);
-        else
-          wstmt.removeObjFromClose(this);
-
-        rs = null;
-        wstmt = null;
-        wconn = null;
-      } catch (SQLException ex) {
-        exceptionOccurred(ex);
-        throw ex;
-      }
+    close_lock.lock();
+    try {
+      if (rs == null)
+        return;
+      rs.close();
+      if (wstmt == null) //DBMetaDataResultSet
+        wconn.removeObjFromClose(this);
+      else
+        wstmt.removeObjFromClose(this);
+
+      rs = null;
+      wstmt = null;
+      wconn = null;
+    } catch (SQLException ex) {
+      exceptionOccurred(ex);
+      throw ex;
+    } finally {
+      close_lock.unlock();
     }
   }
 
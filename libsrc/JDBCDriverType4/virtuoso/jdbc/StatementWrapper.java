@@ -29,6 +29,7 @@ import java.sql.SQLWarning;
 import java.sql.SQLException;
 import java.sql.Connection;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class StatementWrapper implements Statement, Closeable {
 
@@ -36,6 +37,8 @@ public class StatementWrapper implements Statement, Closeable {
   protected ConnectionWrapper wconn;
   protected HashMap<Object,Object> objsToClose = new HashMap<Object,Object>();
   protected volatile boolean isClosed = false;
+  // a lock rather than a monitor: close() does a round trip to the server
+  protected final ReentrantLock close_lock = new ReentrantLock();
 
 
   protected StatementWrapper(ConnectionWrapper _wconn, Statement _stmt) {
@@ -63,25 +66,26 @@ public class StatementWrapper implements Statement, Closeable {
   }
 
 
-  public synchronized void close() throws SQLException {
-    if (isClosed)
-      return;
-    isClosed = true;
-
-    synchronized(this) {
-      try {
-        removeLink();
-        if (stmt != null) {
-          stmt.close();
-          stmt = null;
-        }
-        wconn = null;
-        if (objsToClose != null)
-          objsToClose.clear();
-      } catch (SQLException ex) {
-        exceptionOccurred(ex);
-        throw ex;
+  public void close() throws SQLException {
+    close_lock.lock();
+    try {
+      if (isClosed)
+        return;
+      isClosed = true;
+
+      removeLink();
+      if (stmt != null) {
+        stmt.close();
+        stmt = null;
       }
+      wconn = null;
+      if (objsToClose != null)
+        objsToClose.clear();
+    } catch (SQLException ex) {
+      exceptionOccurred(ex);
+      throw ex;
+    } finally {
+      close_lock.unlock();
     }
   }
 
@@ -539,7 +543,7 @@ public class StatementWrapper implements Statement, Closeable {
 #endif
 
 
-  protected synchronized void check_close()
+  protected void check_close()
     throws SQLException
   {
     if (isClosed)
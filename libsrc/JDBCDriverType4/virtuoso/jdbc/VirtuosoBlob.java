@@ -305,7 +305,8 @@ public class VirtuosoBlob
 	     {
 	       //System.out.println ("vb: init read :" + init_read_len);
 	       openlink.util.Vector curr = null;
-	       synchronized (connection)
+	       connection.rpc_lock.lock();
+	       try
 		 {
 		   // skip the desired number of bytes
 		   Object[] args = new Object[9];
@@ -324,6 +325,10 @@ public class VirtuosoBlob
 		   curr = (openlink.util.Vector) curr.firstElement();
 		   connection.removeFuture (future);
 		 }
+	       finally
+		 {
+		   connection.rpc_lock.unlock();
+		 }
 	       if(!(curr instanceof openlink.util.Vector))
 		 {
 		   //System.out.println ("vb: init read returned null future");
@@ -366,7 +371,8 @@ public class VirtuosoBlob
 	   ByteArrayOutputStream bo = new ByteArrayOutputStream();
 
 	   openlink.util.Vector curr = null;
-	   synchronized (connection)
+	   connection.rpc_lock.lock();
+	   try
 	     {
 	       Object[] args = new Object[9];
 	       args[0] = new Long(this.bh_current_page);
@@ -386,6 +392,10 @@ public class VirtuosoBlob
 	       curr = (openlink.util.Vector) curr.firstElement();
 	       connection.removeFuture (future);
 	     }
+	   finally
+	     {
+	       connection.rpc_lock.unlock();
+	     }
 	   if(!(curr instanceof openlink.util.Vector))
 	     {
 	       //System.out.println ("vb: the RPC returned null");
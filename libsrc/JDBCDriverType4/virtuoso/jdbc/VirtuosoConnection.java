@@ -37,6 +37,7 @@ import openlink.util.OPLHeapNClob;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * The VirtuosoConnection class is an implementation of the Connection interface
@@ -69,9 +70,18 @@ public class VirtuosoConnection implements Connection
 
    private VirtuosoOutputStream out;
 
+   // Serializes the RPC calls on the connection and the reads of their
+   // answers; a lock rather than the connection monitor, so threads blocked
+   // on the socket do not pin the carrier of a virtual thread
+   protected final ReentrantLock rpc_lock = new ReentrantLock();
+
    // Hash table from future id to the VirtuosoFuture instance
    private Hashtable<Integer,VirtuosoFuture> futures;
 
+   // The listener observing the RPC calls of this connection, or null to
+   // use the one of the driver
+   private volatile VirtuosoRpcListener rpc_listener;
+
    // Serial number of last issued future, 0 is first
    private int req_no, con_no;
    private static int global_con_no = 0;
@@ -321,27 +331,35 @@ public class VirtuosoConnection implements Connection
       connect(host,port,(String)prop.get("database"), sendbs, recvbs, (prop.get("log_enable") != null ? (Integer.parseInt(prop.getProperty("log_enable"))) : -1));
    }
 
-   public synchronized boolean isConnectionLost(int timeout_sec)
+   public boolean isConnectionLost(int timeout_sec)
    {
-     ResultSet rs = null;
-     Statement st = null;
-     try{
-        st = createStatement();
-	st.setQueryTimeout(timeout_sec);
-        rs = st.executeQuery("select 1");
-        return false;
-     } catch (Exception e ) {
-        return true;
-     } finally {
-       if (rs!=null)
-         try{
-           rs.close();
-         } catch(Exception e){}
-       if (st!=null)
-         try{
-           st.close();
-         } catch(Exception e){}
-     }
+      rpc_lock.lock();
+      try
+      {
+        ResultSet rs = null;
+        Statement st = null;
+        try{
+           st = createStatement();
+	   st.setQueryTimeout(timeout_sec);
+           rs = st.executeQuery("select 1");
+           return false;
+        } catch (Exception e ) {
+           return true;
+        } finally {
+          if (rs!=null)
+            try{
+              rs.close();
+            } catch(Exception e){}
+          if (st!=null)
+            try{
+              st.close();
+            } catch(Exception e){}
+        }
+      }
+      finally
+      {
+         rpc_lock.unlock();
+      }
    }
 
    protected int getIntAttr(java.util.Properties info, String key, int def)
@@ -572,7 +590,8 @@ public class VirtuosoConnection implements Connection
          in = new VirtuosoInputStream(this,socket, recvbs);
 	 out = new VirtuosoOutputStream(this,socket, sendbs);
          // RPC caller identification
-	 synchronized (this)
+	 rpc_lock.lock();
+	 try
 	   {
 	     Object [] caller_id_args = new Object[1];
 	     caller_id_args[0] = null;
@@ -734,6 +753,10 @@ public class VirtuosoConnection implements Connection
 	     // Remove the future reference
 	     removeFuture(future);
 	   }
+	 finally
+	   {
+	     rpc_lock.unlock();
+	   }
       }
       catch(NoClassDefFoundError e)
       {
@@ -886,6 +909,38 @@ public class VirtuosoConnection implements Connection
    {
      if (futures != null)
        futures.remove(new Integer(fut.hashCode()));
+     fut.finish(false);
+   }
+
+   /**
+    * Sets the listener observing the RPC calls of this connection, in
+    * place of the one set for all connections with
+    * {@link Driver#setRpcListener}.
+    *
+    * @param listener	The listener, or null to use the one of the driver.
+    */
+   public void setRpcListener(VirtuosoRpcListener listener)
+   {
+     rpc_listener = listener;
+   }
+
+   /**
+    * Returns the listener observing the RPC calls of this connection.
+    *
+    * @return VirtuosoRpcListener	The listener, or null if none.
+    */
+   public VirtuosoRpcListener getRpcListener()
+   {
+     VirtuosoRpcListener l = rpc_listener;
+     return l != null ? l : VirtuosoFuture.rpc_listener;
+   }
+
+   /**
+    * Returns the number of bytes sent on this connection.
+    */
+   protected long getBytesWritten()
+   {
+     return out != null ? out.getBytesWritten() : 0;
    }
 
    /**
@@ -901,6 +956,7 @@ public class VirtuosoConnection implements Connection
        throw new VirtuosoException ("Activity on a closed connection", "IM001", VirtuosoException.SQLERROR);
      //System.out.println ("req start");
      Object _result;
+     long read = in.getBytesRead();
      try {
         _result = in.read_object();
      } catch (IOException ex) {
@@ -945,7 +1001,7 @@ public class VirtuosoConnection implements Connection
 	 VirtuosoFuture fut = (VirtuosoFuture)futures.get(new Integer(((Number)result.elementAt(1)).intValue()));
 	 if(fut == null)
 	   return false;
-	 fut.putResult(result.elementAt(2));
+	 fut.putResult(result.elementAt(2), in.getBytesRead() - read);
 	 // Set the complete status
 	 fut.complete(((Short)tag).shortValue() == VirtuosoTypes.DA_FUTURE_ANSWER);
 	 return true;
@@ -1061,7 +1117,8 @@ public class VirtuosoConnection implements Connection
 
       try
       {
-         synchronized(this) {
+         rpc_lock.lock();
+         try {
            // Try to close all about the connection : socket and streams.
            if(!in.isClosed())
            {
@@ -1084,6 +1141,8 @@ public class VirtuosoConnection implements Connection
            futures = null;
            pooled_connection = null;
            xa_connection = null;
+         } finally {
+           rpc_lock.unlock();
          }
       }
       catch(IOException e)
@@ -1100,32 +1159,40 @@ public class VirtuosoConnection implements Connection
     * @exception virtuoso.jdbc4.VirtuosoException An internal error occurred.
     * @see java.sql.Connection#commit
     */
-   public synchronized void commit() throws VirtuosoException
+   public void commit() throws VirtuosoException
    {
-      if (global_transaction)
-	throw new VirtuosoException("Cannot commit while in global transaction.", VirtuosoException.BADPARAM);
+      rpc_lock.lock();
       try
       {
-	// RPC transaction
-	Object[] args = new Object[2];
-	args[0] = new Long(VirtuosoTypes.SQL_COMMIT);
-	args[1] = null;
-	VirtuosoFuture fut = getFuture(VirtuosoFuture.transaction,args, this.timeout);
-	openlink.util.Vector trsres = fut.nextResult();
-	//System.err.println ("commit returned " + trsres.toString());
-	Object _err = (trsres == null) ? null: ((openlink.util.Vector)trsres).firstElement();
-	if (_err instanceof openlink.util.Vector)
-	  {
-	    openlink.util.Vector err = (openlink.util.Vector) _err;
-	    throw new VirtuosoException ((String) (err.elementAt (2)),
-		(String) (err.elementAt (1)), VirtuosoException.SQLERROR);
-	  }
-	// Remove the future reference
-	removeFuture(fut);
+         if (global_transaction)
+	   throw new VirtuosoException("Cannot commit while in global transaction.", VirtuosoException.BADPARAM);
+         try
+         {
+	   // RPC transaction
+	   Object[] args = new Object[2];
+	   args[0] = new Long(VirtuosoTypes.SQL_COMMIT);
+	   args[1] = null;
+	   VirtuosoFuture fut = getFuture(VirtuosoFuture.transaction,args, this.timeout);
+	   openlink.util.Vector trsres = fut.nextResult();
+	   //System.err.println ("commit returned " + trsres.toString());
+	   Object _err = (trsres == null) ? null: ((openlink.util.Vector)trsres).firstElement();
+	   if (_err instanceof openlink.util.Vector)
+	     {
+	       openlink.util.Vector err = (openlink.util.Vector) _err;
+	       throw new VirtuosoException ((String) (err.elementAt (2)),
+		   (String) (err.elementAt (1)), VirtuosoException.SQLERROR);
+	     }
+	   // Remove the future reference
+	   removeFuture(fut);
+         }
+         catch(IOException e)
+         {
+            throw new VirtuosoException("Connection failed: " + e.getMessage(),VirtuosoException.IOERROR);
+         }
       }
-      catch(IOException e)
+      finally
       {
-         throw new VirtuosoException("Connection failed: " + e.getMessage(),VirtuosoException.IOERROR);
+         rpc_lock.unlock();
       }
    }
 
@@ -1281,32 +1348,40 @@ public class VirtuosoConnection implements Connection
     * @exception virtuoso.jdbc4.VirtuosoException An internal error occurred.
     * @see java.sql.Connection#rollback
     */
-   public synchronized void rollback() throws VirtuosoException
+   public void rollback() throws VirtuosoException
    {
-      if (global_transaction)
-	throw new VirtuosoException("Cannot rollback while in global transaction.", VirtuosoException.BADPARAM);
+      rpc_lock.lock();
       try
       {
-         // RPC transaction
-         Object[] args = new Object[2];
-         args[0] = new Long(VirtuosoTypes.SQL_ROLLBACK);
-         args[1] = null;
-         VirtuosoFuture fut = getFuture(VirtuosoFuture.transaction,args, this.timeout);
-         openlink.util.Vector trsres = fut.nextResult();
-	 //System.err.println ("rollback returned " + trsres.toString());
-	 Object _err = (trsres == null) ? null: ((openlink.util.Vector)trsres).firstElement();
-	 if (_err instanceof openlink.util.Vector)
-	   {
-	     openlink.util.Vector err = (openlink.util.Vector) _err;
-	     throw new VirtuosoException ((String) (err.elementAt (2)),
-		 (String) (err.elementAt (1)), VirtuosoException.SQLERROR);
-	   }
-         // Remove the future reference
-         if(fut!=null) removeFuture(fut);
+         if (global_transaction)
+	   throw new VirtuosoException("Cannot rollback while in global transaction.", VirtuosoException.BADPARAM);
+         try
+         {
+            // RPC transaction
+            Object[] args = new Object[2];
+            args[0] = new Long(VirtuosoTypes.SQL_ROLLBACK);
+            args[1] = null;
+            VirtuosoFuture fut = getFuture(VirtuosoFuture.transaction,args, this.timeout);
+            openlink.util.Vector trsres = fut.nextResult();
+	    //System.err.println ("rollback returned " + trsres.toString());
+	    Object _err = (trsres == null) ? null: ((openlink.util.Vector)trsres).firstElement();
+	    if (_err instanceof openlink.util.Vector)
+	      {
+		openlink.util.Vector err = (openlink.util.Vector) _err;
+		throw new VirtuosoException ((String) (err.elementAt (2)),
+		    (String) (err.elementAt (1)), VirtuosoException.SQLERROR);
+	      }
+            // Remove the future reference
+            if(fut!=null) removeFuture(fut);
+         }
+         catch(IOException e)
+         {
+            throw new VirtuosoException("Connection failed: " + e.getMessage(),VirtuosoException.IOERROR);
+         }
       }
-      catch(IOException e)
+      finally
       {
-         throw new VirtuosoException("Connection failed: " + e.getMessage(),VirtuosoException.IOERROR);
+         rpc_lock.unlock();
       }
    }
 
@@ -41,6 +41,7 @@ import java.util.List;
 import java.util.TreeSet;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
 import javax.sql.*;
 import javax.naming.*;
 
@@ -66,7 +67,8 @@ public class VirtuosoConnectionPoolDataSource
     private volatile boolean isInitialized = false;
     private volatile boolean isClosed = false;
     private VirtuosoPoolStatistic stat;
-    private Object  initLock ;
+    // a lock rather than a monitor, as it is held while the pool is filled
+    private ReentrantLock initLock ;
     private TreeSet<Object> propQueue;
     private long  propEnforceTime = 0;
 
@@ -74,7 +76,7 @@ public class VirtuosoConnectionPoolDataSource
 
   public VirtuosoConnectionPoolDataSource() {
     dataSourceName = "VirtuosoConnectionPoolDataSourceName";
-    initLock = new Object();
+    initLock = new ReentrantLock();
     stat = new VirtuosoPoolStatistic();
     connPool = new ConnCache(this);
     propQueue = new TreeSet<Object>( new Comparator<Object>() {
@@ -240,7 +242,8 @@ public class VirtuosoConnectionPoolDataSource
     Properties info = createConnProperties();
     String connKey = create_url_key(create_url(), info);
 
-    synchronized(initLock) {
+    initLock.lock();
+    try {
       if (!isInitialized) {
         isInitialized = true;
         if (initialPoolSize == 0)
@@ -255,7 +258,8 @@ public class VirtuosoConnectionPoolDataSource
         }
         VirtuosoPoolManager.getInstance().addPool(this);
       }
-
+    } finally {
+      initLock.unlock();
     }
   }
 
@@ -329,7 +333,8 @@ public class VirtuosoConnectionPoolDataSource
     String connKey = create_url_key(conn_url, info);
     Connection conn;
 
-    synchronized(initLock) {
+    initLock.lock();
+    try {
       if (!isInitialized) {
         isInitialized = true;
         if (initialPoolSize == 0)
@@ -343,6 +348,8 @@ public class VirtuosoConnectionPoolDataSource
         }
         VirtuosoPoolManager.getInstance().addPool(this);
       }
+    } finally {
+      initLock.unlock();
     }
 
     return connPool.getPooledConnection(info, connKey, conn_url);
@@ -649,7 +656,12 @@ public class VirtuosoConnectionPoolDataSource
     AtomicInteger cacheSize;
     LinkedList<VirtuosoPooledConnection> unUsed;
     ConcurrentHashMap<VirtuosoPooledConnection,VirtuosoPooledConnection> in_Use;
-    Object lck_new = new Object();
+    private final ReentrantLock lck_new = new ReentrantLock();
+    private final ReentrantLock lck_unused = new ReentrantLock();
+    // Signalled when a connection is returned, a lock and condition rather
+    // than a monitor so that waiting virtual threads are not pinned
+    private final ReentrantLock lck_free = new ReentrantLock();
+    private final Condition cond_free = lck_free.newCondition();
 
     private VirtuosoConnectionPoolDataSource cpds;
 
@@ -694,15 +706,21 @@ public class VirtuosoConnectionPoolDataSource
       if (isClosed)
           throw new VirtuosoException("Cache was closed", VirtuosoException.OK);
 
-      synchronized(unUsed) {
+      lck_unused.lock();
+      try {
         unUsed.addLast(pconn);
+      } finally {
+        lck_unused.unlock();
       }
 
       if (!reuse)
         cacheSize.incrementAndGet();
 
-      synchronized(this) {
-        notifyAll();
+      lck_free.lock();
+      try {
+        cond_free.signalAll();
+      } finally {
+        lck_free.unlock();
       }
     }
 
@@ -719,15 +737,19 @@ public class VirtuosoConnectionPoolDataSource
       }
       in_Use.clear();
 
-      synchronized(unUsed) {
-        Iterator<VirtuosoPooledConnection> iterator;
-        for(iterator = unUsed.iterator(); iterator.hasNext(); ) {
-          pconn = iterator.next();
-          try {
-            pconn.close();
-          } catch (Exception e) {}
-        }
+      ArrayList<VirtuosoPooledConnection> closeTmp;
+      lck_unused.lock();
+      try {
+        closeTmp = new ArrayList<VirtuosoPooledConnection>(unUsed);
         unUsed.clear();
+      } finally {
+        lck_unused.unlock();
+      }
+      for(Iterator<VirtuosoPooledConnection> iterator = closeTmp.iterator(); iterator.hasNext(); ) {
+        pconn = iterator.next();
+        try {
+          pconn.close();
+        } catch (Exception e) {}
       }
 
       cacheSize.set(0);
@@ -795,22 +817,31 @@ public class VirtuosoConnectionPoolDataSource
       int _hashKey = _Key.hashCode();
 
       try {
-        synchronized(unUsed) {
-          for(ListIterator iterator = unUsed.listIterator(); iterator.hasNext(); ) {
-            pooledConn = (VirtuosoPooledConnection)iterator.next();
-            if (pooledConn.hashConnURL == _hashKey && pooledConn.connURL.equals(_Key)) {
-              iterator.remove();
-	      if (pooledConn.isConnectionLost(1)) {
-                closeTmp.add(pooledConn);
-	      } else {
-                return pooledConn;
-	      }
+        for (;;) {
+          // take a candidate out of the list, and check it without holding
+          // the list: the check is a round trip to the server
+          pooledConn = null;
+          lck_unused.lock();
+          try {
+            for(ListIterator iterator = unUsed.listIterator(); iterator.hasNext(); ) {
+              VirtuosoPooledConnection pc = (VirtuosoPooledConnection)iterator.next();
+              if (pc.hashConnURL == _hashKey && pc.connURL.equals(_Key)) {
+                iterator.remove();
+                pooledConn = pc;
+                break;
+              }
             }
+          } finally {
+            lck_unused.unlock();
           }
+          if (pooledConn == null)
+            return null;
+	  if (pooledConn.isConnectionLost(1))
+            closeTmp.add(pooledConn);
+	  else
+            return pooledConn;
         }
 
-        return null;
-
       } finally {
         if (closeTmp.size() > 0) {
           // close connections
@@ -822,13 +853,15 @@ public class VirtuosoConnectionPoolDataSource
 
 
     private boolean checkForNewConn() {
-      synchronized(lck_new)
-      {
+      lck_new.lock();
+      try {
         if (maxPoolSize == 0 || cacheSize.get() < maxPoolSize) {
           cacheSize.incrementAndGet();
           return true;
         } else
           return false;
+      } finally {
+        lck_new.unlock();
       }
     }
 
@@ -888,20 +921,23 @@ public class VirtuosoConnectionPoolDataSource
         }
 
 //    System.out.println("Thread "+thr+" begin a waiting...");
-        synchronized(this) {
+        lck_free.lock();
+        try {
           try {
             if (loginTimeout > 0) {
-              wait(_timeout);
+              cond_free.await(_timeout, TimeUnit.MILLISECONDS);
               _timeout -= (System.currentTimeMillis() - start);
               if (_timeout < 0) {
 //              System.out.println("Thread "+thr+" : loginTimeout has expired");
                 throw new VirtuosoException("Connection failed loginTimeout has expired", VirtuosoException.TIMEOUT);
               }
             } else {
-              wait();
+              cond_free.await();
             }
 //          System.out.println("Thread "+thr+" has woken ");
           } catch (InterruptedException e) { }
+        } finally {
+          lck_free.unlock();
         }
       }
 
@@ -918,7 +954,8 @@ public class VirtuosoConnectionPoolDataSource
        // remove a long time unused connections
         long minTime = System.currentTimeMillis() - maxIdleTime * 1000L;
 
-        synchronized(unUsed) {
+        lck_unused.lock();
+        try {
           for(l_iter = unUsed.listIterator(); l_iter.hasNext(); ) {
             pooledConn = (VirtuosoPooledConnection)l_iter.next();
             if (pooledConn.tmClosed < minTime) {
@@ -926,17 +963,22 @@ public class VirtuosoConnectionPoolDataSource
                l_iter.remove();
             }
           }
+        } finally {
+          lck_unused.unlock();
         }
       }
 
       if (maxPoolSize != 0 && cacheSize.get() > maxPoolSize) {
          //remove connections
-         synchronized(unUsed) {
+         lck_unused.lock();
+         try {
            int count = cacheSize.get() - maxPoolSize;
            for(l_iter = unUsed.listIterator(); l_iter.hasNext() && count > 0; count--) {
              closeTmp.add(l_iter.next());
              l_iter.remove();
            }
+         } finally {
+           lck_unused.unlock();
          }
       }
 
@@ -70,6 +70,17 @@ class VirtuosoFuture
    private boolean is_complete = false;
 
    protected static PrintWriter rpc_log = null;
+
+   // The listener observing the RPC calls of all connections, or null
+   protected static volatile VirtuosoRpcListener rpc_listener = null;
+
+   // The sampler of the slow statement executions, or null
+   protected static volatile VirtuosoStatementSampler statement_sampler = null;
+
+   // The listener, the sampler and the event of this call, null when not observed
+   private VirtuosoRpcListener listener;
+   private VirtuosoStatementSampler sampler;
+   private VirtuosoRpcEvent event;
    // Mutex used to access to the queue of results
    //private Semaphore mutex;
    /**
@@ -93,7 +104,19 @@ class VirtuosoFuture
       /*try { mutex = new Semaphore(Semaphore.MUTEX); }
          catch(SemaphoreException e) {}*/
       connection.setSocketTimeout(timeout);
-      send_message(rpcname,args);
+      listener = connection.getRpcListener();
+      sampler = exec.equals(rpcname) ? statement_sampler : null;
+      if (listener != null || sampler != null)
+	{
+	  event = new VirtuosoRpcEvent(connection, rpcname, args, req_no, timeout);
+	  long sent = connection.getBytesWritten();
+	  send_message(rpcname,args);
+	  event.sent(connection.getBytesWritten() - sent);
+	  if (listener != null)
+	    listener.rpcStarted(event);
+	}
+      else
+	send_message(rpcname,args);
    }
 
    /**
@@ -129,6 +152,19 @@ class VirtuosoFuture
     */
    protected void putResult(Object res)
    {
+      putResult(res, 0);
+   }
+
+   /**
+    * Put a result in the queue.
+    *
+    * @param obj  The result to put in the queue.
+    * @param bytes  The size of the answer message.
+    */
+   protected void putResult(Object res, long bytes)
+   {
+      if (event != null)
+	event.answer(res, bytes);
       results.addElement(res);
    /*try { mutex.getSem(); results.addElement(res); }
       catch(InterruptedException e) { }
@@ -197,6 +233,45 @@ class VirtuosoFuture
    protected void complete(boolean isComplete)
    {
       is_complete = isComplete;
+      if (isComplete && event != null)
+	finish(true);
+   }
+
+   /**
+    * Reports the end of the call to the listener, once.
+    *
+    * @param complete True if the final answer was received.
+    */
+   protected void finish(boolean complete)
+   {
+      if (event != null && event.finish(complete))
+	{
+	  if (listener != null)
+	    listener.rpcCompleted(event);
+	  if (sampler != null)
+	    sampler.sample(event);
+	}
+   }
+
+   /**
+    * Records that a further fetch window has been asked for this call.
+    */
+   protected void nextWindow()
+   {
+      if (event != null)
+	event.window();
+   }
+
+   /**
+    * Sets the statement text reported for this call when the request does
+    * not carry it.
+    *
+    * @param sql The statement text.
+    */
+   protected void setStatementText(String sql)
+   {
+      if (event != null)
+	event.setStatementText(sql);
    }
 
    // --------------------------- Object ------------------------------
@@ -38,27 +38,115 @@ import openlink.util.*;
  */
 class VirtuosoInputStream extends BufferedInputStream
 {
-   // The connection attached to this stream
+   // The connection attached to this stream (null when decoding outside a
+   // client connection, e.g. in the benchmark replay server)
    private VirtuosoConnection connection;
    private byte[] tmp = new byte[16];
+   // Counts the bytes taken from the underlying stream
+   private WireCounter wire;
 
+   /**
+    * Counts the bytes read by the buffer fills, so the bytes consumed
+    * can be told without a per byte cost.
+    */
+   private static final class WireCounter extends FilterInputStream
+   {
+      long count;
+
+      WireCounter(InputStream in)
+      {
+	 super(in);
+      }
+
+      public int read() throws IOException
+      {
+	 int c = in.read();
+	 if (c != -1)
+	   count++;
+	 return c;
+      }
 
+      public int read(byte[] b, int off, int len) throws IOException
+      {
+	 int n = in.read(b, off, len);
+	 if (n > 0)
+	   count += n;
+	 return n;
+      }
+
+      public long skip(long n) throws IOException
+      {
+	 long k = in.skip(n);
+	 count += k;
+	 return k;
+      }
+   }
+
+   /**
+    * Returns the number of bytes consumed from this stream since it was
+    * opened; the bytes still waiting in the buffer are not counted.
+    *
+    * @return long	The number of bytes.
+    */
+   protected long getBytesRead()
+   {
+      return wire.count - (count - pos);
+   }
+
+
+    // The reads are done here rather than in the synchronized methods of
+    // BufferedInputStream: a stream is only read with its connection locked,
+    // and a monitor held across a blocking socket read pins the carrier of
+    // a virtual thread.
     public int read () throws IOException
       {
-	int c = super.read();
-	if (c == -1)
-	  throw new IOException ("Connection to the server lost");
-	return c;
+	if (pos >= count)
+	  fill();
+	return buf[pos++] & 0xff;
       }
 
     public int read(byte[] b, int off, int len) throws IOException
       {
-	int c = super.read (b, off, len);
-	if (c == -1)
-	  throw new IOException ("Connection to the server lost");
+	if (len <= 0)
+	  return 0;
+	int avail = count - pos;
+	if (avail <= 0)
+	  {
+	    // Read large blocks directly, without copying them to the buffer
+	    if (len >= buf.length && in != null)
+	      {
+		int c = in.read (b, off, len);
+		if (c == -1)
+		  throw new IOException ("Connection to the server lost");
+		return c;
+	      }
+	    fill();
+	    avail = count - pos;
+	  }
+	int c = avail < len ? avail : len;
+	System.arraycopy(buf, pos, b, off, c);
+	pos += c;
 	return c;
       }
 
+    private void fill () throws IOException
+      {
+	byte[] buffer = buf;
+	InputStream input = in;
+	if (buffer == null || input == null)
+	  throw new IOException ("Stream closed");
+	pos = count = 0;
+	int c = input.read (buffer, 0, buffer.length);
+	if (c <= 0)
+	  throw new IOException ("Connection to the server lost");
+	count = c;
+      }
+
+    public boolean markSupported ()
+      {
+	return false;
+      }
+
 
     private static final int DefaultBufferSize = 2048;
    /**
@@ -92,6 +180,7 @@ class VirtuosoInputStream extends BufferedInputStream
    {
      super (input, size);
       this.connection = connection;
+      this.in = wire = new WireCounter(input);
 /*
       this.in = input;
       // Setup the buffer
@@ -273,7 +362,7 @@ class VirtuosoInputStream extends BufferedInputStream
                      int n = readlongint();
                      byte[] array = new byte[(int)n];
                      for(int i = read(array,0,(int)n) ; i != n ; i+=read(array,i,(int)n-i));
-		     if (connection.charset_utf8)
+		     if (connection != null && connection.charset_utf8)
 		         return convByte2UTF(array);
 		     else
 		         return convByte2Ascii(array);
@@ -307,7 +396,7 @@ class VirtuosoInputStream extends BufferedInputStream
                      int n = readshortint();
                      byte[] array = new byte[n];
                      for(int i = read(array,0,(int)n) ; i != n ; i+=read(array,i,(int)n-i));
-		     if (connection.charset_utf8)
+		     if (connection != null && connection.charset_utf8)
 		         return convByte2UTF(array);
 		     else
 		         return convByte2Ascii(array);
@@ -463,7 +552,7 @@ class VirtuosoInputStream extends BufferedInputStream
        {
          if (VirtuosoFuture.rpc_log != null)
            {
-                 VirtuosoFuture.rpc_log.println ("  **(conn " + connection.hashCode() + ") **** runtime " +
+                 VirtuosoFuture.rpc_log.println ("  **(conn " + (connection != null ? connection.hashCode() : 0) + ") **** runtime " +
                      e.getClass().getName() + " encountered while reading tag " + tag);
                  e.printStackTrace(VirtuosoFuture.rpc_log);
            }
@@ -765,7 +854,7 @@ class VirtuosoInputStream extends BufferedInputStream
 	  int n = readshortint();
 	  byte[] array = new byte[n];
 	  for(int i = read(array,0,(int)n) ; i != n ; i+=read(array,i,(int)n-i));
-	  if (connection.charset_utf8)
+	  if (connection != null && connection.charset_utf8)
 	      box = convByte2UTF(array);
 	  else
 	      box = convByte2Ascii(array);
@@ -41,6 +41,86 @@ class VirtuosoOutputStream extends BufferedOutputStream
    // The connection attached to this stream
    private VirtuosoConnection connection;
    private byte[] tmp = new byte[16];
+   // Counts the bytes handed to the underlying stream
+   private WireCounter wire;
+
+   /**
+    * Counts the bytes written by the buffer flushes, so the bytes sent
+    * can be told without a per byte cost.
+    */
+   private static final class WireCounter extends FilterOutputStream
+   {
+      long count;
+
+      WireCounter(OutputStream out)
+      {
+	 super(out);
+      }
+
+      public void write(int b) throws IOException
+      {
+	 out.write(b);
+	 count++;
+      }
+
+      public void write(byte[] b, int off, int len) throws IOException
+      {
+	 out.write(b, off, len);
+	 count += len;
+      }
+   }
+
+   // The writes are done here rather than in the synchronized methods of
+   // BufferedOutputStream: a stream is only written with its connection
+   // locked, and a monitor held across a blocking socket write pins the
+   // carrier of a virtual thread.
+   public void write(int b) throws IOException
+   {
+      if (count >= buf.length)
+	flushBuffer();
+      buf[count++] = (byte) b;
+   }
+
+   public void write(byte[] b, int off, int len) throws IOException
+   {
+      if (len >= buf.length)
+	{
+	  // Write large blocks directly, without copying them to the buffer
+	  flushBuffer();
+	  out.write(b, off, len);
+	  return;
+	}
+      if (len > buf.length - count)
+	flushBuffer();
+      System.arraycopy(b, off, buf, count, len);
+      count += len;
+   }
+
+   public void flush() throws IOException
+   {
+      flushBuffer();
+      out.flush();
+   }
+
+   private void flushBuffer() throws IOException
+   {
+      if (count > 0)
+	{
+	  out.write(buf, 0, count);
+	  count = 0;
+	}
+   }
+
+   /**
+    * Returns the number of bytes written to this stream since it was
+    * opened, including the bytes still waiting in the buffer.
+    *
+    * @return long	The number of bytes.
+    */
+   protected long getBytesWritten()
+   {
+      return wire.count + count;
+   }
 
    private static final int DefaultBufferSize = 2048;
    /**
@@ -74,6 +154,7 @@ class VirtuosoOutputStream extends BufferedOutputStream
    {
      super (output, size);
      this.connection = connection;
+     this.out = wire = new WireCounter(output);
 /*
       out = output;
       // Setup the buffer
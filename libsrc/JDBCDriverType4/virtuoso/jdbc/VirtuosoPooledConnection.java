@@ -31,6 +31,7 @@ import java.sql.DatabaseMetaData;
 import java.sql.SQLWarning;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.sql.PooledConnection;
 import javax.sql.ConnectionEventListener;
 import javax.sql.ConnectionEvent;
@@ -51,6 +52,9 @@ public class VirtuosoPooledConnection implements PooledConnection, Cloneable {
   protected String connURL;
   protected int hashConnURL;
   protected long tmClosed;
+  // a lock rather than a monitor: close() does a round trip to the server;
+  // not final, as each clone gets its own
+  private ReentrantLock close_lock = new ReentrantLock();
 
   protected VirtuosoPooledConnection(VirtuosoConnection _conn, String _connURL)
   {
@@ -73,14 +77,16 @@ public class VirtuosoPooledConnection implements PooledConnection, Cloneable {
   }
 
 
-  public synchronized void finalize () throws Throwable {
+  public void finalize () throws Throwable {
     close();
   }
 
 
-  protected synchronized Object clone() {
+  protected Object clone() {
+    close_lock.lock();
     try {
       VirtuosoPooledConnection v = (VirtuosoPooledConnection)super.clone();
+      v.close_lock = new ReentrantLock();
       v.listeners = null;
       v.connWrapper = null;
       v.conn = conn;
@@ -92,6 +98,8 @@ public class VirtuosoPooledConnection implements PooledConnection, Cloneable {
     } catch (CloneNotSupportedException e) {
       // this should not happen, since we are Cloneable
       throw new InternalError();
+    } finally {
+      close_lock.unlock();
     }
   }
 
@@ -158,28 +166,33 @@ public class VirtuosoPooledConnection implements PooledConnection, Cloneable {
    *
    * @exception SQLException if a database access error occurs
    */
-  public synchronized void close() throws java.sql.SQLException {
+  public void close() throws java.sql.SQLException {
     SQLException ex = null;
-    if (connWrapper != null) {
-      try {
-        connWrapper.closeAll();
-      } catch(SQLException e) {
-        ex = e;
-      }
-      connWrapper = null;
-    }
-    if (conn != null) {
-      if (!conn.isClosed()) {
+    close_lock.lock();
+    try {
+      if (connWrapper != null) {
         try {
-          conn.close();
+          connWrapper.closeAll();
         } catch(SQLException e) {
           ex = e;
         }
+        connWrapper = null;
+      }
+      if (conn != null) {
+        if (!conn.isClosed()) {
+          try {
+            conn.close();
+          } catch(SQLException e) {
+            ex = e;
+          }
+        }
+        conn.pooled_connection = null;
+        conn.xa_connection = null;
       }
-      conn.pooled_connection = null;
-      conn.xa_connection = null;
+      conn = null;
+    } finally {
+      close_lock.unlock();
     }
-    conn = null;
     sendErrorEvent(new VirtuosoException("Physical Connection is closed", VirtuosoException.OK));
     if (ex != null)
       throw ex;
@@ -76,7 +76,8 @@ public class VirtuosoPreparedStatement extends VirtuosoStatement implements Prep
    {
       super(connection,type,concurrency);
       sparql_executed =  sql.trim().regionMatches(true, 0, "sparql", 0, 6);
-      synchronized (connection)
+      connection.rpc_lock.lock();
+      try
 	{
 	  try
 	    {
@@ -101,6 +102,10 @@ public class VirtuosoPreparedStatement extends VirtuosoStatement implements Prep
 	      throw new VirtuosoException("Problem during serialization : " + e.getMessage(),VirtuosoException.IOERROR);
 	    }
 	}
+      finally
+	{
+	  connection.rpc_lock.unlock();
+	}
    }
 
    /**
@@ -138,7 +143,8 @@ public class VirtuosoPreparedStatement extends VirtuosoStatement implements Prep
     */
    private void sendQuery() throws VirtuosoException
    {
-     synchronized (connection)
+     connection.rpc_lock.lock();
+     try
        {
 	 Object[] args = new Object[6];
 	 openlink.util.Vector vect = new openlink.util.Vector(1);
@@ -160,6 +166,7 @@ public class VirtuosoPreparedStatement extends VirtuosoStatement implements Prep
 	     // Put the options array in the args array
 	     args[5] = getStmtOpts();
 	     future = connection.getFuture(VirtuosoFuture.exec,args, this.rpc_timeout);
+	     future.setStatementText(sql);
              ps_vresultSet.isLastResult = false;
 	     ps_vresultSet.getMoreResults(false);
              ps_vresultSet.stmt_n_rows_to_get = this.prefetch;
@@ -171,6 +178,10 @@ public class VirtuosoPreparedStatement extends VirtuosoStatement implements Prep
 	     throw new VirtuosoException("Problem during serialization : " + e.getMessage(),VirtuosoException.IOERROR);
 	   }
        }
+     finally
+       {
+         connection.rpc_lock.unlock();
+       }
    }
 
    /**
@@ -248,7 +259,8 @@ public class VirtuosoPreparedStatement extends VirtuosoStatement implements Prep
      int size = batch.size();
      int[] res = new int[size];
      int inx = 0;
-     synchronized (connection)
+     connection.rpc_lock.lock();
+     try
        {
 	 Object[] args = new Object[6];
 	 // Set arguments to the RPC function
@@ -268,6 +280,7 @@ public class VirtuosoPreparedStatement extends VirtuosoStatement implements Prep
 	     // Put the options array in the args array
 	     args[5] = getStmtOpts();
 	     future = connection.getFuture(VirtuosoFuture.exec,args, this.rpc_timeout);
+	     future.setStatementText(sql);
              vresultSet.isLastResult = false;
 	     for (inx = 0; inx < size; inx++)
 	     {
@@ -285,6 +298,10 @@ public class VirtuosoPreparedStatement extends VirtuosoStatement implements Prep
 	     throwBatchUpdateException (res, e, inx);
 	  }
        }
+     finally
+       {
+         connection.rpc_lock.unlock();
+       }
      return res;
    }
 
@@ -349,7 +366,8 @@ public class VirtuosoPreparedStatement extends VirtuosoStatement implements Prep
      if(close_flag)
        return;
 
-     synchronized (connection)
+     connection.rpc_lock.lock();
+     try
        {
 	 try
 	   {
@@ -377,6 +395,10 @@ public class VirtuosoPreparedStatement extends VirtuosoStatement implements Prep
 	     throw new VirtuosoException("Problem during closing : " + e.getMessage(),VirtuosoException.IOERROR);
 	   }
        }
+     finally
+       {
+         connection.rpc_lock.unlock();
+       }
    }
 
    /**
@@ -219,9 +219,12 @@ public class VirtuosoRdfBox implements RdfBox
 
       String r = _getType();
       if (r == null) {
-        synchronized(connection) {
+        connection.rpc_lock.lock();
+        try {
           this.connection.rdf_type_loaded = false;
           r = _getType();
+        } finally {
+          connection.rpc_lock.unlock();
         }
       }
       return r;
@@ -240,9 +243,12 @@ public class VirtuosoRdfBox implements RdfBox
 
       String r = _getLang();
       if (r == null) {
-        synchronized(connection) {
+        connection.rpc_lock.lock();
+        try {
           this.connection.rdf_lang_loaded = false;
           r = _getLang();
+        } finally {
+          connection.rpc_lock.unlock();
         }
       }
       return r;
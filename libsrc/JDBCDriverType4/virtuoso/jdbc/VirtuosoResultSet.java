@@ -237,7 +237,8 @@ public class VirtuosoResultSet implements ResultSet
     */
    protected void getMoreResults(boolean isPrepare) throws VirtuosoException
    {
-     synchronized (statement.connection)
+     statement.connection.rpc_lock.lock();
+     try
        {
 	 //System.err.println ("getMoreResults");
 	 // Reset some flags
@@ -254,6 +255,10 @@ public class VirtuosoResultSet implements ResultSet
 	 //System.err.print ("more_results: after process : rows :");
 	 //System.err.println (rows.toString());
        }
+     finally
+       {
+         statement.connection.rpc_lock.unlock();
+       }
    }
 
    /**
@@ -283,7 +288,8 @@ public class VirtuosoResultSet implements ResultSet
    {
       try
       {
-	synchronized (statement.connection)
+	statement.connection.rpc_lock.lock();
+	try
 	  {
 	    // Ask more results
 	    Object[] args = new Object[2];
@@ -294,6 +300,11 @@ public class VirtuosoResultSet implements ResultSet
 	    // Send the RPC message
 	    statement.connection.removeFuture(statement.connection.getFuture(
 		  VirtuosoFuture.fetch,args, statement.rpc_timeout));
+	    statement.future.nextWindow();
+	  }
+	finally
+	  {
+	    statement.connection.rpc_lock.unlock();
 	  }
       }
       catch(IOException e)
@@ -314,7 +325,8 @@ public class VirtuosoResultSet implements ResultSet
    {
       try
       {
-	synchronized (statement.connection)
+	statement.connection.rpc_lock.lock();
+	try
 	  {
 	    // Ask more results
 	    Object[] args = new Object[6];
@@ -337,6 +349,10 @@ public class VirtuosoResultSet implements ResultSet
 	    if (statement.connection.getAutoCommit())
 	      process_result(false);
 	  }
+	finally
+	  {
+	    statement.connection.rpc_lock.unlock();
+	  }
       }
       catch(IOException e)
       {
@@ -382,7 +398,8 @@ public class VirtuosoResultSet implements ResultSet
       pstmt.setVector(4,args);
       pstmt.execute();
       // Treat depending the operation
-      synchronized (statement.connection)
+      statement.connection.rpc_lock.lock();
+      try
 	{
 	  switch(op)
 	    {
@@ -435,6 +452,10 @@ public class VirtuosoResultSet implements ResultSet
 	  // Clear fields in the pstmt for future uses
 	  pstmt.vresultSet.rows = null;
 	}
+      finally
+	{
+	  statement.connection.rpc_lock.unlock();
+	}
    }
 
    /**
@@ -2222,7 +2243,8 @@ public class VirtuosoResultSet implements ResultSet
 
 	       while (true)
 	       {
-		   synchronized (statement.connection)
+		   statement.connection.rpc_lock.lock();
+		   try
 		   {
 		       if (is_complete)
 		       {
@@ -2253,6 +2275,10 @@ public class VirtuosoResultSet implements ResultSet
 		       //System.err.print ("fetch: after process : rows :");
 		       //System.err.println (rows.toString());
 		   }
+		   finally
+		   {
+		      statement.connection.rpc_lock.unlock();
+		   }
 		   currentRow = 0;
 	       }
 	   }
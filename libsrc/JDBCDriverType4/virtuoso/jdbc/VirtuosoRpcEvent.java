@@ -0,0 +1,394 @@
+/*
+ *  $Id$
+ *
+ *  This file is part of the OpenLink Software Virtuoso Open-Source (VOS)
+ *  project.
+ *
+ *  Copyright (C) 1998-2020 OpenLink Software
+ *
+ *  This project is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation; only version 2 of the License, dated June 1991.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package virtuoso.jdbc4;
+
+/**
+ * The VirtuosoRpcEvent class describes one RPC call of the driver, as seen
+ * by a {@link VirtuosoRpcListener}: the RPC name and request number, the
+ * statement it belongs to, the bytes sent and received and its timing.
+ * <p>
+ * The timing is split in three parts: the time spent writing the request,
+ * the wait from the end of the request to the first answer, which is the
+ * server time plus one network round trip, and the transfer time from the
+ * first answer to the last one (e.g. the following fetch windows of a
+ * cursor).
+ *
+ * @version 1.0
+ * @see virtuoso.jdbc4.VirtuosoRpcListener
+ */
+public final class VirtuosoRpcEvent
+{
+   // The longest fingerprint kept
+   private static final int MAX_FINGERPRINT = 1024;
+
+   private final String rpcname;
+   private final int req_no;
+   private final VirtuosoConnection connection;
+   private final String statid;
+   private String text;
+   private String fingerprint;
+
+   private final int timeout;
+   private final long start_time;
+   private final long t_start;
+   private long t_sent, t_first, t_end;
+   private long bytes_out, bytes_in;
+   private int answers, rows, windows;
+   private String error;
+   private boolean complete, done;
+
+   VirtuosoRpcEvent(VirtuosoConnection connection, String rpcname, Object[] args, int req_no, int timeout)
+   {
+      this.connection = connection;
+      this.rpcname = rpcname;
+      this.req_no = req_no;
+      this.timeout = timeout;
+      this.windows = 1;
+      this.start_time = System.currentTimeMillis();
+      this.t_start = System.nanoTime();
+      // The exec, prepare, fetch and close calls take the statement id first,
+      // and exec and prepare the statement text next when it is sent
+      if (args != null && args.length > 0 && args[0] instanceof String
+	  && (rpcname.equals(VirtuosoFuture.exec) || rpcname.equals(VirtuosoFuture.prepare)
+	   || rpcname.equals(VirtuosoFuture.fetch) || rpcname.equals(VirtuosoFuture.close)
+	   || rpcname.equals(VirtuosoFuture.extendedfetch)))
+	{
+	  statid = (String) args[0];
+	  if ((rpcname.equals(VirtuosoFuture.exec) || rpcname.equals(VirtuosoFuture.prepare))
+	      && args.length > 1 && args[1] != null)
+	    text = args[1].toString();
+	}
+      else
+	statid = null;
+   }
+
+   /**
+    * Records the end of the request.
+    */
+   void sent(long bytes)
+   {
+      t_sent = System.nanoTime();
+      bytes_out = bytes;
+   }
+
+   /**
+    * Records an answer message put in the queue of the future.
+    */
+   void answer(Object value, long bytes)
+   {
+      if (answers++ == 0)
+	t_first = System.nanoTime();
+      bytes_in += bytes;
+      if (value instanceof openlink.util.Vector && ((openlink.util.Vector) value).size() > 0)
+	{
+	  Object ans = ((openlink.util.Vector) value).firstElement();
+	  if (ans instanceof openlink.util.Vector && ((openlink.util.Vector) ans).size() > 0
+	      && ((openlink.util.Vector) ans).firstElement() instanceof Short)
+	    {
+	      openlink.util.Vector v = (openlink.util.Vector) ans;
+	      switch (((Short) v.firstElement()).intValue())
+		{
+		  case VirtuosoTypes.QA_ROW:
+		  case VirtuosoTypes.QA_ROW_LAST_IN_BATCH:
+		      rows++;
+		      break;
+		  case VirtuosoTypes.QA_ERROR:
+		      error = v.size() > 1 && v.elementAt(1) instanceof String ? (String) v.elementAt(1) : "";
+		      break;
+		}
+	    }
+	}
+   }
+
+   /**
+    * Records the request of a further fetch window of a cursor.
+    */
+   void window()
+   {
+      windows++;
+   }
+
+   /**
+    * Marks the call as finished; returns false if it was already.
+    */
+   boolean finish(boolean complete)
+   {
+      if (done)
+	return false;
+      done = true;
+      this.complete = complete;
+      t_end = System.nanoTime();
+      return true;
+   }
+
+   /**
+    * Sets the text of the statement when the RPC does not carry it, as
+    * the exec of a prepared statement.
+    */
+   void setStatementText(String text)
+   {
+      if (this.text == null)
+	this.text = text;
+   }
+
+   /**
+    * Returns the name of the RPC (e.g. EXEC, FTCH, PREP, TRXC).
+    */
+   public String getRpcName()
+   {
+      return rpcname;
+   }
+
+   /**
+    * Returns the request serial number on the connection.
+    */
+   public int getRequestNumber()
+   {
+      return req_no;
+   }
+
+   /**
+    * Returns the connection which made the call.
+    */
+   public java.sql.Connection getConnection()
+   {
+      return connection;
+   }
+
+   /**
+    * Returns the id of the statement the call belongs to, or null.
+    */
+   public String getStatementId()
+   {
+      return statid;
+   }
+
+   /**
+    * Returns the text of the statement, or null if the call is not a
+    * statement execution.
+    */
+   public String getStatementText()
+   {
+      return text;
+   }
+
+   /**
+    * Returns the statement text with its literals replaced by '?' and its
+    * blanks collapsed, so the executions of the same statement with
+    * different values share the same fingerprint, or null.
+    */
+   public String getFingerprint()
+   {
+      if (fingerprint == null && text != null)
+	fingerprint = fingerprint(text);
+      return fingerprint;
+   }
+
+   /**
+    * Returns the time the call started, in milliseconds since the epoch.
+    */
+   public long getStartTime()
+   {
+      return start_time;
+   }
+
+   /**
+    * Returns the nanoseconds taken to write the request.
+    */
+   public long getSendNanos()
+   {
+      return t_sent - t_start;
+   }
+
+   /**
+    * Returns the nanoseconds from the end of the request to the first
+    * answer: the server time plus one round trip, or -1 without answer.
+    */
+   public long getWaitNanos()
+   {
+      return answers > 0 ? t_first - t_sent : -1;
+   }
+
+   /**
+    * Returns the nanoseconds from the first answer to the end of the call.
+    */
+   public long getTransferNanos()
+   {
+      return answers > 0 && done ? t_end - t_first : 0;
+   }
+
+   /**
+    * Returns the nanoseconds from the start to the end of the call.
+    */
+   public long getElapsedNanos()
+   {
+      return (done ? t_end : System.nanoTime()) - t_start;
+   }
+
+   /**
+    * Returns the number of bytes of the request.
+    */
+   public long getBytesSent()
+   {
+      return bytes_out;
+   }
+
+   /**
+    * Returns the number of bytes of the answers.
+    */
+   public long getBytesReceived()
+   {
+      return bytes_in;
+   }
+
+   /**
+    * Returns the number of answer messages received.
+    */
+   public int getAnswers()
+   {
+      return answers;
+   }
+
+   /**
+    * Returns the number of rows received.
+    */
+   public int getRows()
+   {
+      return rows;
+   }
+
+   /**
+    * Returns the number of answer windows asked: one, plus one for each
+    * FTCH of a cursor.
+    */
+   public int getWindows()
+   {
+      return windows;
+   }
+
+   /**
+    * Returns the rpc timeout of the call in milliseconds, or 0 if none.
+    */
+   public int getTimeout()
+   {
+      return timeout > 0 ? timeout : 0;
+   }
+
+   /**
+    * Returns the SQL state of the error returned by the server, or null.
+    */
+   public String getError()
+   {
+      return error;
+   }
+
+   /**
+    * Returns true if the final answer was received, false if the call was
+    * dropped before.
+    */
+   public boolean isComplete()
+   {
+      return complete;
+   }
+
+   public String toString()
+   {
+      StringBuffer buf = new StringBuffer();
+      buf.append(rpcname).append(" #").append(req_no);
+      if (statid != null)
+	buf.append(" ").append(statid);
+      buf.append(" send=").append(getSendNanos() / 1000).append("us");
+      buf.append(" wait=").append(getWaitNanos() / 1000).append("us");
+      buf.append(" transfer=").append(getTransferNanos() / 1000).append("us");
+      buf.append(" out=").append(bytes_out).append(" in=").append(bytes_in);
+      buf.append(" rows=").append(rows);
+      if (error != null)
+	buf.append(" error=").append(error);
+      if (getFingerprint() != null)
+	buf.append(" [").append(getFingerprint()).append("]");
+      return buf.toString();
+   }
+
+   /**
+    * Computes the fingerprint of a statement text: the string and number
+    * literals are replaced by '?' and the blanks are collapsed. The
+    * double quoted strings are literals in SPARQL and names in SQL.
+    *
+    * @param text	The statement text.
+    * @return String	The fingerprint.
+    */
+   public static String fingerprint(String text)
+   {
+      int len = text.length();
+      StringBuffer buf = new StringBuffer(Math.min(len, MAX_FINGERPRINT));
+      int start = 0;
+      while (start < len && text.charAt(start) <= ' ')
+	start++;
+      boolean sparql = text.regionMatches(true, start, "sparql", 0, 6);
+      boolean blank = false;
+      for (int i = 0; i < len && buf.length() < MAX_FINGERPRINT; i++)
+	{
+	  char c = text.charAt(i);
+	  if (c <= ' ' || Character.isWhitespace(c))
+	    {
+	      blank = true;
+	      continue;
+	    }
+	  if (blank && buf.length() > 0)
+	    buf.append(' ');
+	  blank = false;
+	  if (c == '\'' || (c == '"' && sparql))
+	    {
+	      // Skip the literal, with its doubled or escaped quotes
+	      for (i++; i < len; i++)
+		{
+		  char d = text.charAt(i);
+		  if (d == '\\' && sparql)
+		    i++;
+		  else if (d == c)
+		    {
+		      if (i + 1 < len && text.charAt(i + 1) == c && !sparql)
+			i++;
+		      else
+			break;
+		    }
+		}
+	      buf.append('?');
+	    }
+	  else if (Character.isDigit(c) && (buf.length() == 0
+		|| !Character.isLetterOrDigit(buf.charAt(buf.length() - 1))
+		&& buf.charAt(buf.length() - 1) != '_'))
+	    {
+	      while (i + 1 < len && (Character.isDigit(text.charAt(i + 1))
+		    || text.charAt(i + 1) == '.' || text.charAt(i + 1) == 'e'
+		    || text.charAt(i + 1) == 'E'))
+		i++;
+	      buf.append('?');
+	    }
+	  else
+	    buf.append(c);
+	}
+      return buf.toString();
+   }
+}
@@ -0,0 +1,59 @@
+/*
+ *  $Id$
+ *
+ *  This file is part of the OpenLink Software Virtuoso Open-Source (VOS)
+ *  project.
+ *
+ *  Copyright (C) 1998-2020 OpenLink Software
+ *
+ *  This project is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation; only version 2 of the License, dated June 1991.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package virtuoso.jdbc4;
+
+/**
+ * The VirtuosoRpcListener interface is implemented by the classes which
+ * want to observe the RPC calls made by the driver, for instance to
+ * collect latency statistics or to report them as tracing spans.
+ * A listener is set for all connections with
+ * {@link Driver#setRpcListener} or for one connection with
+ * {@link VirtuosoConnection#setRpcListener}.
+ * <p>
+ * The methods are called on the thread doing the I/O, with the
+ * connection locked, so they must be quick and must not use the
+ * connection.
+ *
+ * @version 1.0
+ * @see virtuoso.jdbc4.VirtuosoRpcEvent
+ * @see virtuoso.jdbc4.VirtuosoRpcStats
+ */
+public interface VirtuosoRpcListener
+{
+   /**
+    * Called when the request of an RPC has been sent to the server.
+    *
+    * @param ev	The event describing the call.
+    */
+   public void rpcStarted(VirtuosoRpcEvent ev);
+
+   /**
+    * Called when the final answer of an RPC has been received, or when
+    * the driver drops the call before that (e.g. a cursor closed before
+    * its last row).
+    *
+    * @param ev	The event describing the call.
+    */
+   public void rpcCompleted(VirtuosoRpcEvent ev);
+}
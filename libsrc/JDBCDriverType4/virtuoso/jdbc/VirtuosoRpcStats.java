@@ -0,0 +1,461 @@
+/*
+ *  $Id$
+ *
+ *  This file is part of the OpenLink Software Virtuoso Open-Source (VOS)
+ *  project.
+ *
+ *  Copyright (C) 1998-2020 OpenLink Software
+ *
+ *  This project is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation; only version 2 of the License, dated June 1991.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package virtuoso.jdbc4;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The VirtuosoRpcStats class is a {@link VirtuosoRpcListener} which keeps,
+ * for each RPC name, the counters of calls, errors, rows and bytes, and
+ * the histograms of the elapsed and wait times. The histograms have one
+ * bucket per power of two microseconds.
+ * <p>
+ * It can also write every call as a span, one JSON object per line with
+ * the field names of the OpenTelemetry spans, to a log set with
+ * {@link #setSpanLog}.
+ * <p>
+ * The driver sets one for all connections when it is loaded with the
+ * system property <code>JDBC4_RPC_STATS</code> set, and writes its spans
+ * to the file named by the system property <code>JDBC4_RPC_SPANS</code>.
+ *
+ * @version 1.0
+ * @see virtuoso.jdbc4.Driver#setRpcListener
+ */
+public class VirtuosoRpcStats implements VirtuosoRpcListener
+{
+   /**
+    * The number of buckets of the histograms; the last one counts the
+    * calls of more than 2^(BUCKETS-2) microseconds.
+    */
+   public static final int BUCKETS = 32;
+
+   private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+   private volatile PrintWriter span_log;
+
+   /**
+    * The counters of one RPC name.
+    */
+   private static final class Entry
+   {
+      final AtomicLong calls = new AtomicLong();
+      final AtomicLong errors = new AtomicLong();
+      final AtomicLong dropped = new AtomicLong();
+      final AtomicLong rows = new AtomicLong();
+      final AtomicLong bytes_out = new AtomicLong();
+      final AtomicLong bytes_in = new AtomicLong();
+      final AtomicLong elapsed = new AtomicLong();
+      final AtomicLong wait = new AtomicLong();
+      final AtomicLong min_wait = new AtomicLong(Long.MAX_VALUE);
+      final AtomicLongArray elapsed_hist = new AtomicLongArray(BUCKETS);
+      final AtomicLongArray wait_hist = new AtomicLongArray(BUCKETS);
+   }
+
+   /**
+    * Constructs an empty VirtuosoRpcStats.
+    */
+   public VirtuosoRpcStats()
+   {
+   }
+
+   /**
+    * Sets the writer the completed calls are logged to as spans, or null
+    * to stop logging them.
+    *
+    * @param log	The writer.
+    */
+   public void setSpanLog(PrintWriter log)
+   {
+      span_log = log;
+   }
+
+   public void rpcStarted(VirtuosoRpcEvent ev)
+   {
+   }
+
+   public void rpcCompleted(VirtuosoRpcEvent ev)
+   {
+      Entry e = entry(ev.getRpcName());
+      long elapsed = ev.getElapsedNanos();
+      long wait = ev.getWaitNanos();
+      e.calls.incrementAndGet();
+      if (ev.getError() != null)
+	e.errors.incrementAndGet();
+      if (!ev.isComplete())
+	e.dropped.incrementAndGet();
+      e.rows.addAndGet(ev.getRows());
+      e.bytes_out.addAndGet(ev.getBytesSent());
+      e.bytes_in.addAndGet(ev.getBytesReceived());
+      e.elapsed.addAndGet(elapsed);
+      e.elapsed_hist.incrementAndGet(bucket(elapsed));
+      if (wait >= 0)
+	{
+	  e.wait.addAndGet(wait);
+	  e.wait_hist.incrementAndGet(bucket(wait));
+	  long min;
+	  while (wait < (min = e.min_wait.get()) && !e.min_wait.compareAndSet(min, wait))
+	    ;
+	}
+      PrintWriter log = span_log;
+      if (log != null)
+	logSpan(log, ev);
+   }
+
+   private Entry entry(String rpcname)
+   {
+      Entry e = entries.get(rpcname);
+      if (e == null)
+	{
+	  Entry ne = new Entry();
+	  e = entries.putIfAbsent(rpcname, ne);
+	  if (e == null)
+	    e = ne;
+	}
+      return e;
+   }
+
+   private static int bucket(long nanos)
+   {
+      long us = nanos / 1000;
+      int b = us <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(us);
+      return b < BUCKETS ? b : BUCKETS - 1;
+   }
+
+   /**
+    * Returns the upper bound in microseconds of a histogram bucket: the
+    * bucket <i>i</i> counts the times below 2^<i>i</i> microseconds.
+    *
+    * @param i	The bucket.
+    * @return long	The bound, or Long.MAX_VALUE for the last bucket.
+    */
+   public static long getBucketLimit(int i)
+   {
+      return i < BUCKETS - 1 ? 1L << i : Long.MAX_VALUE;
+   }
+
+   /**
+    * Returns the names of the RPCs seen so far, sorted.
+    */
+   public String[] getRpcNames()
+   {
+      String[] names = entries.keySet().toArray(new String[0]);
+      Arrays.sort(names);
+      return names;
+   }
+
+   /**
+    * Returns the number of calls of an RPC.
+    */
+   public long getCalls(String rpcname)
+   {
+      Entry e = entries.get(rpcname);
+      return e != null ? e.calls.get() : 0;
+   }
+
+   /**
+    * Returns the number of calls of an RPC which returned an error.
+    */
+   public long getErrors(String rpcname)
+   {
+      Entry e = entries.get(rpcname);
+      return e != null ? e.errors.get() : 0;
+   }
+
+   /**
+    * Returns the number of calls of an RPC which ended without a final
+    * answer of their own: the cursors closed before their last row, and
+    * all the FTCH calls, whose windows are answered to their EXEC.
+    */
+   public long getDropped(String rpcname)
+   {
+      Entry e = entries.get(rpcname);
+      return e != null ? e.dropped.get() : 0;
+   }
+
+   /**
+    * Returns the number of rows received by the calls of an RPC.
+    */
+   public long getRows(String rpcname)
+   {
+      Entry e = entries.get(rpcname);
+      return e != null ? e.rows.get() : 0;
+   }
+
+   /**
+    * Returns the number of bytes sent by the calls of an RPC.
+    */
+   public long getBytesSent(String rpcname)
+   {
+      Entry e = entries.get(rpcname);
+      return e != null ? e.bytes_out.get() : 0;
+   }
+
+   /**
+    * Returns the number of bytes received by the calls of an RPC.
+    */
+   public long getBytesReceived(String rpcname)
+   {
+      Entry e = entries.get(rpcname);
+      return e != null ? e.bytes_in.get() : 0;
+   }
+
+   /**
+    * Returns the total elapsed nanoseconds of the calls of an RPC.
+    */
+   public long getElapsedNanos(String rpcname)
+   {
+      Entry e = entries.get(rpcname);
+      return e != null ? e.elapsed.get() : 0;
+   }
+
+   /**
+    * Returns the total nanoseconds the calls of an RPC waited for their
+    * first answer.
+    */
+   public long getWaitNanos(String rpcname)
+   {
+      Entry e = entries.get(rpcname);
+      return e != null ? e.wait.get() : 0;
+   }
+
+   /**
+    * Returns the shortest wait for a first answer of an RPC, or -1. For the
+    * calls the server answers at once (e.g. TRXC, FTCH) it is close to the
+    * network round trip, which subtracted from the wait of the others gives
+    * an estimate of their server time.
+    */
+   public long getMinWaitNanos(String rpcname)
+   {
+      Entry e = entries.get(rpcname);
+      long min = e != null ? e.min_wait.get() : Long.MAX_VALUE;
+      return min != Long.MAX_VALUE ? min : -1;
+   }
+
+   /**
+    * Returns the shortest wait for a first answer over all RPCs, or -1.
+    */
+   public long getMinWaitNanos()
+   {
+      long min = -1;
+      for (Entry e : entries.values())
+	{
+	  long m = e.min_wait.get();
+	  if (m != Long.MAX_VALUE && (min < 0 || m < min))
+	    min = m;
+	}
+      return min;
+   }
+
+   /**
+    * Returns a copy of the histogram of the elapsed times of an RPC.
+    */
+   public long[] getHistogram(String rpcname)
+   {
+      Entry e = entries.get(rpcname);
+      return e != null ? copy(e.elapsed_hist) : new long[BUCKETS];
+   }
+
+   /**
+    * Returns a copy of the histogram of the wait times of an RPC.
+    */
+   public long[] getWaitHistogram(String rpcname)
+   {
+      Entry e = entries.get(rpcname);
+      return e != null ? copy(e.wait_hist) : new long[BUCKETS];
+   }
+
+   /**
+    * Returns an upper bound in microseconds of a percentile of the elapsed
+    * times of an RPC, at the precision of the histogram.
+    *
+    * @param rpcname	The RPC name.
+    * @param p	The percentile, between 0 and 100.
+    * @return long	The bound, or 0 if there has been no call.
+    */
+   public long getPercentile(String rpcname, double p)
+   {
+      return percentile(getHistogram(rpcname), p);
+   }
+
+   /**
+    * Returns an upper bound in microseconds of a percentile of the wait
+    * times of an RPC, at the precision of the histogram.
+    */
+   public long getWaitPercentile(String rpcname, double p)
+   {
+      return percentile(getWaitHistogram(rpcname), p);
+   }
+
+   private static long[] copy(AtomicLongArray a)
+   {
+      long[] h = new long[a.length()];
+      for (int i = 0; i < h.length; i++)
+	h[i] = a.get(i);
+      return h;
+   }
+
+   private static long percentile(long[] h, double p)
+   {
+      long total = 0;
+      for (int i = 0; i < h.length; i++)
+	total += h[i];
+      if (total == 0)
+	return 0;
+      long rank = (long) Math.ceil(total * p / 100);
+      long seen = 0;
+      for (int i = 0; i < h.length; i++)
+	{
+	  seen += h[i];
+	  if (seen >= rank && h[i] > 0)
+	    return getBucketLimit(i);
+	}
+      return getBucketLimit(h.length - 1);
+   }
+
+   /**
+    * Returns all the counters, named RPC.counter (e.g. EXEC.calls,
+    * FTCH.bytes_received), sorted by name.
+    */
+   public Map<String, Long> getCounters()
+   {
+      TreeMap<String, Long> map = new TreeMap<String, Long>();
+      for (Map.Entry<String, Entry> me : entries.entrySet())
+	{
+	  String n = me.getKey();
+	  Entry e = me.getValue();
+	  map.put(n + ".calls", e.calls.get());
+	  map.put(n + ".errors", e.errors.get());
+	  map.put(n + ".dropped", e.dropped.get());
+	  map.put(n + ".rows", e.rows.get());
+	  map.put(n + ".bytes_sent", e.bytes_out.get());
+	  map.put(n + ".bytes_received", e.bytes_in.get());
+	  map.put(n + ".elapsed_ns", e.elapsed.get());
+	  map.put(n + ".wait_ns", e.wait.get());
+	}
+      return map;
+   }
+
+   /**
+    * Clears all the counters and histograms.
+    */
+   public void reset()
+   {
+      entries.clear();
+   }
+
+   /**
+    * Writes the counters and the percentiles of each RPC.
+    *
+    * @param out	The writer.
+    */
+   public void dump(PrintWriter out)
+   {
+      String[] names = getRpcNames();
+      out.println("RPC        calls   errors     rows     sent(B)      recv(B)  avg(us)  p50(us)  p99(us) wait p50(us)");
+      for (int i = 0; i < names.length; i++)
+	{
+	  String n = names[i];
+	  long calls = getCalls(n);
+	  out.println(pad(n, -8) + pad(calls, 8) + pad(getErrors(n), 9) + pad(getRows(n), 9)
+	      + pad(getBytesSent(n), 12) + pad(getBytesReceived(n), 13)
+	      + pad(calls > 0 ? getElapsedNanos(n) / calls / 1000 : 0, 9)
+	      + pad(getPercentile(n, 50), 9) + pad(getPercentile(n, 99), 9)
+	      + pad(getWaitPercentile(n, 50), 14));
+	}
+      out.flush();
+   }
+
+   private static String pad(Object o, int w)
+   {
+      String s = String.valueOf(o);
+      StringBuffer buf = new StringBuffer();
+      if (w < 0)
+	buf.append(s);
+      for (int i = s.length(); i < Math.abs(w); i++)
+	buf.append(' ');
+      if (w >= 0)
+	buf.append(s);
+      return buf.toString();
+   }
+
+   public String toString()
+   {
+      java.io.StringWriter sw = new java.io.StringWriter();
+      dump(new PrintWriter(sw));
+      return sw.toString();
+   }
+
+   private static void logSpan(PrintWriter log, VirtuosoRpcEvent ev)
+   {
+      long start = ev.getStartTime() * 1000000L;
+      StringBuffer buf = new StringBuffer(256);
+      buf.append("{\"name\":\"").append(ev.getRpcName());
+      buf.append("\",\"kind\":\"CLIENT\",\"startTimeUnixNano\":").append(start);
+      buf.append(",\"endTimeUnixNano\":").append(start + ev.getElapsedNanos());
+      buf.append(",\"status\":\"").append(ev.getError() != null ? "ERROR" : "OK");
+      buf.append("\",\"attributes\":{\"db.system\":\"virtuoso\"");
+      buf.append(",\"virtuoso.connection\":").append(ev.getConnection().hashCode());
+      buf.append(",\"virtuoso.request\":").append(ev.getRequestNumber());
+      if (ev.getStatementId() != null)
+	quote(buf.append(",\"virtuoso.statement_id\":"), ev.getStatementId());
+      if (ev.getFingerprint() != null)
+	quote(buf.append(",\"db.statement\":"), ev.getFingerprint());
+      if (ev.getError() != null)
+	quote(buf.append(",\"db.sql_state\":"), ev.getError());
+      buf.append(",\"virtuoso.send_ns\":").append(ev.getSendNanos());
+      buf.append(",\"virtuoso.wait_ns\":").append(ev.getWaitNanos());
+      buf.append(",\"virtuoso.transfer_ns\":").append(ev.getTransferNanos());
+      buf.append(",\"virtuoso.bytes_sent\":").append(ev.getBytesSent());
+      buf.append(",\"virtuoso.bytes_received\":").append(ev.getBytesReceived());
+      buf.append(",\"virtuoso.rows\":").append(ev.getRows());
+      buf.append(",\"virtuoso.complete\":").append(ev.isComplete());
+      buf.append("}}");
+      synchronized (log)
+	{
+	  log.println(buf.toString());
+	}
+   }
+
+   private static void quote(StringBuffer buf, String s)
+   {
+      buf.append('"');
+      for (int i = 0; i < s.length(); i++)
+	{
+	  char c = s.charAt(i);
+	  if (c == '"' || c == '\\')
+	    buf.append('\\').append(c);
+	  else if (c < ' ')
+	    buf.append(' ');
+	  else
+	    buf.append(c);
+	}
+      buf.append('"');
+   }
+}
@@ -221,7 +221,8 @@ public class VirtuosoStatement implements Statement
        sparql_executed =  sql.trim().regionMatches(true, 0, "sparql", 0, 6);
        try
        {
-	   synchronized (connection)
+	   connection.rpc_lock.lock();
+	   try
 	   {
 	       if (close_flag)
 		   throw new VirtuosoException("Statement is already closed",VirtuosoException.CLOSED);
@@ -256,6 +257,10 @@ public class VirtuosoStatement implements Statement
 		   throw new VirtuosoException("Problem during serialization : " + e.getMessage(),VirtuosoException.IOERROR);
 	       }
 	   }
+	   finally
+	   {
+	      connection.rpc_lock.unlock();
+	   }
        }
        catch (Throwable e)
        {
@@ -283,11 +288,15 @@ public class VirtuosoStatement implements Statement
     */
    public void cancel() throws VirtuosoException
    {
+     VirtuosoFuture f = null;
+     // the cancel is sent outside of the monitor, it is a write to the socket
      synchronized (this)
      {
        if (future != null && wait_result == true)
-         future.sendCancelFuture();
+         f = future;
      }
+     if (f != null)
+       f.sendCancelFuture();
 
      cancel_rs();
    }
@@ -304,10 +313,15 @@ public class VirtuosoStatement implements Statement
 
      if(future != null)
        {
-         synchronized (connection)
-       	 {
-	   connection.removeFuture(future);
-	 }
+         connection.rpc_lock.lock();
+         try
+	   {
+	     connection.removeFuture(future);
+	   }
+         finally
+	   {
+	     connection.rpc_lock.unlock();
+	   }
 	 future = null;
        }
    }
@@ -317,7 +331,8 @@ public class VirtuosoStatement implements Statement
      if(close_flag)
        return;
 
-     synchronized (connection)
+     connection.rpc_lock.lock();
+     try
        {
 	 // System.out.println("Close statement : "+this);
 	 try
@@ -354,6 +369,10 @@ public class VirtuosoStatement implements Statement
 	     throw new VirtuosoException("Problem during closing : " + e.getMessage(),VirtuosoException.IOERROR);
 	   }
        }
+     finally
+       {
+         connection.rpc_lock.unlock();
+       }
    }
 
 
@@ -491,7 +510,8 @@ public class VirtuosoStatement implements Statement
    {
        try
        {
-	   synchronized (connection)
+	   connection.rpc_lock.lock();
+	   try
 	   {
 	       try
 	       {
@@ -516,6 +536,10 @@ public class VirtuosoStatement implements Statement
 		   throw new VirtuosoException("Problem during serialization : " + e.getMessage(),VirtuosoException.IOERROR);
 	       }
 	   }
+	   finally
+	   {
+	      connection.rpc_lock.unlock();
+	   }
        } catch (Throwable e) {
 	   notify_error (e);
 	   return false;
@@ -0,0 +1,422 @@
+/*
+ *  $Id$
+ *
+ *  This file is part of the OpenLink Software Virtuoso Open-Source (VOS)
+ *  project.
+ *
+ *  Copyright (C) 1998-2020 OpenLink Software
+ *
+ *  This project is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation; only version 2 of the License, dated June 1991.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package virtuoso.jdbc4;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * The VirtuosoStatementSampler class records the statement executions
+ * which exceed a latency, row count or received bytes threshold into a
+ * ring buffer of fixed size, so the expensive statements can be found
+ * from the client side.
+ * <p>
+ * Each sample holds the statement fingerprint and text, the number of
+ * fetch windows and rows, the bytes sent and received, the rpc timeout
+ * of the statement, and the time split into send, wait (server time plus
+ * one round trip) and transfer (the following fetch windows).
+ * An execution ends when its last row is received, or when its cursor is
+ * closed or reused. The samples are copies of the events, and do not keep
+ * their connections.
+ * <p>
+ * The sampler is set with {@link Driver#setStatementSampler}, and can be
+ * registered as an MBean with {@link #register}. The driver sets and
+ * registers one when it is loaded with one of the system properties
+ * <code>JDBC4_SLOW_MS</code>, <code>JDBC4_SLOW_ROWS</code> or
+ * <code>JDBC4_SLOW_BYTES</code> set to a threshold.
+ *
+ * @version 1.0
+ * @see virtuoso.jdbc4.VirtuosoStatementSamplerMBean
+ */
+public class VirtuosoStatementSampler implements VirtuosoStatementSamplerMBean
+{
+   /**
+    * The name the MBean is registered under.
+    */
+   public static final String OBJECT_NAME = "virtuoso.jdbc4:type=StatementSampler";
+
+   private static final int DefaultCapacity = 128;
+
+   private volatile long latency_ns, rows, bytes;
+
+   // The ring of samples, and the number of samples ever put in it
+   private final Sample[] ring;
+   private long sampled;
+   private long executed;
+
+   /**
+    * Constructs a VirtuosoStatementSampler keeping the last 128 samples.
+    *
+    * @param latency	The elapsed time in milliseconds above which an
+    * execution is recorded, or 0 for none.
+    * @param rows	The number of rows above which an execution is
+    * recorded, or 0 for none.
+    * @param bytes	The number of bytes received above which an execution
+    * is recorded, or 0 for none.
+    */
+   public VirtuosoStatementSampler(long latency, long rows, long bytes)
+   {
+      this(latency, rows, bytes, DefaultCapacity);
+   }
+
+   /**
+    * Constructs a VirtuosoStatementSampler keeping a given number of
+    * samples.
+    *
+    * @param latency	The elapsed time in milliseconds above which an
+    * execution is recorded, or 0 for none.
+    * @param rows	The number of rows above which an execution is
+    * recorded, or 0 for none.
+    * @param bytes	The number of bytes received above which an execution
+    * is recorded, or 0 for none.
+    * @param capacity	The number of samples kept.
+    */
+   public VirtuosoStatementSampler(long latency, long rows, long bytes, int capacity)
+   {
+      setLatencyThreshold(latency);
+      setRowThreshold(rows);
+      setByteThreshold(bytes);
+      ring = new Sample[capacity > 0 ? capacity : DefaultCapacity];
+   }
+
+   /**
+    * Records an execution if it exceeds one of the thresholds.
+    *
+    * @param ev	The event of the EXEC call.
+    */
+   void sample(VirtuosoRpcEvent ev)
+   {
+      long l = latency_ns, r = rows, b = bytes;
+      boolean slow = (l > 0 && ev.getElapsedNanos() >= l)
+	  || (r > 0 && ev.getRows() >= r)
+	  || (b > 0 && ev.getBytesReceived() >= b);
+      synchronized (ring)
+	{
+	  executed++;
+	  if (slow)
+	    ring[(int) (sampled++ % ring.length)] = new Sample(ev);
+	}
+   }
+
+   public long getLatencyThreshold()
+   {
+      return latency_ns / 1000000L;
+   }
+
+   public void setLatencyThreshold(long millis)
+   {
+      latency_ns = millis > 0 ? millis * 1000000L : 0;
+   }
+
+   public long getRowThreshold()
+   {
+      return rows;
+   }
+
+   public void setRowThreshold(long rows)
+   {
+      this.rows = rows > 0 ? rows : 0;
+   }
+
+   public long getByteThreshold()
+   {
+      return bytes;
+   }
+
+   public void setByteThreshold(long bytes)
+   {
+      this.bytes = bytes > 0 ? bytes : 0;
+   }
+
+   public int getCapacity()
+   {
+      return ring.length;
+   }
+
+   public long getSampled()
+   {
+      synchronized (ring)
+	{
+	  return sampled;
+	}
+   }
+
+   public long getExecuted()
+   {
+      synchronized (ring)
+	{
+	  return executed;
+	}
+   }
+
+   /**
+    * Returns the samples kept, oldest first.
+    *
+    * @return Sample[]	The samples.
+    */
+   public Sample[] getEvents()
+   {
+      synchronized (ring)
+	{
+	  int n = (int) Math.min(sampled, ring.length);
+	  Sample[] evs = new Sample[n];
+	  for (int i = 0; i < n; i++)
+	    evs[i] = ring[(int) ((sampled - n + i) % ring.length)];
+	  return evs;
+	}
+   }
+
+   public String[] getSamples()
+   {
+      Sample[] evs = getEvents();
+      String[] lines = new String[evs.length];
+      SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+      for (int i = 0; i < evs.length; i++)
+	lines[i] = format(fmt, evs[i]);
+      return lines;
+   }
+
+   private static String format(SimpleDateFormat fmt, Sample ev)
+   {
+      StringBuffer buf = new StringBuffer(256);
+      buf.append(fmt.format(new Date(ev.getStartTime())));
+      buf.append(" conn=").append(ev.getConnectionId());
+      buf.append(" stmt=").append(ev.getStatementId());
+      buf.append(" elapsed=").append(ev.getElapsedNanos() / 1000).append("us");
+      buf.append(" (send=").append(ev.getSendNanos() / 1000);
+      buf.append(" wait=").append(ev.getWaitNanos() / 1000);
+      buf.append(" transfer=").append(ev.getTransferNanos() / 1000).append(")");
+      buf.append(" windows=").append(ev.getWindows());
+      buf.append(" rows=").append(ev.getRows());
+      buf.append(" sent=").append(ev.getBytesSent());
+      buf.append(" received=").append(ev.getBytesReceived());
+      if (ev.getTimeout() > 0)
+	buf.append(" timeout=").append(ev.getTimeout()).append("ms");
+      if (ev.getError() != null)
+	buf.append(" error=").append(ev.getError());
+      if (!ev.isComplete())
+	buf.append(" closed");
+      buf.append(" [").append(ev.getFingerprint()).append("]");
+      return buf.toString();
+   }
+
+   /**
+    * Writes the samples kept, oldest first, followed by their statement
+    * texts.
+    *
+    * @param out	The writer.
+    */
+   public void dump(PrintWriter out)
+   {
+      Sample[] evs = getEvents();
+      SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+      out.println("-- " + evs.length + " samples of " + getSampled() + " slow executions out of "
+	  + getExecuted() + " (latency >= " + getLatencyThreshold() + "ms, rows >= " + rows
+	  + ", bytes >= " + bytes + ")");
+      for (int i = 0; i < evs.length; i++)
+	{
+	  out.println(format(fmt, evs[i]));
+	  out.println("   " + evs[i].getStatementText());
+	}
+      out.flush();
+   }
+
+   public String dump()
+   {
+      StringWriter sw = new StringWriter();
+      dump(new PrintWriter(sw));
+      return sw.toString();
+   }
+
+   public void dumpTo(String file) throws IOException
+   {
+      PrintWriter out = new PrintWriter(new FileOutputStream(file, true));
+      try
+	{
+	  dump(out);
+	}
+      finally
+	{
+	  out.close();
+	}
+   }
+
+   public void clear()
+   {
+      synchronized (ring)
+	{
+	  for (int i = 0; i < ring.length; i++)
+	    ring[i] = null;
+	  sampled = 0;
+	  executed = 0;
+	}
+   }
+
+   /**
+    * Registers this sampler in the platform MBean server under
+    * {@link #OBJECT_NAME}, in place of any other.
+    *
+    * @exception java.lang.Exception The MBean could not be registered.
+    */
+   public void register() throws Exception
+   {
+      javax.management.MBeanServer mbs = java.lang.management.ManagementFactory.getPlatformMBeanServer();
+      javax.management.ObjectName name = new javax.management.ObjectName(OBJECT_NAME);
+      if (mbs.isRegistered(name))
+	mbs.unregisterMBean(name);
+      mbs.registerMBean(this, name);
+   }
+
+   public String toString()
+   {
+      return dump();
+   }
+
+   /**
+    * The Sample class holds the figures of a sampled execution, copied
+    * from its {@link VirtuosoRpcEvent}.
+    */
+   public static final class Sample
+   {
+      private final int connection_id;
+      private final String statid;
+      private final String text;
+      private final String fingerprint;
+      private final int timeout;
+      private final long start_time;
+      private final long send_ns, wait_ns, transfer_ns, elapsed_ns;
+      private final long bytes_out, bytes_in;
+      private final int rows, windows;
+      private final String error;
+      private final boolean complete;
+
+      Sample(VirtuosoRpcEvent ev)
+      {
+	connection_id = ev.getConnection() != null ? ev.getConnection().hashCode() : 0;
+	statid = ev.getStatementId();
+	text = ev.getStatementText();
+	fingerprint = ev.getFingerprint();
+	timeout = ev.getTimeout();
+	start_time = ev.getStartTime();
+	send_ns = ev.getSendNanos();
+	wait_ns = ev.getWaitNanos();
+	transfer_ns = ev.getTransferNanos();
+	elapsed_ns = ev.getElapsedNanos();
+	bytes_out = ev.getBytesSent();
+	bytes_in = ev.getBytesReceived();
+	rows = ev.getRows();
+	windows = ev.getWindows();
+	error = ev.getError();
+	complete = ev.isComplete();
+      }
+
+      /**
+       * Returns the identity hash code of the connection which made the
+       * call.
+       */
+      public int getConnectionId()
+      {
+	return connection_id;
+      }
+
+      public String getStatementId()
+      {
+	return statid;
+      }
+
+      public String getStatementText()
+      {
+	return text;
+      }
+
+      public String getFingerprint()
+      {
+	return fingerprint;
+      }
+
+      public int getTimeout()
+      {
+	return timeout;
+      }
+
+      public long getStartTime()
+      {
+	return start_time;
+      }
+
+      public long getSendNanos()
+      {
+	return send_ns;
+      }
+
+      public long getWaitNanos()
+      {
+	return wait_ns;
+      }
+
+      public long getTransferNanos()
+      {
+	return transfer_ns;
+      }
+
+      public long getElapsedNanos()
+      {
+	return elapsed_ns;
+      }
+
+      public long getBytesSent()
+      {
+	return bytes_out;
+      }
+
+      public long getBytesReceived()
+      {
+	return bytes_in;
+      }
+
+      public int getRows()
+      {
+	return rows;
+      }
+
+      public int getWindows()
+      {
+	return windows;
+      }
+
+      public String getError()
+      {
+	return error;
+      }
+
+      public boolean isComplete()
+      {
+	return complete;
+      }
+   }
+}
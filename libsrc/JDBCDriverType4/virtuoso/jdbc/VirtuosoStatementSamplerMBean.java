@@ -0,0 +1,106 @@
+/*
+ *  $Id$
+ *
+ *  This file is part of the OpenLink Software Virtuoso Open-Source (VOS)
+ *  project.
+ *
+ *  Copyright (C) 1998-2020 OpenLink Software
+ *
+ *  This project is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation; only version 2 of the License, dated June 1991.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package virtuoso.jdbc4;
+
+/**
+ * The management interface of the {@link VirtuosoStatementSampler}.
+ *
+ * @version 1.0
+ */
+public interface VirtuosoStatementSamplerMBean
+{
+   /**
+    * Returns the elapsed time in milliseconds above which an execution
+    * is recorded, or 0 for none.
+    */
+   public long getLatencyThreshold();
+
+   /**
+    * Sets the elapsed time in milliseconds above which an execution is
+    * recorded, or 0 for none.
+    */
+   public void setLatencyThreshold(long millis);
+
+   /**
+    * Returns the number of rows above which an execution is recorded,
+    * or 0 for none.
+    */
+   public long getRowThreshold();
+
+   /**
+    * Sets the number of rows above which an execution is recorded, or 0
+    * for none.
+    */
+   public void setRowThreshold(long rows);
+
+   /**
+    * Returns the number of bytes received above which an execution is
+    * recorded, or 0 for none.
+    */
+   public long getByteThreshold();
+
+   /**
+    * Sets the number of bytes received above which an execution is
+    * recorded, or 0 for none.
+    */
+   public void setByteThreshold(long bytes);
+
+   /**
+    * Returns the number of samples kept.
+    */
+   public int getCapacity();
+
+   /**
+    * Returns the number of executions recorded since the last clear,
+    * including the ones no longer kept.
+    */
+   public long getSampled();
+
+   /**
+    * Returns the number of executions seen since the last clear.
+    */
+   public long getExecuted();
+
+   /**
+    * Returns the samples kept, oldest first, one line each.
+    */
+   public String[] getSamples();
+
+   /**
+    * Returns the samples kept, oldest first, as a report.
+    */
+   public String dump();
+
+   /**
+    * Writes the samples kept, oldest first, to a file.
+    *
+    * @param file	The name of the file, appended to.
+    */
+   public void dumpTo(String file) throws java.io.IOException;
+
+   /**
+    * Drops the samples and resets the counters.
+    */
+   public void clear();
+}
@@ -386,7 +386,8 @@ public class VirtuosoXAResource implements XAResource
         args[1] = encodedXid;
 
         try {
-            synchronized (connection) {
+            connection.rpc_lock.lock();
+            try {
                 VirtuosoFuture future =
                     connection.getFuture(
                         VirtuosoFuture.tp_transaction,
@@ -398,6 +399,8 @@ public class VirtuosoXAResource implements XAResource
                     throw new XAException();
                 }
                 connection.removeFuture(future);
+            } finally {
+              connection.rpc_lock.unlock();
             }
         } catch (IOException ex) {
             //System.out.println("VirtuosoXAResource.rpc(): Exception caught: " + ex);